@@ -0,0 +1,224 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.FotoAlmacenada;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.HistorialPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.EscriturasMongo;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.IdempotenciaService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.TipoEscritura;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/* A diferencia de las bases de datos relaciones donde teníamos un archivo import.sql(en resources) con los inserts iniciales para poblar las tablas con los datos iniciales,
+ * en este caso,con la base de datos MongoDB(no relaciones y reactivas),insertamos los documentos iniciales en las colecciones de dicha base de datos desde esta clase
+ * 
+ * Antes se hacía desde el método "run()" de la interfaz "CommandLineRunner" suscribiéndonos a cada flujo reactivo sin esperar a que terminase,de manera que la eliminación de las colecciones podía ejecutarse a la vez que las inserciones
+ * Ahora los pasos se encadenan en un único flujo reactivo(eliminar colecciones,crear índices e insertar en lotes) y esperamos a que termine antes de que arranque el servidor http y la aplicación se registre en Eureka
+ * 
+ * La propiedad "config.datos.generador" indica qué datos se cargan:
+ *  - "demo"(por defecto): las 4 categorías y los 9 productos de ejemplo de siempre
+ *  - "sintetico": un catálogo generado de manera determinista a partir de una semilla,con el número de productos y categorías y las distribuciones de precios y fechas configurables(véase el perfil "sintetico" en "application-sintetico.properties")
+ *  - "ninguno": no se modifica la base de datos
+ */
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class CargaDatos implements SmartInitializingSingleton{ // El método "afterSingletonsInstantiated()" de esta interfaz se ejecuta cuando ya se han creado todos los beans,pero antes de arrancar el servidor http
+	
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(CargaDatos.class);
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "ProductoService".Esta interfaz es implementada por la clase "ProductoServiceImpl"
+	@Autowired
+	private ProductoService productoService; // Este bean representa la capa Servicio para la clase entidad "Producto" que realiza operaciones CRUD en la base de datos a través de la capa Dao
+	
+	@Autowired
+	private IdempotenciaService idempotenciaService; // Este bean vuelve a crear el índice TTL de las claves de idempotencia después de eliminar su colección
+	
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate; // Este bean es propio de Spring y nos permite,entre otras cosas,eliminar una colección de una base de datos MongoDB
+	
+	@Autowired
+	private EscriturasMongo escrituras; // Este bean nos da la plantilla de MongoDB con el write concern de las importaciones masivas para insertar los datos sintéticos
+	
+	// La anotación @Value nos permite inyectar el valor de cualquier propiedad definida en el archivo de propiedades "application.properties"
+	@Value("${config.datos.generador:demo}")
+	private String generador;
+	
+	@Value("${config.datos.productos:100000}")
+	private int numeroProductos;
+	
+	@Value("${config.datos.categorias:20}")
+	private int numeroCategorias;
+	
+	// Semilla del generador de números aleatorios.Con la misma semilla y la misma configuración siempre se generan los mismos datos
+	@Value("${config.datos.semilla:42}")
+	private long semilla;
+	
+	// Distribución de los precios: "uniforme" entre el mínimo y el máximo o "lognormal" con la mediana y la desviación indicadas(pocos productos caros y muchos baratos,como en un catálogo real).En ambos casos,el precio se limita al rango [min,max]
+	@Value("${config.datos.precio.distribucion:lognormal}")
+	private String distribucionPrecio;
+	
+	@Value("${config.datos.precio.min:1}")
+	private double precioMin;
+	
+	@Value("${config.datos.precio.max:5000}")
+	private double precioMax;
+	
+	@Value("${config.datos.precio.mediana:100}")
+	private double precioMediana;
+	
+	@Value("${config.datos.precio.sigma:1.0}")
+	private double precioSigma;
+	
+	// Las fechas de creación se reparten de manera uniforme en los días anteriores a la fecha de referencia.Usamos una fecha fija en lugar de la fecha actual para que los datos sean siempre los mismos
+	@Value("${config.datos.fecha.referencia:2019-01-01}")
+	private String fechaReferencia;
+	
+	@Value("${config.datos.fecha.dias:365}")
+	private int dias;
+	
+	// Número de productos por lote y número de lotes que se insertan a la vez
+	@Value("${config.datos.tamano-lote:1000}")
+	private int tamanoLote;
+	
+	@Value("${config.datos.concurrencia:4}")
+	private int concurrencia;
+	
+	// Tiempo máximo,en segundos,que esperamos a que termine la carga de datos.Si se supera,la aplicación no arranca
+	@Value("${config.datos.espera-maxima-segundos:600}")
+	private long esperaMaximaSegundos;
+	
+	@Override
+	public void afterSingletonsInstantiated() {
+		Mono<Void> carga;
+		switch(generador) {
+			case "ninguno":
+				log.info("Carga de datos deshabilitada");
+				return;
+			case "demo":
+				carga = cargarDemo();
+				break;
+			case "sintetico":
+				carga = cargarSintetico();
+				break;
+			default:
+				throw new IllegalArgumentException("Valor no válido de la propiedad config.datos.generador: " + generador);
+		}
+		
+		// Eliminamos las colecciones con sus documentos anteriores y,cuando termina la eliminación,volvemos a crear sus índices y cargamos los datos
+		// Además de los productos y las categorías,eliminamos las colecciones que hacen referencia a ellos: el historial de precios,las respuestas guardadas de las claves de idempotencia(con los ids de los productos creados) y los contadores de referencias de las imágenes
+		// Las imágenes almacenadas no se eliminan.Al no tener contador,se tratan como las imágenes anteriores a los contadores y nunca se eliminan(véase la clase "FotoServiceImpl")
+		// Con el método "block()" esperamos a que termine todo el proceso,de esta manera,el servidor http no arranca hasta que la base de datos está lista
+		Flux.just(Producto.class,Categoria.class,HistorialPrecio.class,Idempotencia.class,FotoAlmacenada.class)
+			.concatMap(mongoTemplate::dropCollection)
+			.then(productoService.crearIndices())
+			.then(idempotenciaService.crearIndices())
+			.then(carga)
+			.block(Duration.ofSeconds(esperaMaximaSegundos));
+	}
+	
+	// Carga las categorías y los productos de ejemplo
+	private Mono<Void> cargarDemo() {
+		// Creamos unas categorías de prueba
+		Categoria electronico = new Categoria("Electrónico");
+		Categoria deporte = new Categoria("Deporte");
+		Categoria computacion = new Categoria("Computación");
+		Categoria muebles = new Categoria("Muebles");
+		
+		// Como estamos usando una base de datos MongoDB que es reactiva,definimos un flujo o stream reactivo Flux con los datos de prueba tipo Categoria para insertarlos en la colección "categorias"
+		return Flux.just(electronico,deporte,computacion,muebles)
+		// Usamos el operador "flatMap" en vez de "map" ya que el método "saveCategoria()" de nuestra capa Dao "productoService" nos devuelve un flujo reactivo Modo de tipo Categoria por cada categoría que se acaba de insertar en la base de datos
+		.flatMap(categoria -> productoService.saveCategoria(categoria)) // Persistimos el objeto 'categoria' en la base de datos
+		// Con el método "doOnNext()" realizamos la tarea de escribir en el log a modo de información el nombre y el id de cada elemento de tipo Categoria emitido por este flujo reactivo
+		.doOnNext(categoria -> log.info("Categoria creada: " + categoria.getNombre() + ",Id=" + categoria.getId()))
+		// El método "thenMany" espera a que el flujo reactivo original termine de emitir su último elemento para comenzar a procesar un nuevo flujo reactivo Flux
+		.thenMany(
+			Flux.just(new Producto("TV Panasonic Pantalla LCD", 456.89,electronico),
+					new Producto("Sony Camara HD Digital", 177.89,electronico),
+					new Producto("Apple iPod", 46.89,electronico),
+					new Producto("Sony Notebook", 846.89,computacion),
+					new Producto("Hewlett Packard Multifuncional", 200.89,computacion),
+					new Producto("Bianchi Bicicleta", 70.89,deporte),
+					new Producto("HP Notebook Omen 17", 2500.89,computacion),
+					new Producto("Mica Cómoda 5 Cajones", 150.89,muebles),
+					new Producto("TV Sony Bravia OLED 4K Ultra HD", 2255.89,electronico))
+			.flatMap(producto ->{
+				producto.setCreateAt(new Date()); // Registramos la fecha actual en la propiedad 'createAt' del producto antes de persistirlo en la base de datos
+				return productoService.save(producto); // Persistimos el objeto 'producto' en la base de datos
+			})
+		)
+		// Realizamos la tarea de escribir en el log a modo de información el nombre y el precio de cada elemento de tipo Producto emitido por este flujo reactivo
+		.doOnNext(producto -> log.info("Insert: " + producto.getNombre() + " " + producto.getPrecio()))
+		.then();
+	}
+	
+	// Genera e inserta en lotes el catálogo sintético
+	private Mono<Void> cargarSintetico() {
+		return Mono.defer(() -> {
+			// Todos los valores aleatorios salen de un único generador con semilla fija y se generan en orden dentro del operador "map",de esta manera,los datos no dependen del orden en que terminen las inserciones
+			Random random = new Random(semilla);
+			long referencia = LocalDate.parse(fechaReferencia).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+			long rangoFechas = Duration.ofDays(dias).toMillis();
+			
+			List<Categoria> categorias = IntStream.rangeClosed(1,numeroCategorias)
+					.mapToObj(i -> new Categoria("Categoría " + i))
+					.collect(Collectors.toList());
+			AtomicLong insertados = new AtomicLong();
+			long inicio = System.nanoTime();
+			
+			return escrituras.plantilla(TipoEscritura.IMPORTACION).insertAll(categorias)
+					.then(Flux.range(1,numeroProductos)
+							.map(i -> {
+								Producto producto = new Producto("Producto " + i,precio(random),categorias.get(random.nextInt(categorias.size())));
+								producto.setCreateAt(new Date(referencia - (long)(random.nextDouble() * rangoFechas)));
+								return producto;
+							})
+							.buffer(tamanoLote)
+							// Insertamos varios lotes a la vez para aprovechar la red y el servidor de MongoDB.El operador "flatMap" limita el número de lotes en vuelo y,por lo tanto,la memoria usada
+							.flatMap(lote -> escrituras.plantilla(TipoEscritura.IMPORTACION).insertAll(lote).count(),concurrencia)
+							.doOnNext(n -> {
+								long total = insertados.addAndGet(n);
+								if(total % (tamanoLote * 100L) < n)
+									log.info("Carga de datos: " + total + " de " + numeroProductos + " productos insertados");
+							})
+							.then())
+					.doOnSuccess(v -> {
+						double segundos = (System.nanoTime() - inicio) / 1e9;
+						log.info(String.format("Carga de datos sintéticos terminada: %d categorías y %d productos en %.1f s (%.0f productos/s, semilla %d)",
+								categorias.size(),insertados.get(),segundos,insertados.get() / segundos,semilla));
+					});
+		});
+	}
+	
+	// Genera un precio con la distribución configurada,redondeado a dos decimales
+	private double precio(Random random) {
+		double precio = "uniforme".equals(distribucionPrecio)
+				? precioMin + random.nextDouble() * (precioMax - precioMin)
+				: precioMediana * Math.exp(precioSigma * random.nextGaussian());
+		precio = Math.min(precioMax,Math.max(precioMin,precio));
+		return Math.round(precio * 100) / 100.0;
+	}
+	
+}
@@ -0,0 +1,208 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.PeticionesEnCursoFilter;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.EventosProductoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.PrecioService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.VariantesFotoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.ProductoRSocket;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.ServidorRSocket;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.netflix.appinfo.InstanceInfo.InstanceStatus;
+import com.netflix.discovery.EurekaClient;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/* Cierre ordenado de la aplicación para que los despliegues no corten las peticiones en curso
+ *
+ * Spring Boot 2.1 no tiene cierre ordenado: al detener la aplicación destruye los beans(cerrando la conexión con MongoDB) y después detiene el servidor,cortando los flujos "listar" y las subidas a medias
+ * Además,Eureka sigue enviando peticiones a la instancia hasta que los clientes refrescan su copia del registro
+ *
+ * Al recibir el evento de cierre del contexto,que Spring publica antes de destruir los beans,se ejecutan estas fases en orden:
+ *  1. registro: la instancia se marca como DOWN en Eureka y se espera a que los clientes refresquen el registro y dejen de enviarle peticiones
+ *  2. puerto: se cierran los puertos de los servidores http y RSocket para no aceptar conexiones nuevas.Las conexiones abiertas siguen atendiéndose,pero las respuestas http llevan la cabecera "Connection: close"
+ *     Además,se terminan los flujos de eventos de los clientes suscritos a los cambios de productos,que nunca terminan por sí solos
+ *  3. drenaje: se espera,como mucho el plazo configurado,a que terminen las peticiones http y RSocket en curso(incluidos los flujos y las subidas)
+ *  4. volcado: se escriben las actualizaciones de precios pendientes y se espera a que terminen las variantes de imágenes en curso,que también escriben en la base de datos
+ *  5. mongo: se cierra la conexión con MongoDB
+ * Cada fase se registra en el log y su duración en la métrica "aplicacion.cierre" con la etiqueta "fase"
+ */
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class CierreOrdenado implements ApplicationListener<ContextClosedEvent>, Ordered {
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(CierreOrdenado.class);
+
+	@Autowired
+	private ApplicationContext contexto; // El contexto de esta aplicación.Solo atendemos su evento de cierre y no el de otros contextos(por ejemplo,los de Spring Cloud)
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar la duración de cada fase del cierre
+
+	// El cliente de Eureka solo existe si está habilitado,por eso lo recuperamos con un ObjectProvider
+	@Autowired
+	private ObjectProvider<EurekaClient> eurekaClient;
+
+	@Autowired
+	private ServidorNettyConfig servidorNetty; // Este bean permite cerrar el puerto del servidor sin cortar las conexiones abiertas
+
+	@Autowired
+	private PeticionesEnCursoFilter peticiones; // Este bean cuenta las peticiones http en curso
+
+	@Autowired
+	private ServidorRSocket servidorRSocket; // Este bean permite cerrar el puerto del servidor RSocket sin cortar las conexiones abiertas
+
+	@Autowired
+	private ProductoRSocket productoRSocket; // Este bean cuenta las peticiones RSocket en curso
+
+	@Autowired
+	private EventosProductoService eventosProductoService; // Este bean reparte los cambios de productos entre los clientes suscritos
+
+	@Autowired
+	private PrecioService precioService; // Este bean acumula en memoria las actualizaciones de precios pendientes de escribir
+
+	@Autowired
+	private VariantesFotoService variantesFotoService; // Este bean genera en segundo plano las variantes de las imágenes y las registra en la base de datos
+
+	@Autowired
+	private ObjectProvider<MongoClient> mongoClient;
+
+	@Value("${config.cierre.habilitado:true}")
+	private boolean habilitado;
+
+	// Segundos que se espera tras marcar la instancia como DOWN en Eureka.Tiene que cubrir el refresco del registro en los clientes("eureka.client.registry-fetch-interval-seconds",30 segundos por defecto,más la caché de Ribbon)
+	@Value("${config.cierre.espera-registro-segundos:30}")
+	private long esperaRegistroSegundos;
+
+	// Plazo máximo en segundos para que terminen las peticiones en curso.Las que no terminen en este plazo se cortan
+	@Value("${config.cierre.plazo-segundos:30}")
+	private long plazoSegundos;
+
+	private final AtomicBoolean cerrado = new AtomicBoolean();
+
+	// Se ejecuta antes que el resto de componentes que atienden el evento de cierre,como el registro automático de Spring Cloud en Eureka
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextClosedEvent evento) {
+		if(!habilitado || evento.getApplicationContext() != contexto || !cerrado.compareAndSet(false,true))
+			return;
+		log.info("Iniciando el cierre ordenado de la aplicación: " + enCurso() + " peticiones en curso y " + (servidorNetty.getConexiones() + servidorRSocket.getConexiones()) + " conexiones abiertas");
+		fase("registro",this::salirDelRegistro);
+		fase("puerto",this::dejarDeAceptar);
+		fase("drenaje",this::drenar);
+		fase("volcado",this::volcar);
+		fase("mongo",this::cerrarMongo);
+		log.info("Cierre ordenado terminado");
+	}
+
+	// Ejecuta una fase registrando su inicio,su fin y su duración.Un error en una fase no impide ejecutar las siguientes
+	private void fase(String nombre, Fase fase) {
+		log.info("Cierre ordenado,fase \"" + nombre + "\": iniciando");
+		long inicio = System.nanoTime();
+		try {
+			fase.ejecutar();
+			log.info("Cierre ordenado,fase \"" + nombre + "\": terminada en " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) + " ms");
+		}
+		catch(Exception e) {
+			log.error("Cierre ordenado,fase \"" + nombre + "\": error tras " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) + " ms",e);
+		}
+		finally {
+			Timer.builder("aplicacion.cierre")
+				.description("Duración de cada fase del cierre ordenado de la aplicación")
+				.tag("fase",nombre)
+				.register(registry)
+				.record(System.nanoTime() - inicio,TimeUnit.NANOSECONDS);
+		}
+	}
+
+	// Marcamos la instancia como DOWN.El cliente de Eureka envía el cambio al servidor de inmediato,pero los demás clientes solo lo ven cuando refrescan su copia del registro
+	// Solo usamos la interfaz "EurekaClient" y su "ApplicationInfoManager".La implementación "DiscoveryClient" tiene anotaciones de Servo,una dependencia que no tenemos al compilar,y referenciarla provoca avisos del compilador
+	private void salirDelRegistro() throws InterruptedException {
+		EurekaClient cliente = eurekaClient.getIfAvailable();
+		if(cliente == null) {
+			log.info("Cierre ordenado: el cliente de Eureka no está habilitado");
+			return;
+		}
+		// Estado de esta instancia en la última copia del registro descargada del servidor.Es UNKNOWN si la instancia no aparece en él,es decir,si nunca llegó a registrarse
+		// Si el cliente no descarga el registro,no podemos saberlo y esperamos igualmente
+		boolean registrada = !cliente.getEurekaClientConfig().shouldFetchRegistry() || cliente.getInstanceRemoteStatus() != InstanceStatus.UNKNOWN;
+		cliente.getApplicationInfoManager().setInstanceStatus(InstanceStatus.DOWN);
+		// Si la instancia nunca llegó a registrarse en Eureka,nadie le envía peticiones a través del registro y no hace falta esperar
+		if(!registrada) {
+			log.info("Cierre ordenado: la instancia no estaba registrada en Eureka");
+			return;
+		}
+		log.info("Cierre ordenado: instancia marcada como DOWN en Eureka,esperando " + esperaRegistroSegundos + " segundos a que los clientes refresquen el registro");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(esperaRegistroSegundos));
+	}
+
+	private void dejarDeAceptar() {
+		peticiones.cerrando();
+		servidorNetty.dejarDeAceptar();
+		servidorRSocket.dejarDeAceptar();
+		eventosProductoService.cerrar();
+	}
+
+	// Esperamos a que terminen las peticiones en curso o a que venza el plazo
+	private void drenar() throws InterruptedException {
+		long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(plazoSegundos);
+		long siguienteLog = 0;
+		while(enCurso() > 0 && System.nanoTime() < limite) {
+			if(System.nanoTime() >= siguienteLog) {
+				log.info("Cierre ordenado: esperando a " + enCurso() + " peticiones en curso");
+				siguienteLog = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			}
+			Thread.sleep(50);
+		}
+		int pendientes = enCurso();
+		if(pendientes > 0) {
+			log.warn("Cierre ordenado: " + pendientes + " peticiones no han terminado en el plazo de " + plazoSegundos + " segundos y se cortarán");
+			Counter.builder("aplicacion.cierre.peticiones.cortadas")
+				.description("Peticiones que no han terminado en el plazo del cierre ordenado")
+				.register(registry)
+				.increment(pendientes);
+		}
+	}
+
+	// Peticiones http y RSocket en curso
+	private int enCurso() {
+		return peticiones.getEnCurso() + productoRSocket.getEnCurso();
+	}
+
+	private void volcar() throws InterruptedException {
+		precioService.cerrar();
+		variantesFotoService.cerrar();
+	}
+
+	private void cerrarMongo() {
+		MongoClient cliente = mongoClient.getIfAvailable();
+		if(cliente != null)
+			cliente.close();
+	}
+
+	// Fase del cierre ordenado
+	@FunctionalInterface
+	private interface Fase {
+		void ejecutar() throws Exception;
+	}
+}
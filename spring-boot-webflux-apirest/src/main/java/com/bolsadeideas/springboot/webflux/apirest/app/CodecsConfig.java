@@ -0,0 +1,37 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.codec.Jackson2CborDecoder;
+import com.bolsadeideas.springboot.webflux.apirest.app.codec.Jackson2CborEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// Clase de configuración que registra los codecs de los formatos binarios CBOR y Smile junto a los de Json
+// Los codecs se registran como "custom codecs",así que los de Json siguen siendo los primeros y se usan siempre que el cliente no pida expresamente un formato binario
+
+@Configuration // Indicamos que esta clase es una clase de Configuración de Spring y,de esta manera,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class CodecsConfig {
+
+	// Spring Boot aplica este bean a la configuración de codecs del servidor(controladores y Functional Endpoints) y a la de los WebClient que se creen con su "WebClient.Builder"
+	// El "Jackson2ObjectMapperBuilder" que nos inyecta Spring Boot ya tiene aplicada la configuración de Jackson de la aplicación(módulos,formato de fechas,etc),así que los formatos binarios serializan los productos igual que el Json
+	// Como este builder es de tipo "prototype",cada llamada a "getObject()" nos da una copia distinta,así que cambiar su factoría no afecta al ObjectMapper de Json
+	@Bean // Con esta anotación almacenamos como un bean la salida o respuesta de este método en la memoria o contenedor de Spring para que sea gestionado por Spring
+	public CodecCustomizer codecsBinarios(ObjectProvider<Jackson2ObjectMapperBuilder> builder) {
+		ObjectMapper cbor = builder.getObject().factory(new CBORFactory()).build();
+		ObjectMapper smile = builder.getObject().factory(new SmileFactory()).build();
+		return configurer -> {
+			configurer.customCodecs().encoder(new Jackson2CborEncoder(cbor));
+			configurer.customCodecs().decoder(new Jackson2CborDecoder(cbor));
+			configurer.customCodecs().encoder(new Jackson2SmileEncoder(smile));
+			configurer.customCodecs().decoder(new Jackson2SmileDecoder(smile));
+		};
+	}
+}
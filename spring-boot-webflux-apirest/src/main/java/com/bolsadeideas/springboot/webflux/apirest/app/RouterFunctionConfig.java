@@ -8,6 +8,8 @@ import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteConcurrencia;
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.MetricasRutas;
 import com.bolsadeideas.springboot.webflux.apirest.app.handler.ProductoHandler;
 
 //Esta clase de configuración de Spring es otra alternativa para implementar una Api Rest con programación reactiva, mediante la técnica "Functional Endpoints", en lugar de usar la típica clase anotada con la anotación @RestController
@@ -20,10 +22,22 @@ public class RouterFunctionConfig {
 	// Opcionalmente,podemos poner la anotación @Autowired para que se realice esta inyección,pero no es necesaria porque la realiza automáticamente Spring
 	@Autowired
 	@Bean // Con esta anotación almacenamos como un bean la salida o respuesta de este método en la memoria o contenedor de Spring para que sea gestionado por Spring
-	public RouterFunction<ServerResponse> routes(ProductoHandler handler){
+	// El argumento "limiteConcurrencia" es el límite de concurrencia adaptativo que se aplica a todas las rutas para rechazar con el estado 503 las peticiones que la base de datos no puede atender a tiempo
+	// El argumento "metricasRutas" registra la latencia,las peticiones en curso,los estados y los tamaños de cada ruta,etiquetados con la plantilla de la ruta
+	public RouterFunction<ServerResponse> routes(ProductoHandler handler, LimiteConcurrencia limiteConcurrencia, MetricasRutas metricasRutas){
 		// Invocamos al método "route()" de la clase "RouterFunctions" de Spring para configurar nuestros mapeos de rutas(los que hay a continuación) y devolvemos el resultado
 		// Mapeamos las rutas o paths "/api/v2/productos" y "/api/v3/productos" para peticiones http de tipo Get con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "listar()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos de todos los productos de la base de datos.Al método "listar()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
 		return RouterFunctions.route(RequestPredicates.GET("/api/v2/productos").or(RequestPredicates.GET("/api/v3/productos")),request -> handler.listar(request)) // Esta función lambda "request -> handler.listar(request)" se puede simplificar aún más por esta "handler::listar" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "listar() del bean "handler"
+				// Mapeamos la ruta o path "/api/v2/productos/eliminados" para peticiones http de tipo Get con el método "eliminados()" del bean "handler",que devuelve los productos eliminados de manera lógica desde una fecha.Tiene que ir antes de la ruta "/api/v2/productos/{id}" para que "eliminados" no se interprete como un id
+				.andRoute(RequestPredicates.GET("/api/v2/productos/eliminados"), handler::eliminados)
+				// Mapeamos la ruta o path "/api/v2/productos/exportacion" para peticiones http de tipo Get con el método "exportar()" del bean "handler",que exporta el catálogo completo en formato CSV o NDJSON.También tiene que ir antes de la ruta "/api/v2/productos/{id}"
+				.andRoute(RequestPredicates.GET("/api/v2/productos/exportacion"), handler::exportar)
+				// Mapeamos la ruta o path "/api/v2/productos/events" para peticiones http de tipo Get con el método "eventos()" del bean "handler",que envía en vivo los cambios de productos como Server-Sent Events.También tiene que ir antes de la ruta "/api/v2/productos/{id}"
+				.andRoute(RequestPredicates.GET("/api/v2/productos/events"), handler::eventos)
+				// Mapeamos la ruta o path "/api/v2/productos/fotos/{nombre}" para peticiones http de tipo Get con el método "fotoPorNombre()" del bean "handler",que devuelve una imagen por su nombre y se puede cachear para siempre
+				.andRoute(RequestPredicates.GET("/api/v2/productos/fotos/{nombre}"), handler::fotoPorNombre)
+				// Mapeamos la ruta o path "/api/v2/productos/{id}/foto" para peticiones http de tipo Get con el método "foto()" del bean "handler",que devuelve la imagen del producto(o su variante con el parámetro "size")
+				.andRoute(RequestPredicates.GET("/api/v2/productos/{id}/foto"), handler::foto)
 				// Mapeamos la ruta o path "/api/v2/productos/{id}" para peticiones http de tipo Get con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "ver()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos del producto localizado por su id de la base de datos.Al método "ver()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
 				.andRoute(RequestPredicates.GET("/api/v2/productos/{id}"), request -> handler.ver(request)) // Esta función lambda "request -> handler.ver(request)" se puede simplificar aún más por esta "handler::ver" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "ver() del bean "handler"
 				// Mapeamos la ruta o path "/api/v2/producto" para peticiones http de tipo Post con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "crear()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos del producto persistido en la base de datos.Al método "crear()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
@@ -34,8 +48,20 @@ public class RouterFunctionConfig {
 				.andRoute(RequestPredicates.POST("/api/v2/productos/upload/{id}"), handler::upload) // Esta función lambda "request -> handler.upload(request)" se puede simplificar aún más por esta "handler::upload" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "upload() del bean "handler"
 				// Mapeamos la ruta o path "/api/v2/productos/{id}" para peticiones http de tipo Put con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "editar()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos del producto actualizado en la base de datos.Al método "editar()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
 				.andRoute(RequestPredicates.PUT("/api/v2/productos/{id}"), handler::editar) // Esta función lambda "request -> handler.editar(request)" se puede simplificar aún más por esta "handler::editar" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "editar() del bean "handler"
+				// Mapeamos la ruta o path "/api/v2/productos/{id}/precio" para peticiones http de tipo Put con el método "actualizarPrecio()" del bean "handler",que acumula el nuevo precio del producto en el buffer de precios para escribirlo más tarde en lote
+				.andRoute(RequestPredicates.PUT("/api/v2/productos/{id}/precio"), handler::actualizarPrecio)
+				// Mapeamos la ruta o path "/api/v2/productos/precios" para peticiones http de tipo Post con el método "actualizarPrecios()" del bean "handler",que acumula un lote de actualizaciones de precios en el buffer de precios
+				.andRoute(RequestPredicates.POST("/api/v2/productos/precios"), handler::actualizarPrecios)
+				// Mapeamos la ruta o path "/api/v2/productos/importacion" para peticiones http de tipo Post con el método "importar()" del bean "handler",que importa productos desde un archivo CSV y devuelve el progreso de la importación
+				.andRoute(RequestPredicates.POST("/api/v2/productos/importacion"), handler::importar)
+				// Mapeamos la ruta o path "/api/v2/productos/{id}/precios/historial" para peticiones http de tipo Get con el método "historialPrecios()" del bean "handler",que devuelve el historial de precios del producto agrupado en intervalos
+				.andRoute(RequestPredicates.GET("/api/v2/productos/{id}/precios/historial"), handler::historialPrecios)
 				// Mapeamos la ruta o path "/api/v2/productos/{id}" para peticiones http de tipo Delete con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "eliminar()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse con una respuesta vacía.Al método "eliminar()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
-				.andRoute(RequestPredicates.DELETE("/api/v2/productos/{id}"),  handler::eliminar); // Esta función lambda "request -> handler.eliminar(request)" se puede simplificar aún más por esta "handler::eliminar" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "eliminar() del bean "handler"
+				.andRoute(RequestPredicates.DELETE("/api/v2/productos/{id}"),  handler::eliminar) // Esta función lambda "request -> handler.eliminar(request)" se puede simplificar aún más por esta "handler::eliminar" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "eliminar() del bean "handler"
+				// Aplicamos el límite de concurrencia adaptativo a todas las rutas anteriores
+				.filter(limiteConcurrencia)
+				// Aplicamos las métricas por ruta después del límite de concurrencia,para que se ejecuten antes que él y registren también las peticiones que rechaza
+				.filter(metricasRutas);
 	}
 
 }
@@ -0,0 +1,176 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.resources.LoopResources;
+
+// Clase de configuración que ajusta el servidor Reactor Netty embebido a partir de las propiedades "config.servidor.netty.*"(véase la clase "ServidorNettyProperties")
+// Los hilos del servidor son propios(con el prefijo "servidor-http") y no se comparten con los del WebClient,para que las peticiones salientes no compitan con las entrantes
+// Registra las métricas de Netty: conexiones abiertas,conexiones rechazadas o cerradas por inactividad o por un cliente lento y tareas pendientes de cada bucle de eventos
+// También permite dejar de aceptar conexiones nuevas sin cortar las que están en curso,que es una de las fases del cierre ordenado de la aplicación(véase la clase "CierreOrdenado")
+
+@Configuration // Indicamos que esta clase es una clase de Configuración de Spring y,de esta manera,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+@EnableConfigurationProperties(ServidorNettyProperties.class) // Con esta anotación Spring Boot crea el bean de propiedades "ServidorNettyProperties" a partir del archivo de propiedades de la aplicación
+public class ServidorNettyConfig implements WebServerFactoryCustomizer<NettyReactiveWebServerFactory> {
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(ServidorNettyConfig.class);
+
+	@Autowired
+	private ServidorNettyProperties propiedades; // Este bean contiene las propiedades de ajuste del servidor
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas de Netty
+
+	// Conexiones abiertas.Con HTTP/2 cada petición es un canal hijo(stream) de la conexión,así que guardamos el canal de la conexión
+	private final Set<Channel> conexiones = ConcurrentHashMap.newKeySet();
+
+	// Servidor arrancado y sus hilos.Son nulos si no se ha arrancado un servidor real(por ejemplo,en las pruebas con un servidor simulado)
+	private volatile DisposableServer servidor;
+
+	private LoopResources bucles;
+
+	private Counter aceptadas;
+
+	private Counter rechazadas;
+
+	private Counter inactivas;
+
+	private Counter lentas;
+
+	// Spring Boot invoca este método al crear la factoría del servidor web,antes de arrancarlo
+	@Override
+	public void customize(NettyReactiveWebServerFactory factory) {
+		boolean nativo = propiedades.isNativo() && Epoll.isAvailable();
+		int hilos = propiedades.hilosTrabajoEfectivos();
+		bucles = propiedades.getHilosSelector() > 0
+				? LoopResources.create("servidor-http",propiedades.getHilosSelector(),hilos,true)
+				: LoopResources.create("servidor-http",hilos,true);
+		log.info("Servidor Netty con transporte " + (nativo ? "epoll" : "NIO") + "," + hilos + " hilos de trabajo y " + propiedades.getHilosSelector() + " hilos selectores");
+
+		registrarMetricas(bucles.onServer(nativo));
+
+		// Spring Boot ya asigna al servidor los hilos compartidos de su bean "ReactorResourceFactory" y Netty no admite asignarle otros después(falla al arrancar con "group set already"),así que quitamos esos hilos de la factoría para usar solo los nuestros
+		factory.setResourceFactory(null);
+		factory.addServerCustomizers(servidor -> servidor.tcpConfiguration(tcp -> tcp
+				.runOn(bucles,nativo)
+				.doOnConnection(this::conectada)
+				// Guardamos el servidor arrancado para poder dejar de aceptar conexiones en el cierre ordenado
+				.doOnBound(arrancado -> this.servidor = arrancado)));
+	}
+
+	// Cierra el puerto del servidor para que no se acepten conexiones nuevas(los clientes reciben "conexión rechazada" y el balanceador las envía a otra instancia)
+	// Las conexiones ya aceptadas siguen abiertas,así que las peticiones en curso terminan con normalidad
+	public void dejarDeAceptar() {
+		DisposableServer arrancado = servidor;
+		if(arrancado != null && arrancado.channel().isOpen())
+			arrancado.channel().close().awaitUninterruptibly(5,TimeUnit.SECONDS);
+	}
+
+	// Número de conexiones abiertas
+	public int getConexiones() {
+		return conexiones.size();
+	}
+
+	// Al detener la aplicación(después del cierre ordenado,que ya ha esperado a las peticiones en curso),cerramos el puerto y las conexiones que queden y liberamos los hilos del servidor
+	// Spring Boot detiene el servidor después de destruir los beans,así que lo hacemos aquí para que los hilos no se queden vivos.Al detenerse,el servidor encuentra el puerto ya cerrado
+	@PreDestroy
+	public void cerrar() {
+		if(bucles == null)
+			return;
+		dejarDeAceptar();
+		conexiones.forEach(Channel::close);
+		bucles.disposeLater().block(Duration.ofSeconds(10));
+	}
+
+	// Se invoca con cada conexión nueva y,con HTTP/2,también con cada petición(stream) de la conexión
+	private void conectada(Connection conexion) {
+		Channel canal = conexion.channel() instanceof Http2StreamChannel ? conexion.channel().parent() : conexion.channel();
+		if(!conexiones.add(canal))
+			return;
+		canal.closeFuture().addListener(cerrado -> conexiones.remove(canal));
+		aceptadas.increment();
+
+		// Si hay más conexiones abiertas que el máximo,cerramos la nueva conexión
+		if(propiedades.getMaxConexiones() > 0 && conexiones.size() > propiedades.getMaxConexiones()) {
+			rechazadas.increment();
+			canal.close();
+			return;
+		}
+
+		// Los manejadores se añaden al principio del pipeline de la conexión para que vean todo el tráfico de la conexión,incluido el de HTTP/2
+		if(!propiedades.getInactividad().isZero())
+			canal.pipeline().addFirst("inactividad",new IdleStateHandler(0,0,propiedades.getInactividad().toMillis(),TimeUnit.MILLISECONDS) {
+				@Override
+				protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evento) {
+					inactivas.increment();
+					ctx.close();
+				}
+			});
+		if(!propiedades.getTimeoutEscritura().isZero())
+			canal.pipeline().addFirst("timeoutEscritura",new WriteTimeoutHandler(propiedades.getTimeoutEscritura().toMillis(),TimeUnit.MILLISECONDS) {
+				@Override
+				protected void writeTimedOut(ChannelHandlerContext ctx) throws Exception {
+					lentas.increment();
+					super.writeTimedOut(ctx);
+				}
+			});
+	}
+
+	private void registrarMetricas(EventLoopGroup grupo) {
+		Gauge.builder("servidor.netty.conexiones",conexiones,Set::size)
+			.description("Conexiones abiertas en el servidor")
+			.register(registry);
+		aceptadas = Counter.builder("servidor.netty.conexiones.aceptadas")
+				.description("Conexiones aceptadas por el servidor,incluidas las rechazadas.Si crecen tanto como las peticiones,los clientes no están reutilizando las conexiones")
+				.register(registry);
+		rechazadas = Counter.builder("servidor.netty.conexiones.rechazadas")
+				.description("Conexiones cerradas al aceptarlas por superar el máximo de conexiones")
+				.register(registry);
+		inactivas = Counter.builder("servidor.netty.conexiones.inactivas")
+				.description("Conexiones cerradas por superar el tiempo de inactividad")
+				.register(registry);
+		lentas = Counter.builder("servidor.netty.conexiones.lentas")
+				.description("Conexiones cerradas porque el cliente no lee la respuesta")
+				.register(registry);
+
+		// Tareas pendientes de cada bucle de eventos.Si crecen,los hilos de Netty no dan abasto o algo los está bloqueando
+		int i = 0;
+		for(EventExecutor bucle: grupo) {
+			if(bucle instanceof SingleThreadEventExecutor)
+				Gauge.builder("servidor.netty.tareas.pendientes",(SingleThreadEventExecutor)bucle,SingleThreadEventExecutor::pendingTasks)
+					.description("Tareas pendientes en la cola del bucle de eventos")
+					.tag("bucle",String.valueOf(i))
+					.register(registry);
+			i++;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+// Propiedades de ajuste del servidor Reactor Netty embebido,con el prefijo "config.servidor.netty" en el archivo de propiedades de la aplicación "application.properties"
+// Se aplican en la clase "ServidorNettyConfig"
+// Los valores por defecto se han medido contra el servidor real con el benchmark "NettyBenchmark" de las pruebas(mvn test -Pbenchmark -Dtest=NettyBenchmark).Conviene repetirlo en una máquina como la de producción antes de cambiarlos
+
+@ConfigurationProperties(prefix = "config.servidor.netty") // Con esta anotación Spring Boot asigna a cada campo de esta clase el valor de la propiedad con el mismo nombre(por ejemplo,"config.servidor.netty.hilos-trabajo"),convirtiéndolo a su tipo
+public class ServidorNettyProperties {
+
+	// Número de hilos(bucles de eventos) que atienden las conexiones.Con 0 se usa un hilo por núcleo de CPU
+	// Los hilos de Netty nunca se bloquean,así que más hilos que núcleos no aumentan el rendimiento y solo añaden cambios de contexto
+	// En el benchmark,con un núcleo,pasar de 1 a 8 hilos no mejora el rendimiento de forma consistente(las diferencias entre filas son del orden del ruido entre ejecuciones)
+	private int hilosTrabajo = 0;
+
+	// Número de hilos que solo aceptan conexiones nuevas.Con 0,los propios hilos de trabajo aceptan las conexiones(lo más eficiente salvo que se abran miles de conexiones por segundo)
+	// En el benchmark,con un hilo selector aparte el rendimiento queda dentro del mismo margen que sin él,porque cada cliente reutiliza sus conexiones y se aceptan pocas
+	private int hilosSelector = 0;
+
+	// Indica si se usa el transporte nativo epoll de Linux,si está disponible,en lugar del transporte NIO de Java.Si no está disponible(por ejemplo,en Windows o macOS),se usa NIO
+	// En el benchmark,epoll atiende entre un 10% y un 75% más de peticiones por segundo que NIO con el mismo número de hilos y con menor latencia
+	private boolean nativo = true;
+
+	// Número máximo de conexiones abiertas a la vez.Las conexiones que superan este límite se cierran nada más aceptarlas.Con 0 no hay límite
+	// En el benchmark,cada conexión keep-alive abierta ocupa unos 7,5 KB de heap en el servidor y nada de memoria directa(los buffers de Netty se devuelven a su pool al terminar cada respuesta),así que 10000 conexiones son unos 75 MB
+	// Es un límite de protección frente a conexiones que se acumulan(por ejemplo,clientes que no las cierran),no de rendimiento.Con HTTP/2 un cliente necesita una sola conexión
+	private int maxConexiones = 10000;
+
+	// Tiempo máximo que una conexión puede estar sin recibir ni enviar nada antes de cerrarla(por ejemplo,una conexión keep-alive que el cliente ha olvidado o una subida que se ha quedado a medias).Con 0 no se cierran
+	// Tiene que ser mayor que el tiempo de inactividad del balanceador o proxy que haya delante,para que sea él quien cierre la conexión y no nos lleguen peticiones a una conexión que estamos cerrando
+	// 75 segundos supera los 60 segundos de inactividad por defecto de los balanceadores más habituales(por ejemplo,AWS ALB) y coincide con el "keepalive_timeout" por defecto de nginx
+	// Como una conexión inactiva solo ocupa unos 7,5 KB(véase "maxConexiones"),mantenerla abierta es mucho más barato que obligar al cliente a abrir otra
+	private Duration inactividad = Duration.ofSeconds(75);
+
+	// Tiempo máximo que puede tardar en enviarse al cliente cada escritura de una respuesta.Si el cliente no lee(cliente lento o colgado),la conexión se cierra en lugar de acumular la respuesta en memoria.Con 0 no se cierran
+	// No es un valor de rendimiento: cualquier cliente que lea,aunque sea despacio,termina cada escritura en mucho menos tiempo.Coincide con el plazo del cierre ordenado("config.cierre.plazo-segundos"),así un cliente colgado no retrasa el cierre de la instancia más que ese plazo
+	private Duration timeoutEscritura = Duration.ofSeconds(30);
+
+	public int getHilosTrabajo() {
+		return hilosTrabajo;
+	}
+
+	public void setHilosTrabajo(int hilosTrabajo) {
+		this.hilosTrabajo = hilosTrabajo;
+	}
+
+	public int getHilosSelector() {
+		return hilosSelector;
+	}
+
+	public void setHilosSelector(int hilosSelector) {
+		this.hilosSelector = hilosSelector;
+	}
+
+	public boolean isNativo() {
+		return nativo;
+	}
+
+	public void setNativo(boolean nativo) {
+		this.nativo = nativo;
+	}
+
+	public int getMaxConexiones() {
+		return maxConexiones;
+	}
+
+	public void setMaxConexiones(int maxConexiones) {
+		this.maxConexiones = maxConexiones;
+	}
+
+	public Duration getInactividad() {
+		return inactividad;
+	}
+
+	public void setInactividad(Duration inactividad) {
+		this.inactividad = inactividad;
+	}
+
+	public Duration getTimeoutEscritura() {
+		return timeoutEscritura;
+	}
+
+	public void setTimeoutEscritura(Duration timeoutEscritura) {
+		this.timeoutEscritura = timeoutEscritura;
+	}
+
+	// Número de hilos de trabajo efectivo
+	public int hilosTrabajoEfectivos() {
+		return hilosTrabajo > 0 ? hilosTrabajo : Runtime.getRuntime().availableProcessors();
+	}
+}
@@ -0,0 +1,40 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.http.MediaType;
+
+// Clase con los tipos de contenido de los formatos binarios(CBOR y Smile) en los que se pueden enviar y recibir los productos,además de en Json
+// Los formatos binarios ocupan menos que el Json y se serializan más rápido porque no tienen que escribir los nombres de los campos entre comillas ni convertir los números a texto
+
+public final class FormatosBinarios {
+
+	// Tipo de contenido del formato CBOR(RFC 7049)
+	public static final MediaType APPLICATION_CBOR = MediaType.valueOf("application/cbor");
+
+	// Tipo de contenido del formato Smile de Jackson
+	public static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+
+	private FormatosBinarios() {
+	}
+
+	// Método que elige el tipo de contenido de la respuesta a partir de la cabecera "Accept" de la petición http
+	// Si el cliente prefiere(por orden de calidad) CBOR o Smile,se responde en ese formato.En cualquier otro caso,incluso si no envía la cabecera,se responde en Json como hasta ahora
+	public static MediaType negociar(List<MediaType> aceptados) {
+		List<MediaType> ordenados = new ArrayList<MediaType>(aceptados);
+		MediaType.sortBySpecificityAndQuality(ordenados);
+		for(MediaType aceptado: ordenados) {
+			// Un comodín("*/*" o "application/*") significa que al cliente le vale cualquier formato,así que usamos el Json por defecto
+			if(aceptado.isWildcardType() || aceptado.isWildcardSubtype())
+				break;
+			if(aceptado.isCompatibleWith(APPLICATION_CBOR))
+				return APPLICATION_CBOR;
+			if(aceptado.isCompatibleWith(APPLICATION_SMILE))
+				return APPLICATION_SMILE;
+			if(aceptado.isCompatibleWith(MediaType.APPLICATION_JSON))
+				break;
+		}
+		return MediaType.APPLICATION_JSON_UTF8;
+	}
+}
@@ -0,0 +1,59 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.json.AbstractJackson2Decoder;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Decoder que lee los objetos en formato CBOR con Jackson
+// La clase base de Spring lee el cuerpo a medida que llega con el parser no bloqueante de Jackson,pero el formato CBOR no tiene parser no bloqueante.Por eso,unimos todos los bloques del cuerpo y lo leemos de una vez
+// Los cuerpos que se reciben en este formato son productos sueltos o listas pequeñas,así que tenerlos enteros en memoria no es un problema
+
+public class Jackson2CborDecoder extends AbstractJackson2Decoder {
+
+	public Jackson2CborDecoder(ObjectMapper mapper) {
+		super(mapper,FormatosBinarios.APPLICATION_CBOR);
+		Assert.isAssignable(CBORFactory.class,mapper.getFactory().getClass(),"El ObjectMapper tiene que usar la factoría de CBOR");
+	}
+
+	// Lee un único objeto del cuerpo.Si el cuerpo está vacío,el flujo reactivo Mono se queda vacío
+	@Override
+	public Mono<Object> decodeToMono(Publisher<DataBuffer> input, ResolvableType elementType, MimeType mimeType, Map<String,Object> hints) {
+		JavaType tipo = getJavaType(elementType.getType(),null);
+		return DataBufferUtils.join(input).map(buffer -> leer(buffer,tipo));
+	}
+
+	// Lee una lista de objetos del cuerpo y emite sus elementos uno a uno
+	@Override
+	@SuppressWarnings("unchecked")
+	public Flux<Object> decode(Publisher<DataBuffer> input, ResolvableType elementType, MimeType mimeType, Map<String,Object> hints) {
+		JavaType tipo = getObjectMapper().getTypeFactory().constructCollectionType(List.class,getJavaType(elementType.getType(),null));
+		return DataBufferUtils.join(input).flatMapIterable(buffer -> (List<Object>)leer(buffer,tipo));
+	}
+
+	// Lee el cuerpo completo y libera su DataBuffer.Si el contenido no es un CBOR válido,lanzamos la excepción "DecodingException",que Spring convierte en una respuesta con el estado BAD_REQUEST(400)
+	private Object leer(DataBuffer buffer, JavaType tipo) {
+		try(InputStream entrada = buffer.asInputStream(true)) {
+			return getObjectMapper().readValue(entrada,tipo);
+		}
+		catch(IOException e) {
+			throw new DecodingException("El cuerpo de la petición no es un CBOR válido: " + e.getMessage(),e);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.codec;
+
+import org.springframework.http.codec.json.AbstractJackson2Encoder;
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+// Encoder que escribe los objetos en formato CBOR con Jackson
+// La versión de Spring que usamos trae el encoder de Smile pero no el de CBOR.La escritura es igual que la de Json,solo cambia la factoría de Jackson,así que reutilizamos la clase base de Spring
+
+public class Jackson2CborEncoder extends AbstractJackson2Encoder {
+
+	public Jackson2CborEncoder(ObjectMapper mapper) {
+		super(mapper,FormatosBinarios.APPLICATION_CBOR);
+		Assert.isAssignable(CBORFactory.class,mapper.getFactory().getClass(),"El ObjectMapper tiene que usar la factoría de CBOR");
+	}
+}
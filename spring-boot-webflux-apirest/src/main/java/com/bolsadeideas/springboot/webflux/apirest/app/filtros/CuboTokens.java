@@ -0,0 +1,44 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cubo de tokens sin bloqueos para limitar la tasa de peticiones de un cliente
+// En lugar de guardar los tokens que quedan y la fecha de la última recarga(dos valores que habría que actualizar a la vez con un bloqueo),guardamos un único instante: el "instante teórico de llegada"(algoritmo GCRA)
+// Cada petición aceptada adelanta ese instante un intervalo(1/tasa).Se acepta la petición si el instante no está más adelantado respecto a ahora que lo que permite la ráfaga
+// El resultado es idéntico al de un cubo de tokens con capacidad "rafaga" que se recarga a "porSegundo" tokens por segundo,pero se actualiza con una única operación "compareAndSet"
+
+final class CuboTokens {
+
+	// Instante teórico de llegada de la siguiente petición,en nanosegundos
+	private final AtomicLong llegada;
+
+	// Nanosegundos que tarda en recargarse un token
+	private final long intervalo;
+
+	// Nanosegundos que se puede adelantar el instante teórico de llegada respecto a ahora,es decir,la ráfaga permitida
+	private final long tolerancia;
+
+	CuboTokens(double porSegundo, int rafaga, long ahora) {
+		this.intervalo = (long)(1_000_000_000L / porSegundo);
+		this.tolerancia = intervalo * Math.max(0,rafaga - 1);
+		this.llegada = new AtomicLong(ahora);
+	}
+
+	// Intenta consumir un token.Devuelve 0 si se ha consumido o,si el cubo está vacío,los nanosegundos que faltan para que haya un token disponible
+	long consumir(long ahora) {
+		while(true) {
+			long actual = llegada.get();
+			long base = Math.max(actual,ahora);
+			long espera = base - tolerancia - ahora;
+			if(espera > 0)
+				return espera;
+			if(llegada.compareAndSet(actual,base + intervalo))
+				return 0;
+		}
+	}
+
+	// Indica si el cubo está lleno.Un cubo lleno es igual a uno nuevo,así que se puede eliminar sin que el cliente note la diferencia
+	boolean lleno(long ahora) {
+		return llegada.get() <= ahora;
+	}
+}
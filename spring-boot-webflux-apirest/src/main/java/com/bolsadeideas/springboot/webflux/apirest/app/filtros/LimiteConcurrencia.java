@@ -0,0 +1,274 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+// Límite de concurrencia adaptativo que protege la Api cuando la base de datos se vuelve lenta
+// En lugar de un número fijo de peticiones simultáneas,el límite se aprende a partir de la latencia medida(algoritmo "gradiente"): se compara la latencia reciente con la latencia a largo plazo y,si la reciente crece,es que las peticiones se están encolando y el límite baja.Si no crece,el límite sube poco a poco
+// La latencia reciente es la media de una ventana de tiempo corta y el límite se recalcula una vez por ventana,para que unas pocas peticiones lentas no lo hagan oscilar
+// La latencia a largo plazo es la media móvil exponencial de las latencias recientes de muchas ventanas.No usamos la latencia mínima porque todas las rutas comparten el límite y las respuestas baratas(304,400,429 o las que salen de una caché) tardan mucho menos que una consulta a la base de datos: comparar la media con esa mínima haría que el límite cayera al mínimo aunque no hubiera cola
+// Al ser una media de la misma mezcla de rutas que la latencia reciente,solo se separan cuando la latencia crece de golpe.Si la base de datos se vuelve más lenta de manera permanente,la media a largo plazo la alcanza poco a poco y el límite deja de bajar
+// Las peticiones que superan el límite se rechazan al instante con el estado SERVICE_UNAVAILABLE(503) y la cabecera "Retry-After",en lugar de encolarse y hacer que la latencia aumente para todos
+// La latencia de cada petición se mide hasta que se envía el primer byte de la respuesta,que es cuando la base de datos ha devuelto el primer resultado.Así los flujos largos(como "listar" o "exportar") no se confunden con peticiones lentas
+// Se aplica a los Functional Endpoints mediante el método "filter()"(véase la clase "RouterFunctionConfig"),al controlador anotado mediante la clase "LimiteConcurrenciaFilter" y a las peticiones RSocket mediante el método "limitar()".Todos comparten el mismo límite porque comparten la misma base de datos
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class LimiteConcurrencia implements HandlerFilterFunction<ServerResponse,ServerResponse> {
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas del límite
+
+	@Value("${config.concurrencia.habilitado:true}")
+	private boolean habilitado;
+
+	// Límite inicial y valores mínimo y máximo entre los que se puede mover el límite
+	@Value("${config.concurrencia.inicial:20}")
+	private int inicial;
+
+	@Value("${config.concurrencia.minimo:4}")
+	private int minimo;
+
+	@Value("${config.concurrencia.maximo:500}")
+	private int maximo;
+
+	// Cuánto puede crecer la latencia reciente respecto a la latencia sin cola sin que se reduzca el límite.Con 1.5,se tolera que la latencia crezca un 50%
+	@Value("${config.concurrencia.tolerancia:1.5}")
+	private double tolerancia;
+
+	// Fracción del nuevo límite calculado que se aplica en cada muestra.Valores bajos hacen que el límite cambie más despacio y sea más estable
+	@Value("${config.concurrencia.suavizado:0.2}")
+	private double suavizado;
+
+	// Duración de cada ventana en la que se mide la latencia reciente y número mínimo de peticiones de la ventana para recalcular el límite
+	@Value("${config.concurrencia.ventana-ms:100}")
+	private long ventanaMs;
+
+	@Value("${config.concurrencia.muestras-ventana:10}")
+	private int muestrasVentana;
+
+	// Número de ventanas de la media móvil exponencial de la latencia a largo plazo
+	@Value("${config.concurrencia.ventanas-largo-plazo:50}")
+	private int ventanasLargoPlazo;
+
+	// Peticiones en curso
+	private final AtomicInteger enVuelo = new AtomicInteger();
+
+	// Límite actual.Solo se modifica en el método sincronizado "actualizar()",pero se lee sin bloqueos al admitir cada petición
+	private volatile double limite;
+
+	// Latencia a largo plazo,en nanosegundos
+	private double latenciaLargoPlazo;
+
+	// Datos de la ventana actual: inicio y suma de las latencias,número de peticiones y máximo de peticiones en curso
+	private long inicioVentana = System.nanoTime();
+
+	private long sumaVentana;
+
+	private int peticionesVentana;
+
+	private int maxEnVueloVentana;
+
+	private Counter rechazadas;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		limite = inicial;
+		Gauge.builder("concurrencia.limite",this,LimiteConcurrencia::getLimite)
+			.description("Peticiones simultáneas admitidas según la latencia medida")
+			.register(registry);
+		Gauge.builder("concurrencia.en.vuelo",enVuelo,AtomicInteger::get)
+			.description("Peticiones en curso")
+			.register(registry);
+		rechazadas = Counter.builder("concurrencia.rechazadas")
+				.description("Peticiones rechazadas con el estado 503 por superar el límite de concurrencia")
+				.register(registry);
+	}
+
+	// Filtro para los Functional Endpoints.La respuesta se envuelve para liberar el permiso cuando termina de escribirse,aunque el cliente cancele antes de recibir el primer byte
+	@Override
+	public Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next) {
+		if(!habilitado)
+			return next.handle(request);
+		Permiso permiso = adquirir(request.exchange());
+		if(permiso == null)
+			return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER,"1").build();
+		return next.handle(request)
+				.doFinally(senal -> {
+					if(senal != SignalType.ON_COMPLETE)
+						permiso.terminar(senal);
+				})
+				.map(respuesta -> new RespuestaLimitada(respuesta,permiso));
+	}
+
+	// Filtro para el controlador anotado(véase la clase "LimiteConcurrenciaFilter").Aquí la cadena de filtros termina cuando la respuesta se ha escrito
+	Mono<Void> filtrar(ServerWebExchange exchange, WebFilterChain chain) {
+		if(!habilitado)
+			return chain.filter(exchange);
+		Permiso permiso = adquirir(exchange);
+		if(permiso == null) {
+			exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+			exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,"1");
+			return exchange.getResponse().setComplete();
+		}
+		return chain.filter(exchange).doFinally(permiso::terminar);
+	}
+
+	// Límite para las peticiones RSocket(véase la clase "ProductoRSocket"),que no pasan por los filtros http.Si se ha alcanzado el límite,se devuelve el flujo "rechazo"
+	// La latencia se mide hasta el primer elemento de la respuesta(o hasta que termina,si está vacía),igual que el primer byte de una respuesta http
+	public <T> Flux<T> limitar(Flux<T> respuesta, Flux<T> rechazo) {
+		if(!habilitado)
+			return respuesta;
+		return Flux.defer(() -> {
+			Permiso permiso = reservar();
+			if(permiso == null)
+				return rechazo;
+			return respuesta
+					.doOnNext(elemento -> permiso.completar())
+					.doFinally(permiso::terminar);
+		});
+	}
+
+	// Reserva un hueco para una petición.Devuelve null si se ha alcanzado el límite
+	private Permiso reservar() {
+		if(enVuelo.incrementAndGet() > (int)limite) {
+			enVuelo.decrementAndGet();
+			rechazadas.increment();
+			return null;
+		}
+		return new Permiso();
+	}
+
+	// Reserva un hueco para una petición http.Devuelve null si se ha alcanzado el límite
+	private Permiso adquirir(ServerWebExchange exchange) {
+		Permiso permiso = reservar();
+		if(permiso == null)
+			return null;
+		// Cuando se va a enviar el primer byte de la respuesta,se toma la muestra de latencia y se libera el hueco
+		// Se usa "Mono.fromRunnable()" porque la respuesta puede invocar esta función al preparar el envío,antes de que de verdad se envíe
+		exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(permiso::completar));
+		return permiso;
+	}
+
+	// Acumula la latencia de una petición en la ventana actual y,al terminar la ventana,recalcula el límite
+	private synchronized void actualizar(long latencia, int peticiones) {
+		long ahora = System.nanoTime();
+		sumaVentana += latencia;
+		peticionesVentana++;
+		maxEnVueloVentana = Math.max(maxEnVueloVentana,peticiones);
+		if(ahora - inicioVentana < ventanaMs * 1_000_000L || peticionesVentana < muestrasVentana)
+			return;
+		double latenciaReciente = Math.max(1.0,(double)sumaVentana / peticionesVentana);
+		int maxEnVuelo = maxEnVueloVentana;
+		inicioVentana = ahora;
+		sumaVentana = 0;
+		peticionesVentana = 0;
+		maxEnVueloVentana = 0;
+
+		if(latenciaLargoPlazo == 0)
+			latenciaLargoPlazo = latenciaReciente;
+		else
+			latenciaLargoPlazo += (latenciaReciente - latenciaLargoPlazo) / ventanasLargoPlazo;
+		// Si la latencia reciente es menos de la mitad de la de largo plazo,la base de datos se ha recuperado de una lentitud larga y la media a largo plazo baja más deprisa para que el límite no se quede alto con una referencia obsoleta
+		if(latenciaLargoPlazo > 2 * latenciaReciente)
+			latenciaLargoPlazo *= 0.95;
+		// El gradiente es menor que 1 cuando la latencia reciente supera la latencia a largo plazo(más la tolerancia).Se acota para que el límite no caiga a la mitad de golpe
+		double gradiente = Math.max(0.5,Math.min(1.0,tolerancia * latenciaLargoPlazo / latenciaReciente));
+		// Si en la ventana ha habido pocas peticiones en curso respecto al límite,la latencia no dice nada sobre la capacidad real y el límite no sube
+		if(gradiente == 1.0 && maxEnVuelo < limite / 2)
+			return;
+		// La raíz cuadrada del límite permite que haya algunas peticiones en cola,para que el límite pueda crecer cuando la latencia es estable
+		double nuevo = limite * gradiente + Math.sqrt(limite);
+		nuevo = limite * (1 - suavizado) + nuevo * suavizado;
+		limite = Math.max(minimo,Math.min(maximo,nuevo));
+	}
+
+	public double getLimite() {
+		return limite;
+	}
+
+	public int getEnVuelo() {
+		return enVuelo.get();
+	}
+
+	// Hueco reservado por una petición.Se libera una sola vez,ya sea al enviar la respuesta,al fallar o al cancelarse
+	private class Permiso {
+
+		private final long inicio = System.nanoTime();
+
+		private final AtomicBoolean liberado = new AtomicBoolean();
+
+		// La petición ha llegado al primer byte de la respuesta(o ha fallado): su latencia cuenta para el límite
+		void completar() {
+			if(liberado.compareAndSet(false,true)) {
+				int peticiones = enVuelo.getAndDecrement();
+				actualizar(System.nanoTime() - inicio,peticiones);
+			}
+		}
+
+		// Si el cliente cancela la petición,liberamos el hueco sin tomar la muestra,porque su latencia no es real
+		void terminar(SignalType senal) {
+			if(senal == SignalType.CANCEL) {
+				if(liberado.compareAndSet(false,true))
+					enVuelo.decrementAndGet();
+			}
+			else
+				completar();
+		}
+	}
+
+	// Respuesta de los Functional Endpoints que libera el permiso cuando termina de escribirse
+	private static class RespuestaLimitada implements ServerResponse {
+
+		private final ServerResponse respuesta;
+
+		private final Permiso permiso;
+
+		RespuestaLimitada(ServerResponse respuesta, Permiso permiso) {
+			this.respuesta = respuesta;
+			this.permiso = permiso;
+		}
+
+		@Override
+		public HttpStatus statusCode() {
+			return respuesta.statusCode();
+		}
+
+		@Override
+		public HttpHeaders headers() {
+			return respuesta.headers();
+		}
+
+		@Override
+		public MultiValueMap<String,ResponseCookie> cookies() {
+			return respuesta.cookies();
+		}
+
+		@Override
+		public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+			return respuesta.writeTo(exchange,context).doFinally(permiso::terminar);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import reactor.core.publisher.Mono;
+
+// Filtro que aplica el límite de concurrencia adaptativo(véase la clase "LimiteConcurrencia") a las peticiones del controlador anotado "ProductoController"
+// Los Functional Endpoints no pasan por aquí,porque el límite se les aplica directamente en la clase "RouterFunctionConfig"
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria.Spring WebFlux aplica automáticamente todos los beans de tipo WebFilter
+@Order(Ordered.HIGHEST_PRECEDENCE + 20) // Se ejecuta después del límite de tasa por cliente,para que las peticiones que ese límite rechaza no ocupen huecos del límite de concurrencia
+public class LimiteConcurrenciaFilter implements WebFilter {
+
+	// Ruta base del controlador anotado
+	private static final String RUTA = "/api/productos";
+
+	@Autowired
+	private LimiteConcurrencia limite; // Este bean aprende cuántas peticiones simultáneas admite la Api y lo comparten los Functional Endpoints y el controlador anotado
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		String ruta = exchange.getRequest().getPath().value();
+		if(ruta.equals(RUTA) || ruta.startsWith(RUTA + "/"))
+			return limite.filtrar(exchange,chain);
+		return chain.filter(exchange);
+	}
+}
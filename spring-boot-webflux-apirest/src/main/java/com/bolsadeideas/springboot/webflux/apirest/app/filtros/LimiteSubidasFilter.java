@@ -0,0 +1,100 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.FotoDemasiadoGrandeException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Filtro que limita el tamaño del cuerpo de las subidas de imágenes(formularios "multipart/form-data")
+// En Spring 5.1,el lector de formularios(SynchronossPartHttpMessageReader) guarda cada parte entera,en memoria o en un archivo temporal propio,y solo la entrega cuando ha terminado de llegar
+// Por eso,el límite de la propiedad "config.uploads.max-bytes" que comprueba la clase "FotoServiceImpl" llega tarde: cuando se comprueba,la imagen ya se ha leído entera y no acota ni la memoria ni el disco
+// Este filtro rechaza la petición con el estado PAYLOAD_TOO_LARGE(413) antes de leer el cuerpo si la cabecera "Content-Length" supera el máximo y,si no la envía(cuerpos "chunked"),corta la lectura del cuerpo en cuanto lo supera
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria.Spring WebFlux aplica automáticamente todos los beans de tipo WebFilter
+@Order(Ordered.HIGHEST_PRECEDENCE + 15) // Se ejecuta después del límite de tasa por cliente y antes del límite de concurrencia,para que las subidas rechazadas no ocupen huecos del límite de concurrencia
+public class LimiteSubidasFilter implements WebFilter {
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite contar las subidas rechazadas
+
+	// Tamaño máximo,en bytes,de una imagen
+	@Value("${config.uploads.max-bytes:5242880}")
+	private long maxBytes;
+
+	// Bytes que se admiten en el formulario además de la imagen: los campos del producto y las cabeceras de cada parte
+	@Value("${config.uploads.margen-formulario-bytes:65536}")
+	private long margenFormulario;
+
+	private Counter rechazadas;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		// Es el mismo contador que el de las imágenes que superan el tamaño máximo en la clase "FotoServiceImpl".Micrometer devuelve el contador ya registrado si coinciden el nombre y las etiquetas
+		rechazadas = Counter.builder("productos.fotos.subida.rechazadas")
+				.description("Subidas rechazadas por superar el tamaño máximo")
+				.register(registry);
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		ServerHttpRequest request = exchange.getRequest();
+		MediaType tipo = request.getHeaders().getContentType();
+		if(tipo == null || !MediaType.MULTIPART_FORM_DATA.includes(tipo))
+			return chain.filter(exchange);
+
+		long maximo = maxBytes + margenFormulario;
+		// Si el cliente anuncia el tamaño del cuerpo,rechazamos la subida sin leer nada
+		if(request.getHeaders().getContentLength() > maximo)
+			return rechazar(exchange);
+
+		// Si no,contamos los bytes a medida que llegan.Al superar el máximo,liberamos el DataBuffer y terminamos el cuerpo con un error,lo que cancela la lectura del resto
+		AtomicLong leidos = new AtomicLong();
+		AtomicBoolean superado = new AtomicBoolean();
+		ServerHttpRequest limitada = new ServerHttpRequestDecorator(request) {
+			@Override
+			public Flux<DataBuffer> getBody() {
+				return super.getBody().handle((buffer,sink) -> {
+					if(leidos.addAndGet(buffer.readableByteCount()) > maximo) {
+						DataBufferUtils.release(buffer);
+						superado.set(true);
+						sink.error(new FotoDemasiadoGrandeException(maxBytes));
+					}
+					else
+						sink.next(buffer);
+				});
+			}
+		};
+
+		// El lector de formularios envuelve el error en otra excepción,que los controladores no reconocen,por eso es este filtro el que responde con el estado 413 si el error se debe a que se ha superado el máximo
+		return chain.filter(exchange.mutate().request(limitada).build())
+				.onErrorResume(e -> superado.get() && !exchange.getResponse().isCommitted(),e -> rechazar(exchange));
+	}
+
+	private Mono<Void> rechazar(ServerWebExchange exchange) {
+		rechazadas.increment();
+		exchange.getResponse().setStatusCode(HttpStatus.PAYLOAD_TOO_LARGE);
+		return exchange.getResponse().setComplete();
+	}
+}
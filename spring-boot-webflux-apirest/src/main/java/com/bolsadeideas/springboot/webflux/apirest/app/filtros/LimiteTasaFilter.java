@@ -0,0 +1,214 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Filtro que limita la tasa de peticiones de cada cliente para que una integración que se comporte mal no sature la Api
+// Cada cliente se identifica por su clave de Api(cabecera "X-Api-Key"),si es una de las claves configuradas,o,si no,por su dirección IP,y tiene un cubo de tokens por cada grupo de rutas: lecturas,escrituras y subidas de imágenes
+// Si el cubo está vacío,se responde con el estado TOO_MANY_REQUESTS(429) y la cabecera "Retry-After" con los segundos que tiene que esperar el cliente
+// La memoria está acotada: los cubos llenos(clientes que llevan un tiempo sin hacer peticiones) se eliminan periódicamente y,si aun así se alcanza el máximo de clientes,los clientes nuevos comparten un cubo común
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria.Spring WebFlux aplica automáticamente todos los beans de tipo WebFilter
+@Order(Ordered.HIGHEST_PRECEDENCE + 10) // Se ejecuta antes que el resto de filtros y que los controladores,pero después del filtro de métricas de Spring Boot,para que las respuestas 429 también aparezcan en las métricas http
+public class LimiteTasaFilter implements WebFilter {
+
+	// Nombre de la cabecera http en la que los clientes nos envían su clave de Api
+	public static final String CABECERA_CLAVE = "X-Api-Key";
+
+	// Grupos de rutas con límites distintos
+	enum Grupo { LECTURAS, ESCRITURAS, SUBIDAS }
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas del filtro
+
+	@Value("${config.limite.habilitado:true}")
+	private boolean habilitado;
+
+	// Peticiones por segundo y ráfaga máxima de cada grupo de rutas
+	@Value("${config.limite.lecturas.por-segundo:100}")
+	private double lecturasPorSegundo;
+
+	@Value("${config.limite.lecturas.rafaga:200}")
+	private int lecturasRafaga;
+
+	@Value("${config.limite.escrituras.por-segundo:20}")
+	private double escriturasPorSegundo;
+
+	@Value("${config.limite.escrituras.rafaga:40}")
+	private int escriturasRafaga;
+
+	@Value("${config.limite.subidas.por-segundo:1}")
+	private double subidasPorSegundo;
+
+	@Value("${config.limite.subidas.rafaga:5}")
+	private int subidasRafaga;
+
+	// Número máximo de cubos por grupo de rutas y cada cuánto tiempo se eliminan los cubos llenos
+	@Value("${config.limite.max-clientes:100000}")
+	private int maxClientes;
+
+	@Value("${config.limite.limpieza-segundos:60}")
+	private long limpiezaSegundos;
+
+	// Claves de Api de los clientes,separadas por comas.Una clave que no está en esta lista no identifica al cliente
+	@Value("${config.limite.claves-api:}")
+	private String[] clavesApi;
+
+	private final Set<String> claves = new HashSet<String>();
+
+	private final Map<Grupo,Map<Object,CuboTokens>> cubos = new EnumMap<Grupo,Map<Object,CuboTokens>>(Grupo.class);
+
+	// Cubo común de cada grupo para los clientes nuevos cuando se ha alcanzado el máximo de clientes
+	private final Map<Grupo,CuboTokens> desbordamiento = new EnumMap<Grupo,CuboTokens>(Grupo.class);
+
+	private final Map<Grupo,Counter> rechazadas = new EnumMap<Grupo,Counter>(Grupo.class);
+
+	private Disposable limpieza;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		for(String clave: clavesApi)
+			if(!clave.trim().isEmpty())
+				claves.add(clave.trim());
+		long ahora = System.nanoTime();
+		for(Grupo grupo: Grupo.values()) {
+			Map<Object,CuboTokens> cubosGrupo = new ConcurrentHashMap<Object,CuboTokens>();
+			cubos.put(grupo,cubosGrupo);
+			desbordamiento.put(grupo,nuevoCubo(grupo,ahora));
+			rechazadas.put(grupo,Counter.builder("limite.tasa.rechazadas")
+					.description("Peticiones rechazadas con el estado 429 por superar el límite de tasa")
+					.tag("grupo",grupo.name().toLowerCase())
+					.register(registry));
+			Gauge.builder("limite.tasa.clientes",cubosGrupo,Map::size)
+				.description("Clientes con cubo de tokens en memoria")
+				.tag("grupo",grupo.name().toLowerCase())
+				.register(registry);
+		}
+		limpieza = Flux.interval(Duration.ofSeconds(limpiezaSegundos)).subscribe(n -> limpiar());
+	}
+
+	@PreDestroy
+	public void cerrar() {
+		limpieza.dispose();
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		ServerHttpRequest request = exchange.getRequest();
+		// Los endpoints de Actuator(por ejemplo,la comprobación de salud de Eureka) no se limitan
+		if(!habilitado || request.getPath().value().startsWith("/actuator"))
+			return chain.filter(exchange);
+
+		long espera = consumir(grupo(request),cliente(request));
+		if(espera == 0)
+			return chain.filter(exchange);
+
+		exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+		// La cabecera "Retry-After" se expresa en segundos enteros,así que redondeamos hacia arriba
+		exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,String.valueOf(Math.max(1,(espera + 999_999_999L) / 1_000_000_000L)));
+		return exchange.getResponse().setComplete();
+	}
+
+	// Límite de tasa de las peticiones RSocket(véase la clase "ProductoRSocket"),que no pasan por los filtros http.El cliente es la dirección IP de la conexión y comparte sus cubos con las peticiones http,así que cambiar de protocolo no le da más peticiones
+	// Devuelve 0 si la petición se admite o los nanosegundos que tiene que esperar el cliente
+	public long consumirRSocket(InetAddress cliente, boolean escritura) {
+		if(!habilitado)
+			return 0;
+		return consumir(escritura ? Grupo.ESCRITURAS : Grupo.LECTURAS,cliente != null ? cliente : "desconocido");
+	}
+
+	// Consume un token del cubo del cliente en el grupo y cuenta la petición como rechazada si no quedan tokens
+	private long consumir(Grupo grupo, Object cliente) {
+		long ahora = System.nanoTime();
+		long espera = cubo(grupo,cliente,ahora).consumir(ahora);
+		if(espera > 0)
+			rechazadas.get(grupo).increment();
+		return espera;
+	}
+
+	// Las subidas de imágenes(formularios "multipart/form-data") son las peticiones más costosas y tienen su propio límite.El resto se agrupan según el método http
+	private Grupo grupo(ServerHttpRequest request) {
+		HttpMethod metodo = request.getMethod();
+		if(metodo == HttpMethod.GET || metodo == HttpMethod.HEAD || metodo == HttpMethod.OPTIONS)
+			return Grupo.LECTURAS;
+		MediaType tipo = request.getHeaders().getContentType();
+		if(tipo != null && MediaType.MULTIPART_FORM_DATA.includes(tipo))
+			return Grupo.SUBIDAS;
+		return Grupo.ESCRITURAS;
+	}
+
+	// El cliente se identifica por su clave de Api o,si no la envía o no es una de las claves configuradas,por su dirección IP
+	// La cabecera la elige el cliente: si usáramos cualquier clave,un cliente podría enviar una clave distinta en cada petición para tener siempre un cubo lleno y,de paso,llenar el mapa hasta el máximo de clientes
+	// La dirección IP se usa directamente como clave del mapa(sin convertirla a texto),para no crear un String en cada petición
+	private Object cliente(ServerHttpRequest request) {
+		String clave = request.getHeaders().getFirst(CABECERA_CLAVE);
+		if(clave != null && claves.contains(clave))
+			return clave;
+		InetSocketAddress direccion = request.getRemoteAddress();
+		return direccion == null || direccion.getAddress() == null ? "desconocido" : direccion.getAddress();
+	}
+
+	// Devuelve el cubo del cliente en el grupo,creándolo si no existe.Si ya hay el máximo de cubos,el cliente usa el cubo común del grupo
+	private CuboTokens cubo(Grupo grupo, Object cliente, long ahora) {
+		Map<Object,CuboTokens> cubosGrupo = cubos.get(grupo);
+		CuboTokens cubo = cubosGrupo.get(cliente);
+		if(cubo != null)
+			return cubo;
+		if(cubosGrupo.size() >= maxClientes)
+			return desbordamiento.get(grupo);
+		return cubosGrupo.computeIfAbsent(cliente,c -> nuevoCubo(grupo,ahora));
+	}
+
+	private CuboTokens nuevoCubo(Grupo grupo, long ahora) {
+		switch(grupo) {
+			case LECTURAS:
+				return new CuboTokens(lecturasPorSegundo,lecturasRafaga,ahora);
+			case SUBIDAS:
+				return new CuboTokens(subidasPorSegundo,subidasRafaga,ahora);
+			default:
+				return new CuboTokens(escriturasPorSegundo,escriturasRafaga,ahora);
+		}
+	}
+
+	// Elimina los cubos llenos.Un cubo lleno es igual a uno nuevo,así que eliminarlo no cambia el límite que ve el cliente
+	void limpiar() {
+		long ahora = System.nanoTime();
+		for(Map<Object,CuboTokens> cubosGrupo: cubos.values())
+			cubosGrupo.values().removeIf(cubo -> cubo.lleno(ahora));
+	}
+
+	// Número de cubos en memoria de todos los grupos
+	int clientes() {
+		return cubos.values().stream().mapToInt(Map::size).sum();
+	}
+}
@@ -0,0 +1,328 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+// Métricas de cada ruta de la Api,etiquetadas con la plantilla de la ruta(por ejemplo,"/api/v2/productos/{id}") y el método http,y no con la ruta real,para que no haya una métrica por cada id
+//  - "api.peticiones"(timer): latencia de cada petición,desde que llega hasta que se termina de escribir la respuesta,con los percentiles "config.metricas.rutas.percentiles" y el histograma de latencias.Lleva además la etiqueta "estado"(el código de estado http o "cancelada" si el cliente se desconecta),así que su número de muestras es el número de respuestas con cada estado
+//  - "api.peticiones.en.curso"(gauge): peticiones en curso de cada ruta
+//  - "api.peticiones.bytes" y "api.respuestas.bytes"(distribution summary): tamaño del cuerpo de la petición y de la respuesta.El de la respuesta es el tamaño antes de comprimirla("server.compression")
+// Se consultan en el endpoint "metrics" de Actuator,por ejemplo "/actuator/metrics/api.peticiones?tag=ruta:/api/v2/productos/{id}&tag=estado:404"
+// Se aplica a los Functional Endpoints mediante el método "filter()"(véase la clase "RouterFunctionConfig") y al controlador anotado mediante la clase "MetricasRutasFilter"
+// Como se ejecuta en todas las peticiones,las métricas de cada ruta se crean una sola vez y se guardan en mapas,de manera que cada petición solo crea su medición y los envoltorios de la respuesta
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class MetricasRutas implements HandlerFilterFunction<ServerResponse,ServerResponse> {
+
+	// Índice de las peticiones canceladas por el cliente en el array de timers de cada ruta,que se indexa por código de estado
+	private static final int CANCELADA = 600;
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas de las rutas
+
+	@Value("${config.metricas.rutas.habilitado:true}")
+	private boolean habilitado;
+
+	// Percentiles de la latencia que se calculan en la aplicación para cada ruta
+	@Value("${config.metricas.rutas.percentiles:0.5,0.95,0.99}")
+	private double[] percentiles;
+
+	// Si se publica el histograma de latencias,que permite calcular los percentiles agregando varias instancias(por ejemplo,en Prometheus)
+	@Value("${config.metricas.rutas.histograma:true}")
+	private boolean histograma;
+
+	// Latencia máxima esperada.Limita el número de intervalos del histograma
+	@Value("${config.metricas.rutas.latencia-maxima:30s}")
+	private Duration latenciaMaxima;
+
+	// Métricas de cada ruta para cada método http.Los mapas de todos los métodos se crean al principio para que buscar una ruta no cree ningún objeto
+	private final Map<HttpMethod,Map<String,MetricasRuta>> rutas = new EnumMap<HttpMethod,Map<String,MetricasRuta>>(HttpMethod.class);
+
+	public MetricasRutas() {
+		for(HttpMethod metodo: HttpMethod.values())
+			rutas.put(metodo,new ConcurrentHashMap<String,MetricasRuta>());
+	}
+
+	// Filtro para los Functional Endpoints.La ruta es la plantilla con la que se ha encontrado el handler
+	// La respuesta se envuelve para medir cuando termina de escribirse.Si el cuerpo de la petición no indica su tamaño,se vuelve a crear la petición sobre la medición para contar sus bytes al leerlo
+	@Override
+	public Mono<ServerResponse> filter(ServerRequest request, HandlerFunction<ServerResponse> next) {
+		if(!habilitado)
+			return next.handle(request);
+		Object patron = request.exchange().getAttributes().get(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE);
+		Medicion medicion = iniciar(request.exchange(),patron instanceof PathPattern ? ((PathPattern)patron).getPatternString() : "desconocida");
+		ServerRequest peticion = medicion.getRequest() != request.exchange().getRequest() ? ServerRequest.create(medicion,request.messageReaders()) : request;
+		return next.handle(peticion)
+				.doOnError(error -> medicion.terminar(SignalType.ON_ERROR))
+				.doOnCancel(() -> medicion.terminar(SignalType.CANCEL))
+				.map(respuesta -> new RespuestaMedida(respuesta,medicion));
+	}
+
+	// Filtro para el controlador anotado(véase la clase "MetricasRutasFilter").Aquí la cadena de filtros termina cuando la respuesta se ha escrito
+	Mono<Void> filtrar(ServerWebExchange exchange, WebFilterChain chain, String ruta) {
+		if(!habilitado)
+			return chain.filter(exchange);
+		Medicion medicion = iniciar(exchange,ruta);
+		return chain.filter(medicion)
+				.doFinally(medicion::terminar);
+	}
+
+	private Medicion iniciar(ServerWebExchange exchange, String ruta) {
+		HttpMethod metodo = exchange.getRequest().getMethod();
+		Map<String,MetricasRuta> porRuta = rutas.get(metodo != null ? metodo : HttpMethod.GET);
+		MetricasRuta metricas = porRuta.get(ruta);
+		if(metricas == null)
+			metricas = porRuta.computeIfAbsent(ruta,r -> new MetricasRuta(metodo != null ? metodo.name() : "GET",r));
+		return new Medicion(exchange,metricas);
+	}
+
+	// Métricas de una ruta y un método http
+	private class MetricasRuta {
+
+		private final Tags tags;
+
+		private final AtomicInteger enCurso = new AtomicInteger();
+
+		// Timers de cada código de estado,que se crean con la primera respuesta con ese estado
+		private final AtomicReferenceArray<Timer> latencias = new AtomicReferenceArray<Timer>(CANCELADA + 1);
+
+		private final DistributionSummary bytesPeticion;
+
+		private final DistributionSummary bytesRespuesta;
+
+		MetricasRuta(String metodo, String ruta) {
+			tags = Tags.of("metodo",metodo,"ruta",ruta);
+			Gauge.builder("api.peticiones.en.curso",enCurso,AtomicInteger::get)
+				.description("Peticiones en curso de la ruta")
+				.tags(tags)
+				.register(registry);
+			bytesPeticion = DistributionSummary.builder("api.peticiones.bytes")
+					.description("Tamaño del cuerpo de las peticiones de la ruta")
+					.baseUnit("bytes")
+					.tags(tags)
+					.register(registry);
+			bytesRespuesta = DistributionSummary.builder("api.respuestas.bytes")
+					.description("Tamaño del cuerpo de las respuestas de la ruta,antes de comprimirlas")
+					.baseUnit("bytes")
+					.tags(tags)
+					.register(registry);
+		}
+
+		Timer latencia(int estado) {
+			int indice = estado >= 0 && estado < CANCELADA ? estado : CANCELADA;
+			Timer timer = latencias.get(indice);
+			if(timer == null) {
+				// Si dos peticiones crean a la vez el mismo timer,Micrometer devuelve el mismo a las dos
+				timer = Timer.builder("api.peticiones")
+						.description("Latencia de las peticiones de la ruta hasta que se termina de escribir la respuesta")
+						.tags(tags)
+						.tag("estado",indice == CANCELADA ? "cancelada" : String.valueOf(indice))
+						.publishPercentiles(percentiles)
+						.publishPercentileHistogram(histograma)
+						.maximumExpectedValue(latenciaMaxima)
+						.register(registry);
+				latencias.set(indice,timer);
+			}
+			return timer;
+		}
+	}
+
+	// Medición de una petición.Envuelve el intercambio para contar los bytes de la respuesta y,si no indica su tamaño,los de la petición
+	private static class Medicion extends ServerWebExchangeDecorator {
+
+		private final MetricasRuta metricas;
+
+		private final long inicio = System.nanoTime();
+
+		private final ServerHttpRequest peticion;
+
+		private final RespuestaContada respuesta;
+
+		// Tamaño del cuerpo de la petición según la cabecera "Content-Length" o -1 si hay que contarlo al leerlo
+		private final long tamanoPeticion;
+
+		private final AtomicLong bytesPeticion = new AtomicLong();
+
+		private boolean terminada;
+
+		Medicion(ServerWebExchange exchange, MetricasRuta metricas) {
+			super(exchange);
+			this.metricas = metricas;
+			metricas.enCurso.incrementAndGet();
+			ServerHttpRequest original = exchange.getRequest();
+			long longitud = original.getHeaders().getContentLength();
+			// Solo se envuelve la petición si su cuerpo no indica su tamaño(por ejemplo,las subidas y las importaciones enviadas por partes)
+			if(longitud < 0 && original.getHeaders().containsKey(HttpHeaders.TRANSFER_ENCODING)) {
+				tamanoPeticion = -1;
+				peticion = new ServerHttpRequestDecorator(original) {
+					@Override
+					public Flux<DataBuffer> getBody() {
+						return super.getBody().doOnNext(buffer -> bytesPeticion.addAndGet(buffer.readableByteCount()));
+					}
+				};
+			}
+			else {
+				tamanoPeticion = Math.max(longitud,0);
+				peticion = original;
+			}
+			// Si la respuesta de Netty puede enviar archivos sin copiarlos a memoria(sendfile),el envoltorio también tiene que poder hacerlo para no perder esa optimización
+			ServerHttpResponse salida = exchange.getResponse();
+			respuesta = salida instanceof ZeroCopyHttpOutputMessage ? new RespuestaContadaZeroCopy(salida) : new RespuestaContada(salida);
+		}
+
+		@Override
+		public ServerHttpRequest getRequest() {
+			return peticion;
+		}
+
+		@Override
+		public ServerHttpResponse getResponse() {
+			return respuesta;
+		}
+
+		// Al terminar de escribir la respuesta,al fallar o al cancelarla el cliente
+		void terminar(SignalType senal) {
+			ServerHttpResponse salida = getDelegate().getResponse();
+			if(senal == SignalType.CANCEL)
+				registrar(CANCELADA);
+			// Si la petición falla antes de enviar la respuesta,el estado no se sabe todavía: lo decide quien convierta el error en respuesta,ya sea un filtro anterior(como el 413 de "LimiteSubidasFilter") o el manejador de errores de Spring
+			// Así que la petición se registra al enviar esa respuesta,con el estado que se envía de verdad
+			else if(senal == SignalType.ON_ERROR && !salida.isCommitted())
+				salida.beforeCommit(() -> Mono.fromRunnable(this::registrarEstado));
+			else
+				registrarEstado();
+		}
+
+		private void registrarEstado() {
+			HttpStatus status = getDelegate().getResponse().getStatusCode();
+			registrar(status != null ? status.value() : 200);
+		}
+
+		// Registra la petición una sola vez,con lo que la primera señal de fin es la que cuenta
+		private void registrar(int estado) {
+			synchronized(this) {
+				if(terminada)
+					return;
+				terminada = true;
+			}
+			metricas.enCurso.decrementAndGet();
+			metricas.latencia(estado).record(System.nanoTime() - inicio,TimeUnit.NANOSECONDS);
+			metricas.bytesPeticion.record(tamanoPeticion >= 0 ? tamanoPeticion : bytesPeticion.get());
+			metricas.bytesRespuesta.record(respuesta.bytes.get());
+		}
+	}
+
+	// Respuesta que cuenta los bytes del cuerpo a medida que se escriben
+	// Los bytes se cuentan en el hilo que escribe la respuesta y se leen en el que la termina,que puede ser otro,por eso el contador es atómico
+	private static class RespuestaContada extends ServerHttpResponseDecorator {
+
+		final AtomicLong bytes = new AtomicLong();
+
+		RespuestaContada(ServerHttpResponse respuesta) {
+			super(respuesta);
+		}
+
+		@Override
+		public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+			return super.writeWith(Flux.from(body).doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount())));
+		}
+
+		@Override
+		public Mono<Void> writeAndFlushWith(Publisher<? extends Publisher<? extends DataBuffer>> body) {
+			return super.writeAndFlushWith(Flux.from(body).map(parte -> Flux.from(parte).doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount()))));
+		}
+	}
+
+	private static class RespuestaContadaZeroCopy extends RespuestaContada implements ZeroCopyHttpOutputMessage {
+
+		RespuestaContadaZeroCopy(ServerHttpResponse respuesta) {
+			super(respuesta);
+		}
+
+		@Override
+		public Mono<Void> writeWith(Path file, long position, long count) {
+			bytes.addAndGet(count);
+			return ((ZeroCopyHttpOutputMessage)getDelegate()).writeWith(file,position,count);
+		}
+
+		@Override
+		public Mono<Void> writeWith(File file, long position, long count) {
+			return writeWith(file.toPath(),position,count);
+		}
+	}
+
+	// Respuesta de los Functional Endpoints que se escribe sobre la medición,para contar sus bytes,y la termina cuando se ha escrito
+	private static class RespuestaMedida implements ServerResponse {
+
+		private final ServerResponse respuesta;
+
+		private final Medicion medicion;
+
+		RespuestaMedida(ServerResponse respuesta, Medicion medicion) {
+			this.respuesta = respuesta;
+			this.medicion = medicion;
+		}
+
+		@Override
+		public HttpStatus statusCode() {
+			return respuesta.statusCode();
+		}
+
+		@Override
+		public HttpHeaders headers() {
+			return respuesta.headers();
+		}
+
+		@Override
+		public MultiValueMap<String,ResponseCookie> cookies() {
+			return respuesta.cookies();
+		}
+
+		@Override
+		public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+			return respuesta.writeTo(medicion,context).doFinally(medicion::terminar);
+		}
+	}
+}
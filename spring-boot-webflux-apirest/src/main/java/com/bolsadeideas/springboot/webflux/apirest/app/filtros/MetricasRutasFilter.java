@@ -0,0 +1,99 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.PathContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.reactive.result.method.RequestMappingInfo;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+
+import reactor.core.publisher.Mono;
+
+// Filtro que aplica las métricas por ruta(véase la clase "MetricasRutas") a las peticiones del controlador anotado "ProductoController"
+// Los Functional Endpoints no pasan por aquí,porque las métricas se les aplican directamente en la clase "RouterFunctionConfig"
+// La plantilla de cada petición se busca en una tabla con las rutas de los métodos del controlador,creada al arrancar y ordenada de la más específica a la menos específica,igual que hace Spring al elegir el método
+// Las peticiones que no coinciden con ninguna ruta se registran con la ruta "desconocida",para que una ruta inventada por el cliente no cree métricas nuevas
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria.Spring WebFlux aplica automáticamente todos los beans de tipo WebFilter
+@Order(Ordered.HIGHEST_PRECEDENCE + 15) // Se ejecuta después del límite de tasa por cliente y antes del límite de concurrencia,para que las peticiones rechazadas por este último(503) también se registren
+public class MetricasRutasFilter implements WebFilter {
+
+	// Ruta base del controlador anotado
+	private static final String RUTA = "/api/productos";
+
+	private static final String DESCONOCIDA = "desconocida";
+
+	@Autowired
+	private MetricasRutas metricas; // Este bean guarda las métricas de todas las rutas y lo comparten los Functional Endpoints y el controlador anotado
+
+	@Autowired
+	@Qualifier("requestMappingHandlerMapping") // Actuator registra otro bean del mismo tipo con sus propios endpoints,así que indicamos el de los controladores de la aplicación
+	private RequestMappingHandlerMapping handlerMapping; // Este bean de Spring WebFlux contiene las rutas de los métodos de los controladores anotados
+
+	// Rutas del controlador anotado de la más específica a la menos específica
+	private final List<Ruta> rutas = new ArrayList<Ruta>();
+
+	@PostConstruct
+	public void init() {
+		for(RequestMappingInfo info: handlerMapping.getHandlerMethods().keySet()) {
+			Set<RequestMethod> metodos = info.getMethodsCondition().getMethods();
+			for(PathPattern patron: info.getPatternsCondition().getPatterns())
+				if(patron.getPatternString().startsWith(RUTA))
+					rutas.add(new Ruta(patron,metodos));
+		}
+		rutas.sort((a,b) -> PathPattern.SPECIFICITY_COMPARATOR.compare(a.patron,b.patron));
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		String ruta = exchange.getRequest().getPath().value();
+		if(ruta.equals(RUTA) || ruta.startsWith(RUTA + "/"))
+			return metricas.filtrar(exchange,chain,plantilla(exchange));
+		return chain.filter(exchange);
+	}
+
+	// Plantilla de la primera ruta que coincide con la ruta y el método de la petición
+	private String plantilla(ServerWebExchange exchange) {
+		PathContainer ruta = exchange.getRequest().getPath().pathWithinApplication();
+		String metodo = exchange.getRequest().getMethodValue();
+		for(Ruta candidata: rutas)
+			if(candidata.admite(metodo) && candidata.patron.matches(ruta))
+				return candidata.patron.getPatternString();
+		return DESCONOCIDA;
+	}
+
+	// Ruta de un método del controlador y los métodos http que atiende(todos si no indica ninguno)
+	private static class Ruta {
+
+		private final PathPattern patron;
+
+		private final Set<RequestMethod> metodos;
+
+		Ruta(PathPattern patron, Set<RequestMethod> metodos) {
+			this.patron = patron;
+			this.metodos = metodos;
+		}
+
+		boolean admite(String metodo) {
+			if(metodos.isEmpty())
+				return true;
+			for(RequestMethod candidato: metodos)
+				if(candidato.name().equals(metodo))
+					return true;
+			return false;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.filtros;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+// Filtro que cuenta las peticiones en curso,desde que llegan hasta que se termina de escribir la respuesta(incluidos los flujos largos como "listar" o "exportar" y las subidas de imágenes)
+// El cierre ordenado de la aplicación(véase la clase "CierreOrdenado") espera a que este contador llegue a cero antes de cerrar las conexiones
+// Durante el cierre,las respuestas llevan la cabecera "Connection: close" para que los clientes no envíen más peticiones por la misma conexión y abran una nueva contra otra instancia.Con HTTP/2,Netty elimina esta cabecera
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria.Spring WebFlux aplica automáticamente todos los beans de tipo WebFilter
+@Order(Ordered.HIGHEST_PRECEDENCE) // Se ejecuta antes que cualquier otro filtro,para contar también las peticiones que los límites de tasa y de concurrencia rechazan
+public class PeticionesEnCursoFilter implements WebFilter {
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar la métrica de peticiones en curso
+
+	private final AtomicInteger enCurso = new AtomicInteger();
+
+	private volatile boolean cerrando;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		Gauge.builder("peticiones.en.curso",enCurso,AtomicInteger::get)
+			.description("Peticiones cuya respuesta no se ha terminado de escribir")
+			.register(registry);
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		enCurso.incrementAndGet();
+		if(cerrando)
+			exchange.getResponse().getHeaders().set(HttpHeaders.CONNECTION,"close");
+		return chain.filter(exchange).doFinally(senal -> enCurso.decrementAndGet());
+	}
+
+	// Indica que la aplicación se está cerrando
+	public void cerrando() {
+		cerrando = true;
+	}
+
+	public int getEnCurso() {
+		return enCurso.get();
+	}
+}
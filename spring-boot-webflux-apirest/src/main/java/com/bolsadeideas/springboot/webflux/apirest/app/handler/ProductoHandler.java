@@ -1,29 +1,69 @@
 package com.bolsadeideas.springboot.webflux.apirest.app.handler;
 
-import java.io.File;
 import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.UUID;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.FormFieldPart;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
+import org.springframework.web.reactive.function.BodyExtractors;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import com.bolsadeideas.springboot.webflux.apirest.app.codec.FormatosBinarios;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ActualizacionPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoImportacion;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoProducto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.PuntoPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.AlmacenFotos;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.EventosProductoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ExportacionService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.FotoDemasiadoGrandeException;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.FotoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.FotoTemporal;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.IdempotenciaService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ImportacionService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.PrecioService;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
 
 // Esta clase contiene todos los métodos handler que se van a usar en nuestra clase de configuración de Spring "RouterFunctionConfig" para configurar el mapeo de rutas para peticiones http usando la técnica "Functional Endpoints"
 
@@ -38,20 +78,61 @@ public class ProductoHandler {
 	@Autowired
 	private Validator validator; // Este bean propio de Spring nos permite validar los campos o propiedades de un objeto entidad(aquel que se mapea directamente con una colección de la base de datos) y también nos permite manejar los errores de validación que se puedan producir
 	
-	// La anotación @Value nos permite inyectar el valor de cualquier propiedad definida en el archivo de propiedades "application.properties"
-	// Inyectamos en el objeto String "path" el valor de la propiedad "config.uploads.path", definida en el archivo de propiedades de la aplicación "application.properties", que contiene la ruta o path donde se van a subir las imágenes
-	@Value("${config.uploads.path}")
-	private String path;
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "IdempotenciaService".Esta interfaz es implementada por la clase "IdempotenciaServiceImpl"
+	@Autowired
+	private IdempotenciaService idempotenciaService; // Este bean evita que una misma petición de creación reintentada por el cliente con la misma cabecera "Idempotency-Key" cree productos duplicados
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "PrecioService".Esta interfaz es implementada por la clase "PrecioServiceImpl"
+	@Autowired
+	private PrecioService precioService; // Este bean acumula en memoria las actualizaciones de precios y las escribe en la base de datos en lotes
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "ImportacionService".Esta interfaz es implementada por la clase "ImportacionServiceImpl"
+	@Autowired
+	private ImportacionService importacionService; // Este bean importa productos desde archivos CSV en lotes
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "ExportacionService".Esta interfaz es implementada por la clase "ExportacionServiceImpl"
+	@Autowired
+	private ExportacionService exportacionService; // Este bean exporta el catálogo completo de productos en formato CSV o NDJSON
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "FotoService".Esta interfaz es implementada por la clase "FotoServiceImpl"
+	@Autowired
+	private FotoService fotoService; // Este bean escribe las imágenes subidas en archivos temporales y solo las mueve al directorio de subidas cuando el producto se ha guardado
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "AlmacenFotos".La implementación depende de la propiedad "config.fotos.almacen.tipo"
+	@Autowired
+	private AlmacenFotos almacenFotos; // Este bean es el almacén del que se leen las imágenes para enviarlas al cliente
+	
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "EventosProductoService".Esta interfaz es implementada por la clase "EventosProductoServiceImpl"
+	@Autowired
+	private EventosProductoService eventosProductoService; // Este bean reparte en vivo los cambios de productos entre los clientes suscritos
+	
+	// Segundos entre los latidos(comentarios vacíos) que se envían a los clientes suscritos a los cambios de productos
+	@Value("${config.eventos.latido-segundos:15}")
+	private long latidoSegundos;
+	
+	// Tiempo,en segundos,que el cliente puede cachear la imagen de un producto pedida por su id.Es corto porque el producto puede cambiar de imagen
+	@Value("${config.fotos.cache.producto-segundos:300}")
+	private long cacheFotoProductoSegundos;
+	
+	// Tiempo,en segundos,que el cliente puede cachear una imagen pedida por su nombre.Es largo porque el contenido de un nombre nunca cambia
+	@Value("${config.fotos.cache.nombre-segundos:31536000}")
+	private long cacheFotoNombreSegundos;
+	
+	// Expresión regular de un ETag de las cabeceras condicionales: fuerte("..."),débil(W/"...") o el comodín "*"
+	private static final Pattern ETAG = Pattern.compile("(W/)?\"[^\"]*\"|\\*");
 	
 	// Método handler que devuelve los datos de todos los productos de la base de datos
 	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
 	// A diferencia de nuestro otro controlador Api Rest "ProductoController",cuya clase se anota con @RestControler y sus métodos handler devuelven flujos reactivos Mono de tipo "ResponseEntity",en este tipo de controlador,implementado con la técnica "Functional Endpoints",sus métodos handler van a devolver flujos reactivos Mono de tipo "ServerResponse"
 	// Otra diferencia con respecto a nuestro otro controlador Api Rest "ProductoController" anotado con @RestController,para la obtención de los datos que viajan en el cuerpo de la petición y de la url o path,se utiliza la instancia de tipo "ServerRequest" que se le pasa como parámetro de entrada a este método.En el otro controlador se usaban para ello anotaciones como @RequestBody,@PathVariable y @RequestParam
 	public Mono<ServerResponse> listar(ServerRequest request){
-		// Creamos y devolvemos un flujo reactivo Mono con un elemento ServerResponse con la respuesta configurada con el estado OK(200),con el ContentType asociado al MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) y,como cuerpo de la respuesta,un flujo reactivo Flux con los productos recuperados de la base de datos a través de la capa de Servicio mediante el bean "productoService"
+		// Tamaño de la imagen que necesita el cliente(por ejemplo,"miniatura").Si no se indica,se devuelve la imagen original
+		String tamano = request.queryParam("size").orElse(null);
+		
+		// Creamos y devolvemos un flujo reactivo Mono con un elemento ServerResponse con la respuesta configurada con el estado OK(200),con el ContentType negociado a partir de la cabecera "Accept"(Json por defecto,o CBOR o Smile si el cliente los prefiere) y,como cuerpo de la respuesta,un flujo reactivo Flux con los productos recuperados de la base de datos a través de la capa de Servicio mediante el bean "productoService"
 		return ServerResponse.ok() // El estado OK(200) es el estado por defecto de la respuesta.Si no se especifica otro,se utiliza este estado
-				.contentType(MediaType.APPLICATION_JSON_UTF8) // El ContentType con el MediaType APPLICATION_JSON es el valor por defecto para una respuesta.Si no se especifica otro(En este caso lo estamos haciendo dando el valor APPLICATION_JSON_UTF8 - El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8),se utiliza este valor
-				.body(productoService.findAll(),Producto.class); // Recuperamos de la capa Service mediante el bean 'productoService' el listado de productos como un stream reactivo de tipo Flux(varios items.Si fuese sólo un item,sería de tipo Mono).En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos. Como el método "findAll()" devuelve directamente un flujo reactivo Flux,tenemos que especificar,además,el tipo o la clase a la que pertenecen los elementos de este flujo reactivo
+				.contentType(FormatosBinarios.negociar(request.headers().accept())) // Establecemos el ContentType de la respuesta según la cabecera "Accept" de la petición: CBOR o Smile si el cliente los prefiere y,si no,el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) como hasta ahora
+				.body(productoService.findAll().map(p -> p.conTamano(tamano)),Producto.class); // Recuperamos de la capa Service mediante el bean 'productoService' el listado de productos como un stream reactivo de tipo Flux(varios items.Si fuese sólo un item,sería de tipo Mono).En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos. Como el método "findAll()" devuelve directamente un flujo reactivo Flux,tenemos que especificar,además,el tipo o la clase a la que pertenecen los elementos de este flujo reactivo
 	}
 	
 	// Método handler que devuelve los datos de un producto de la base de datos a partir de su id, que es obtenido de la petición http "request"
@@ -61,18 +142,127 @@ public class ProductoHandler {
 	public Mono<ServerResponse> ver(ServerRequest request){
 		//Obtenemos de la url  o path de la petición http el id del producto
 		String id = request.pathVariable("id");
+		// Tamaño de la imagen que necesita el cliente(por ejemplo,"miniatura").Si no se indica,se devuelve la imagen original
+		String tamano = request.queryParam("size").orElse(null);
 		
 		return productoService.findById(id) // Recuperamos de la base de datos el producto como un flujo reactivo Mono a partir del id recuperado de la url o path.Esto lo hacemos mediante el bean 'productoService'
+				.map(p -> p.conTamano(tamano)) // Si se ha pedido un tamaño y su variante ya está generada,devolvemos la variante en lugar de la imagen original
 				// Como necesitamos devolver un flujo reactivo Mono de un ServerResponse para manejar y personalizar la respuesta,con el operador "map" transformamos el flujo reactivo Mono anterior en otro flujo reactivo Mono con un elemento ServerResponse
 				.flatMap(p -> ServerResponse.ok() // Establecemos el estado de la respuesta en OK(200),que en realidad no hace falta porque es el valor por defecto del estado de una respuesta
-							.contentType(MediaType.APPLICATION_JSON_UTF8) // Establecemos el ContentType de la respuesta con el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).El valor por defecto del ContenType de una respuesta es un MediaType con el valor APPLICATION_JSON
+							.contentType(FormatosBinarios.negociar(request.headers().accept())) // Establecemos el ContentType de la respuesta según la cabecera "Accept" de la petición: CBOR o Smile si el cliente los prefiere y,si no,el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) como hasta ahora
 							.body(BodyInserters.fromObject(p)) // Establecemos como cuerpo de la respuesta el producto recuperado de la base de datos.En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos.Como nuestro dato "p" no es flujo reactivo,tenemos que usar el método "fromObject()" de la clase "BodyInserters"
 				)
 				// Con el método "switchIfEmpty()",si el flujo reactivo Mono anterior tiene como elemento un elemento vacío o nulo porque no se ha localizado ningún producto a partir del id obtenido de la url o path,sustituimos dicho flujo por otro flujo reactivo Mono con un elemento ServerResponse con el estado de la respuesta NOT_FOUND(404) y su cuerpo vacío(sin datos)
 				.switchIfEmpty(ServerResponse.notFound().build()); // El método "build()" nos permite crear un ServerResponse con su cuerpo o body vacío(sin datos)
 	}
 	
-	// Método handler que crea un nuevo producto(sin asociar ninguna imagen) en la base de datos a partir de los datos que se obtienen de la petición http "request"
+	// Método handler que devuelve la imagen de un producto a partir de su id,que es obtenido de la petición http "request".Con el parámetro opcional "size" se devuelve la variante de ese tamaño,si existe
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	// Como la imagen de un producto puede cambiar,esta respuesta se cachea poco tiempo.Aun así,al caducar,el cliente la revalida con su ETag y,si no ha cambiado,recibe un NOT_MODIFIED(304) sin cuerpo
+	public Mono<ServerResponse> foto(ServerRequest request){
+		String id = request.pathVariable("id");
+		String tamano = request.queryParam("size").orElse(null);
+		
+		return productoService.findById(id)
+				.map(p -> p.conTamano(tamano))
+				.filter(p -> p.getFoto() != null)
+				.flatMap(p -> servirFoto(request,p.getFoto(),CacheControl.maxAge(cacheFotoProductoSegundos,TimeUnit.SECONDS).cachePublic().getHeaderValue()))
+				// Si no existe el producto o no tiene imagen,respondemos con el estado NOT_FOUND(404)
+				.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	// Método handler que devuelve una imagen a partir de su nombre,que es obtenido de la petición http "request"
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	// Como el nombre de una imagen es el hash de su contenido,el contenido de un nombre nunca cambia y la respuesta se puede cachear para siempre("immutable")
+	public Mono<ServerResponse> fotoPorNombre(ServerRequest request){
+		String nombre = request.pathVariable("nombre");
+		// Solo aceptamos nombres de imagen simples para que el nombre no pueda salir del directorio de subidas
+		if(!nombre.matches("[A-Za-z0-9_-][A-Za-z0-9._-]*"))
+			return ServerResponse.notFound().build();
+		
+		return servirFoto(request,nombre,CacheControl.maxAge(cacheFotoNombreSegundos,TimeUnit.SECONDS).cachePublic().getHeaderValue() + ", immutable");
+	}
+	
+	// Método que crea la respuesta con el contenido de una imagen del almacén de imágenes
+	// El ETag es fuerte porque el nombre de la imagen es el hash de su contenido: dos respuestas con el mismo ETag son idénticas byte a byte
+	private Mono<ServerResponse> servirFoto(ServerRequest request, String nombre, String cacheControl){
+		String etag = "\"" + nombre + "\"";
+		MediaType tipo = MediaTypeFactory.getMediaType(nombre).orElse(MediaType.APPLICATION_OCTET_STREAM);
+		
+		// Si el cliente ya tiene esta imagen en su caché,respondemos con el estado NOT_MODIFIED(304) sin cuerpo
+		// La cabecera "If-None-Match" es una lista de ETags separados por comas o "*".Se comparan de manera débil,es decir,sin tener en cuenta el prefijo "W/"
+		List<String> etagsCliente = etags(request.headers().header(HttpHeaders.IF_NONE_MATCH));
+		if(etagsCliente.contains("*") || etagsCliente.stream().anyMatch(valor -> valor.equals(etag) || valor.equals("W/" + etag)))
+			return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(etag).header(HttpHeaders.CACHE_CONTROL,cacheControl).build();
+		
+		List<HttpRange> rangos;
+		try {
+			rangos = request.headers().range();
+		}
+		catch(IllegalArgumentException e) {
+			rangos = Collections.emptyList(); // Una cabecera "Range" mal formada se ignora y se devuelve la imagen completa
+		}
+		// Con la cabecera "If-Range",el cliente pide el rango solo si la imagen sigue siendo la que tiene en parte.La imagen de un producto puede cambiar,así que,si el ETag no coincide exactamente con el actual(comparación fuerte),o es una fecha,ignoramos el rango y devolvemos la imagen completa
+		// El ResourceHttpMessageWriter de Spring lee directamente la cabecera "Range" de la petición y no tiene en cuenta la cabecera "If-Range",así que,en ese caso,tampoco enviamos la imagen como un recurso de tipo archivo
+		String ifRange = request.headers().asHttpHeaders().getFirst(HttpHeaders.IF_RANGE);
+		boolean ignorarRangos = !rangos.isEmpty() && ifRange != null && !ifRange.trim().equals(etag);
+		List<HttpRange> rangosPedidos = ignorarRangos ? Collections.<HttpRange>emptyList() : rangos;
+		
+		return almacenFotos.tamano(nombre).flatMap(tamano -> {
+			// Si el rango pedido empieza después del final de la imagen,respondemos con el estado REQUESTED_RANGE_NOT_SATISFIABLE(416)
+			if(!rangosPedidos.isEmpty() && !satisfacibles(rangosPedidos,tamano))
+				return ServerResponse.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).header(HttpHeaders.CONTENT_RANGE,"bytes */" + tamano).build();
+			
+			// Cabeceras comunes a las respuestas con la imagen completa y con un rango de la imagen
+			Function<HttpStatus,ServerResponse.BodyBuilder> respuesta = estado -> ServerResponse.status(estado)
+					.contentType(tipo)
+					.eTag(etag)
+					.header(HttpHeaders.CACHE_CONTROL,cacheControl)
+					.header(HttpHeaders.ACCEPT_RANGES,"bytes");
+			
+			// Si la imagen está en el sistema de archivos local,la enviamos como un recurso de tipo archivo.El ResourceHttpMessageWriter de Spring atiende la cabecera "Range"(respondiendo con PARTIAL_CONTENT(206))
+			// y,como la respuesta de Reactor Netty implementa "ZeroCopyHttpOutputMessage",transfiere el archivo directamente del disco al socket(sendfile) sin copiarlo a memoria
+			return (ignorarRangos ? Mono.<Path>empty() : almacenFotos.archivoLocal(nombre))
+					.flatMap(ruta -> respuesta.apply(HttpStatus.OK).body(BodyInserters.fromResource(new FileSystemResource(ruta))))
+					// Si el almacén no es local,enviamos los bloques a medida que se leen.Solo atendemos un único rango;con varios rangos devolvemos la imagen completa,como permite el protocolo http
+					.switchIfEmpty(Mono.defer(() -> {
+						if(rangosPedidos.size() != 1)
+							return respuesta.apply(HttpStatus.OK).contentLength(tamano).body(BodyInserters.fromDataBuffers(almacenFotos.leer(nombre)));
+						long inicio = rangosPedidos.get(0).getRangeStart(tamano);
+						long fin = rangosPedidos.get(0).getRangeEnd(tamano);
+						Flux<DataBuffer> contenido = DataBufferUtils.takeUntilByteCount(DataBufferUtils.skipUntilByteCount(almacenFotos.leer(nombre),inicio),fin - inicio + 1);
+						return respuesta.apply(HttpStatus.PARTIAL_CONTENT)
+								.header(HttpHeaders.CONTENT_RANGE,"bytes " + inicio + "-" + fin + "/" + tamano)
+								.contentLength(fin - inicio + 1)
+								.body(BodyInserters.fromDataBuffers(contenido));
+					}));
+		})
+		// Si la imagen no existe en el almacén,respondemos con el estado NOT_FOUND(404)
+		.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	// Devuelve los ETags de las cabeceras "If-None-Match",incluido el prefijo "W/" de los ETags débiles.Un ETag puede contener comas entre sus comillas,así que no basta con separar por comas
+	private List<String> etags(List<String> valores){
+		List<String> etags = new ArrayList<String>();
+		for(String valor: valores) {
+			Matcher etag = ETAG.matcher(valor);
+			while(etag.find())
+				etags.add(etag.group());
+		}
+		return etags;
+	}
+	
+	// Indica si todos los rangos pedidos empiezan dentro de la imagen
+	private boolean satisfacibles(List<HttpRange> rangos, long tamano){
+		try {
+			return rangos.stream().allMatch(rango -> rango.getRangeStart(tamano) < tamano);
+		}
+		catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+		// Método handler que crea un nuevo producto(sin asociar ninguna imagen) en la base de datos a partir de los datos que se obtienen de la petición http "request"
 	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
 	// A diferencia de nuestro otro controlador Api Rest "ProductoController",cuya clase se anota con @RestControler y sus métodos handler devuelven flujos reactivos Mono de tipo "ResponseEntity",en este tipo de controlador,implementado con la técnica "Functional Endpoints",sus métodos handler van a devolver flujos reactivos Mono de tipo "ServerResponse"
 	// Otra diferencia con respecto a nuestro otro controlador Api Rest "ProductoController" anotado con @RestController,para la obtención de los datos que viajan en el cuerpo de la petición y de la url o path,se utiliza la instancia de tipo "ServerRequest" que se le pasa como parámetro de entrada a este método.En el otro controlador se usaban para ello anotaciones como @RequestBody,@PathVariable y @RequestParam
@@ -102,78 +292,129 @@ public class ProductoHandler {
 			}
 			// En caso contrario...
 			else {
+				// Obtenemos de la cabecera "Idempotency-Key" de la petición http la clave de idempotencia enviada por el cliente(es opcional)
+				String clave = request.headers().asHttpHeaders().getFirst(IdempotenciaService.CABECERA);
+				// Calculamos la huella de la petición antes de completar el producto,para que la misma petición repetida tenga siempre la misma huella y otra petición distinta con la misma clave se rechace
+				String huella = clave != null && !clave.isEmpty() ? idempotenciaService.huella(request.method(),request.path(),p) : null;
+				
 				// Si la fecha del producto nos llega vacía desde la petición http,le asignamos la fecha actual del sistema
 				if(p.getCreateAt() == null)
 					p.setCreateAt(new Date());
 				
+				// Si el cliente nos envía una clave,el producto se persiste una única vez por clave.Si la petición se repite,se devuelve la respuesta original sin volver a escribir en la base de datos
+				if(huella != null)
+					return idempotenciaService.ejecutar(clave,huella,productoService.save(p)
+							.map(pdb -> idempotenciaService.respuesta(HttpStatus.CREATED,"/api/v2/productos/".concat(pdb.getId()),FormatosBinarios.negociar(request.headers().accept()),pdb)))
+							.flatMap(this::responder);
+				
 				// Persistimos el producto recibido de la petición http en la base de datos mediante el bean 'productoService'
 				return productoService.save(p)
 						// Como necesitamos devolver un flujo reactivo Mono de un ServerResponse para manejar y personalizar la respuesta,con el operador "flatMap" transformamos el flujo reactivo Mono anterior en otro flujo reactivo Mono que tiene a su vez otro flujo reactivo Mono con dicho elemento ServerResponse.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
 						.flatMap(pdb -> ServerResponse.created(URI.create("/api/v2/productos/".concat(pdb.getId()))) // Establecemos el estado de la respuesta en CREATED(200) y le pasamos la localización del producto que se acaba de crear usando la clase URI junto con la ruta o path de dicho producto.Esta localización va en la cabecera de la respuesta
-								.contentType(MediaType.APPLICATION_JSON_UTF8) // Establecemos el ContentType de la respuesta con el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).El valor por defecto del ContenType de una respuesta es un MediaType con el valor APPLICATION_JSON
+								.contentType(FormatosBinarios.negociar(request.headers().accept())) // Establecemos el ContentType de la respuesta según la cabecera "Accept" de la petición: CBOR o Smile si el cliente los prefiere y,si no,el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) como hasta ahora
 								.body(BodyInserters.fromObject(pdb))); // Establecemos como cuerpo de la respuesta el producto que acabamos de guardar en la base de datos.En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos.Como nuestro dato "pdb" no es flujo reactivo,tenemos que usar el método "fromObject()" de la clase "BodyInserters"
 			}	
 		});
 	}
 	
+	// Método que crea un flujo reactivo Mono con un elemento ServerResponse a partir de una respuesta almacenada por clave de idempotencia
+	// El cuerpo ya está serializado,por eso lo escribimos directamente como un array de bytes sin volver a pasar por Jackson y con el tipo de contenido de la respuesta original
+	private Mono<ServerResponse> responder(Idempotencia respuesta){
+		ServerResponse.BodyBuilder builder = ServerResponse.status(HttpStatus.valueOf(respuesta.getEstado()))
+				.contentType(MediaType.parseMediaType(respuesta.getTipo()))
+				.header(IdempotenciaService.CABECERA_REPETIDA,String.valueOf(respuesta.isRepetida())); // Indicamos al cliente si se trata de la respuesta original o de una repetición
+		if(respuesta.getLocation() != null)
+			builder.location(URI.create(respuesta.getLocation()));
+		return builder.body(BodyInserters.fromObject(respuesta.getCuerpo()));
+	}
+	
 	// Método handler que actualiza y asocia un producto de la base de datos, dado su id, con una imagen.Tanto el id como la imagen se obtienen de la petición http "request"
 	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
 	// A diferencia de nuestro otro controlador Api Rest "ProductoController",cuya clase se anota con @RestControler y sus métodos handler devuelven flujos reactivos Mono de tipo "ResponseEntity",en este tipo de controlador,implementado con la técnica "Functional Endpoints",sus métodos handler van a devolver flujos reactivos Mono de tipo "ServerResponse"
 	// Otra diferencia con respecto a nuestro otro controlador Api Rest "ProductoController" anotado con @RestController,para la obtención de los datos que viajan en el cuerpo de la petición y de la url o path,se utiliza la instancia de tipo "ServerRequest" que se le pasa como parámetro de entrada a este método.En el otro controlador se usaban para ello anotaciones como @RequestBody,@PathVariable y @RequestParam
 	public Mono<ServerResponse> crearConFoto(ServerRequest request){
-		// Obtenemos del cuerpo de la petición http el nombre, el precio y la categoría del producto a crear que viaja en los campos de un formulario FormData
-		// El método "multipartData()" devuelve un flujo reactivo Mono que tiene como elemento un objeto de tipo "MultiValueMap<String, Part>" que se corresponde con el fomulario FormData que viaja en la petición http Post
-		Mono<Producto> producto = request.multipartData()
-				// El nombre,precio,id de la categoría y nombre de la categoría viajan en los campos "nombre","precio","categoria.id" y "categoria.nombre" respectivamente de dicho formulario FormData y, para obtener sus valores para crear un producto, tenemos que transformar este flujo reactivo Mono de tipo "MultiValueMap<String, Part>" en otro flujo reactivo Mono de tipo "Producto"
-				.map(multipart -> {
-					// Obtenemos los campos "nombre","precio","categoria.id" y "categoria.nombre" del formulario FormData como objetos de tipo "FormFieldPart"
-					// Como el método "get()" nos devuelve el tipo de dato "Part", que es muy genérico, tenemos que hacer un casting o conversión al tipo de dato que nos interesa, que en este caso es "FormFieldPart", para posteriormente obtener sus valores
-					FormFieldPart nombre = (FormFieldPart)multipart.toSingleValueMap().get("nombre");
-					FormFieldPart precio = (FormFieldPart)multipart.toSingleValueMap().get("precio");
-					FormFieldPart categoriaId = (FormFieldPart)multipart.toSingleValueMap().get("categoria.id");
-					FormFieldPart categoriaNombre = (FormFieldPart)multipart.toSingleValueMap().get("categoria.nombre");
-					
-					// Creamos la categoría del producto usando el valor del campo "categoriaNombre" obtenido en el punto anterior y establecemos su identificador mediante el valor del campo "categoriaId"
-					Categoria categoria = new Categoria(categoriaNombre.value());
-					categoria.setId(categoriaId.value());
-					
-					// Devolvemos un nuevo producto mediante el valor del campo "nombre", el valor del campo "precio"(como este valor es un String y el constructor espera un dato de tipo Double, tenemos que convertirlo usando el método "valueOf()" de la clase "Double") y la categoría creada anteriormente
-					return new Producto(nombre.value(),Double.valueOf(precio.value()),categoria);
-				});
+		// Producto que vamos rellenando con los campos del formulario FormData a medida que llegan
+		Producto producto = new Producto();
+		producto.setCategoria(new Categoria());
+		// Imágenes temporales recibidas,para poder eliminarlas si falla o se cancela el procesamiento del formulario
+		List<FotoTemporal> recibidas = new CopyOnWriteArrayList<FotoTemporal>();
 		
-		// Obtenemos del cuerpo de la petición http la imagen que viaja en un campo de un formulario FormData
-		// El método "multipartData()" devuelve un flujo reactivo Mono que tiene como elemento un objeto de tipo "MultiValueMap<String, Part>" que se corresponde con el fomulario FormData que viaja en la petición http Post
-		return request.multipartData()
-				// La imagen viaja en el campo "file" de dicho formulario FormData y, para obtenerla, tenemos que transformar este flujo reactivo Mono de tipo "MultiValueMap<String, Part>" en otro flujo reactivo Mono de tipo "Part" con el contenido del campo "file" de dicho formulario
-				.map(multipart -> multipart.toSingleValueMap().get("file"))
-				// Como el elemento del flujo reactivo Mono anterior es de tipo "Part", que es muy genérico, tenemos que hacer un casting para convertirlo al tipo más concreto que nos interesa, es decir, en este caso al tipo "FilePart" porque estamas tratando con archivos de imagen
-				.cast(FilePart.class)
-				// Con el operador flatMap,transformamos el flujo reactivo Mono anterior, con el objeto "FilePart" de la imagen como elemento, en otro flujo reactivo Mono cuyo elemento va a ser a su vez otro flujo reactivo Mono con los datos del producto obtenido de la petición http.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
-				.flatMap(file -> producto
-						// Con el operador flatMap,transformamos el flujo reactivo Mono anterior, con el producto obtenido de la petición http como elemento, en otro flujo reactivo Mono cuyo elemento va a ser a su vez otro flujo reactivo Mono con los datos del producto guardado con la imagen en la base de datos.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
-						.flatMap(p -> {
-							// Relacionamos la imagen que vamos a subir con el producto obtenido de la petición http
-							// Cada imagen que relacionemos con un producto, tiene que tener un nombre único y, para ello, usamos la clase "UUDI" que nos permite generar un número aleatrio al que convertimos en un String para concatenarlo al nombre de dicha imagen mediante otro String "-"
-							// Además, eliminamos los caracteres especiales ' ',':' y '\\' que tiene el nombre de la imagen cuando se selecciona para ser subida(el nombre de la imagen contiene toda la ruta o path donde se localiza)
-							p.setFoto(UUID.randomUUID().toString() + "-" + file.filename().replace(" ","").replace(":","").replace("\\",""));
-							// Antes de persistir el producto con su imagen en la base de datos, tenemos que establecer la fecha de creación de este producto y, para ello, usamos la fecha actual del sistema
-							p.setCreateAt(new Date());
-							// Mediante el método "transferTo(ruta)" del objeto "file" se realiza la subida a nuestro directorio de subidas cuya ruta nos la da el bean "path"(su valor se obtiene del archivo de configuración "application.properties" de este proyecto)
-							// Para ello, tenemos que pasarle a dicho método una instancia de tipo File con la ruta completa de la subida, es decir, la ruta contenida en el bean "path" + el nombre único de la imagen obtenido en el paso anterior
-							// Ahora solo nos falta persistir el producto con su imagen en la base de datos mediante el método "save()" del bean "productoService"
-							// Como el método "transferTo(ruta)" del objeto "file" devuelve un flujo reactivo Mono con un elemento de tipo Void,después del operador "flatMap" no podemos usar un operador "map" para actualizar en la base de datos el producto junto con su imagen y obtener un flujo reactivo Mono con el producto actualizado como elemento porque, al ser el elemento de tipo Void,no va a emitirse para que se ejecute dicho operador "map"
-							// Por esta razón,tenemos que crear el flujo reactivo Mono, con el producto persistido como elemento, dentro del operador "flatMap" usando el método "then()"(Es "then()" porque lo estamos aplicando sobre un flujo reactivo Mono.En cambio,se usa "thenMany()" si se aplica sobre un flujo reactivo Flux)
-							return file.transferTo(new File(path + p.getFoto()))
-									// Actualizamos los datos del producto con su imagen en la base de datos mediante el bean 'productoService'
-									// El método "then" espera a que el flujo reactivo original termine de emitir su único elemento para comenzar a procesar un nuevo flujo reactivo Mono, es decir, comienza a procesar un nuevo flujo reactivo Mono cuando se produce el evento OnComplete del flujo reactivo original
-					    			// Al final, el único elemento del flujo reactivo original es ignorado y se tiene en cuenta el elemento del nuevo flujo reactivo Mono
-									// "thenMany" se usa para crear flujos reactivos Flux y "then" para crear flujos reactivos Mono cuando el flujo reactivo original ha finalizado de emitir su último elemento
-									.then(productoService.save(p));
-						}))
+		// Con "usingWhen()",si el procesamiento del formulario falla o se cancela,la eliminación de las imágenes temporales ya recibidas forma parte del propio flujo reactivo
+		return Mono.usingWhen(Mono.just(recibidas),
+				lista -> partes(request,producto,lista),
+				lista -> Mono.empty(),
+				this::descartar,
+				this::descartar)
+				// Si el formulario tiene varias imágenes en el campo "file",solo se usa la primera y el resto se eliminan antes de continuar.Si no tiene imagen,el flujo reactivo Mono se queda vacío
+				.flatMap(fotos -> fotos.isEmpty() ? Mono.<FotoTemporal>empty() : descartar(fotos.subList(1,fotos.size())).thenReturn(fotos.get(0)))
+				// Cuando ya se han procesado todas las partes del formulario,persistimos el producto con su imagen en la base de datos mediante el bean 'productoService'
+				// La imagen temporal se mueve a su ubicación definitiva justo antes de guardar el producto.Si no se puede mover,el producto no se guarda y la imagen temporal se elimina
+				.flatMap(foto -> {
+					producto.setFoto(foto.getNombre());
+					// Antes de persistir el producto con su imagen en la base de datos, tenemos que establecer la fecha de creación de este producto y, para ello, usamos la fecha actual del sistema
+					producto.setCreateAt(new Date());
+					return fotoService.confirmar(foto,productoService.save(producto));
+				})
 				// Como necesitamos devolver un flujo reactivo Mono de un ServerResponse para manejar y personalizar la respuesta,con el operador "flatMap" transformamos el flujo reactivo Mono anterior en otro flujo reactivo Mono que tiene a su vez otro flujo reactivo Mono con dicho elemento ServerResponse.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
 				.flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId()))) // Establecemos el estado de la respuesta en CREATED(200) y le pasamos la localización del producto que se acaba de persistir con la imagen usando la clase URI junto con la ruta o path de dicho producto.Esta localización va en la cabecera de la respuesta
-						.contentType(MediaType.APPLICATION_JSON_UTF8) // Establecemos el ContentType de la respuesta con el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).El valor por defecto del ContenType de una respuesta es un MediaType con el valor APPLICATION_JSON
-						.body(BodyInserters.fromObject(p))); // Establecemos como cuerpo de la respuesta el producto que acabamos de guardar con la imagen en la base de datos.En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos.Como nuestro dato "p" no es flujo reactivo,tenemos que usar el método "fromObject()" de la clase "BodyInserters"	
+						.contentType(FormatosBinarios.negociar(request.headers().accept())) // Establecemos el ContentType de la respuesta según la cabecera "Accept" de la petición: CBOR o Smile si el cliente los prefiere y,si no,el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) como hasta ahora
+						.body(BodyInserters.fromObject(p))) // Establecemos como cuerpo de la respuesta el producto que acabamos de guardar con la imagen en la base de datos.En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos.Como nuestro dato "p" no es flujo reactivo,tenemos que usar el método "fromObject()" de la clase "BodyInserters"
+				// Si el formulario no tiene el campo "file" con la imagen,respondemos con el estado BAD_REQUEST(400)
+				.switchIfEmpty(ServerResponse.badRequest().body(BodyInserters.fromObject("El formulario no contiene la imagen en el campo 'file'")))
+				// Si el precio no es un número válido,también respondemos con el estado BAD_REQUEST(400)
+				.onErrorResume(NumberFormatException.class,e -> ServerResponse.badRequest().body(BodyInserters.fromObject("El precio no es un número válido")))
+				// Si la imagen supera el tamaño máximo,respondemos con el estado PAYLOAD_TOO_LARGE(413)
+				.onErrorResume(FotoDemasiadoGrandeException.class,e -> ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).body(BodyInserters.fromObject(e.getMessage())));
+	}
+	
+	// Procesa las partes del formulario FormData de creación de productos con imagen y devuelve un flujo reactivo Mono con la lista de imágenes temporales recibidas en el campo "file"
+	// Obtenemos del cuerpo de la petición http las partes del formulario FormData como un flujo reactivo Flux de tipo "Part"
+	// A diferencia del método "multipartData()",que espera a tener todo el formulario para devolver un mapa con todas sus partes,con "BodyExtractors.toParts()" recibimos cada parte en cuanto termina de llegar y en el mismo orden en el que la envía el cliente
+	// De esta manera,el cuerpo de la petición se decodifica una sola vez y no tenemos el formulario entero en memoria
+	// Usamos "collectList()" en lugar de "next()" porque "next()" cancelaría el resto del formulario en cuanto llegase la imagen y los campos posteriores no se asignarían al producto
+	private Mono<List<FotoTemporal>> partes(ServerRequest request, Producto producto, List<FotoTemporal> recibidas) {
+		return request.body(BodyExtractors.toParts())
+				// Con el operador "concatMap" procesamos las partes de una en una y en orden.Si la parte es un campo,lo asignamos al producto.Si es la imagen,la escribimos en un archivo temporal y emitimos la imagen temporal
+				.concatMap(part -> {
+					if(part instanceof FormFieldPart) {
+						asignarCampo(producto,part.name(),((FormFieldPart)part).value());
+						return Mono.<FotoTemporal>empty();
+					}
+					if(part instanceof FilePart && "file".equals(part.name())) {
+						// La imagen se escribe en un archivo temporal a medida que llega.Todavía no se mueve a su ubicación definitiva porque el producto no se ha guardado
+						return fotoService.recibir((FilePart)part).doOnNext(recibidas::add);
+					}
+					// Cualquier otra parte se ignora,pero tenemos que consumir su contenido para liberar sus DataBuffer
+					return part.content().doOnNext(DataBufferUtils::release).then(Mono.<FotoTemporal>empty());
+				})
+				.collectList();
+	}
+	
+	// Elimina las imágenes temporales que ya no se van a usar,de una en una
+	private Mono<Void> descartar(List<FotoTemporal> fotos) {
+		return Flux.fromIterable(fotos).concatMap(fotoService::descartar).then();
+	}
+	
+	// Asigna al producto el valor de un campo del formulario FormData de creación de productos con imagen
+	// Los campos "nombre","precio","categoria.id" y "categoria.nombre" se corresponden con el nombre,el precio,el id de la categoría y el nombre de la categoría del producto.El resto de campos se ignoran
+	private void asignarCampo(Producto producto, String campo, String valor) {
+		switch(campo) {
+			case "nombre":
+				producto.setNombre(valor);
+				break;
+			case "precio":
+				// Como el valor del campo es un String y la propiedad "precio" es de tipo Double,tenemos que convertirlo usando el método "valueOf()" de la clase "Double"
+				producto.setPrecio(Double.valueOf(valor));
+				break;
+			case "categoria.id":
+				producto.getCategoria().setId(valor);
+				break;
+			case "categoria.nombre":
+				producto.getCategoria().setNombre(valor);
+				break;
+			default:
+				break;
+		}
 	}
 	
 	// Método handler que actualiza y asocia un producto de la base de datos, dado su id, con una imagen.Tanto el id como la imagen se obtienen de la petición http "request"
@@ -193,29 +434,22 @@ public class ProductoHandler {
 				// Con el operador flatMap,transformamos el flujo reactivo Mono anterior con el objeto "FilePart" de la imagen como elemento en otro flujo reactivo Mono cuyo elemento va a ser a su vez otro flujo reactivo Mono con los datos del producto localizado en la base de datos.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
 				.flatMap(file -> productoService.findById(id)
 						// Con el operador flatMap,transformamos el flujo reactivo Mono anterior con el producto localizado como elemento en otro flujo reactivo Mono cuyo elemento va a ser a su vez otro flujo reactivo Mono con los datos del producto actualizado con la imagen en la base de datos.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
-						.flatMap(p -> {
-							// Relacionamos la imagen que vamos a subir con el producto localizado en la base de datos
-							// Cada imagen que relacionemos con un producto, tiene que tener un nombre único y, para ello, usamos la clase "UUDI" que nos permite generar un número aleatrio al que convertimos en un String para concatenarlo al nombre de dicha imagen mediante otro String "-"
-							// Además, eliminamos los caracteres especiales ' ',':' y '\\' que tiene el nombre de la imagen cuando se selecciona para ser subida(el nombre de la imagen contiene toda la ruta o path donde se localiza)
-							p.setFoto(UUID.randomUUID().toString() + "-" + file.filename().replace(" ","").replace(":","").replace("\\",""));
-							// Mediante el método "transferTo(ruta)" del objeto "file" se realiza la subida a nuestro directorio de subidas cuya ruta nos la da el bean "path"(su valor se obtiene del archivo de configuración "application.properties" de este proyecto)
-							// Para ello, tenemos que pasarle a dicho método una instancia de tipo File con la ruta completa de la subida, es decir, la ruta contenida en el bean "path" + el nombre único de la imagen obtenido en el paso anterior
-							// Ahora solo nos falta actualizar el producto con su imagen en la base de datos mediante el método "save()" del bean "productoService"
-							// Como el método "transferTo(ruta)" del objeto "file" devuelve un flujo reactivo Mono con un elemento de tipo Void,después del operador "flatMap" no podemos usar un operador "map" para actualizar en la base de datos el producto junto con su imagen y obtener un flujo reactivo Mono con el producto actualizado como elemento porque, al ser el elemento de tipo Void,no va a emitirse para que se ejecute dicho operador "map"
-							// Por esta razón,tenemos que crear el flujo reactivo Mono con el producto editado como elemento dentro del operador "flatMap" usando el método "then()"(Es "then()" porque lo estamos aplicando sobre un flujo reactivo Mono.En cambio,se usa "thenMany()" si se aplica sobre un flujo reactivo Flux)
-							return file.transferTo(new File(path + p.getFoto()))
-									// Actualizamos los datos del producto con su imagen en la base de datos mediante el bean 'productoService'
-									// El método "then" espera a que el flujo reactivo original termine de emitir su único elemento para comenzar a procesar un nuevo flujo reactivo Mono, es decir, comienza a procesar un nuevo flujo reactivo Mono cuando se produce el evento OnComplete del flujo reactivo original
-					    			// Al final, el único elemento del flujo reactivo original es ignorado y se tiene en cuenta el elemento del nuevo flujo reactivo Mono
-									// "thenMany" se usa para crear flujos reactivos Flux y "then" para crear flujos reactivos Mono cuando el flujo reactivo original ha finalizado de emitir su último elemento
-									.then(productoService.save(p));
-						}))
+						.flatMap(p -> fotoService.subir(file,foto -> {
+							// Relacionamos la imagen que vamos a subir con el producto localizado en la base de datos mediante su nombre definitivo
+							p.setFoto(foto);
+							// Las variantes redimensionadas de la imagen anterior ya no sirven.Las de la nueva imagen se generan en segundo plano cuando termina la subida
+							p.setVariantes(null);
+							// La imagen se escribe primero en un archivo temporal y,solo si el producto se actualiza correctamente en la base de datos mediante el bean 'productoService',se mueve a nuestro directorio de subidas
+							return productoService.save(p);
+						})))
 				// Como necesitamos devolver un flujo reactivo Mono de un ServerResponse para manejar y personalizar la respuesta,con el operador "flatMap" transformamos el flujo reactivo Mono anterior en otro flujo reactivo Mono que tiene a su vez otro flujo reactivo Mono con dicho elemento ServerResponse.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
 				.flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId()))) // Establecemos el estado de la respuesta en CREATED(200) y le pasamos la localización del producto que se acaba de actualizar con la imagen usando la clase URI junto con la ruta o path de dicho producto.Esta localización va en la cabecera de la respuesta
-						.contentType(MediaType.APPLICATION_JSON_UTF8) // Establecemos el ContentType de la respuesta con el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).El valor por defecto del ContenType de una respuesta es un MediaType con el valor APPLICATION_JSON
+						.contentType(FormatosBinarios.negociar(request.headers().accept())) // Establecemos el ContentType de la respuesta según la cabecera "Accept" de la petición: CBOR o Smile si el cliente los prefiere y,si no,el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) como hasta ahora
 						.body(BodyInserters.fromObject(p))) // Establecemos como cuerpo de la respuesta el producto que acabamos de editar con la imagen en la base de datos.En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos.Como nuestro dato "p" no es flujo reactivo,tenemos que usar el método "fromObject()" de la clase "BodyInserters"	
 				// Con el método "switchIfEmpty()",si el flujo reactivo Mono anterior tiene como elemento un elemento vacío o nulo porque no se ha localizado ningún producto a partir del id obtenido de la url o path,sustituimos dicho flujo por otro flujo reactivo Mono con un elemento ServerResponse con el estado de la respuesta NOT_FOUND(404) y su cuerpo vacío(sin datos)
-				.switchIfEmpty(ServerResponse.notFound().build()); // El método "build()" nos permite crear un ServerResponse con su cuerpo o body vacío(sin datos)
+				.switchIfEmpty(ServerResponse.notFound().build()) // El método "build()" nos permite crear un ServerResponse con su cuerpo o body vacío(sin datos)
+				// Si la imagen supera el tamaño máximo,respondemos con el estado PAYLOAD_TOO_LARGE(413)
+				.onErrorResume(FotoDemasiadoGrandeException.class,e -> ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).body(BodyInserters.fromObject(e.getMessage())));
 	}
 	
 	// Método handler que actualiza un producto de la base de datos, dado su id y dado los nuevos datos a editar, que son obtenidos de la petición http "request"
@@ -243,13 +477,201 @@ public class ProductoHandler {
 		})
 		// Como necesitamos devolver un flujo reactivo Mono de un ServerResponse para manejar y personalizar la respuesta,con el operador "flatMap" transformamos el flujo reactivo Mono anterior en otro flujo reactivo Mono que tiene a su vez otro flujo reactivo Mono con dicho elemento ServerResponse.Como al final tenemos un flujo reactivo Mono con otro flujo reactivo Mono a su vez,con este operador,en lugar de "map",se va a realizar un procedimiento de aplanamiento para que definitivamente nos quede un único flujo reactivo Mono de un elemento no reactivo
 		.flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId()))) // Establecemos el estado de la respuesta en CREATED(200) y le pasamos la localización del producto que se va a editar usando la clase URI junto con la ruta o path de dicho producto.Esta localización va en la cabecera de la respuesta
-				.contentType(MediaType.APPLICATION_JSON_UTF8) // Establecemos el ContentType de la respuesta con el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).El valor por defecto del ContenType de una respuesta es un MediaType con el valor APPLICATION_JSON
+				.contentType(FormatosBinarios.negociar(request.headers().accept())) // Establecemos el ContentType de la respuesta según la cabecera "Accept" de la petición: CBOR o Smile si el cliente los prefiere y,si no,el MediaType APPLICATION_JSON_UTF8(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8) como hasta ahora
 				.body(productoService.save(p),Producto.class)) // Actualizamos los datos del producto en la base de datos mediante el bean 'productoService'.En esta caso,el método "body()" recibe un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos. Como el método "save()" devuelve directamente un flujo reactivo Mono,tenemos que especificar,además,el tipo o la clase a la que pertenece el elemento de este flujo reactivo
 		// Con el método "switchIfEmpty()",si el flujo reactivo Mono anterior tiene como elemento un elemento vacío o nulo porque no se ha localizado ningún producto a partir del id obtenido de la url o path,sustituimos dicho flujo por otro flujo reactivo Mono con un elemento ServerResponse con el estado de la respuesta NOT_FOUND(404) y su cuerpo vacío(sin datos)
 		.switchIfEmpty(ServerResponse.notFound().build()); // El método "build()" nos permite crear un ServerResponse con su cuerpo o body vacío(sin datos)
 		
 	}
 	
+	// Método handler que actualiza el precio de un producto, dado su id, que viaja en la url o path, y dado su nuevo precio, que viaja en el cuerpo de la petición http "request"
+	// El precio no se escribe inmediatamente en la base de datos,sino que se acumula en un buffer que se vuelca periódicamente.Por eso respondemos con el estado ACCEPTED(202) en lugar de OK(200)
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> actualizarPrecio(ServerRequest request){
+		//Obtenemos de la url  o path de la petición http el id del producto
+		String id = request.pathVariable("id");
+		
+		return request.bodyToMono(ActualizacionPrecio.class)
+				.flatMap(actualizacion -> {
+					// El id del producto siempre se toma de la url o path de la petición http
+					actualizacion.setId(id);
+					// Validamos la actualización de precio con el validador de Spring
+					Errors errors = new BeanPropertyBindingResult(actualizacion,ActualizacionPrecio.class.getName());
+					validator.validate(actualizacion,errors);
+					// Si hay errores de validación,respondemos con el estado BAD_REQUEST(400) y la lista de errores
+					if(errors.hasErrors()) {
+						return Flux.fromIterable(errors.getFieldErrors())
+								.map(fieldError -> "El campo " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+								.collectList()
+								.flatMap(list -> ServerResponse.badRequest().body(BodyInserters.fromObject(list)));
+					}
+					// En caso contrario,acumulamos la actualización en el buffer de precios y respondemos con el estado ACCEPTED(202) y el cuerpo vacío
+					// Si el producto no existe o está eliminado,la actualización no se acumula y respondemos con el estado NOT_FOUND(404)
+					return precioService.actualizar(actualizacion)
+							.flatMap(aceptada -> aceptada ? ServerResponse.accepted().build() : ServerResponse.notFound().build());
+				});
+	}
+	
+	// Método handler que recibe en el cuerpo de la petición http "request" un lote de actualizaciones de precios,ya sea como un array Json o como un flujo de objetos Json(application/stream+json)
+	// Las actualizaciones se van acumulando en el buffer de precios a medida que llegan,sin tener que esperar a recibir el lote completo.Las actualizaciones no válidas y las de productos que no existen o están eliminados se descartan y se contabilizan en la respuesta
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> actualizarPrecios(ServerRequest request){
+		AtomicLong rechazadas = new AtomicLong();
+		AtomicLong validas = new AtomicLong();
+		
+		Flux<ActualizacionPrecio> actualizaciones = request.bodyToFlux(ActualizacionPrecio.class)
+				// Con el operador "filter" nos quedamos solo con las actualizaciones válidas según el validador de Spring
+				.filter(actualizacion -> {
+					Errors errors = new BeanPropertyBindingResult(actualizacion,ActualizacionPrecio.class.getName());
+					validator.validate(actualizacion,errors);
+					if(errors.hasErrors())
+						rechazadas.incrementAndGet();
+					else
+						validas.incrementAndGet();
+					return !errors.hasErrors();
+				});
+		
+		return precioService.actualizar(actualizaciones)
+				.flatMap(aceptadas -> {
+					Map<String,Object> respuesta = new HashMap<String,Object>();
+					respuesta.put("aceptadas",aceptadas);
+					respuesta.put("rechazadas",rechazadas.get());
+					respuesta.put("desconocidas",validas.get() - aceptadas);
+					return ServerResponse.accepted()
+							.contentType(MediaType.APPLICATION_JSON_UTF8)
+							.body(BodyInserters.fromObject(respuesta));
+				});
+	}
+	
+	// Método handler que importa los productos de un archivo CSV que viaja en el cuerpo de la petición http(por ejemplo,con el ContentType "text/csv")
+	// El cuerpo se lee como un flujo reactivo Flux de DataBuffer y se procesa a medida que llega,sin cargar el archivo entero en memoria
+	// La respuesta es un flujo de eventos en formato Json separados por saltos de línea(MediaType APPLICATION_STREAM_JSON) con los errores de cada fila y el progreso después de cada lote insertado,de esta manera,el cliente puede seguir la importación mientras se está realizando
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> importar(ServerRequest request){
+		return ServerResponse.ok()
+				.contentType(MediaType.APPLICATION_STREAM_JSON)
+				.body(importacionService.importar(request.bodyToFlux(DataBuffer.class)),EventoImportacion.class);
+	}
+	
+	// Método handler que exporta el catálogo completo de productos para los partners
+	// El parámetro opcional "formato" puede ser "csv" o "ndjson"(por defecto) y,si el cliente acepta contenido comprimido mediante la cabecera "Accept-Encoding",la respuesta se comprime con gzip a medida que se genera
+	// Los productos se escriben directamente en los DataBuffer de la respuesta a medida que se leen del cursor de MongoDB,sin crear un array Json con todo el catálogo en memoria
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> exportar(ServerRequest request){
+		String formato = request.queryParam("formato").orElse(ExportacionService.NDJSON).toLowerCase();
+		if(!ExportacionService.CSV.equals(formato) && !ExportacionService.NDJSON.equals(formato))
+			return ServerResponse.badRequest().body(BodyInserters.fromObject("El formato tiene que ser 'csv' o 'ndjson'"));
+		
+		boolean gzip = aceptaGzip(request.headers().header(HttpHeaders.ACCEPT_ENCODING));
+		
+		ServerResponse.BodyBuilder respuesta = ServerResponse.ok()
+				.contentType(ExportacionService.CSV.equals(formato) ? MediaType.valueOf("text/csv;charset=UTF-8") : MediaType.valueOf("application/x-ndjson"))
+				.header(HttpHeaders.CONTENT_DISPOSITION,"attachment; filename=\"productos." + formato + "\"")
+				.header(HttpHeaders.VARY,HttpHeaders.ACCEPT_ENCODING);
+		if(gzip)
+			respuesta.header(HttpHeaders.CONTENT_ENCODING,"gzip");
+		
+		// Usamos la factoría de DataBuffer de la respuesta http,que en Netty reutiliza los buffers de su pool
+		DataBufferFactory bufferFactory = request.exchange().getResponse().bufferFactory();
+		return respuesta.body(BodyInserters.fromDataBuffers(exportacionService.exportar(formato,gzip,bufferFactory)));
+	}
+	
+	// Indica si la cabecera "Accept-Encoding" acepta gzip: si lo nombra("gzip" o "x-gzip") con una calidad mayor que 0 o,si no lo nombra,si acepta cualquier codificación("*") con una calidad mayor que 0
+	// Por ejemplo,"gzip;q=0" rechaza expresamente la compresión
+	private boolean aceptaGzip(List<String> valores){
+		Boolean gzip = null;
+		boolean cualquiera = false;
+		for(String valor: valores) {
+			for(String codificacion: valor.split(",")) {
+				String[] partes = codificacion.split(";");
+				String nombre = partes[0].trim().toLowerCase();
+				double calidad = 1;
+				for(int i = 1; i < partes.length; i++) {
+					String parametro = partes[i].trim().toLowerCase();
+					if(parametro.startsWith("q=")) {
+						try {
+							calidad = Double.parseDouble(parametro.substring(2).trim());
+						}
+						catch(NumberFormatException e) {
+							calidad = 0;
+						}
+					}
+				}
+				if(nombre.equals("gzip") || nombre.equals("x-gzip"))
+					gzip = (gzip != null && gzip) || calidad > 0;
+				else if(nombre.equals("*"))
+					cualquiera = calidad > 0;
+			}
+		}
+		return gzip != null ? gzip : cualquiera;
+	}
+	
+	// Método handler que envía en vivo a los clientes los cambios de productos(guardados y eliminados) como Server-Sent Events,para que no tengan que consultar el listado periódicamente
+	// Cada evento lleva como id su secuencia y como nombre su tipo("guardado" o "eliminado").Si el cliente ve un salto en la secuencia,es que se han descartado eventos por no consumirlos a tiempo(véase la clase "EventosProductoServiceImpl")
+	// Además,se envía un latido(un comentario) al suscribirse,para que la respuesta empiece a enviarse en ese momento,y cada "config.eventos.latido-segundos" segundos,para que los proxies no cierren la conexión por inactividad
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> eventos(ServerRequest request){
+		// Los latidos terminan cuando termina el flujo de eventos(al desconectar a un suscriptor lento o al detener la aplicación)
+		MonoProcessor<Void> fin = MonoProcessor.create();
+		Flux<ServerSentEvent<EventoProducto>> eventos = eventosProductoService.suscribir()
+				.map(evento -> ServerSentEvent.builder(evento).id(String.valueOf(evento.getSecuencia())).event(evento.getTipo()).build())
+				.doFinally(senal -> fin.onComplete());
+		Flux<ServerSentEvent<EventoProducto>> latidos = Flux.interval(Duration.ZERO,Duration.ofSeconds(latidoSegundos))
+				.map(i -> ServerSentEvent.<EventoProducto>builder().comment("latido").build())
+				.takeUntilOther(fin);
+		return ServerResponse.ok()
+				.contentType(MediaType.TEXT_EVENT_STREAM)
+				.body(BodyInserters.fromServerSentEvents(Flux.merge(eventos,latidos)));
+	}
+	
+	// Método handler que devuelve el historial de precios de un producto, dado su id, que viaja en la url o path, agrupado en intervalos
+	// Los parámetros opcionales "desde" y "hasta"(fechas en formato ISO-8601,por ejemplo "2019-10-01T00:00:00Z") delimitan el rango,que por defecto son los últimos 30 días
+	// El parámetro opcional "resolucion"(duración en formato ISO-8601,por ejemplo "PT1H" o "P1D") indica el tamaño de cada intervalo,que por defecto es un día
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> historialPrecios(ServerRequest request){
+		//Obtenemos de la url  o path de la petición http el id del producto
+		String id = request.pathVariable("id");
+		
+		Instant hasta;
+		Instant desde;
+		Duration resolucion;
+		try {
+			hasta = request.queryParam("hasta").map(Instant::parse).orElse(Instant.now());
+			desde = request.queryParam("desde").map(Instant::parse).orElse(hasta.minus(Duration.ofDays(30)));
+			resolucion = request.queryParam("resolucion").map(Duration::parse).orElse(Duration.ofDays(1));
+		}
+		catch(DateTimeParseException e) {
+			// Si alguno de los parámetros no tiene un formato válido,respondemos con el estado BAD_REQUEST(400)
+			return ServerResponse.badRequest().body(BodyInserters.fromObject("El parámetro " + e.getParsedString() + " no tiene un formato ISO-8601 válido"));
+		}
+		if(resolucion.isZero() || resolucion.isNegative() || !desde.isBefore(hasta))
+			return ServerResponse.badRequest().body(BodyInserters.fromObject("La resolución tiene que ser positiva y la fecha 'desde' anterior a la fecha 'hasta'"));
+		
+		return ServerResponse.ok()
+				.contentType(MediaType.APPLICATION_JSON_UTF8)
+				.body(precioService.historial(id,Date.from(desde),Date.from(hasta),resolucion),PuntoPrecio.class);
+	}
+	
+	// Método handler que devuelve los productos eliminados de manera lógica a partir de la fecha indicada en el parámetro obligatorio "desde"(fecha en formato ISO-8601)
+	// Los consumidores incrementales(cachés,clientes de sincronización) guardan la fecha de su última consulta y la usan en la siguiente para saber qué productos han desaparecido
+	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
+	public Mono<ServerResponse> eliminados(ServerRequest request){
+		Instant desde;
+		try {
+			desde = request.queryParam("desde").map(Instant::parse).orElse(null);
+		}
+		catch(DateTimeParseException e) {
+			desde = null;
+		}
+		// Si el parámetro no existe o no tiene un formato válido,respondemos con el estado BAD_REQUEST(400)
+		if(desde == null)
+			return ServerResponse.badRequest().body(BodyInserters.fromObject("El parámetro 'desde' es obligatorio y tiene que ser una fecha ISO-8601"));
+		
+		return ServerResponse.ok()
+				.contentType(MediaType.APPLICATION_JSON_UTF8)
+				.body(productoService.findEliminadosDesde(Date.from(desde)),Producto.class);
+	}
+	
 	// Método handler que elimina un producto de la base de datos, dado su id, que viaja en la url o path y lo obtenemos a través de la petición http "request"
 	// Este método se va a mapear con una ruta en el método "routes()" de nuestra clase de configuración de Spring "RouterFunctionConfig"
 	// A diferencia de nuestro otro controlador Api Rest "ProductoController",cuya clase se anota con @RestControler y sus métodos handler devuelven flujos reactivos Mono de tipo "ResponseEntity",en este tipo de controlador,implementado con la técnica "Functional Endpoints",sus métodos handler van a devolver flujos reactivos Mono de tipo "ServerResponse"
@@ -0,0 +1,12 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.dao;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
+
+// Interfaz de la capa Dao para realizar el CRUD sobre la colección "idempotencias" mapeada con la clase documento "Idempotencia"
+// Al extender de ReactiveMongoRepository,Spring ya tiene implementados de manera automática los métodos básicos para hacer el CRUD en la base de datos
+// A ReactiveMongoRepository hay que especificar el nombre de la clase que representa un documento y el tipo de Objeto correspondiente a la clave primaria de este documento,que en este caso es la propia clave de idempotencia
+public interface IdempotenciaDao extends ReactiveMongoRepository<Idempotencia,String>{
+
+}
@@ -5,6 +5,9 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
 
+import java.util.Date;
+
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 // En las bases de datos relaciones(no son reactivas) en las interfaces de la capa Dao extendiamos de CrudRepository o de sus derivados(PagingAndSortingRepository,JpaRepository)para el CRUD mediante la implementación que nos da Spring Data JPA
@@ -18,11 +21,26 @@ public interface ProductoDao extends ReactiveMongoRepository<Producto,String>{
 	// Y la otra manera es no respetar la nomenclatura y estructura indicada por Spring Data MongoDB y escribir o implementar nosotros mismos la consulta usando la anotación @Query
 	
 	// Consulta personaliza implementada automáticamente por Spring por seguir su nomenclatura
-	// Devuelve un flujo reactivo Mono con un producto localizado en la base de datos cuyo nombre coincide con el que se le pasa como parámetro a este método
-	public Mono<Producto> findByNombre(String Nombre);
+	// Devuelve un flujo reactivo Mono con un producto activo localizado en la base de datos cuyo nombre coincide con el que se le pasa como parámetro a este método
+	public Mono<Producto> findByNombreAndDeletedAtIsNull(String Nombre);
 	
 	// Consulta personaliza implementada de manera manual usando la anotación @Query por no seguir la nomenclatura indicada por Spring
 	// Consulta que localiza un producto por su nombre en una colección de una base de datos MongoDB.'?0' hace referencia al primer y único parámetro que se le pasa a este método
-	@Query("{ 'nombre' : ?0 }")
+	// Solo se tienen en cuenta los productos activos,es decir,aquellos que no tienen fecha de borrado lógico
+	@Query("{ 'nombre' : ?0, 'deletedAt' : null }")
 	public Mono<Producto> obtenerPorNombre(String Nombre);
+	
+	// Consultas personalizadas implementadas automáticamente por Spring que solo devuelven los productos activos
+	// El filtro "deletedAt == null" no necesita un índice propio: las búsquedas por id y por nombre se resuelven con los índices de esas propiedades y el listado recorre igualmente toda la colección
+	// El índice sobre la propiedad "deletedAt" solo existe con el borrado lógico habilitado(es el índice TTL que purga los productos eliminados) y lo usa la consulta de productos eliminados
+	
+	// Devuelve un flujo reactivo Flux con todos los productos activos de la base de datos
+	public Flux<Producto> findByDeletedAtIsNull();
+	
+	// Devuelve un flujo reactivo Mono con el producto activo cuyo id coincide con el que se le pasa como parámetro a este método
+	public Mono<Producto> findByIdAndDeletedAtIsNull(String id);
+	
+	// Devuelve un flujo reactivo Flux con los productos eliminados de manera lógica a partir de la fecha que se le pasa como parámetro a este método,ordenados por su fecha de borrado
+	// Permite a los consumidores incrementales(cachés,clientes de sincronización) saber qué productos han desaparecido desde su última consulta
+	public Flux<Producto> findByDeletedAtGreaterThanEqualOrderByDeletedAtAsc(Date desde);
 } 
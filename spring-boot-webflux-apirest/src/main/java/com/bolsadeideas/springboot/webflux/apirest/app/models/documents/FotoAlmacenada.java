@@ -0,0 +1,86 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.documents;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Documento que registra cada imagen almacenada en el directorio de subidas junto con el número de productos que la usan
+// Las imágenes se almacenan con el nombre del hash SHA-256 de su contenido,por lo que varios productos con la misma imagen comparten un único archivo.Este contador permite eliminar el archivo solo cuando ya no lo usa ningún producto
+// Los archivos no se eliminan en cuanto el contador llega a 0,sino más tarde,en la recolección periódica de la clase "FotoServiceImpl"
+
+// Una clase Java con la anotación @Document va a ser un documento que va a ser mapeado a una colección de la base de datos no relacional MongoDB en formato Json(Es el formato que interpreta MongoDB)
+@Document(collection="fotos")
+public class FotoAlmacenada {
+
+	@Id // El nombre del archivo de la imagen es la clave primaria.Como se deriva de su contenido,dos subidas de la misma imagen comparten el mismo documento
+	private String id;
+
+	// Número de productos que usan esta imagen
+	private long referencias;
+
+	// Fecha en la que se almacenó la imagen por primera vez
+	private Date createAt;
+
+	// Fecha de la última vez que se reservó,retuvo o liberó la imagen.La recolección solo elimina las imágenes sin referencias que llevan un tiempo sin cambios
+	private Date actualizadaAt;
+
+	// Versión del documento,que se incrementa con cada cambio.La recolección solo marca la imagen para eliminarla si no ha cambiado desde que la consultó
+	private long version;
+
+	// Indica que la recolección está eliminando el archivo.Mientras tanto,nadie puede reservar ni retener la imagen
+	private boolean eliminando;
+
+	// Definimos un contructor vacío para que pueda ser manejado por Spring Data Mongo
+	public FotoAlmacenada() {
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public long getReferencias() {
+		return referencias;
+	}
+
+	public void setReferencias(long referencias) {
+		this.referencias = referencias;
+	}
+
+	public Date getCreateAt() {
+		return createAt;
+	}
+
+	public void setCreateAt(Date createAt) {
+		this.createAt = createAt;
+	}
+
+	public Date getActualizadaAt() {
+		return actualizadaAt;
+	}
+
+	public void setActualizadaAt(Date actualizadaAt) {
+		this.actualizadaAt = actualizadaAt;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public boolean isEliminando() {
+		return eliminando;
+	}
+
+	public void setEliminando(boolean eliminando) {
+		this.eliminando = eliminando;
+	}
+
+}
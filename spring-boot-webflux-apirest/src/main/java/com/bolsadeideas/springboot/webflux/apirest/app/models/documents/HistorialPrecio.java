@@ -0,0 +1,72 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.documents;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Documento que registra cada cambio de precio de un producto.La colección "historial_precios" solo admite inserciones(append-only),nunca se actualizan ni se eliminan sus documentos
+// Así podemos consultar la evolución del precio de un producto,ya que en la colección "productos" el precio anterior se sobrescribe
+
+// Una clase Java con la anotación @Document va a ser un documento que va a ser mapeado a una colección de la base de datos no relacional MongoDB en formato Json(Es el formato que interpreta MongoDB)
+@Document(collection="historial_precios")
+// Índice compuesto por el id del producto y la fecha del cambio.Todas las consultas del historial filtran por producto y por un rango de fechas,y este índice les permite leer solo los documentos del rango ya ordenados
+@CompoundIndex(name="producto_ts",def="{'productoId': 1, 'ts': 1}")
+public class HistorialPrecio {
+
+	@Id // Con esta anotación indicamos que esta propiedad de esta clase va a ser la clave primaria
+	private String id;
+
+	// Id del producto cuyo precio ha cambiado
+	private String productoId;
+
+	// Nuevo precio del producto
+	private Double precio;
+
+	// Fecha y hora del cambio de precio
+	private Date ts;
+
+	// Definimos un contructor vacío para que pueda ser manejado por Spring Data Mongo
+	public HistorialPrecio() {
+	}
+
+	public HistorialPrecio(String productoId, Double precio, Date ts) {
+		this.productoId = productoId;
+		this.precio = precio;
+		this.ts = ts;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getProductoId() {
+		return productoId;
+	}
+
+	public void setProductoId(String productoId) {
+		this.productoId = productoId;
+	}
+
+	public Double getPrecio() {
+		return precio;
+	}
+
+	public void setPrecio(Double precio) {
+		this.precio = precio;
+	}
+
+	public Date getTs() {
+		return ts;
+	}
+
+	public void setTs(Date ts) {
+		this.ts = ts;
+	}
+
+}
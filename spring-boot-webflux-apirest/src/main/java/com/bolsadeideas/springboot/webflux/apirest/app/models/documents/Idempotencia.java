@@ -0,0 +1,180 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.documents;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Documento que registra cada clave recibida en la cabecera "Idempotency-Key" junto con la respuesta que se devolvió la primera vez que se procesó la petición
+// Si un cliente repite la misma petición(por ejemplo,tras un timeout),se le devuelve la respuesta almacenada en lugar de volver a crear el producto
+
+// Una clase Java con la anotación @Document va a ser un documento que va a ser mapeado a una colección de la base de datos no relacional MongoDB en formato Json(Es el formato que interpreta MongoDB)
+@Document(collection="idempotencias") // Los documentos de esta colección se purgan automáticamente mediante un índice TTL sobre la propiedad "createAt"(véase la clase "IdempotenciaServiceImpl")
+public class Idempotencia {
+
+	@Id // La propia clave de idempotencia es la clave primaria,de esta manera,MongoDB garantiza mediante su índice único que solo una petición puede reservar cada clave
+	private String id;
+
+	// Indica si la petición asociada a esta clave ya ha terminado(true) o si todavía se está procesando(false)
+	private boolean completada;
+
+	// Huella(SHA-256) del método http,la ruta y el cuerpo de la petición original.Si se reutiliza la clave con otra petición distinta,no se repite la respuesta original
+	private String huella;
+
+	// Identificador de la petición que tiene reservada la clave mientras se procesa.Solo esa petición puede completar o liberar la reserva
+	private String propietario;
+
+	// Fecha en la que caduca la reserva de una clave que todavía se está procesando.Si la petición original no termina antes(por ejemplo,porque la instancia se ha caído),otra petición con la misma clave puede quedarse con la reserva
+	private Date expira;
+
+	// Estado http de la respuesta original
+	private int estado;
+
+	// Cabecera "Location" de la respuesta original
+	private String location;
+
+	// Tipo de contenido(cabecera "Content-Type") de la respuesta original
+	private String tipo;
+
+	// Cuerpo de la respuesta original ya serializado,tal y como se envió al cliente,para que las respuestas repetidas sean idénticas byte a byte
+	private byte[] cuerpo;
+
+	// Fecha de creación del documento.Sobre esta propiedad se define el índice TTL que elimina las claves caducadas
+	private Date createAt;
+
+	@Transient // Esta propiedad no se persiste en la base de datos.Indica si esta respuesta es una repetición de una respuesta anterior
+	private boolean repetida;
+
+	// Definimos un contructor vacío para que pueda ser manejado por Spring Data Mongo
+	public Idempotencia() {
+	}
+
+	// Constructor para reservar una clave que todavía se está procesando
+	public Idempotencia(String id, String huella, String propietario, Date expira) {
+		this.id = id;
+		this.completada = false;
+		this.huella = huella;
+		this.propietario = propietario;
+		this.expira = expira;
+		this.createAt = new Date();
+	}
+
+	// Constructor para almacenar la respuesta de una petición ya procesada
+	public Idempotencia(int estado, String location, String tipo, byte[] cuerpo) {
+		this.estado = estado;
+		this.location = location;
+		this.tipo = tipo;
+		this.cuerpo = cuerpo;
+	}
+
+	// Indica si esta clave se reservó para la petición con la huella indicada.Las claves guardadas antes de registrar la huella se aceptan con cualquier petición
+	public boolean coincide(String huella) {
+		return this.huella == null || this.huella.equals(huella);
+	}
+
+	// Indica si la reserva de esta clave ha caducado sin que la petición original haya terminado
+	public boolean caducada() {
+		return !completada && expira != null && expira.before(new Date());
+	}
+
+	// Devuelve una copia de esta respuesta marcada como repetida para no modificar la instancia compartida entre varias peticiones concurrentes
+	public Idempotencia comoRepetida() {
+		Idempotencia copia = new Idempotencia(estado,location,tipo,cuerpo);
+		copia.setId(id);
+		copia.setCompletada(completada);
+		copia.setHuella(huella);
+		copia.setCreateAt(createAt);
+		copia.setRepetida(true);
+		return copia;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public boolean isCompletada() {
+		return completada;
+	}
+
+	public void setCompletada(boolean completada) {
+		this.completada = completada;
+	}
+
+	public String getHuella() {
+		return huella;
+	}
+
+	public void setHuella(String huella) {
+		this.huella = huella;
+	}
+
+	public String getPropietario() {
+		return propietario;
+	}
+
+	public void setPropietario(String propietario) {
+		this.propietario = propietario;
+	}
+
+	public Date getExpira() {
+		return expira;
+	}
+
+	public void setExpira(Date expira) {
+		this.expira = expira;
+	}
+
+	public int getEstado() {
+		return estado;
+	}
+
+	public void setEstado(int estado) {
+		this.estado = estado;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public void setLocation(String location) {
+		this.location = location;
+	}
+
+	public String getTipo() {
+		return tipo;
+	}
+
+	public void setTipo(String tipo) {
+		this.tipo = tipo;
+	}
+
+	public byte[] getCuerpo() {
+		return cuerpo;
+	}
+
+	public void setCuerpo(byte[] cuerpo) {
+		this.cuerpo = cuerpo;
+	}
+
+	public Date getCreateAt() {
+		return createAt;
+	}
+
+	public void setCreateAt(Date createAt) {
+		this.createAt = createAt;
+	}
+
+	public boolean isRepetida() {
+		return repetida;
+	}
+
+	public void setRepetida(boolean repetida) {
+		this.repetida = repetida;
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.bolsadeideas.springboot.webflux.apirest.app.models.documents;
 
 import java.util.Date;
+import java.util.Map;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
@@ -34,6 +35,12 @@ public class Producto {
 	
 	private String foto;
 	
+	// Variantes redimensionadas de la imagen del producto(por ejemplo,"miniatura" y "mediano") con el nombre del archivo de cada una.Se generan en segundo plano después de subir la imagen(véase la clase "VariantesFotoServiceImpl")
+	private Map<String,String> variantes;
+	
+	// Fecha de borrado lógico del producto.Si es nula,el producto está activo.Si tiene valor,el producto está eliminado(tombstone) y el índice TTL sobre esta propiedad lo purgará cuando pase el periodo de retención
+	private Date deletedAt;
+	
 	// Además de nuestros constructores personalizado para las propiedades "nombre","precio" y "categoria",definimos un contructor vacío para que pueda ser manejado por Spring Data Mongo
 	public Producto(){
 		
@@ -97,4 +104,28 @@ public class Producto {
 		this.foto = foto;
 	}
 
+	public Map<String,String> getVariantes() {
+		return variantes;
+	}
+
+	public void setVariantes(Map<String,String> variantes) {
+		this.variantes = variantes;
+	}
+	
+	// Sustituye la imagen del producto por su variante del tamaño indicado,si existe.Se usa en las consultas que reciben el parámetro "size" para que el cliente descargue directamente la imagen del tamaño que necesita
+	// Si el tamaño es nulo o la variante todavía no se ha generado,se mantiene la imagen original
+	public Producto conTamano(String tamano) {
+		if(tamano != null && variantes != null && variantes.containsKey(tamano))
+			foto = variantes.get(tamano);
+		return this;
+	}
+
+	public Date getDeletedAt() {
+		return deletedAt;
+	}
+
+	public void setDeletedAt(Date deletedAt) {
+		this.deletedAt = deletedAt;
+	}
+
 }
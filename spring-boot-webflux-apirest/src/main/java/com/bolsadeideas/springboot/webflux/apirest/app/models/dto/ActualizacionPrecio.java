@@ -0,0 +1,43 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.dto;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.PositiveOrZero;
+
+// Clase que representa una actualización del precio de un producto enviada por el motor de precios
+// No es un documento de MongoDB porque no se persiste tal cual,sino que se acumula en memoria y se aplica sobre la colección "productos" mediante operaciones "$set"
+public class ActualizacionPrecio {
+
+	@NotEmpty // Validación del id del producto para que no sea vacío
+	private String id;
+
+	@NotNull // Validación del nuevo precio para que no sea nulo
+	@PositiveOrZero // Validación del nuevo precio para que no sea negativo
+	private Double precio;
+
+	// Definimos un contructor vacío para que Jackson pueda crear instancias de esta clase a partir del cuerpo de una petición http
+	public ActualizacionPrecio() {
+	}
+
+	public ActualizacionPrecio(String id, Double precio) {
+		this.id = id;
+		this.precio = precio;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public Double getPrecio() {
+		return precio;
+	}
+
+	public void setPrecio(Double precio) {
+		this.precio = precio;
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Clase que representa cada uno de los eventos que se envían al cliente durante la importación de un archivo CSV de productos
+// Hay tres tipos de eventos: "error" para cada fila que no se ha podido importar,"progreso" después de cada lote insertado en la base de datos y "fin" con los totales de la importación
+@JsonInclude(JsonInclude.Include.NON_NULL) // Las propiedades nulas no se incluyen en el Json,ya que cada tipo de evento solo usa algunas de ellas
+public class EventoImportacion {
+
+	public static final String ERROR = "error";
+
+	public static final String PROGRESO = "progreso";
+
+	public static final String FIN = "fin";
+
+	private String tipo;
+
+	// Número de línea del archivo donde empieza la fila con error
+	private Long fila;
+
+	private String mensaje;
+
+	// Totales acumulados hasta el momento del evento
+	private Long leidas;
+
+	private Long insertadas;
+
+	private Long errores;
+
+	public EventoImportacion() {
+	}
+
+	// Crea un evento de error para una fila del archivo.Si el error afecta a un lote completo,la fila es nula
+	public static EventoImportacion error(Long fila, String mensaje) {
+		EventoImportacion evento = new EventoImportacion();
+		evento.tipo = ERROR;
+		evento.fila = fila;
+		evento.mensaje = mensaje;
+		return evento;
+	}
+
+	// Crea un evento de progreso o de fin con los totales acumulados
+	public static EventoImportacion totales(String tipo, long leidas, long insertadas, long errores) {
+		EventoImportacion evento = new EventoImportacion();
+		evento.tipo = tipo;
+		evento.leidas = leidas;
+		evento.insertadas = insertadas;
+		evento.errores = errores;
+		return evento;
+	}
+
+	public String getTipo() {
+		return tipo;
+	}
+
+	public void setTipo(String tipo) {
+		this.tipo = tipo;
+	}
+
+	public Long getFila() {
+		return fila;
+	}
+
+	public void setFila(Long fila) {
+		this.fila = fila;
+	}
+
+	public String getMensaje() {
+		return mensaje;
+	}
+
+	public void setMensaje(String mensaje) {
+		this.mensaje = mensaje;
+	}
+
+	public Long getLeidas() {
+		return leidas;
+	}
+
+	public void setLeidas(Long leidas) {
+		this.leidas = leidas;
+	}
+
+	public Long getInsertadas() {
+		return insertadas;
+	}
+
+	public void setInsertadas(Long insertadas) {
+		this.insertadas = insertadas;
+	}
+
+	public Long getErrores() {
+		return errores;
+	}
+
+	public void setErrores(Long errores) {
+		this.errores = errores;
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.dto;
+
+import java.util.Date;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Clase que representa cada uno de los cambios de productos que se envían en vivo a los clientes suscritos a la ruta "/api/v2/productos/events"(véase la clase "EventosProductoServiceImpl")
+// Hay dos tipos de eventos: "guardado",con el producto tal y como ha quedado en la base de datos,y "eliminado",solo con el id del producto
+// La secuencia es consecutiva para todos los eventos de la instancia,así que un cliente que ve un salto en la secuencia sabe que ha perdido eventos y tiene que volver a consultar el listado
+@JsonInclude(JsonInclude.Include.NON_NULL) // Las propiedades nulas no se incluyen en el Json,ya que los eventos "eliminado" no llevan el producto
+public class EventoProducto {
+
+	public static final String GUARDADO = "guardado";
+
+	public static final String ELIMINADO = "eliminado";
+
+	private long secuencia;
+
+	private String tipo;
+
+	private String id;
+
+	private Producto producto;
+
+	private Date fecha;
+
+	public EventoProducto() {
+	}
+
+	public EventoProducto(long secuencia, String tipo, String id, Producto producto) {
+		this.secuencia = secuencia;
+		this.tipo = tipo;
+		this.id = id;
+		this.producto = producto;
+		this.fecha = new Date();
+	}
+
+	public long getSecuencia() {
+		return secuencia;
+	}
+
+	public void setSecuencia(long secuencia) {
+		this.secuencia = secuencia;
+	}
+
+	public String getTipo() {
+		return tipo;
+	}
+
+	public void setTipo(String tipo) {
+		this.tipo = tipo;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public Producto getProducto() {
+		return producto;
+	}
+
+	public void setProducto(Producto producto) {
+		this.producto = producto;
+	}
+
+	public Date getFecha() {
+		return fecha;
+	}
+
+	public void setFecha(Date fecha) {
+		this.fecha = fecha;
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.dto;
+
+import java.util.Date;
+
+// Clase que representa un intervalo(bucket) del historial de precios de un producto ya agregado a una resolución determinada
+// En lugar de devolver todos los cambios de precio,devolvemos para cada intervalo el precio mínimo,el máximo,el último y el número de cambios
+public class PuntoPrecio {
+
+	// Inicio del intervalo
+	private Date ts;
+
+	private Double min;
+
+	private Double max;
+
+	private Double ultimo;
+
+	// Número de cambios de precio dentro del intervalo
+	private Integer muestras;
+
+	public Date getTs() {
+		return ts;
+	}
+
+	public void setTs(Date ts) {
+		this.ts = ts;
+	}
+
+	public Double getMin() {
+		return min;
+	}
+
+	public void setMin(Double min) {
+		this.min = min;
+	}
+
+	public Double getMax() {
+		return max;
+	}
+
+	public void setMax(Double max) {
+		this.max = max;
+	}
+
+	public Double getUltimo() {
+		return ultimo;
+	}
+
+	public void setUltimo(Double ultimo) {
+		this.ultimo = ultimo;
+	}
+
+	public Integer getMuestras() {
+		return muestras;
+	}
+
+	public void setMuestras(Integer muestras) {
+		this.muestras = muestras;
+	}
+
+}
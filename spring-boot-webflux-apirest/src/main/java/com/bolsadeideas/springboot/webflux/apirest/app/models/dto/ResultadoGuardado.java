@@ -0,0 +1,60 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Clase que representa el resultado de guardar cada uno de los productos que el cliente envía en la operación de guardado masivo por RSocket(véase la clase "ProductoRSocket")
+// Los resultados se devuelven en el mismo orden en que llegan los productos.Si el producto se ha guardado,el resultado lleva su id.Si no,lleva el mensaje de error
+@JsonInclude(JsonInclude.Include.NON_NULL) // Las propiedades nulas no se incluyen en el Json,ya que cada resultado solo lleva el id o el error
+public class ResultadoGuardado {
+
+	// Posición del producto en el flujo enviado por el cliente,empezando por 0
+	private long indice;
+
+	private String id;
+
+	private String error;
+
+	public ResultadoGuardado() {
+	}
+
+	// Crea el resultado de un producto guardado
+	public static ResultadoGuardado guardado(long indice, String id) {
+		ResultadoGuardado resultado = new ResultadoGuardado();
+		resultado.indice = indice;
+		resultado.id = id;
+		return resultado;
+	}
+
+	// Crea el resultado de un producto que no se ha podido guardar
+	public static ResultadoGuardado error(long indice, String error) {
+		ResultadoGuardado resultado = new ResultadoGuardado();
+		resultado.indice = indice;
+		resultado.error = error;
+		return resultado;
+	}
+
+	public long getIndice() {
+		return indice;
+	}
+
+	public void setIndice(long indice) {
+		this.indice = indice;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.nio.file.Path;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Interfaz del almacén donde se guardan las imágenes de los productos y sus variantes
+// Todas las escrituras y lecturas de imágenes pasan por esta interfaz,de esta manera,el almacén se puede cambiar mediante la propiedad "config.fotos.almacen.tipo" sin modificar el resto de la aplicación
+// Las subidas siempre se preparan antes en un archivo temporal local,ya que el nombre definitivo de la imagen es el hash de su contenido y no se conoce hasta haberla recibido entera
+public interface AlmacenFotos {
+
+	// Método que guarda en el almacén,con el nombre que se le pasa como parámetro,el contenido del archivo temporal local.El archivo temporal deja de existir cuando el flujo reactivo Mono termina correctamente
+	public Mono<Void> guardar(String nombre, Path temporal);
+
+	// Método que devuelve un flujo reactivo Flux con el contenido de una imagen en bloques de DataBuffer a medida que se leen del almacén,sin cargar la imagen entera en memoria
+	public Flux<DataBuffer> leer(String nombre);
+
+	// Método que devuelve un flujo reactivo Mono que indica si existe una imagen con el nombre que se le pasa como parámetro
+	public Mono<Boolean> existe(String nombre);
+
+	// Método que elimina del almacén la imagen con el nombre que se le pasa como parámetro,si existe
+	public Mono<Void> eliminar(String nombre);
+
+	// Método que devuelve un flujo reactivo Mono con el tamaño en bytes de la imagen,o vacío si no existe
+	public Mono<Long> tamano(String nombre);
+
+	// Método que devuelve un flujo reactivo Mono con la ruta del archivo local de la imagen,que se puede enviar al cliente sin copiarla a memoria(zero-copy)
+	// Si la imagen no existe o el almacén no guarda las imágenes en el sistema de archivos local,el flujo reactivo Mono termina vacío
+	public Mono<Path> archivoLocal(String nombre);
+}
@@ -0,0 +1,119 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.stereotype.Service;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBucket;
+import com.mongodb.reactivestreams.client.gridfs.GridFSBuckets;
+import com.mongodb.reactivestreams.client.gridfs.GridFSUploadStream;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// Almacén de imágenes en GridFS,dentro de la misma base de datos MongoDB que los productos
+// Permite ejecutar varias instancias de esta aplicación detrás de Eureka,ya que todas leen y escriben las imágenes en el mismo sitio
+// La versión de Spring Data MongoDB que usamos no incluye "ReactiveGridFsTemplate",así que usamos directamente el "GridFSBucket" del driver reactivo de MongoDB.Las imágenes se escriben y se leen por bloques,sin cargarlas enteras en memoria
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+@ConditionalOnProperty(name="config.fotos.almacen.tipo",havingValue="gridfs") // Este bean solo se crea si la propiedad "config.fotos.almacen.tipo" vale "gridfs"
+public class AlmacenFotosGridFs implements AlmacenFotos{
+
+	@Autowired
+	private ReactiveMongoDatabaseFactory mongoDatabaseFactory; // Este bean es propio de Spring y nos da acceso a la base de datos sobre la que creamos el bucket de GridFS
+
+	@Autowired
+	private EscriturasMongo escrituras; // Este bean nos da el write concern de los guardados interactivos,que también usamos para las imágenes
+
+	// Nombre del bucket de GridFS.Sus colecciones son "<bucket>.files" y "<bucket>.chunks"
+	@Value("${config.fotos.almacen.gridfs.bucket:fotos_contenido}")
+	private String nombreBucket;
+
+	// Tamaño,en bytes,de cada bloque que se lee del archivo temporal o de GridFS
+	@Value("${config.fotos.almacen.tamano-bloque:65536}")
+	private int tamanoBloque;
+
+	private final DefaultDataBufferFactory fabrica = new DefaultDataBufferFactory();
+
+	private GridFSBucket bucket;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		bucket = GridFSBuckets.create(mongoDatabaseFactory.getMongoDatabase(),nombreBucket)
+				.withWriteConcern(escrituras.writeConcern(TipoEscritura.GUARDADO));
+	}
+
+	// Método que lee el archivo temporal por bloques y los escribe uno a uno en el flujo de subida de GridFS.Si algo falla,se aborta la subida para que GridFS elimine los bloques ya escritos
+	@Override
+	public Mono<Void> guardar(String nombre, Path temporal) {
+		return Mono.defer(() -> {
+			GridFSUploadStream subida = bucket.openUploadStream(nombre);
+			return DataBufferUtils.readAsynchronousFileChannel(() -> AsynchronousFileChannel.open(temporal,StandardOpenOption.READ),fabrica,tamanoBloque)
+					// Con el operador "concatMap" no leemos el siguiente bloque hasta que el anterior se ha escrito en GridFS
+					.concatMap(buffer -> Mono.from(subida.write(buffer.asByteBuffer())).doFinally(senal -> DataBufferUtils.release(buffer)))
+					.then(Mono.from(subida.close()))
+					.onErrorResume(e -> Mono.from(subida.abort()).onErrorResume(error -> Mono.empty()).then(Mono.error(e)));
+		})
+		// Una vez subida la imagen,eliminamos el archivo temporal
+		.then(Mono.fromCallable(() -> Files.deleteIfExists(temporal)).subscribeOn(Schedulers.elastic()))
+		.then();
+	}
+
+	// Método que lee la imagen de GridFS por bloques.Cada lectura solo se pide cuando el suscriptor ha consumido el bloque anterior
+	// Con "usingWhen()",el cierre del flujo de descarga al terminar,fallar o cancelar forma parte del propio flujo reactivo en lugar de lanzarse por separado
+	@Override
+	public Flux<DataBuffer> leer(String nombre) {
+		return Flux.usingWhen(Mono.fromCallable(() -> bucket.openDownloadStream(nombre)),
+				descarga -> Mono.defer(() -> {
+							ByteBuffer bloque = ByteBuffer.allocate(tamanoBloque);
+							return Mono.from(descarga.read(bloque)).map(leidos -> (ByteBuffer)bloque.flip());
+						})
+						.repeat()
+						// Al final de la imagen,la lectura devuelve -1 y el bloque queda vacío
+						.takeWhile(ByteBuffer::hasRemaining)
+						.map(fabrica::wrap),
+				descarga -> descarga.close(),
+				descarga -> descarga.close(),
+				descarga -> descarga.close());
+	}
+
+	@Override
+	public Mono<Boolean> existe(String nombre) {
+		return Mono.from(bucket.find(Filters.eq("filename",nombre)).first()).hasElement();
+	}
+
+	@Override
+	public Mono<Long> tamano(String nombre) {
+		return Mono.from(bucket.find(Filters.eq("filename",nombre)).first()).map(archivo -> archivo.getLength());
+	}
+
+	// Las imágenes de GridFS no están en el sistema de archivos local
+	@Override
+	public Mono<Path> archivoLocal(String nombre) {
+		return Mono.empty();
+	}
+
+	// Método que elimina todos los archivos de GridFS con ese nombre.Normalmente solo hay uno,pero dos subidas simultáneas de la misma imagen pueden haber creado dos
+	@Override
+	public Mono<Void> eliminar(String nombre) {
+		return Flux.from(bucket.find(Filters.eq("filename",nombre)))
+				.flatMap(archivo -> bucket.delete(archivo.getObjectId()))
+				.then();
+	}
+
+}
@@ -0,0 +1,189 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// Almacén de imágenes en el sistema de archivos local,en el directorio de la propiedad "config.uploads.path"
+// Es el almacén por defecto.Solo sirve cuando hay una única instancia de esta aplicación o cuando todas comparten el mismo directorio
+// Las imágenes no se guardan todas en el mismo directorio,sino repartidas en dos niveles de subdirectorios según los 4 primeros caracteres hexadecimales de su nombre(por ejemplo,"ab/cd/abcd...jpg")
+// Con cientos de miles de imágenes en un único directorio,las búsquedas,los listados y las copias de seguridad del directorio se vuelven lentos.Así,cada subdirectorio final contiene una fracción de 1/65536 de las imágenes
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+@ConditionalOnProperty(name="config.fotos.almacen.tipo",havingValue="local",matchIfMissing=true) // Este bean solo se crea si la propiedad "config.fotos.almacen.tipo" vale "local" o no está definida
+public class AlmacenFotosLocal implements AlmacenFotos{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(AlmacenFotosLocal.class);
+
+	// Inyectamos en el objeto String "path" el valor de la propiedad "config.uploads.path", definida en el archivo de propiedades de la aplicación "application.properties", que contiene la ruta o path donde se van a subir las imágenes
+	@Value("${config.uploads.path}")
+	private String path;
+
+	// Tamaño,en bytes,de cada bloque que se lee de una imagen
+	@Value("${config.fotos.almacen.tamano-bloque:65536}")
+	private int tamanoBloque;
+
+	// Indica si al arrancar se mueven a su subdirectorio las imágenes que todavía están en la raíz del directorio de subidas
+	@Value("${config.fotos.almacen.local.migrar-al-arrancar:true}")
+	private boolean migrarAlArrancar;
+
+	// Número de imágenes que se mueven en cada lote de la migración
+	@Value("${config.fotos.almacen.local.lote-migracion:500}")
+	private int loteMigracion;
+
+	private final DefaultDataBufferFactory fabrica = new DefaultDataBufferFactory();
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		// La migración se ejecuta en segundo plano para no retrasar el arranque.Mientras dura,las imágenes que todavía no se han movido se siguen encontrando en la raíz
+		if(migrarAlArrancar)
+			migrar().subscribe(movidas -> {
+					if(movidas > 0)
+						log.info("Migración de imágenes a subdirectorios terminada: " + movidas + " imágenes movidas");
+				},
+				error -> log.error("Error en la migración de imágenes a subdirectorios,se reanudará en el siguiente arranque",error));
+	}
+
+	// Método que mueve el archivo temporal a su subdirectorio dentro del directorio de subidas.Si ambos están en el mismo sistema de archivos,el movimiento es atómico: la imagen aparece completa o no aparece
+	// Las operaciones de "java.nio.file.Files" son bloqueantes y,por eso,las ejecutamos en el scheduler "elastic" de Reactor en lugar de en el hilo de la petición
+	@Override
+	public Mono<Void> guardar(String nombre, Path temporal) {
+		return Mono.fromCallable(() -> mover(temporal,ruta(nombre))).subscribeOn(Schedulers.elastic()).then();
+	}
+
+	// Método que lee la imagen mediante un canal de archivo asíncrono en bloques del tamaño configurado
+	@Override
+	public Flux<DataBuffer> leer(String nombre) {
+		return Mono.fromCallable(() -> localizar(nombre))
+				.subscribeOn(Schedulers.elastic())
+				.flatMapMany(ruta -> DataBufferUtils.readAsynchronousFileChannel(() -> AsynchronousFileChannel.open(ruta,StandardOpenOption.READ),fabrica,tamanoBloque));
+	}
+
+	@Override
+	public Mono<Boolean> existe(String nombre) {
+		return archivoLocal(nombre).hasElement();
+	}
+
+	// Método que elimina la imagen tanto de su subdirectorio como de la raíz,por si todavía no se había migrado
+	@Override
+	public Mono<Void> eliminar(String nombre) {
+		return Mono.fromCallable(() -> Files.deleteIfExists(ruta(nombre)) | Files.deleteIfExists(rutaAnterior(nombre)))
+				.subscribeOn(Schedulers.elastic())
+				.then();
+	}
+
+	@Override
+	public Mono<Long> tamano(String nombre) {
+		return archivoLocal(nombre).map(ruta -> ruta.toFile().length());
+	}
+
+	@Override
+	public Mono<Path> archivoLocal(String nombre) {
+		return Mono.fromCallable(() -> localizar(nombre)).filter(Files::isRegularFile).subscribeOn(Schedulers.elastic());
+	}
+
+	// Método que mueve,por lotes,las imágenes de la raíz del directorio de subidas a su subdirectorio y devuelve un flujo reactivo Mono con el número de imágenes movidas
+	// Se puede ejecutar tantas veces como haga falta: las imágenes ya movidas no están en la raíz y no se vuelven a procesar
+	// Los productos no se modifican,ya que guardan el nombre de la imagen y la ubicación se deduce de él
+	public Mono<Long> migrar() {
+		Path raiz = Paths.get(path);
+		if(!Files.isDirectory(raiz))
+			return Mono.just(0L);
+		return Flux.using(() -> Files.list(raiz),Flux::fromStream,Stream::close)
+				// Solo movemos archivos.Los subdirectorios de la nueva estructura y el directorio temporal se quedan donde están
+				.filter(Files::isRegularFile)
+				.buffer(loteMigracion)
+				.concatMap(lote -> Mono.fromCallable(() -> moverLote(lote)))
+				.reduce(0L,Long::sum)
+				.subscribeOn(Schedulers.elastic());
+	}
+
+	// Mueve un lote de imágenes de la raíz a su subdirectorio y devuelve cuántas se han movido
+	private long moverLote(List<Path> lote) {
+		long movidas = 0;
+		for(Path anterior: lote) {
+			try {
+				mover(anterior,ruta(anterior.getFileName().toString()));
+				movidas++;
+			}
+			catch(IOException e) {
+				log.warn("No se ha podido mover la imagen " + anterior + " a su subdirectorio",e);
+			}
+		}
+		log.info("Lote de migración de imágenes a subdirectorios: " + movidas + " de " + lote.size() + " imágenes movidas");
+		return movidas;
+	}
+
+	// Mueve un archivo a su destino creando antes,si no existen,los subdirectorios del destino
+	private Path mover(Path origen, Path destino) throws IOException {
+		Files.createDirectories(destino.getParent());
+		try {
+			return Files.move(origen,destino,StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(AtomicMoveNotSupportedException e) {
+			// Si el origen está en otro sistema de archivos,el movimiento se convierte en una copia
+			return Files.move(origen,destino,StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// Devuelve la ruta de la imagen en su subdirectorio o,si todavía no se ha migrado y sigue en la raíz,su ruta en la raíz
+	private Path localizar(String nombre) {
+		Path ruta = ruta(nombre);
+		if(Files.exists(ruta))
+			return ruta;
+		Path anterior = rutaAnterior(nombre);
+		return Files.exists(anterior) ? anterior : ruta;
+	}
+
+	// Ruta de una imagen en la estructura de subdirectorios: "<2 caracteres>/<2 caracteres>/<nombre>"
+	private Path ruta(String nombre) {
+		String prefijo = prefijo(nombre);
+		return Paths.get(path).resolve(prefijo.substring(0,2)).resolve(prefijo.substring(2,4)).resolve(nombre);
+	}
+
+	// Ruta de una imagen en la raíz del directorio de subidas,donde se guardaban antes todas las imágenes
+	private Path rutaAnterior(String nombre) {
+		return Paths.get(path).resolve(nombre);
+	}
+
+	// Los nombres de las imágenes empiezan por el hash SHA-256 de su contenido en hexadecimal,así que sus primeros caracteres ya están uniformemente repartidos y sus variantes caen en el mismo subdirectorio
+	// Las imágenes antiguas,cuyo nombre no empieza por 4 caracteres hexadecimales,se reparten según el hash de su nombre
+	private String prefijo(String nombre) {
+		if(nombre.length() >= 4 && nombre.substring(0,4).matches("[0-9a-f]{4}"))
+			return nombre.substring(0,4);
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(nombre.getBytes(StandardCharsets.UTF_8));
+			return String.format("%02x%02x",hash[0],hash[1]);
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("El algoritmo SHA-256 no está disponible",e);
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.WriteConcern;
+
+// Esta clase asocia cada clase de operación de escritura(guardados interactivos,importaciones masivas y borrados) con su nivel de confirmación(write concern)
+// Por defecto todas las escrituras usaban el write concern por defecto de la conexión.Ahora,por ejemplo,las importaciones pueden usar "W1"(w:1,j:false) para ganar rendimiento mientras que los cambios de precio esperan a la confirmación de la mayoría("MAJORITY")
+// Para cada clase creamos una instancia de "ReactiveMongoTemplate" que comparte la conexión y el conversor con la instancia por defecto,pero tiene su propio write concern
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class EscriturasMongo {
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(EscriturasMongo.class);
+
+	@Autowired
+	private ReactiveMongoDatabaseFactory mongoDatabaseFactory; // Factoría de conexiones a la base de datos creada por Spring Boot a partir de la propiedad "spring.data.mongodb.uri"
+
+	@Autowired
+	private MongoConverter mongoConverter; // Conversor de Spring Data MongoDB entre nuestras clases documento y los documentos BSON
+
+	@Autowired
+	private Environment environment; // Nos permite leer las propiedades "config.mongodb.write-concern.*" del archivo "application.properties"
+
+	private final Map<TipoEscritura,WriteConcern> writeConcerns = new EnumMap<TipoEscritura,WriteConcern>(TipoEscritura.class);
+
+	private final Map<TipoEscritura,ReactiveMongoTemplate> plantillas = new EnumMap<TipoEscritura,ReactiveMongoTemplate>(TipoEscritura.class);
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		for(TipoEscritura tipo: TipoEscritura.values()) {
+			// El valor de cada propiedad es el nombre de una de las constantes de la clase "WriteConcern" del driver de MongoDB(ACKNOWLEDGED,W1,W2,W3,JOURNALED,MAJORITY,UNACKNOWLEDGED)
+			// Si no se indica,se usa "ACKNOWLEDGED",que equivale al write concern por defecto de la conexión
+			String valor = environment.getProperty(tipo.propiedad(),"ACKNOWLEDGED");
+			WriteConcern writeConcern = WriteConcern.valueOf(valor);
+			if(writeConcern == null)
+				throw new IllegalArgumentException("Write concern no válido en la propiedad " + tipo.propiedad() + ": " + valor);
+
+			ReactiveMongoTemplate plantilla = new ReactiveMongoTemplate(mongoDatabaseFactory,mongoConverter);
+			plantilla.setWriteConcern(writeConcern);
+
+			writeConcerns.put(tipo,writeConcern);
+			plantillas.put(tipo,plantilla);
+			log.info("Write concern para las escrituras de tipo " + tipo + ": " + valor);
+		}
+	}
+
+	// Devuelve la instancia de "ReactiveMongoTemplate" configurada con el write concern de la clase de operación que se le pasa como parámetro
+	public ReactiveMongoTemplate plantilla(TipoEscritura tipo) {
+		return plantillas.get(tipo);
+	}
+
+	// Devuelve el write concern de la clase de operación que se le pasa como parámetro.Se usa cuando trabajamos directamente con una colección del driver,por ejemplo en las escrituras en lote
+	public WriteConcern writeConcern(TipoEscritura tipo) {
+		return writeConcerns.get(tipo);
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoProducto;
+
+import reactor.core.publisher.Flux;
+
+public interface EventosProductoService {
+
+	// Método que publica a todos los suscriptores que un producto se ha guardado en la base de datos
+	public void guardado(Producto producto);
+
+	// Método que publica a todos los suscriptores que un producto se ha eliminado de la base de datos
+	public void eliminado(Producto producto);
+
+	// Método que devuelve un flujo reactivo Flux infinito con los cambios de productos que se publiquen a partir de la suscripción
+	// Cada suscriptor tiene su propio buffer acotado.Si se llena porque el suscriptor no consume los eventos a tiempo,se descartan sus eventos más antiguos o se termina su flujo,según la propiedad "config.eventos.desbordamiento"
+	public Flux<EventoProducto> suscribir();
+
+	// Método que termina los flujos de todos los suscriptores.Se invoca al detener la aplicación para que las conexiones abiertas por los suscriptores no retrasen el cierre
+	public void cerrar();
+}
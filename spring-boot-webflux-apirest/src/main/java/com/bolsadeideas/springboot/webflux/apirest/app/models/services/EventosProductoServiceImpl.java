@@ -0,0 +1,130 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoProducto;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.MonoProcessor;
+
+// Servicio que reparte en vivo los cambios de productos(guardados y eliminados) entre todos los clientes suscritos a la ruta "/api/v2/productos/events",para que no tengan que consultar el listado periódicamente
+// Los métodos "save()" y "delete()" de "ProductoServiceImpl" publican los eventos en un único procesador,que los reparte a todos los suscriptores sin esperar a ninguno
+// Cada suscriptor tiene su propio buffer acotado de "config.eventos.buffer" eventos entre el procesador y su conexión.Cuando un suscriptor lento lo llena,según la propiedad "config.eventos.desbordamiento":
+//  - "descartar-antiguos"(por defecto): se descartan sus eventos más antiguos.El cliente ve un salto en la secuencia de los eventos y sabe que tiene que volver a consultar el listado
+//  - "desconectar": se termina su flujo en el momento,sin esperar a que consuma su buffer,y se cierra su conexión.El cliente se vuelve a conectar(EventSource lo hace automáticamente) y vuelve a consultar el listado
+// Así,un navegador lento solo ocupa su buffer y nunca hace crecer la memoria sin límite ni retrasa a los demás suscriptores
+// Registra las métricas "productos.eventos.suscriptores","productos.eventos.publicados","productos.eventos.descartados" y "productos.eventos.desconectados"
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class EventosProductoServiceImpl implements EventosProductoService {
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas de los suscriptores y de los eventos descartados
+
+	// Eventos que caben en el buffer de cada suscriptor
+	@Value("${config.eventos.buffer:256}")
+	private int buffer;
+
+	// Qué se hace cuando el buffer de un suscriptor se llena: "descartar-antiguos" o "desconectar"
+	@Value("${config.eventos.desbordamiento:descartar-antiguos}")
+	private String desbordamiento;
+
+	// El procesador no guarda eventos ni espera a sus suscriptores.Como los suscriptores siempre tienen su buffer delante,nunca les falta demanda
+	private final DirectProcessor<EventoProducto> procesador = DirectProcessor.create();
+
+	// Los eventos se publican desde los hilos de muchas peticiones a la vez.El FluxSink los entrega de uno en uno al procesador
+	private final FluxSink<EventoProducto> sink = procesador.sink();
+
+	private final AtomicLong secuencia = new AtomicLong();
+
+	private final AtomicInteger suscriptores = new AtomicInteger();
+
+	private boolean desconectar;
+
+	private Counter publicados;
+
+	private Counter descartados;
+
+	private Counter desconectados;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		String estrategia = desbordamiento.trim().toLowerCase(Locale.ROOT);
+		if(!estrategia.equals("descartar-antiguos") && !estrategia.equals("desconectar"))
+			throw new IllegalArgumentException("Valor no válido de la propiedad config.eventos.desbordamiento: " + desbordamiento + "(valores posibles: descartar-antiguos,desconectar)");
+		desconectar = estrategia.equals("desconectar");
+		Gauge.builder("productos.eventos.suscriptores",suscriptores,AtomicInteger::get)
+			.description("Clientes suscritos a los cambios de productos")
+			.register(registry);
+		publicados = Counter.builder("productos.eventos.publicados")
+				.description("Cambios de productos publicados a los suscriptores")
+				.register(registry);
+		descartados = Counter.builder("productos.eventos.descartados")
+				.description("Eventos descartados porque el buffer de un suscriptor lento estaba lleno")
+				.register(registry);
+		desconectados = Counter.builder("productos.eventos.desconectados")
+				.description("Suscriptores desconectados porque su buffer estaba lleno")
+				.register(registry);
+	}
+
+	@Override
+	public void guardado(Producto producto) {
+		publicar(EventoProducto.GUARDADO,producto);
+	}
+
+	@Override
+	public void eliminado(Producto producto) {
+		publicar(EventoProducto.ELIMINADO,producto);
+	}
+
+	// Si no hay suscriptores,no se crea el evento
+	private void publicar(String tipo, Producto producto) {
+		if(suscriptores.get() == 0 || procesador.isTerminated())
+			return;
+		sink.next(new EventoProducto(secuencia.incrementAndGet(),tipo,producto.getId(),EventoProducto.GUARDADO.equals(tipo) ? producto : null));
+		publicados.increment();
+	}
+
+	@Override
+	public Flux<EventoProducto> suscribir() {
+		return Flux.defer(() -> {
+			suscriptores.incrementAndGet();
+			Flux<EventoProducto> eventos;
+			if(desconectar) {
+				// El buffer lleno termina el flujo normalmente,para que la respuesta se cierre limpiamente
+				// No usamos la estrategia "ERROR",porque el error solo llega al suscriptor cuando ha consumido los eventos del buffer,y un suscriptor que no consume nunca se desconectaría.El fin del flujo,en cambio,se envía en el momento
+				MonoProcessor<Void> lleno = MonoProcessor.create();
+				eventos = procesador.onBackpressureBuffer(buffer,evento -> {
+							if(!lleno.isTerminated()) {
+								desconectados.increment();
+								lleno.onComplete();
+							}
+						},BufferOverflowStrategy.DROP_LATEST)
+						.takeUntilOther(lleno);
+			}
+			else
+				eventos = procesador.onBackpressureBuffer(buffer,evento -> descartados.increment(),BufferOverflowStrategy.DROP_OLDEST);
+			return eventos.doFinally(senal -> suscriptores.decrementAndGet());
+		});
+	}
+
+	@Override
+	public void cerrar() {
+		sink.complete();
+	}
+}
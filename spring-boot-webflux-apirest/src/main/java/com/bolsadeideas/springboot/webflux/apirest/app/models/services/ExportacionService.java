@@ -0,0 +1,18 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+
+import reactor.core.publisher.Flux;
+
+public interface ExportacionService {
+
+	// Formatos de exportación soportados: CSV con cabecera y NDJSON(un objeto Json por línea)
+	public static final String CSV = "csv";
+
+	public static final String NDJSON = "ndjson";
+
+	// Método que exporta todos los productos no eliminados en el formato indicado y devuelve un flujo reactivo Flux con los bloques de bytes listos para escribir en la respuesta http
+	// Los bloques se crean con la factoría que se le pasa como parámetro(la de la respuesta http,que usa los buffers reutilizables de Netty) y,si "gzip" es true,se comprimen a medida que se generan
+	public Flux<DataBuffer> exportar(String formato, boolean gzip, DataBufferFactory bufferFactory);
+}
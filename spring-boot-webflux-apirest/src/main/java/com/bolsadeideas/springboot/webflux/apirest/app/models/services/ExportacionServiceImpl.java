@@ -0,0 +1,290 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Servicio de exportación del catálogo completo para los partners
+// En lugar de construir un array Json con todos los productos,los leemos del cursor de MongoDB y los escribimos por bloques directamente en los DataBuffer de la respuesta,comprimiéndolos con gzip sobre la marcha
+// Solo hay en memoria un bloque de productos cada vez,por lo que la memoria usada no depende del número de productos exportados
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class ExportacionServiceImpl implements ExportacionService{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(ExportacionServiceImpl.class);
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate; // Este bean es propio de Spring y lo usamos para leer los productos con un tamaño de lote del cursor mayor que el por defecto
+
+	@Autowired
+	private ObjectMapper objectMapper; // Este bean es el mismo ObjectMapper de Jackson que usa Spring para serializar las respuestas,así el formato NDJSON es el mismo que el del listado de productos
+
+	// Número de productos que se escriben en cada DataBuffer
+	@Value("${config.exportacion.productos-por-bloque:500}")
+	private int productosPorBloque;
+
+	// Número de documentos que MongoDB devuelve en cada lote del cursor
+	@Value("${config.exportacion.lote-cursor:1000}")
+	private int loteCursor;
+
+	// Capacidad inicial,en bytes,de cada DataBuffer.Si un bloque no cabe,el DataBuffer crece automáticamente
+	@Value("${config.exportacion.capacidad-buffer:65536}")
+	private int capacidadBuffer;
+
+	// Método que exporta todos los productos no eliminados en el formato indicado y devuelve un flujo reactivo Flux con los bloques de bytes
+	@Override
+	public Flux<DataBuffer> exportar(String formato, boolean gzip, DataBufferFactory bufferFactory) {
+		if(!CSV.equals(formato) && !NDJSON.equals(formato))
+			return Flux.error(new IllegalArgumentException("Formato de exportación no soportado: " + formato));
+
+		// Con el método "defer()" creamos el estado de la exportación cuando alguien se suscribe a este flujo reactivo,así cada exportación tiene el suyo
+		return Flux.defer(() -> {
+			Exportacion exportacion = new Exportacion(formato,gzip,bufferFactory);
+			Query query = Query.query(Criteria.where("deletedAt").is(null)).cursorBatchSize(loteCursor);
+
+			return mongoTemplate.find(query,Producto.class)
+					.buffer(productosPorBloque)
+					// Con el operador "handle" escribimos cada bloque de productos en un DataBuffer.Si se produce un error de escritura,terminamos el flujo con dicho error
+					// Si la exportación ya se ha cerrado porque el cliente ha cancelado la descarga,no se escribe el bloque y no se emite nada
+					.<DataBuffer>handle((bloque,sink) -> {
+						try {
+							DataBuffer buffer = exportacion.escribir(bloque);
+							if(buffer != null)
+								sink.next(buffer);
+						}
+						catch(IOException e) {
+							sink.error(e);
+						}
+					})
+					.concatWith(Mono.fromCallable(exportacion::terminar))
+					// Tanto si la exportación termina como si el cliente cancela la descarga,liberamos los recursos nativos del compresor
+					// La cancelación puede llegar desde el hilo de Netty mientras se está escribiendo un bloque en el hilo del driver de MongoDB,por eso el cierre espera a que termine la escritura en curso(véase el método "cerrar()")
+					.doFinally(senal -> exportacion.cerrar());
+		});
+	}
+
+	// Estado de una exportación: el DataBuffer donde se está escribiendo el bloque actual y los flujos de salida que escriben en él
+	// Los métodos que usan el compresor y el DataBuffer actual son "synchronized" para que el cierre no libere el compresor(Deflater) ni el DataBuffer mientras otro hilo está escribiendo en ellos
+	private class Exportacion {
+
+		private final String formato;
+
+		private final DataBufferFactory bufferFactory;
+
+		private final SalidaDataBuffer salida = new SalidaDataBuffer();
+
+		private final boolean gzip;
+
+		// Flujo de salida donde se escriben los productos.Si la exportación se comprime,es el compresor gzip que a su vez escribe en "salida"
+		private OutputStream destino;
+
+		private GZIPOutputStream compresor;
+
+		private Writer writer;
+
+		private JsonGenerator generador;
+
+		private boolean cabeceraEscrita;
+
+		// Indica si la exportación se ha cerrado.A partir de entonces no se escribe nada más
+		private boolean cerrada;
+
+		private long productos;
+
+		private Exportacion(String formato, boolean gzip, DataBufferFactory bufferFactory) {
+			this.formato = formato;
+			this.gzip = gzip;
+			this.bufferFactory = bufferFactory;
+		}
+
+		// Escribe un bloque de productos en un nuevo DataBuffer y lo devuelve,o devuelve null si la exportación ya se ha cerrado
+		private synchronized DataBuffer escribir(List<Producto> bloque) throws IOException {
+			if(cerrada)
+				return null;
+			salida.destino = bufferFactory.allocateBuffer(capacidadBuffer);
+			try {
+				escribirCabecera();
+				if(CSV.equals(formato)) {
+					for(Producto producto: bloque)
+						escribirCsv(producto);
+					writer.flush();
+				}
+				else {
+					for(Producto producto: bloque)
+						generador.writeObject(producto);
+					generador.flush();
+				}
+				destino.flush();
+				productos += bloque.size();
+				return salida.entregar();
+			}
+			catch(IOException e) {
+				salida.descartar();
+				throw e;
+			}
+		}
+
+		// Escribe la cabecera si no se ha escrito ya y el final del archivo comprimido,y devuelve el último DataBuffer de la exportación,o null si la exportación ya se ha cerrado
+		private synchronized DataBuffer terminar() throws IOException {
+			if(cerrada)
+				return null;
+			salida.destino = bufferFactory.allocateBuffer(capacidadBuffer);
+			try {
+				escribirCabecera();
+				if(writer != null)
+					writer.flush();
+				if(generador != null)
+					generador.flush();
+				if(compresor != null)
+					compresor.finish();
+				log.info("Exportación en formato " + formato + " terminada: " + productos + " productos");
+				return salida.entregar();
+			}
+			catch(IOException e) {
+				salida.descartar();
+				throw e;
+			}
+		}
+
+		// Libera el compresor.A partir de este momento,cualquier escritura se descarta
+		private synchronized void cerrar() {
+			if(cerrada)
+				return;
+			cerrada = true;
+			salida.descartar();
+			if(compresor != null) {
+				try {
+					compresor.close();
+				}
+				catch(IOException e) {
+					log.warn("Error al cerrar el compresor de la exportación",e);
+				}
+			}
+		}
+
+		// Crea los objetos que escriben en el destino y,en formato CSV,escribe la fila con los nombres de las columnas
+		private void escribirCabecera() throws IOException {
+			if(cabeceraEscrita)
+				return;
+			cabeceraEscrita = true;
+			// El compresor se crea cuando ya tenemos el primer DataBuffer porque escribe la cabecera gzip nada más crearse
+			// Con "syncFlush" a true,cada "flush()" del compresor escribe en la salida todos los datos comprimidos hasta ese momento,de esta manera,cada bloque se puede enviar al cliente sin esperar al final
+			if(gzip) {
+				compresor = new GZIPOutputStream(salida,capacidadBuffer,true);
+				destino = compresor;
+			}
+			else
+				destino = salida;
+			if(CSV.equals(formato)) {
+				writer = new OutputStreamWriter(destino,StandardCharsets.UTF_8);
+				writer.write("id,nombre,precio,createAt,categoria,foto\n");
+			}
+			else {
+				// Cada producto se escribe como un objeto Json seguido de un salto de línea
+				generador = objectMapper.getFactory().createGenerator(destino);
+				generador.setRootValueSeparator(new SerializedString("\n"));
+				generador.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			}
+		}
+
+		// Escribe un producto como una fila CSV
+		private void escribirCsv(Producto producto) throws IOException {
+			escribirCampo(producto.getId());
+			writer.write(',');
+			escribirCampo(producto.getNombre());
+			writer.write(',');
+			if(producto.getPrecio() != null)
+				writer.write(Double.toString(producto.getPrecio()));
+			writer.write(',');
+			if(producto.getCreateAt() != null)
+				writer.write(producto.getCreateAt().toInstant().toString());
+			writer.write(',');
+			escribirCampo(producto.getCategoria() != null ? producto.getCategoria().getNombre() : null);
+			writer.write(',');
+			escribirCampo(producto.getFoto());
+			writer.write('\n');
+		}
+
+		// Escribe un campo de texto.Si contiene comas,comillas dobles o saltos de línea,lo escribe entre comillas dobles duplicando las comillas dobles que contenga
+		private void escribirCampo(String valor) throws IOException {
+			if(valor == null)
+				return;
+			boolean comillas = false;
+			for(int i = 0; i < valor.length() && !comillas; i++) {
+				char c = valor.charAt(i);
+				comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if(!comillas) {
+				writer.write(valor);
+				return;
+			}
+			writer.write('"');
+			for(int i = 0; i < valor.length(); i++) {
+				char c = valor.charAt(i);
+				if(c == '"')
+					writer.write('"');
+				writer.write(c);
+			}
+			writer.write('"');
+		}
+	}
+
+	// Flujo de salida que escribe directamente en el DataBuffer del bloque actual
+	private static class SalidaDataBuffer extends OutputStream {
+
+		private DataBuffer destino;
+
+		@Override
+		public void write(int b) {
+			if(destino != null)
+				destino.write((byte)b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if(destino != null)
+				destino.write(b,off,len);
+		}
+
+		// Devuelve el DataBuffer con los datos escritos.A partir de este momento,el DataBuffer pertenece a quien lo recibe
+		private DataBuffer entregar() {
+			DataBuffer buffer = destino;
+			destino = null;
+			return buffer;
+		}
+
+		// Libera el DataBuffer actual,si lo hay,para devolverlo al pool de Netty
+		private void descartar() {
+			if(destino != null) {
+				DataBufferUtils.release(destino);
+				destino = null;
+			}
+		}
+	}
+
+}
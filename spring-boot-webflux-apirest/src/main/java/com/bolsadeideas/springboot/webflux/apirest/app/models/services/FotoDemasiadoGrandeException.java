@@ -0,0 +1,13 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+// Excepción que se produce cuando una imagen subida supera el tamaño máximo configurado en la propiedad "config.uploads.max-bytes"
+// Los controladores la convierten en una respuesta con el estado PAYLOAD_TOO_LARGE(413)
+public class FotoDemasiadoGrandeException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public FotoDemasiadoGrandeException(long maxBytes) {
+		super("La imagen supera el tamaño máximo permitido de " + maxBytes + " bytes");
+	}
+
+}
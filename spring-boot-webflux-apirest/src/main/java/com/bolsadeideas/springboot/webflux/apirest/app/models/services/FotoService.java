@@ -0,0 +1,38 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.util.function.Function;
+
+import org.springframework.http.codec.multipart.FilePart;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+
+import reactor.core.publisher.Mono;
+
+public interface FotoService {
+
+	// Método que escribe la imagen que se le pasa como parámetro en un archivo temporal a medida que llegan sus bytes y devuelve un flujo reactivo Mono con la imagen temporal como elemento
+	// El nombre definitivo de la imagen es el hash SHA-256 de su contenido,que se calcula mientras se escribe,seguido de la extensión del archivo original
+	// Si la imagen supera el tamaño máximo,se deja de leer,se elimina el archivo temporal y el flujo reactivo termina con el error "FotoDemasiadoGrandeException"
+	// Con formularios "multipart/form-data",la imagen ya ha llegado entera cuando se invoca este método.El tamaño del cuerpo de la petición lo limita antes el filtro "LimiteSubidasFilter"
+	public Mono<FotoTemporal> recibir(FilePart file);
+
+	// Método que mueve la imagen temporal a su ubicación definitiva y,solo si termina correctamente,ejecuta el guardado del producto que se le pasa como parámetro.De esta manera,un producto guardado nunca hace referencia a una imagen que no existe
+	// Si ya existe una imagen con el mismo contenido,se reutiliza y se elimina la imagen temporal
+	// Si el movimiento falla o el flujo reactivo se cancela antes de moverla,se elimina la imagen temporal para no dejar archivos huérfanos.Si termina correctamente,se programa la generación de las variantes redimensionadas de la imagen
+	public Mono<Producto> confirmar(FotoTemporal foto, Mono<Producto> guardado);
+
+	// Método que elimina una imagen temporal que ya no se va a usar,si todavía existe
+	public Mono<Void> descartar(FotoTemporal foto);
+
+	// Método que recibe la imagen y,a continuación,ejecuta la función de guardado con el nombre definitivo de la imagen y la confirma.Es la combinación de los métodos "recibir()" y "confirmar()"
+	public Mono<Producto> subir(FilePart file, Function<String,Mono<Producto>> guardado);
+
+	// Método que registra que un producto más usa la imagen que se le pasa como parámetro
+	public Mono<Void> retener(String foto);
+
+	// Método que registra que un producto ha dejado de usar la imagen que se le pasa como parámetro.Si ya no la usa ningún producto,el archivo y sus variantes se eliminan más tarde,en una recolección periódica
+	public Mono<Void> liberar(String foto);
+
+	// Método que elimina las imágenes y variantes que ya no usa ningún producto y devuelve un flujo reactivo Mono con el número de imágenes eliminadas.Se ejecuta periódicamente,pero también se puede invocar directamente
+	public Mono<Long> recolectar();
+}
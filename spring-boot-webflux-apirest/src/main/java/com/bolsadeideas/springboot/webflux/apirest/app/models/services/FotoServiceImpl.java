@@ -0,0 +1,419 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.FotoAlmacenada;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// Servicio de subida de imágenes de productos
+// Antes,las imágenes se escribían directamente en su ubicación definitiva con "transferTo()" y después se guardaba el producto.Si el guardado fallaba,la imagen se quedaba huérfana,y si la subida fallaba a medias,quedaba un archivo incompleto
+// Ahora,la imagen se escribe en un archivo temporal mediante un canal de archivo asíncrono a medida que llegan sus DataBuffer,limitando su tamaño,y se mueve al almacén de imágenes justo antes de guardar el producto en la base de datos
+// En Spring 5.1,las partes de un formulario solo se entregan cuando han llegado enteras,así que el límite de tamaño de este servicio no acota la memoria ni el disco que usa el lector de formularios.Eso lo hace antes el filtro "LimiteSubidasFilter"
+// Las imágenes se almacenan con el nombre del hash SHA-256 de su contenido(content-addressed).Si varios productos tienen la misma imagen,comparten un único archivo,y como el contenido de un nombre nunca cambia,sus urls se pueden cachear para siempre
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class FotoServiceImpl implements FotoService{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(FotoServiceImpl.class);
+
+	// Subdirectorio del directorio de subidas donde se escriben los archivos temporales.Con el almacén local,tiene que estar en el mismo sistema de archivos que el directorio de subidas para que el movimiento sea atómico
+	static final String DIRECTORIO_TEMPORAL = ".tmp";
+
+	// Reintentos y espera entre ellos cuando se reserva o retiene una imagen que la recolección está eliminando
+	private static final int REINTENTOS_ELIMINANDO = 50;
+
+	private static final Duration ESPERA_ELIMINANDO = Duration.ofMillis(100);
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas de las subidas
+
+	@Autowired
+	private EscriturasMongo escrituras; // Este bean nos da la plantilla de MongoDB con el write concern de los guardados interactivos para mantener los contadores de referencias de las imágenes
+
+	@Autowired
+	private AlmacenFotos almacenFotos; // Este bean es el almacén donde se guardan definitivamente las imágenes.Se elige mediante la propiedad "config.fotos.almacen.tipo"
+
+	@Autowired
+	private VariantesFotoService variantesFotoService; // Este bean genera en segundo plano las variantes redimensionadas de las imágenes subidas
+
+	// Inyectamos en el objeto String "path" el valor de la propiedad "config.uploads.path", definida en el archivo de propiedades de la aplicación "application.properties", que contiene la ruta o path donde se van a subir las imágenes
+	@Value("${config.uploads.path}")
+	private String path;
+
+	// Tamaño máximo,en bytes,de una imagen
+	@Value("${config.uploads.max-bytes:5242880}")
+	private long maxBytes;
+
+	// Antigüedad,en minutos,a partir de la cual un archivo temporal se considera huérfano(por ejemplo,porque la aplicación se detuvo durante una subida) y se elimina al arrancar
+	@Value("${config.uploads.huerfanos-minutos:60}")
+	private long huerfanosMinutos;
+
+	// Cada cuántos segundos se eliminan las imágenes que ya no usa ningún producto y cuántos minutos tienen que pasar sin cambios en su contador para eliminarlas
+	@Value("${config.fotos.recoleccion.intervalo-segundos:600}")
+	private long recoleccionSegundos;
+
+	@Value("${config.fotos.recoleccion.gracia-minutos:60}")
+	private long graciaMinutos;
+
+	private Disposable recoleccion;
+
+	// Bytes de las subidas que están en curso
+	private final AtomicLong bytesEnVuelo = new AtomicLong();
+
+	private DistributionSummary bytesSubidos;
+
+	private Timer duracionSubida;
+
+	private Counter rechazadas;
+
+	private Counter descartadas;
+
+	private Counter deduplicadas;
+
+	private Counter eliminadas;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		// Registramos las métricas: los bytes en vuelo,el tamaño y la duración de cada subida(de las que se obtiene el throughput),las subidas rechazadas por tamaño y las imágenes temporales descartadas
+		Gauge.builder("productos.fotos.subida.bytes.en-vuelo",bytesEnVuelo,AtomicLong::get)
+			.description("Bytes de las subidas de imágenes en curso")
+			.baseUnit("bytes")
+			.register(registry);
+		bytesSubidos = DistributionSummary.builder("productos.fotos.subida.bytes")
+				.description("Tamaño de las imágenes subidas")
+				.baseUnit("bytes")
+				.register(registry);
+		duracionSubida = Timer.builder("productos.fotos.subida")
+				.description("Duración de la escritura de cada imagen subida en el archivo temporal")
+				.publishPercentiles(0.5,0.95,0.99)
+				.register(registry);
+		rechazadas = Counter.builder("productos.fotos.subida.rechazadas")
+				.description("Subidas rechazadas por superar el tamaño máximo")
+				.register(registry);
+		descartadas = Counter.builder("productos.fotos.subida.descartadas")
+				.description("Imágenes temporales eliminadas porque el producto no se llegó a guardar")
+				.register(registry);
+		deduplicadas = Counter.builder("productos.fotos.deduplicadas")
+				.description("Imágenes subidas que ya estaban almacenadas y no se han vuelto a escribir")
+				.register(registry);
+		eliminadas = Counter.builder("productos.fotos.eliminadas")
+				.description("Imágenes eliminadas porque ya no las usa ningún producto")
+				.register(registry);
+
+		eliminarHuerfanos();
+
+		// Si falla una recolección,la registramos en el log y esperamos a la siguiente
+		recoleccion = Flux.interval(Duration.ofSeconds(recoleccionSegundos))
+				.concatMap(n -> recolectar().onErrorResume(e -> {
+					log.error("Error en la recolección de imágenes sin referencias",e);
+					return Mono.just(0L);
+				}))
+				.subscribe();
+	}
+
+	@PreDestroy
+	public void cerrar() {
+		recoleccion.dispose();
+	}
+
+	// Método que escribe la imagen en un archivo temporal a medida que llegan sus bytes y devuelve un flujo reactivo Mono con la imagen temporal como elemento
+	@Override
+	public Mono<FotoTemporal> recibir(FilePart file) {
+		// El nombre definitivo de la imagen es el hash de su contenido seguido de la extensión del archivo original,que calculamos a medida que llegan sus bytes
+		String extension = extension(file.filename());
+
+		// Creamos,si no existe,el directorio temporal.Como es una operación bloqueante,la ejecutamos en el scheduler "elastic" de Reactor
+		return Mono.fromCallable(this::directorioTemporal).subscribeOn(Schedulers.elastic()).flatMap(directorio -> {
+			Path temporal = directorio.resolve(UUID.randomUUID().toString());
+			AtomicLong bytes = new AtomicLong();
+			MessageDigest digest = sha256();
+			long inicio = System.nanoTime();
+
+			// Con el operador "handle" contamos los bytes a medida que llegan.Si se supera el tamaño máximo,liberamos el DataBuffer y terminamos el flujo con un error,lo que cancela la lectura del resto de la imagen
+			Flux<DataBuffer> contenido = file.content()
+					.handle((buffer,sink) -> {
+						int n = buffer.readableByteCount();
+						bytesEnVuelo.addAndGet(n);
+						if(bytes.addAndGet(n) > maxBytes) {
+							DataBufferUtils.release(buffer);
+							rechazadas.increment();
+							sink.error(new FotoDemasiadoGrandeException(maxBytes));
+						}
+						else {
+							// El ByteBuffer que devuelve "asByteBuffer()" comparte los bytes con el DataBuffer pero tiene su propia posición,así que leerlo no consume el DataBuffer que se escribe después en el archivo
+							digest.update(buffer.asByteBuffer());
+							sink.next(buffer);
+						}
+					});
+
+			// Con "usingWhen()",si la subida falla o se cancela,la eliminación del archivo temporal incompleto forma parte del propio flujo reactivo en lugar de lanzarse por separado sin esperar a que termine
+			// Si termina correctamente,el archivo temporal se conserva hasta que la imagen se confirme o se descarte
+			return Mono.usingWhen(Mono.just(temporal),
+						ruta -> escribir(contenido,ruta)
+								.then(Mono.fromCallable(() -> {
+									bytesSubidos.record(bytes.get());
+									duracionSubida.record(System.nanoTime() - inicio,TimeUnit.NANOSECONDS);
+									return new FotoTemporal(hexadecimal(digest.digest()) + extension,ruta,bytes.get());
+								})),
+						ruta -> Mono.empty(),
+						this::eliminar,
+						this::eliminar)
+					.doFinally(senal -> bytesEnVuelo.addAndGet(-bytes.get()));
+		});
+	}
+
+	// Método que mueve la imagen temporal a su ubicación definitiva y,solo si termina correctamente,ejecuta el guardado del producto
+	// Antes,el producto se guardaba primero y la imagen se movía después,así que si el movimiento fallaba,el producto quedaba guardado con una imagen que no existe
+	// Ahora,un producto guardado siempre tiene su imagen en el almacén.Si lo que falla es el guardado,la imagen queda en el almacén sin que la use ningún producto y la recolección periódica la elimina más tarde
+	@Override
+	public Mono<Producto> confirmar(FotoTemporal foto, Mono<Producto> guardado) {
+		// Si el movimiento o el guardado fallan o se cancelan,eliminamos la imagen temporal si todavía existe,como parte del propio flujo reactivo
+		return Mono.usingWhen(Mono.just(foto),
+					f -> mover(f).then(guardado),
+					f -> Mono.empty(),
+					this::descartar,
+					this::descartar)
+				// Una vez guardado el producto,programamos la generación de las variantes de su imagen en el pool de trabajo.No esperamos a que terminen para responder al cliente
+				.doOnNext(variantesFotoService::programar);
+	}
+
+	// Método que elimina una imagen temporal que ya no se va a usar,si todavía existe
+	@Override
+	public Mono<Void> descartar(FotoTemporal foto) {
+		return Mono.fromCallable(() -> Files.deleteIfExists(foto.getRuta()))
+				.subscribeOn(Schedulers.elastic())
+				.doOnNext(eliminada -> {
+					if(eliminada)
+						descartadas.increment();
+				})
+				.doOnError(e -> log.warn("No se ha podido eliminar la imagen temporal " + foto.getRuta(),e))
+				.onErrorResume(e -> Mono.just(false))
+				.then();
+	}
+
+	// Método que recibe la imagen,ejecuta la función de guardado con el nombre definitivo de la imagen y la confirma
+	@Override
+	public Mono<Producto> subir(FilePart file, Function<String,Mono<Producto>> guardado) {
+		return recibir(file).flatMap(foto -> confirmar(foto,guardado.apply(foto.getNombre())));
+	}
+
+	// Método que registra que un producto más usa la imagen.Si es la primera vez que se usa,se crea su documento con el contador a 1
+	@Override
+	public Mono<Void> retener(String foto) {
+		return actualizarContador(foto,1);
+	}
+
+	// Método que registra que un producto ha dejado de usar la imagen.El archivo no se elimina aquí,aunque el contador llegue a 0,sino en la recolección periódica(véase el método "recolectar()")
+	// Antes,el documento y el archivo se eliminaban en cuanto el contador llegaba a 0.Si mientras tanto otra subida de la misma imagen encontraba el archivo,eliminaba su copia temporal para reutilizarlo y el archivo desaparecía después
+	@Override
+	public Mono<Void> liberar(String foto) {
+		return escrituras.plantilla(TipoEscritura.GUARDADO)
+				.updateFirst(Query.query(Criteria.where("id").is(foto)),new Update().inc("referencias",-1).inc("version",1).set("actualizadaAt",new Date()),FotoAlmacenada.class)
+				.then();
+	}
+
+	// Reserva la imagen antes de comprobar si ya existe en el almacén.Si no tiene documento,se crea con el contador a 0
+	// La reserva actualiza la fecha de la imagen,de esta manera,la recolección no la elimina mientras se guarda el producto que la va a usar,aunque todavía no la haya retenido
+	private Mono<Void> reservar(String foto) {
+		return actualizarContador(foto,0);
+	}
+
+	// Suma al contador de referencias de la imagen la cantidad indicada,creando su documento si no existe
+	// El filtro excluye las imágenes que la recolección está eliminando.En ese caso,el documento existe pero no cumple el filtro,el "upsert" intenta insertar otro con el mismo id y falla con la excepción "DuplicateKeyException"
+	// Entonces,esperamos y reintentamos hasta que la recolección elimine el documento.El siguiente intento crea un documento nuevo y la subida vuelve a escribir el archivo en el almacén
+	private Mono<Void> actualizarContador(String foto, long cantidad) {
+		return Mono.defer(() -> escrituras.plantilla(TipoEscritura.GUARDADO)
+					.upsert(Query.query(Criteria.where("id").is(foto).and("eliminando").ne(true)),
+							new Update().inc("referencias",cantidad).inc("version",1).set("actualizadaAt",new Date()).setOnInsert("createAt",new Date()),
+							FotoAlmacenada.class))
+				.retryWhen(errores -> errores.zipWith(Flux.range(1,REINTENTOS_ELIMINANDO + 1)).concatMap(error -> {
+					if(!(error.getT1() instanceof DuplicateKeyException) || error.getT2() > REINTENTOS_ELIMINANDO)
+						return Mono.error(error.getT1());
+					return Mono.delay(ESPERA_ELIMINANDO);
+				}))
+				.then();
+	}
+
+	// Método que elimina las imágenes que ya no usa ningún producto.Se ejecuta periódicamente
+	// Solo se eliminan las imágenes con el contador a 0 o menos que llevan más tiempo del configurado sin reservarse,retenerse ni liberarse,para no eliminar las que se acaban de subir y todavía se están guardando
+	// Cada imagen se elimina en tres pasos:
+	// 1.Se marca como "eliminando" solo si su versión no ha cambiado desde la consulta.Si alguien la ha reservado o retenido mientras tanto,la marca no se aplica y la imagen se conserva
+	// 2.Se eliminan su archivo y sus variantes.Mientras tanto,las reservas y retenciones de la imagen esperan(véase el método "actualizarContador()"),así que ninguna subida puede reutilizar un archivo que se está eliminando
+	// 3.Se elimina el documento.Si falla la eliminación de los archivos,se quita la marca y se vuelve a intentar en la siguiente recolección
+	// Las imágenes anteriores a este contador no tienen documento y nunca se eliminan
+	@Override
+	public Mono<Long> recolectar() {
+		Date limite = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(graciaMinutos));
+		ReactiveMongoTemplate plantilla = escrituras.plantilla(TipoEscritura.BORRADO);
+		return plantilla.find(Query.query(Criteria.where("referencias").lte(0).and("actualizadaAt").lt(limite)),FotoAlmacenada.class)
+				.concatMap(almacenada -> plantilla.updateFirst(Query.query(Criteria.where("id").is(almacenada.getId()).and("version").is(almacenada.getVersion()).and("referencias").lte(0)),
+							new Update().set("eliminando",true).inc("version",1).set("actualizadaAt",new Date()),FotoAlmacenada.class)
+						.filter(resultado -> resultado.getModifiedCount() > 0)
+						.flatMap(resultado -> eliminarArchivos(almacenada.getId())
+								.then(plantilla.remove(Query.query(Criteria.where("id").is(almacenada.getId()).and("eliminando").is(true)),FotoAlmacenada.class))
+								.thenReturn(1L)
+								.onErrorResume(e -> {
+									log.warn("No se ha podido eliminar la imagen " + almacenada.getId() + ",se volverá a intentar en la siguiente recolección",e);
+									return plantilla.updateFirst(Query.query(Criteria.where("id").is(almacenada.getId())),new Update().set("eliminando",false).inc("version",1),FotoAlmacenada.class)
+											.thenReturn(0L);
+								})))
+				.reduce(0L,Long::sum);
+	}
+
+	// Mueve la imagen temporal al almacén de imágenes con su nombre definitivo
+	// Si ya existe una imagen con el mismo nombre,tiene el mismo contenido,así que la reutilizamos y eliminamos la imagen temporal
+	// Antes de comprobarlo,reservamos la imagen para que la recolección no elimine el archivo que vamos a reutilizar
+	private Mono<Void> mover(FotoTemporal foto) {
+		return reservar(foto.getNombre())
+				.then(almacenFotos.existe(foto.getNombre()))
+				.flatMap(existe -> {
+					if(existe) {
+						deduplicadas.increment();
+						return eliminar(foto.getRuta());
+					}
+					return almacenFotos.guardar(foto.getNombre(),foto.getRuta());
+				})
+				.doOnError(e -> log.error("No se ha podido guardar la imagen temporal " + foto.getRuta() + " como " + foto.getNombre(),e));
+	}
+
+	// Elimina un archivo temporal si existe
+	private Mono<Void> eliminar(Path temporal) {
+		return Mono.fromCallable(() -> Files.deleteIfExists(temporal))
+				.subscribeOn(Schedulers.elastic())
+				.doOnError(e -> log.warn("No se ha podido eliminar la imagen temporal " + temporal,e))
+				.onErrorResume(e -> Mono.just(false))
+				.then();
+	}
+
+	// Elimina del almacén una imagen y sus variantes redimensionadas
+	private Mono<Void> eliminarArchivos(String foto) {
+		return Flux.concat(Flux.just(foto),Flux.fromIterable(variantesFotoService.nombres(foto)))
+				.distinct()
+				.concatMap(almacenFotos::eliminar)
+				.doOnComplete(eliminadas::increment)
+				.then();
+	}
+
+	// Extensión del nombre del archivo original en minúsculas,incluido el punto.Solo se admiten letras y números para que el nombre de la imagen no pueda contener rutas
+	private String extension(String filename) {
+		int punto = filename.lastIndexOf('.');
+		if(punto < 0)
+			return "";
+		String extension = filename.substring(punto + 1).toLowerCase();
+		return extension.matches("[a-z0-9]{1,10}") ? "." + extension : "";
+	}
+
+	private MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("El algoritmo SHA-256 no está disponible",e);
+		}
+	}
+
+	private String hexadecimal(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for(byte b: bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xF,16)).append(Character.forDigit(b & 0xF,16));
+		return hex.toString();
+	}
+
+	// Abre el archivo temporal,escribe en él cada DataBuffer mediante el canal asíncrono(sin bloquear el hilo de la petición) y lo cierra al terminar
+	private Mono<Void> escribir(Flux<DataBuffer> contenido, Path temporal) {
+		return Mono.using(() -> AsynchronousFileChannel.open(temporal,StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE),
+					canal -> DataBufferUtils.write(contenido,canal)
+							.doOnNext(DataBufferUtils::release) // El método "write()" devuelve los DataBuffer ya escritos y somos nosotros los que tenemos que liberarlos
+							.then(),
+					this::cerrar);
+	}
+
+	private void cerrar(AsynchronousFileChannel canal) {
+		try {
+			canal.close();
+		}
+		catch(IOException e) {
+			log.warn("Error al cerrar el archivo temporal de una imagen",e);
+		}
+	}
+
+	// Devuelve el directorio temporal de subidas creándolo si no existe
+	private Path directorioTemporal() throws IOException {
+		return Files.createDirectories(Paths.get(path).resolve(DIRECTORIO_TEMPORAL));
+	}
+
+	// Elimina los archivos temporales que llevan más tiempo del configurado en el directorio temporal.Son subidas que no terminaron porque la aplicación se detuvo
+	private void eliminarHuerfanos() {
+		Path directorio = Paths.get(path).resolve(DIRECTORIO_TEMPORAL);
+		if(!Files.isDirectory(directorio))
+			return;
+		FileTime limite = FileTime.from(Instant.now().minus(Duration.ofMinutes(huerfanosMinutos)));
+		try(Stream<Path> temporales = Files.list(directorio)) {
+			temporales.filter(temporal -> {
+					try {
+						return Files.getLastModifiedTime(temporal).compareTo(limite) < 0;
+					}
+					catch(IOException e) {
+						return false;
+					}
+				})
+				.forEach(temporal -> {
+					try {
+						Files.deleteIfExists(temporal);
+						log.info("Imagen temporal huérfana eliminada: " + temporal);
+					}
+					catch(IOException e) {
+						log.warn("No se ha podido eliminar la imagen temporal huérfana " + temporal,e);
+					}
+				});
+		}
+		catch(IOException e) {
+			log.warn("No se ha podido revisar el directorio temporal de subidas " + directorio,e);
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.nio.file.Path;
+
+// Imagen recibida en el directorio temporal de subidas que todavía no se ha movido a su ubicación definitiva
+// Solo se mueve cuando el producto se ha actualizado correctamente en la base de datos(véase el método "confirmar()" de la interfaz "FotoService")
+public class FotoTemporal {
+
+	// Nombre definitivo de la imagen,que es el que se guarda en la propiedad "foto" del producto
+	private final String nombre;
+
+	// Ruta del archivo temporal
+	private final Path ruta;
+
+	// Tamaño de la imagen en bytes
+	private final long bytes;
+
+	public FotoTemporal(String nombre, Path ruta, long bytes) {
+		this.nombre = nombre;
+		this.ruta = ruta;
+		this.bytes = bytes;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public Path getRuta() {
+		return ruta;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
+
+import reactor.core.publisher.Mono;
+
+public interface IdempotenciaService {
+
+	// Nombre de la cabecera http en la que los clientes nos envían la clave de idempotencia
+	public static final String CABECERA = "Idempotency-Key";
+
+	// Nombre de la cabecera http que añadimos a la respuesta cuando se trata de una respuesta repetida a partir de una clave ya procesada
+	public static final String CABECERA_REPETIDA = "Idempotent-Replayed";
+
+	// Método que ejecuta la operación que se le pasa como parámetro una única vez por clave y devuelve un flujo reactivo Mono con la respuesta de dicha operación como elemento
+	// Si la clave ya fue procesada,no se vuelve a ejecutar la operación y se devuelve la respuesta almacenada.Si la clave se está procesando en ese momento,se espera a que termine la primera petición
+	// La huella identifica la petición(véase el método "huella()").Si la clave ya se usó con una petición con otra huella,se responde con el estado UNPROCESSABLE_ENTITY(422) sin ejecutar la operación
+	public Mono<Idempotencia> ejecutar(String clave, String huella, Mono<Idempotencia> operacion);
+
+	// Método que calcula la huella(SHA-256 en hexadecimal) de una petición a partir de su método http,su ruta y su cuerpo,que se serializa en formato Json
+	public String huella(HttpMethod metodo, String ruta, Object cuerpo);
+
+	// Método que crea la respuesta que se va a almacenar para una clave a partir de su estado http,su cabecera "Location" y su cuerpo,que se serializa en formato Json y se guarda junto con su tipo de contenido
+	public Idempotencia respuesta(HttpStatus estado, String location, Object cuerpo);
+
+	// Igual que el método anterior,pero el cuerpo se serializa en el formato negociado con el cliente(Json,CBOR o Smile,véase el método "negociar()" de la clase "FormatosBinarios")
+	public Idempotencia respuesta(HttpStatus estado, String location, MediaType tipo, Object cuerpo);
+
+	// Método que crea,si no existe,el índice TTL que purga las claves caducadas y devuelve un flujo reactivo Mono que termina cuando se ha creado
+	public Mono<Void> crearIndices();
+}
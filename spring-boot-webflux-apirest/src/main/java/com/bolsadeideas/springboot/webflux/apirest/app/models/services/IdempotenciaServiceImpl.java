@@ -0,0 +1,323 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.codec.FormatosBinarios;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dao.IdempotenciaDao;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import reactor.core.publisher.Mono;
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class IdempotenciaServiceImpl implements IdempotenciaService{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(IdempotenciaServiceImpl.class);
+
+	// Intervalo entre consultas a la base de datos mientras esperamos a que otra instancia termine de procesar una clave
+	private static final Duration INTERVALO_ESPERA = Duration.ofMillis(100);
+
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "IdempotenciaDao".Esta interfaz es implementada por Spring al extender de la interfaz "ReactiveMongoRepository"
+	@Autowired
+	private IdempotenciaDao idempotenciaDao; // Este bean se trata del Dao para realizar CRUD en la colección "idempotencias" mapeada con la clase documento "Idempotencia"
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate; // Este bean es propio de Spring y lo usamos para crear el índice TTL de la colección "idempotencias" y para completar,liberar o recuperar una reserva solo si sigue siendo de la misma petición
+
+	@Autowired
+	private ObjectMapper objectMapper; // Este bean es el mismo ObjectMapper de Jackson que usa Spring para serializar las respuestas,así la respuesta repetida es idéntica a la original
+
+	@Autowired
+	private ObjectProvider<Jackson2ObjectMapperBuilder> builder; // Con este builder creamos los ObjectMapper de CBOR y Smile con la misma configuración de Jackson que los codecs de la clase "CodecsConfig"
+
+	private ObjectMapper cbor;
+
+	private ObjectMapper smile;
+
+	// Tiempo,en segundos,que se conservan las claves en la base de datos antes de que el índice TTL las elimine
+	@Value("${config.idempotencia.ttl-segundos:86400}")
+	private long ttlSegundos;
+
+	// Número máximo de claves recientes que se mantienen en memoria
+	@Value("${config.idempotencia.memoria.max-claves:10000}")
+	private int maxClaves;
+
+	// Tiempo,en segundos,que se mantiene en memoria una clave reciente
+	@Value("${config.idempotencia.memoria.ttl-segundos:600}")
+	private long ttlMemoriaSegundos;
+
+	// Tiempo máximo,en segundos,que una petición duplicada espera a que termine la petición original
+	@Value("${config.idempotencia.espera-maxima-segundos:30}")
+	private long esperaMaximaSegundos;
+
+	// Tiempo,en segundos,que dura la reserva de una clave que se está procesando.Si la petición original no termina antes(por ejemplo,porque la instancia se ha caído o se ha perdido la conexión con MongoDB),una petición repetida se queda con la reserva y vuelve a ejecutar la operación
+	// Tiene que ser menor que la espera máxima para que la petición repetida que está esperando pueda recuperar la reserva en lugar de recibir el estado CONFLICT(409)
+	@Value("${config.idempotencia.reserva-segundos:15}")
+	private long reservaSegundos;
+
+	// Mapa acotado con las claves recientes y sus respuestas.Se ordena por acceso para que,al superar el tamaño máximo,se descarte la clave usada hace más tiempo
+	// Para cada clave guardamos el flujo reactivo Mono cacheado de la petición original,de esta manera,las peticiones duplicadas concurrentes se suscriben a él y esperan a que termine en lugar de competir con ella
+	private Map<String,Entrada> recientes;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		cbor = builder.getObject().factory(new CBORFactory()).build();
+		smile = builder.getObject().factory(new SmileFactory()).build();
+
+		recientes = new LinkedHashMap<String,Entrada>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Entrada> eldest) {
+				return size() > maxClaves || eldest.getValue().caducada();
+			}
+		};
+
+		crearIndices().subscribe(null,error -> log.error("No se ha podido crear el índice TTL de idempotencias",error));
+	}
+
+	// Método que crea,si no existe,el índice TTL sobre la propiedad "createAt" para que MongoDB purgue automáticamente las claves caducadas
+	// Además de al arrancar,lo invoca la carga de datos después de eliminar la colección,ya que al eliminar una colección se eliminan también sus índices
+	@Override
+	public Mono<Void> crearIndices() {
+		return mongoTemplate.indexOps(Idempotencia.class)
+			.ensureIndex(new Index().on("createAt",Sort.Direction.ASC).expire(ttlSegundos,TimeUnit.SECONDS))
+			.doOnNext(indice -> log.info("Índice TTL de idempotencias: " + indice))
+			.then();
+	}
+
+	// Método que ejecuta la operación que se le pasa como parámetro una única vez por clave y devuelve un flujo reactivo Mono con la respuesta de dicha operación como elemento
+	@Override
+	public Mono<Idempotencia> ejecutar(String clave, String huella, Mono<Idempotencia> operacion) {
+		// Con el método "defer()" retrasamos la reserva de la clave en memoria hasta que alguien se suscriba a este flujo reactivo
+		return Mono.defer(() -> {
+			Entrada entrada = new Entrada(huella,System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlMemoriaSegundos));
+			// Con el operador "cache()" la petición original se ejecuta una sola vez y su resultado se comparte con todas las peticiones duplicadas que se suscriban
+			// Si la petición falla o su respuesta no es satisfactoria,eliminamos la clave de memoria para que el cliente pueda reintentarla
+			entrada.respuesta = procesar(clave,huella,operacion)
+					.doOnError(e -> olvidar(clave,entrada))
+					.doOnSuccess(r -> {
+						if(r == null || !HttpStatus.valueOf(r.getEstado()).is2xxSuccessful())
+							olvidar(clave,entrada);
+					})
+					.cache();
+
+			Entrada previa = reservar(clave,entrada);
+			// Si ya había una petición con la misma clave en memoria,esperamos a su respuesta y la marcamos como repetida,salvo que sea otra petición distinta con la misma clave
+			if(previa != null)
+				return huella.equals(previa.huella) ? previa.respuesta.map(Idempotencia::comoRepetida) : Mono.just(distinta());
+			return entrada.respuesta;
+		});
+	}
+
+	// Método que crea la respuesta que se va a almacenar para una clave a partir de su estado http,su cabecera "Location" y su cuerpo,que se serializa en formato Json
+	@Override
+	public Idempotencia respuesta(HttpStatus estado, String location, Object cuerpo) {
+		return respuesta(estado,location,MediaType.APPLICATION_JSON_UTF8,cuerpo);
+	}
+
+	// Método que crea la respuesta que se va a almacenar para una clave serializando su cuerpo en el formato negociado con el cliente
+	// Se guarda el cuerpo ya serializado junto con su tipo de contenido,así la respuesta original y sus repeticiones se escriben tal cual,sin volver a pasar por Jackson.Una repetición recibe el formato de la petición original aunque cambie su cabecera "Accept"
+	@Override
+	public Idempotencia respuesta(HttpStatus estado, String location, MediaType tipo, Object cuerpo) {
+		ObjectMapper mapper = tipo.isCompatibleWith(FormatosBinarios.APPLICATION_CBOR) ? cbor : tipo.isCompatibleWith(FormatosBinarios.APPLICATION_SMILE) ? smile : objectMapper;
+		try {
+			return new Idempotencia(estado.value(),location,tipo.toString(),mapper.writeValueAsBytes(cuerpo));
+		}
+		catch(JsonProcessingException e) {
+			throw new IllegalStateException("No se ha podido serializar la respuesta idempotente",e);
+		}
+	}
+
+	// Método que calcula la huella(SHA-256 en hexadecimal) de una petición a partir de su método http,su ruta y su cuerpo,que se serializa en formato Json
+	// El cuerpo se serializa antes de completarlo(por ejemplo,con la fecha de creación) para que la misma petición repetida tenga siempre la misma huella
+	@Override
+	public String huella(HttpMethod metodo, String ruta, Object cuerpo) {
+		try {
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			sha256.update((metodo.name() + " " + ruta + "\n").getBytes(StandardCharsets.UTF_8));
+			sha256.update(objectMapper.writeValueAsBytes(cuerpo));
+			StringBuilder hex = new StringBuilder();
+			for(byte b: sha256.digest())
+				hex.append(String.format("%02x",b));
+			return hex.toString();
+		}
+		catch(NoSuchAlgorithmException | JsonProcessingException e) {
+			throw new IllegalStateException("No se ha podido calcular la huella de la petición idempotente",e);
+		}
+	}
+
+	// Consulta la clave en la base de datos.Si ya se completó,devuelve la respuesta almacenada.Si no existe,la reserva y ejecuta la operación.Si otra instancia la está procesando,espera a que termine
+	private Mono<Idempotencia> procesar(String clave, String huella, Mono<Idempotencia> operacion) {
+		return idempotenciaDao.findById(clave)
+				.flatMap(existente -> !existente.coincide(huella) ? Mono.just(distinta()) : existente.isCompletada() ? Mono.just(existente.comoRepetida()) : esperar(clave,huella,operacion))
+				// Si la clave no existe,intentamos reservarla insertando un documento "en curso".El índice único de la clave primaria garantiza que solo una petición lo consiga aunque haya varias instancias de esta aplicación
+				.switchIfEmpty(Mono.defer(() -> {
+					String propietario = UUID.randomUUID().toString();
+					return idempotenciaDao.insert(new Idempotencia(clave,huella,propietario,finReserva()))
+							.map(reserva -> true)
+							.onErrorResume(DuplicateKeyException.class,e -> Mono.just(false))
+							.flatMap(propia -> propia ? completar(clave,propietario,operacion) : esperar(clave,huella,operacion));
+				}));
+	}
+
+	// Ejecuta la operación y almacena su respuesta si es satisfactoria.Si la operación falla o su respuesta no es satisfactoria,liberamos la clave para que el cliente pueda reintentarla
+	// Tanto al almacenar la respuesta como al liberar la clave se comprueba que la reserva sigue siendo de esta petición,por si ha caducado y otra petición se ha quedado con ella
+	private Mono<Idempotencia> completar(String clave, String propietario, Mono<Idempotencia> operacion) {
+		return operacion
+				.onErrorResume(e -> liberar(clave,propietario).then(Mono.error(e)))
+				.switchIfEmpty(Mono.defer(() -> liberar(clave,propietario).then(Mono.empty())))
+				.flatMap(r -> {
+					r.setId(clave);
+					if(!HttpStatus.valueOf(r.getEstado()).is2xxSuccessful())
+						return liberar(clave,propietario).thenReturn(r);
+					r.setCompletada(true);
+					r.setCreateAt(new Date());
+					Update update = Update.update("completada",true)
+							.set("estado",r.getEstado())
+							.set("location",r.getLocation())
+							.set("tipo",r.getTipo())
+							.set("cuerpo",r.getCuerpo())
+							.set("createAt",r.getCreateAt())
+							.unset("propietario")
+							.unset("expira");
+					return mongoTemplate.findAndModify(reservaDe(clave,propietario),update,Idempotencia.class)
+							.switchIfEmpty(Mono.fromRunnable(() -> log.warn("La reserva de la clave de idempotencia " + clave + " caducó antes de completar la petición original")))
+							.thenReturn(r);
+				});
+	}
+
+	// Elimina la reserva de la clave si sigue siendo de esta petición
+	private Mono<Void> liberar(String clave, String propietario) {
+		return mongoTemplate.remove(reservaDe(clave,propietario),Idempotencia.class).then();
+	}
+
+	// Espera,consultando periódicamente la base de datos,a que otra petición termine de procesar la clave
+	// Si la reserva de la otra petición caduca sin que termine,esta petición se queda con la reserva y ejecuta la operación
+	// Si la otra petición falla y libera la clave,o si se supera el tiempo máximo de espera,respondemos con el estado CONFLICT(409) para que el cliente reintente más tarde
+	private Mono<Idempotencia> esperar(String clave, String huella, Mono<Idempotencia> operacion) {
+		return idempotenciaDao.findById(clave)
+				.defaultIfEmpty(new Idempotencia())
+				.flatMap(i -> {
+					if(i.getId() == null)
+						return Mono.just(conflicto("La petición original con esta clave ha fallado,vuelva a intentarlo"));
+					if(!i.coincide(huella))
+						return Mono.just(distinta());
+					if(i.isCompletada())
+						return Mono.just(i.comoRepetida());
+					if(i.caducada())
+						return recuperar(clave,i).flatMap(propietario -> completar(clave,propietario,operacion));
+					return Mono.<Idempotencia>empty();
+				})
+				.repeatWhenEmpty(intentos -> intentos.delayElements(INTERVALO_ESPERA))
+				.timeout(Duration.ofSeconds(esperaMaximaSegundos))
+				.onErrorResume(TimeoutException.class,e -> Mono.just(conflicto("La petición original con esta clave todavía se está procesando")));
+	}
+
+	// Se queda con la reserva caducada de otra petición.Solo lo consigue una de las peticiones que lo intentan a la vez,porque la actualización exige que la reserva siga siendo de la petición original
+	// Devuelve el identificador de la nueva reserva o un flujo vacío si otra petición se ha adelantado
+	private Mono<String> recuperar(String clave, Idempotencia caducada) {
+		String propietario = UUID.randomUUID().toString();
+		Query query = new Query(Criteria.where("_id").is(clave).and("completada").is(false).and("propietario").is(caducada.getPropietario()));
+		Update update = Update.update("propietario",propietario).set("expira",finReserva());
+		return mongoTemplate.findAndModify(query,update,FindAndModifyOptions.options().returnNew(true),Idempotencia.class)
+				.doOnNext(i -> log.warn("Se recupera la reserva caducada de la clave de idempotencia " + clave))
+				.map(i -> propietario);
+	}
+
+	// Consulta que encuentra la reserva de una clave solo si sigue siendo de la petición indicada
+	private Query reservaDe(String clave, String propietario) {
+		return new Query(Criteria.where("_id").is(clave).and("propietario").is(propietario));
+	}
+
+	private Date finReserva() {
+		return new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(reservaSegundos));
+	}
+
+	// Crea una respuesta con el estado UNPROCESSABLE_ENTITY(422) para una clave que ya se ha usado con otra petición distinta
+	private Idempotencia distinta() {
+		Map<String,Object> cuerpo = new HashMap<String,Object>();
+		cuerpo.put("mensaje","La clave de idempotencia ya se ha usado con otra petición distinta");
+		cuerpo.put("timestamp",new Date());
+		cuerpo.put("status",HttpStatus.UNPROCESSABLE_ENTITY.value());
+		return respuesta(HttpStatus.UNPROCESSABLE_ENTITY,null,cuerpo);
+	}
+
+	// Crea una respuesta con el estado CONFLICT(409) y un mensaje para el cliente
+	private Idempotencia conflicto(String mensaje) {
+		Map<String,Object> cuerpo = new HashMap<String,Object>();
+		cuerpo.put("mensaje",mensaje);
+		cuerpo.put("timestamp",new Date());
+		cuerpo.put("status",HttpStatus.CONFLICT.value());
+		return respuesta(HttpStatus.CONFLICT,null,cuerpo);
+	}
+
+	// Reserva la clave en memoria.Si ya existe una entrada no caducada para esa clave la devuelve,y en caso contrario registra la nueva entrada y devuelve null
+	private synchronized Entrada reservar(String clave, Entrada entrada) {
+		Entrada previa = recientes.get(clave);
+		if(previa != null && !previa.caducada())
+			return previa;
+		recientes.put(clave,entrada);
+		return null;
+	}
+
+	// Elimina la clave de memoria solo si sigue asociada a la misma entrada
+	private synchronized void olvidar(String clave, Entrada entrada) {
+		recientes.remove(clave,entrada);
+	}
+
+	// Entrada del mapa de claves recientes con la huella de la petición,la respuesta cacheada y su instante de caducidad
+	private static class Entrada {
+
+		private final String huella;
+
+		private final long caducidad;
+
+		private Mono<Idempotencia> respuesta;
+
+		private Entrada(String huella, long caducidad) {
+			this.huella = huella;
+			this.caducidad = caducidad;
+		}
+
+		private boolean caducada() {
+			return System.currentTimeMillis() > caducidad;
+		}
+	}
+
+}
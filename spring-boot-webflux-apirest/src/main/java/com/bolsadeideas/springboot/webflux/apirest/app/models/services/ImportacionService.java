@@ -0,0 +1,15 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoImportacion;
+
+import reactor.core.publisher.Flux;
+
+public interface ImportacionService {
+
+	// Método que importa los productos de un archivo CSV que llega como un flujo reactivo Flux de DataBuffer,tal y como se recibe en el cuerpo de la petición http,y devuelve un flujo reactivo Flux con los eventos de progreso y de error de la importación
+	// La primera fila del archivo es la cabecera con los nombres de las columnas: "nombre","precio","categoria"(nombre de una categoría existente) y,opcionalmente,"createAt"(con el formato "yyyy-MM-dd")
+	// El archivo se procesa a medida que llega,por lo que la memoria usada no depende de su tamaño
+	public Flux<EventoImportacion> importar(Flux<DataBuffer> csv);
+}
@@ -0,0 +1,259 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Service;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dao.CategoriaDao;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoImportacion;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Servicio de importación de productos desde archivos CSV con cientos de miles de filas
+// El archivo no se carga entero en memoria: el cuerpo de la petición se divide en líneas a medida que llega(véase la clase "LectorCsv"),cada fila se convierte en un producto y los productos se insertan en lotes
+// Los operadores "concatMap" solo piden más datos cuando el lote anterior se ha insertado en la base de datos,de esta manera,si MongoDB va más lento que la red,se deja de leer el cuerpo de la petición(backpressure)
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class ImportacionServiceImpl implements ImportacionService{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(ImportacionServiceImpl.class);
+
+	// Número máximo de categorías distintas que se guardan en memoria durante una importación para no consultarlas en cada fila
+	private static final int MAX_CATEGORIAS = 1000;
+
+	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "CategoriaDao".Esta interfaz es implementada por Spring al extender de la interfaz "ReactiveMongoRepository"
+	@Autowired
+	private CategoriaDao categoriaDao; // Este bean se trata del Dao para localizar la categoría de cada fila a partir de su nombre
+
+	@Autowired
+	private EscriturasMongo escrituras; // Este bean nos da la plantilla de MongoDB con el write concern de las importaciones masivas
+
+	@Autowired
+	private Validator validator; // Este bean propio de Spring nos permite validar cada producto según las anotaciones de validación de la clase "Producto"
+
+	// Número de productos que se insertan en cada lote
+	@Value("${config.importacion.tamano-lote:500}")
+	private int tamanoLote;
+
+	// Número máximo de caracteres de una fila del archivo
+	@Value("${config.importacion.max-longitud-fila:65536}")
+	private int maxLongitudFila;
+
+	// Método que importa los productos de un archivo CSV y devuelve un flujo reactivo Flux con los eventos de progreso y de error de la importación
+	@Override
+	public Flux<EventoImportacion> importar(Flux<DataBuffer> csv) {
+		// Con el método "defer()" creamos el estado de la importación cuando alguien se suscribe a este flujo reactivo,así cada importación tiene el suyo
+		return Flux.defer(() -> {
+			Importacion importacion = new Importacion();
+
+			// Pasamos cada DataBuffer al lector CSV,que lo divide en líneas y solo emite las filas completas.Al terminar el cuerpo,emite la última fila si no termina en un salto de línea
+			return csv.concatMapIterable(importacion.lector::leer)
+					.concatWith(Flux.defer(() -> Flux.fromIterable(importacion.lector.terminar())))
+					// Cada fila se convierte en un producto o en un evento de error
+					.concatMap(importacion::convertir)
+					// Agrupamos los resultados en lotes y los insertamos de uno en uno
+					.buffer(tamanoLote)
+					.concatMap(importacion::guardar,1)
+					.onErrorResume(CabeceraInvalidaException.class,e -> Flux.just(importacion.error(1L,e.getMessage())))
+					.concatWith(Mono.fromSupplier(importacion::fin));
+		});
+	}
+
+	// Error que detiene la importación cuando la cabecera del archivo no contiene las columnas obligatorias
+	private static class CabeceraInvalidaException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private CabeceraInvalidaException(String mensaje) {
+			super(mensaje);
+		}
+	}
+
+	// Producto válido de una fila del archivo.Guardamos el número de la fila para poder notificar al cliente si falla su inserción
+	private static class ProductoImportado {
+
+		private final long fila;
+
+		private final Producto producto;
+
+		private ProductoImportado(long fila, Producto producto) {
+			this.fila = fila;
+			this.producto = producto;
+		}
+	}
+
+	// Estado de una importación: el lector CSV,las columnas de la cabecera,las categorías ya localizadas y los totales
+	private class Importacion {
+
+		private final LectorCsv lector = new LectorCsv(maxLongitudFila);
+
+		private final Map<String,Mono<Categoria>> categorias = new HashMap<String,Mono<Categoria>>();
+
+		private final SimpleDateFormat formatoFecha = new SimpleDateFormat("yyyy-MM-dd");
+
+		private Map<String,Integer> columnas;
+
+		private long leidas;
+
+		private long insertadas;
+
+		private long errores;
+
+		private Importacion() {
+			formatoFecha.setLenient(false);
+		}
+
+		// Convierte una fila en un producto.Si la fila no es válida,devuelve un evento de error.La primera fila es la cabecera y no devuelve nada
+		private Mono<Object> convertir(LectorCsv.Fila fila) {
+			if(fila.error != null) {
+				if(columnas != null)
+					leidas++;
+				return Mono.just(error(fila.numero,fila.error));
+			}
+			if(columnas == null) {
+				leerCabecera(fila.campos);
+				return Mono.empty();
+			}
+			leidas++;
+
+			String nombre = campo(fila,"nombre");
+			String nombreCategoria = campo(fila,"categoria");
+			Producto producto = new Producto(nombre,null);
+			try {
+				String precio = campo(fila,"precio");
+				if(precio != null)
+					producto.setPrecio(Double.valueOf(precio));
+				String createAt = campo(fila,"createat");
+				producto.setCreateAt(createAt != null ? formatoFecha.parse(createAt) : new Date());
+			}
+			catch(NumberFormatException | ParseException e) {
+				return Mono.just(error(fila.numero,"Formato no válido: " + e.getMessage()));
+			}
+			if(nombreCategoria == null)
+				return Mono.just(error(fila.numero,"La categoría es obligatoria"));
+
+			return categoria(nombreCategoria)
+					.<Object>map(categoria -> {
+						producto.setCategoria(categoria);
+						// Validamos el producto con las mismas reglas que en la creación de un producto desde la Api Rest
+						Errors errors = new BeanPropertyBindingResult(producto,Producto.class.getName());
+						validator.validate(producto,errors);
+						if(errors.hasErrors())
+							return error(fila.numero,errors.getFieldErrors().stream()
+									.map(err -> "El campo '" + err.getField() + "' " + err.getDefaultMessage())
+									.collect(Collectors.joining(", ")));
+						return new ProductoImportado(fila.numero,producto);
+					})
+					.switchIfEmpty(Mono.fromSupplier(() -> error(fila.numero,"No existe la categoría '" + nombreCategoria + "'")));
+		}
+
+		// Inserta los productos válidos de un lote y devuelve los errores de sus filas seguidos de un evento de progreso
+		private Flux<EventoImportacion> guardar(List<Object> lote) {
+			List<EventoImportacion> eventos = new ArrayList<EventoImportacion>();
+			List<ProductoImportado> productos = new ArrayList<ProductoImportado>();
+			lote.forEach(resultado -> {
+				if(resultado instanceof ProductoImportado)
+					productos.add((ProductoImportado)resultado);
+				else
+					eventos.add((EventoImportacion)resultado);
+			});
+
+			return Flux.fromIterable(eventos)
+					.concatWith(insertar(productos))
+					.concatWith(Mono.fromSupplier(() -> EventoImportacion.totales(EventoImportacion.PROGRESO,leidas,insertadas,errores)));
+		}
+
+		// Inserta los productos en orden en una sola operación.Si falla la inserción de un producto,MongoDB ya ha insertado los anteriores y no intenta los siguientes
+		// Por eso notificamos al cliente el error de la fila del producto que ha fallado y seguimos insertando los productos que van detrás de él
+		private Flux<EventoImportacion> insertar(List<ProductoImportado> productos) {
+			if(productos.isEmpty())
+				return Flux.empty();
+			return escrituras.plantilla(TipoEscritura.IMPORTACION).insertAll(productos.stream().map(importado -> importado.producto).collect(Collectors.toList()))
+					.count()
+					.doOnNext(insertados -> insertadas += insertados)
+					.thenMany(Flux.<EventoImportacion>empty())
+					.onErrorResume(e -> {
+						MongoBulkWriteException excepcion = excepcionLote(e);
+						// Si no sabemos qué producto ha fallado(por ejemplo,si se ha perdido la conexión),notificamos el error de todas las filas del lote que no se sabe si se han insertado
+						if(excepcion == null || excepcion.getWriteErrors().isEmpty()) {
+							log.error("Error al insertar " + productos.size() + " productos importados",e);
+							return Flux.just(error(productos.get(0).fila,"No se han podido insertar los productos de las filas " + productos.get(0).fila + " a " + productos.get(productos.size() - 1).fila + ": " + e.getMessage()));
+						}
+						BulkWriteError errorEscritura = excepcion.getWriteErrors().get(0);
+						insertadas += errorEscritura.getIndex();
+						return Flux.just(error(productos.get(errorEscritura.getIndex()).fila,"No se ha podido insertar el producto: " + errorEscritura.getMessage()))
+								.concatWith(insertar(productos.subList(errorEscritura.getIndex() + 1,productos.size())));
+					});
+		}
+
+		// Spring traduce las excepciones del driver de MongoDB a sus propias excepciones,pero conserva la original como causa
+		private MongoBulkWriteException excepcionLote(Throwable e) {
+			for(Throwable causa = e; causa != null; causa = causa.getCause())
+				if(causa instanceof MongoBulkWriteException)
+					return (MongoBulkWriteException)causa;
+			return null;
+		}
+
+		private EventoImportacion error(Long fila, String mensaje) {
+			errores++;
+			return EventoImportacion.error(fila,mensaje);
+		}
+
+		private EventoImportacion fin() {
+			log.info("Importación terminada: " + leidas + " filas leídas," + insertadas + " productos insertados," + errores + " errores");
+			return EventoImportacion.totales(EventoImportacion.FIN,leidas,insertadas,errores);
+		}
+
+		// Guarda la posición de cada columna a partir de sus nombres,sin distinguir mayúsculas de minúsculas
+		private void leerCabecera(List<String> campos) {
+			columnas = new HashMap<String,Integer>();
+			for(int i = 0; i < campos.size(); i++)
+				columnas.put(campos.get(i).replace("\uFEFF","").trim().toLowerCase(),i); // Quitamos la marca BOM que algunos programas añaden al principio de los archivos UTF-8
+			for(String obligatoria: new String[] {"nombre","precio","categoria"})
+				if(!columnas.containsKey(obligatoria))
+					throw new CabeceraInvalidaException("La cabecera del archivo no contiene la columna obligatoria '" + obligatoria + "'");
+		}
+
+		// Devuelve el valor de una columna de la fila o null si está vacío o no existe
+		private String campo(LectorCsv.Fila fila, String columna) {
+			Integer indice = columnas.get(columna);
+			if(indice == null || indice >= fila.campos.size())
+				return null;
+			String valor = fila.campos.get(indice).trim();
+			return valor.isEmpty() ? null : valor;
+		}
+
+		// Localiza una categoría por su nombre.El resultado se guarda en memoria con el operador "cache()" para no repetir la consulta en cada fila
+		private Mono<Categoria> categoria(String nombre) {
+			Mono<Categoria> categoria = categorias.get(nombre);
+			if(categoria == null) {
+				categoria = categoriaDao.findByNombre(nombre).cache();
+				if(categorias.size() < MAX_CATEGORIAS)
+					categorias.put(nombre,categoria);
+			}
+			return categoria;
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+// Lector incremental de archivos CSV(RFC 4180) codificados en UTF-8.Recibe el archivo en trozos(DataBuffer) a medida que llega y devuelve cada fila en cuanto está completa,de esta manera,solo mantiene en memoria la fila que se está leyendo
+// Los campos pueden ir entre comillas dobles para contener comas,saltos de línea o comillas dobles(escritas como dos comillas dobles seguidas)
+// Las líneas pueden terminar en "\n","\r\n" o "\r"
+// No es thread-safe: se crea una instancia por cada importación y se usa desde un único flujo reactivo
+class LectorCsv {
+
+	// Número máximo de caracteres de una fila.Evita que una comilla sin cerrar haga que se acumule el resto del archivo en memoria
+	private final int maxLongitud;
+
+	// Número máximo de bytes de una línea que se guardan en memoria mientras llega su final.Un carácter ocupa como mucho 4 bytes en UTF-8,así que una línea que lo supera también supera la longitud máxima de la fila
+	// Dividimos nosotros mismos el archivo en líneas porque el decodificador de texto de Spring guarda en memoria la línea completa,sin límite,antes de entregarla,por ejemplo,con un archivo sin saltos de línea
+	private final int maxBytesLinea;
+
+	// Bytes de la línea que todavía no se ha completado
+	private final ByteArrayOutputStream lineaPendiente = new ByteArrayOutputStream();
+
+	// Indica si la línea en curso ha superado el máximo de bytes.Sus bytes se descartan hasta el siguiente salto de línea
+	private boolean descartandoLinea;
+
+	// Indica si el último byte leído fue un "\r",para no contar el "\n" de un "\r\n" como otra línea aunque llegue en el siguiente DataBuffer
+	private boolean ultimoRetorno;
+
+	private final List<String> campos = new ArrayList<String>();
+
+	private final StringBuilder campo = new StringBuilder();
+
+	private boolean entreComillas;
+
+	private int longitud;
+
+	// Número de la última línea leída y de la línea donde empieza la fila en curso
+	private long linea;
+
+	private long inicioFila;
+
+	LectorCsv(int maxLongitud) {
+		this.maxLongitud = maxLongitud;
+		this.maxBytesLinea = (int)Math.min(Integer.MAX_VALUE,4L * maxLongitud);
+	}
+
+	// Lee el siguiente trozo del archivo y devuelve las filas que se han completado con él.El DataBuffer se libera después de leerlo
+	List<Fila> leer(DataBuffer buffer) {
+		List<Fila> filas = new ArrayList<Fila>();
+		byte[] bytes;
+		try {
+			bytes = new byte[buffer.readableByteCount()];
+			buffer.read(bytes);
+		}
+		finally {
+			DataBufferUtils.release(buffer);
+		}
+
+		// Los bytes de "\r" y "\n" nunca forman parte de un carácter de varios bytes en UTF-8,así que podemos buscarlos sin decodificar el texto
+		int inicio = 0;
+		for(int i = 0; i < bytes.length; i++) {
+			byte b = bytes[i];
+			if(b == '\n' && ultimoRetorno) {
+				ultimoRetorno = false;
+				inicio = i + 1;
+				continue;
+			}
+			ultimoRetorno = b == '\r';
+			if(b == '\n' || b == '\r') {
+				acumular(bytes,inicio,i - inicio);
+				terminarLinea(filas);
+				inicio = i + 1;
+			}
+		}
+		acumular(bytes,inicio,bytes.length - inicio);
+		return filas;
+	}
+
+	// Se invoca al terminar el archivo.Devuelve la última fila si el archivo no termina en un salto de línea y un error si la última fila tiene un campo entre comillas sin cerrar
+	List<Fila> terminar() {
+		List<Fila> filas = new ArrayList<Fila>();
+		if(lineaPendiente.size() > 0 || descartandoLinea)
+			terminarLinea(filas);
+		if(entreComillas) {
+			reiniciar();
+			filas.add(Fila.error(inicioFila,"Fin de archivo dentro de un campo entre comillas"));
+		}
+		return filas;
+	}
+
+	// Guarda los bytes de la línea en curso mientras no superen el máximo.A partir de ahí,la línea se descarta entera
+	private void acumular(byte[] bytes, int desde, int cantidad) {
+		if(descartandoLinea || cantidad == 0)
+			return;
+		if(lineaPendiente.size() + cantidad > maxBytesLinea) {
+			descartandoLinea = true;
+			lineaPendiente.reset();
+			return;
+		}
+		lineaPendiente.write(bytes,desde,cantidad);
+	}
+
+	// Pasa la línea completada al lector CSV y añade la fila a la lista si se ha completado
+	private void terminarLinea(List<Fila> filas) {
+		Fila fila;
+		if(descartandoLinea) {
+			descartandoLinea = false;
+			fila = filaDemasiadoLarga();
+		}
+		else {
+			String texto = new String(lineaPendiente.toByteArray(),StandardCharsets.UTF_8);
+			lineaPendiente.reset();
+			fila = leer(texto);
+		}
+		if(fila != null)
+			filas.add(fila);
+	}
+
+	// Devuelve el error de una línea que supera el máximo de bytes.Si formaba parte de una fila con un campo entre comillas,el error se asigna a la línea donde empieza la fila
+	private Fila filaDemasiadoLarga() {
+		linea++;
+		if(!entreComillas)
+			inicioFila = linea;
+		reiniciar();
+		return Fila.error(inicioFila,"La fila supera la longitud máxima de " + maxLongitud + " caracteres");
+	}
+
+	// Lee una línea del archivo(sin el salto de línea) y devuelve la fila si se ha completado o null si la fila continúa en la siguiente línea porque hay un campo entre comillas sin cerrar
+	private Fila leer(String texto) {
+		linea++;
+		if(!entreComillas) {
+			inicioFila = linea;
+			// Las líneas vacías se ignoran
+			if(texto.isEmpty())
+				return null;
+		}
+		else
+			campo.append('\n');
+
+		longitud += texto.length();
+		if(longitud > maxLongitud) {
+			reiniciar();
+			return Fila.error(inicioFila,"La fila supera la longitud máxima de " + maxLongitud + " caracteres");
+		}
+
+		for(int i = 0; i < texto.length(); i++) {
+			char c = texto.charAt(i);
+			if(entreComillas) {
+				if(c == '"') {
+					if(i + 1 < texto.length() && texto.charAt(i + 1) == '"') {
+						campo.append('"');
+						i++;
+					}
+					else
+						entreComillas = false;
+				}
+				else
+					campo.append(c);
+			}
+			else if(c == '"' && campo.length() == 0)
+				entreComillas = true;
+			else if(c == ',') {
+				campos.add(campo.toString());
+				campo.setLength(0);
+			}
+			else if(c != '\r')
+				campo.append(c);
+		}
+
+		if(entreComillas)
+			return null;
+		campos.add(campo.toString());
+		Fila fila = new Fila(inicioFila,new ArrayList<String>(campos),null);
+		reiniciar();
+		return fila;
+	}
+
+	private void reiniciar() {
+		campos.clear();
+		campo.setLength(0);
+		entreComillas = false;
+		longitud = 0;
+	}
+
+	// Fila leída del archivo con su número de línea y sus campos,o con un mensaje de error si no se ha podido leer
+	static class Fila {
+
+		final long numero;
+
+		final List<String> campos;
+
+		final String error;
+
+		Fila(long numero, List<String> campos, String error) {
+			this.numero = numero;
+			this.campos = campos;
+			this.error = error;
+		}
+
+		static Fila error(long numero, String error) {
+			return new Fila(numero,null,error);
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.time.Duration;
+import java.util.Date;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ActualizacionPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.PuntoPrecio;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+public interface PrecioService {
+
+	// Método que acumula en memoria una actualización del precio de un producto.Si ya había una actualización pendiente para el mismo producto,se sustituye por la nueva
+	// Las actualizaciones pendientes se escriben en la base de datos periódicamente o cuando se alcanza el tamaño máximo de lote
+	// Devuelve un flujo reactivo Mono con "false" si el producto no existe o está eliminado,en cuyo caso la actualización no se acumula
+	// Los productos que ya se han comprobado hace poco no se vuelven a consultar.Si se eliminan entre medias,la actualización se acepta y es el volcado el que la descarta
+	// Los productos que ya se han comprobado hace poco no se vuelven a consultar.Si se eliminan entre medias,la actualización se acepta y es el volcado el que la descarta
+	public Mono<Boolean> actualizar(ActualizacionPrecio actualizacion);
+
+	// Método que acumula en memoria todas las actualizaciones de precios del flujo reactivo Flux que se le pasa como parámetro y devuelve un flujo reactivo Mono con el número de actualizaciones aceptadas
+	// Las actualizaciones de productos que no existen o están eliminados se descartan y no se cuentan
+	public Mono<Long> actualizar(Flux<ActualizacionPrecio> actualizaciones);
+
+	// Método que escribe inmediatamente en la base de datos todas las actualizaciones pendientes y devuelve un flujo reactivo Mono con el número de productos actualizados
+	public Mono<Integer> volcar();
+
+	// Método que deja de programar volcados y escribe las actualizaciones pendientes.Se invoca una sola vez al detener la aplicación,antes de cerrar la conexión con la base de datos
+	public void cerrar();
+	
+	// Método que devuelve un flujo reactivo Flux con el historial de precios de un producto entre dos fechas,agrupado en intervalos del tamaño indicado por "resolucion"
+	// Para cada intervalo se devuelve el precio mínimo,el máximo y el último,de manera que las gráficas de varios meses no tienen que leer todos los cambios de precio
+	public Flux<PuntoPrecio> historial(String productoId, Date desde, Date hasta, Duration resolucion);
+}
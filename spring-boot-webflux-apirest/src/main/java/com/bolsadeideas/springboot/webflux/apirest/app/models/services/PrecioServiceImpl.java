@@ -0,0 +1,380 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.HistorialPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ActualizacionPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.PuntoPrecio;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.EmitterProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+// Servicio de escritura diferida(write-behind) para las actualizaciones de precios
+// El motor de precios envía miles de cambios por segundo,muchas veces varios para el mismo producto en el mismo segundo.En lugar de hacer un "save()" completo por cada cambio,
+// los acumulamos en memoria quedándonos solo con el último precio de cada producto,y los escribimos en la base de datos en un único lote desordenado de operaciones "$set"
+// Para no consultar la base de datos con cada actualización,los ids de los productos que sabemos que existen se guardan en un mapa acotado.Solo se consultan los ids que no están en él,y el volcado vuelve a comprobar los productos antes de escribir
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class PrecioServiceImpl implements PrecioService{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(PrecioServiceImpl.class);
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate; // Este bean es propio de Spring y nos da acceso a la colección "productos" para enviar las operaciones en lote
+
+	@Autowired
+	private EscriturasMongo escriturasMongo; // Este bean nos da el write concern y la plantilla de MongoDB configurados para los guardados interactivos,ya que los cambios de precio necesitan la confirmación de la mayoría
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas del buffer de precios
+
+	// Intervalo,en milisegundos,entre dos volcados consecutivos del buffer a la base de datos
+	@Value("${config.precios.buffer.intervalo-ms:1000}")
+	private long intervaloMs;
+
+	// Número de productos pendientes a partir del cual se adelanta el volcado sin esperar al siguiente intervalo
+	@Value("${config.precios.buffer.max-lote:1000}")
+	private int maxLote;
+
+	// Número de actualizaciones de un lote cuyos productos comprobamos que existen con una sola consulta
+	private static final int TAMANO_COMPROBACION = 500;
+
+	// Número máximo de ids de productos existentes que se mantienen en memoria
+	@Value("${config.precios.existentes.max-ids:100000}")
+	private int maxExistentes;
+
+	// Tiempo,en segundos,que se da por hecho que un producto existe sin volver a consultarlo.Un producto eliminado en ese tiempo sigue aceptando actualizaciones,que el volcado descarta
+	@Value("${config.precios.existentes.ttl-segundos:60}")
+	private long ttlExistentesSegundos;
+
+	// Tiempo máximo,en segundos,que esperamos al último volcado cuando se detiene la aplicación
+	@Value("${config.precios.buffer.espera-cierre-segundos:30}")
+	private long esperaCierreSegundos;
+
+	// Último precio pendiente de escribir para cada id de producto
+	private final Map<String,Double> pendientes = new ConcurrentHashMap<String,Double>();
+
+	// Mapa acotado con los ids de los productos que sabemos que existen y el instante en el que caduca cada uno.Se ordena por acceso para que,al superar el tamaño máximo,se descarte el id usado hace más tiempo
+	private Map<String,Long> existentes;
+
+	// Filas del historial de precios cuya escritura ha fallado y que se reintentan en el siguiente volcado
+	private final Queue<HistorialPrecio> historialPendiente = new ConcurrentLinkedQueue<HistorialPrecio>();
+
+	// Procesador que nos permite adelantar un volcado cuando el buffer alcanza el tamaño máximo de lote
+	private final EmitterProcessor<Long> disparador = EmitterProcessor.create(false);
+
+	private final FluxSink<Long> sinkDisparador = disparador.sink();
+
+	private Disposable programacion;
+
+	private Counter actualizaciones;
+
+	private Counter escrituras;
+
+	private Counter desconocidas;
+
+	private Timer latenciaVolcado;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		existentes = new LinkedHashMap<String,Long>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Long> eldest) {
+				return size() > maxExistentes || eldest.getValue() < System.currentTimeMillis();
+			}
+		};
+
+		// Registramos las métricas: la profundidad del buffer y del historial pendiente,las actualizaciones recibidas,los productos escritos y la latencia de cada volcado
+		Gauge.builder("productos.precios.buffer.pendientes",pendientes,Map::size)
+			.description("Actualizaciones de precios pendientes de escribir")
+			.register(registry);
+		Gauge.builder("productos.precios.historial.pendiente",historialPendiente,Queue::size)
+			.description("Filas del historial de precios pendientes de reintentar tras un error de escritura")
+			.register(registry);
+		actualizaciones = Counter.builder("productos.precios.actualizaciones")
+				.description("Actualizaciones de precios recibidas")
+				.register(registry);
+		escrituras = Counter.builder("productos.precios.escrituras")
+				.description("Productos actualizados en la base de datos tras agrupar las actualizaciones")
+				.register(registry);
+		desconocidas = Counter.builder("productos.precios.desconocidas")
+				.description("Actualizaciones de precios descartadas porque el producto no existe o está eliminado")
+				.register(registry);
+		latenciaVolcado = Timer.builder("productos.precios.buffer.volcado")
+				.description("Latencia de cada volcado del buffer de precios")
+				.publishPercentiles(0.5,0.95,0.99)
+				.register(registry);
+
+		// Los volcados se disparan por tiempo o por tamaño y se ejecutan de uno en uno gracias al operador "concatMap".Si llega un disparo mientras hay un volcado en curso,se descarta porque el siguiente volcado ya incluirá los datos
+		programacion = Flux.merge(Flux.interval(Duration.ofMillis(intervaloMs)),disparador)
+				.onBackpressureDrop()
+				.concatMap(disparo -> volcar()
+						.onErrorResume(e -> {
+							log.error("Error al volcar el buffer de precios,se reintentará en el siguiente volcado",e);
+							return Mono.just(0);
+						}),1)
+				.subscribe();
+	}
+
+	// Al detener la aplicación de manera ordenada,dejamos de programar volcados y escribimos las actualizaciones pendientes para no perderlas
+	// El cierre ordenado de la aplicación(véase la clase "CierreOrdenado") invoca este método antes de cerrar la conexión con la base de datos.Si ya se ha invocado,Spring no vuelve a volcar el buffer al destruir el bean
+	@PreDestroy
+	@Override
+	public void cerrar() {
+		if(programacion.isDisposed())
+			return;
+		programacion.dispose();
+		Integer escritos = volcar().block(Duration.ofSeconds(esperaCierreSegundos));
+		log.info("Buffer de precios volcado al detener la aplicación: " + escritos + " productos");
+	}
+
+	// Método que acumula en memoria una actualización del precio de un producto,siempre que el producto exista y no esté eliminado
+	// Si el producto está en el mapa de productos existentes,la actualización se acepta sin consultar la base de datos
+	@Override
+	public Mono<Boolean> actualizar(ActualizacionPrecio actualizacion) {
+		return aceptar(Collections.singletonList(actualizacion))
+				.map(aceptadas -> aceptadas > 0);
+	}
+
+	// Método que acumula en memoria todas las actualizaciones de precios del flujo reactivo Flux que se le pasa como parámetro
+	// Las actualizaciones se agrupan a medida que llegan para comprobar con una sola consulta que sus productos existen,sin esperar al lote completo
+	@Override
+	public Mono<Long> actualizar(Flux<ActualizacionPrecio> actualizaciones) {
+		return actualizaciones.bufferTimeout(TAMANO_COMPROBACION,Duration.ofMillis(100))
+				.concatMap(this::aceptar)
+				.reduce(0L,Long::sum);
+	}
+
+	// Método que escribe en la base de datos todas las actualizaciones pendientes en un único lote desordenado de operaciones "$set"
+	// Solo se escriben los precios que de verdad cambian y solo esos cambios se registran en el historial de precios
+	// Las entradas salen del buffer una vez registrado su cambio en el historial.Si falla la escritura del historial,sus filas se guardan en memoria y se reintentan al principio del siguiente volcado
+	@Override
+	public Mono<Integer> volcar() {
+		return Mono.defer(() -> {
+			if(pendientes.isEmpty() && historialPendiente.isEmpty())
+				return Mono.just(0);
+
+			// Tomamos una copia del buffer.Las actualizaciones que lleguen mientras se escribe el lote se quedan en el buffer para el siguiente volcado
+			Map<String,Double> lote = new HashMap<String,Double>(pendientes);
+			long inicio = System.nanoTime();
+
+			return reintentarHistorial()
+					.then(preciosActuales(lote.keySet()))
+					.flatMap(actuales -> {
+						// Descartamos las entradas de productos eliminados desde que se aceptó la actualización y las que no cambian el precio actual
+						Map<String,Double> cambios = new HashMap<String,Double>();
+						lote.forEach((id,precio) -> {
+							if(!actuales.containsKey(idMongo(id))) {
+								pendientes.remove(id,precio);
+								olvidar(id);
+								desconocidas.increment();
+								log.warn("Actualización de precio descartada,el producto " + id + " ya no existe o está eliminado");
+							} else if(precio.equals(actuales.get(idMongo(id)))) {
+								pendientes.remove(id,precio);
+							} else {
+								cambios.put(id,precio);
+							}
+						});
+						if(cambios.isEmpty())
+							return Mono.just(0);
+
+						// Cada operación solo se aplica si el producto sigue activo y con el precio que acabamos de leer.Así,si otro guardado cambia el precio mientras tanto,no lo pisamos ni registramos un cambio que no se ha hecho
+						// Con "ordered(false)" MongoDB puede aplicar las operaciones en paralelo y un error en una de ellas no detiene al resto
+						List<WriteModel<Document>> operaciones = cambios.entrySet().stream()
+								.map(e -> new UpdateOneModel<Document>(Filters.and(Filters.eq("_id",idMongo(e.getKey())),Filters.eq("deletedAt",null),Filters.eq("precio",actuales.get(idMongo(e.getKey())))),
+										Updates.set("precio",e.getValue())))
+								.collect(Collectors.toList());
+						return Mono.from(mongoTemplate.getCollection(mongoTemplate.getCollectionName(Producto.class))
+								.withWriteConcern(escriturasMongo.writeConcern(TipoEscritura.GUARDADO))
+								.bulkWrite(operaciones,new BulkWriteOptions().ordered(false)))
+								// El resultado del lote solo nos da el número de documentos modificados.Si no se han modificado todos,volvemos a leer los precios para saber cuáles se han escrito.Los que no,se quedan en el buffer para el siguiente volcado
+								.flatMap(resultado -> resultado.getModifiedCount() == cambios.size() ? Mono.just(cambios) : preciosActuales(cambios.keySet())
+										.map(escritos -> cambios.entrySet().stream()
+												.filter(e -> e.getValue().equals(escritos.get(idMongo(e.getKey()))))
+												.collect(Collectors.toMap(Map.Entry::getKey,Map.Entry::getValue))))
+								.flatMap(modificados -> registrarHistorial(modificados)
+										.then(Mono.fromCallable(() -> {
+											// Una vez registrado el historial,quitamos del buffer las entradas escritas cuyo precio no ha cambiado mientras tanto
+											modificados.forEach(pendientes::remove);
+											escrituras.increment(modificados.size());
+											latenciaVolcado.record(System.nanoTime() - inicio,TimeUnit.NANOSECONDS);
+											return modificados.size();
+										})));
+					});
+		});
+	}
+
+	// Método que devuelve un flujo reactivo Flux con el historial de precios de un producto entre dos fechas,agrupado en intervalos del tamaño indicado por "resolucion"
+	@Override
+	public Flux<PuntoPrecio> historial(String productoId, Date desde, Date hasta, Duration resolucion) {
+		long resolucionMs = resolucion.toMillis();
+		// Restando a la fecha de cada cambio el resto de dividir sus milisegundos entre la resolución,obtenemos la fecha de inicio del intervalo al que pertenece
+		Document inicioIntervalo = new Document("$subtract",Arrays.asList("$ts",
+				new Document("$mod",Arrays.asList(new Document("$subtract",Arrays.asList("$ts",new Date(0))),resolucionMs))));
+		
+		// Como la versión de Spring Data MongoDB que usamos no permite expresar este agrupamiento con sus operaciones tipadas,definimos las etapas "$group" y "$project" directamente como documentos
+		AggregationOperation agrupar = contexto -> new Document("$group",new Document("_id",inicioIntervalo)
+				.append("min",new Document("$min","$precio"))
+				.append("max",new Document("$max","$precio"))
+				.append("ultimo",new Document("$last","$precio")) // "$last" depende del orden de entrada,por eso antes ordenamos por fecha
+				.append("muestras",new Document("$sum",1)));
+		AggregationOperation proyectar = contexto -> new Document("$project",new Document("_id",0)
+				.append("ts","$_id")
+				.append("min",1)
+				.append("max",1)
+				.append("ultimo",1)
+				.append("muestras",1));
+		
+		// El filtro por producto y rango de fechas y la ordenación por fecha se resuelven con el índice compuesto (productoId, ts)
+		Aggregation agregacion = Aggregation.newAggregation(
+				Aggregation.match(Criteria.where("productoId").is(productoId).and("ts").gte(desde).lt(hasta)),
+				Aggregation.sort(Sort.Direction.ASC,"ts"),
+				agrupar,
+				proyectar,
+				Aggregation.sort(Sort.Direction.ASC,"ts"));
+		
+		return mongoTemplate.aggregate(agregacion,mongoTemplate.getCollectionName(HistorialPrecio.class),PuntoPrecio.class);
+	}
+
+	// Devuelve los precios actuales de los productos activos con los ids indicados,con el id de MongoDB como clave.Los productos que no existen o están eliminados no aparecen
+	private Mono<Map<Object,Double>> preciosActuales(Collection<String> ids) {
+		Query query = new Query(Criteria.where("_id").in(ids.stream().map(this::idMongo).collect(Collectors.toList())).and("deletedAt").is(null));
+		query.fields().include("precio");
+		// Usamos un HashMap porque un producto puede no tener precio y "Collectors.toMap" no admite valores nulos
+		return mongoTemplate.find(query,Document.class,mongoTemplate.getCollectionName(Producto.class))
+				.collect(HashMap::new,(precios,documento) -> precios.put(documento.get("_id"),documento.getDouble("precio")));
+	}
+
+	// Registra en el historial de precios los cambios escritos en la base de datos
+	// Si la escritura falla,guardamos las filas para reintentarlas en el siguiente volcado,ya que sus precios ya están escritos y no volverían a registrarse
+	private Mono<Void> registrarHistorial(Map<String,Double> modificados) {
+		if(modificados.isEmpty())
+			return Mono.empty();
+		Date ahora = new Date();
+		// Asignamos el id de cada fila antes de insertarla para poder reintentarla sin duplicarla
+		List<HistorialPrecio> historial = modificados.entrySet().stream()
+				.map(e -> {
+					HistorialPrecio fila = new HistorialPrecio(e.getKey(),e.getValue(),ahora);
+					fila.setId(new ObjectId().toHexString());
+					return fila;
+				})
+				.collect(Collectors.toList());
+		return escriturasMongo.plantilla(TipoEscritura.GUARDADO).insertAll(historial)
+				.doOnError(e -> historialPendiente.addAll(historial))
+				.then();
+	}
+
+	// Inserta las filas del historial cuya escritura falló en un volcado anterior.Las que ya llegaron a insertarse antes del fallo se omiten
+	private Mono<Void> reintentarHistorial() {
+		if(historialPendiente.isEmpty())
+			return Mono.empty();
+		List<HistorialPrecio> filas = new ArrayList<HistorialPrecio>(historialPendiente);
+		ReactiveMongoTemplate plantilla = escriturasMongo.plantilla(TipoEscritura.GUARDADO);
+		return plantilla.find(new Query(Criteria.where("id").in(filas.stream().map(HistorialPrecio::getId).collect(Collectors.toList()))),HistorialPrecio.class)
+				.map(HistorialPrecio::getId)
+				.collect(Collectors.toSet())
+				.flatMap(insertadas -> plantilla.insertAll(filas.stream().filter(fila -> !insertadas.contains(fila.getId())).collect(Collectors.toList())).then())
+				.doOnSuccess(vacio -> historialPendiente.removeAll(filas));
+	}
+
+	// Acumula las actualizaciones de un grupo cuyos productos existen y no están eliminados,y devuelve cuántas se han aceptado
+	// Así no llenamos el buffer con ids que nunca van a coincidir con ningún producto ni las perdemos sin avisar al cliente
+	// Solo se consultan,con una única consulta para todo el grupo,los ids que no están en el mapa de productos existentes
+	private Mono<Long> aceptar(List<ActualizacionPrecio> grupo) {
+		Set<String> desconocidos = grupo.stream().map(ActualizacionPrecio::getId).filter(id -> !existe(id)).collect(Collectors.toSet());
+		Mono<Set<String>> encontrados = desconocidos.isEmpty() ? Mono.just(Collections.<String>emptySet()) : preciosActuales(desconocidos)
+				.map(precios -> desconocidos.stream().filter(id -> precios.containsKey(idMongo(id))).collect(Collectors.toSet()))
+				.doOnNext(ids -> ids.forEach(this::recordar));
+		return encontrados
+				.map(ids -> {
+					long aceptadas = 0;
+					for(ActualizacionPrecio actualizacion: grupo) {
+						if(!desconocidos.contains(actualizacion.getId()) || ids.contains(actualizacion.getId())) {
+							acumular(actualizacion);
+							aceptadas++;
+						} else {
+							desconocidas.increment();
+							log.warn("Actualización de precio descartada,el producto " + actualizacion.getId() + " no existe o está eliminado");
+						}
+					}
+					return aceptadas;
+				});
+	}
+
+	// Indica si el producto está en el mapa de productos existentes y no ha caducado
+	private synchronized boolean existe(String id) {
+		Long caducidad = existentes.get(id);
+		return caducidad != null && caducidad >= System.currentTimeMillis();
+	}
+
+	private synchronized void recordar(String id) {
+		existentes.put(id,System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlExistentesSegundos));
+	}
+
+	// El volcado quita del mapa los productos que ya no existen,así sus siguientes actualizaciones se vuelven a comprobar y se rechazan
+	private synchronized void olvidar(String id) {
+		existentes.remove(id);
+	}
+
+	// Guarda el último precio de un producto en el buffer y adelanta el volcado si se ha alcanzado el tamaño máximo de lote
+	private void acumular(ActualizacionPrecio actualizacion) {
+		pendientes.put(actualizacion.getId(),actualizacion.getPrecio());
+		actualizaciones.increment();
+		if(pendientes.size() >= maxLote)
+			sinkDisparador.next(System.nanoTime());
+	}
+
+	// Los ids de los productos se almacenan en MongoDB como ObjectId cuando tienen su formato,igual que hace Spring Data al mapear la propiedad "id" de la clase "Producto"
+	private Object idMongo(String id) {
+		return ObjectId.isValid(id) ? new ObjectId(id) : id;
+	}
+
+}
@@ -1,5 +1,7 @@
 package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
 
+import java.util.Date;
+
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
@@ -28,8 +30,12 @@ public interface ProductoService {
 	public Mono<Producto> save(Producto producto);
 	
 	// Método que elimina de la base de datos el producto que le pasamos como parámetro y devuelve un flujo reactivo Mono de tipo Void como elemento
+	// Si el borrado lógico está habilitado,el producto no se elimina físicamente sino que se marca con su fecha de borrado y deja de devolverse en las consultas
 	public Mono<Void> delete(Producto producto);
 	
+	// Método que devuelve un flujo reactivo Flux con los productos eliminados de manera lógica a partir de la fecha que se le pasa como parámetro
+	public Flux<Producto> findEliminadosDesde(Date desde);
+	
 	// Método que devuelve un flujo reactivo Flux con todas las categorías de la base de datos como elementos
 	public Flux<Categoria> findAllCategoria();
 	
@@ -42,4 +48,7 @@ public interface ProductoService {
 	
 	// Método que persite una categoría en la base de datos y devuelve un flujo reactivo Mono con la categoría persistida como elemento
 	public Mono<Categoria> saveCategoria(Categoria categoria);
+	
+	// Método que crea,si no existen,los índices de las colecciones "productos","categorias" e "historial_precios" y devuelve un flujo reactivo Mono que termina cuando se han creado
+	public Mono<Void> crearIndices();
 }
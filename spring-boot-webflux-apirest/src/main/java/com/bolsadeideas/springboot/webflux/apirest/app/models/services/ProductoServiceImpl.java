@@ -1,13 +1,33 @@
 package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
 
+import java.util.Date;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.bolsadeideas.springboot.webflux.apirest.app.models.dao.CategoriaDao;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.dao.ProductoDao;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.HistorialPrecio;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -15,6 +35,9 @@ import reactor.core.publisher.Mono;
 @Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
 public class ProductoServiceImpl implements ProductoService{
 	
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(ProductoServiceImpl.class);
+	
 	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "ProductoDao".Esta interfaz es implementada por Spring al extender de la interfaz "ReactiveMongoRepository"
 	@Autowired 
 	private ProductoDao productoDao; // Este bean se trata del Dao para realizar CRUD en la colección "productos" mapeada con la clase entidad "Producto"
@@ -23,19 +46,64 @@ public class ProductoServiceImpl implements ProductoService{
 	@Autowired 
 	private CategoriaDao categoriaDao; // Este bean se trata del Dao para realizar CRUD en la colección "categorias" mapeada con la clase entidad "Categoria"
 	
+	@Autowired
+	private EscriturasMongo escrituras; // Este bean nos da la plantilla de MongoDB con el write concern configurado para cada clase de operación de escritura
+	
+	@Autowired
+	private FotoService fotoService; // Este bean mantiene el número de productos que usan cada imagen para eliminar los archivos que ya no usa ninguno
+	
+	@Autowired
+	private EventosProductoService eventosProductoService; // Este bean reparte los productos guardados y eliminados entre los clientes suscritos a sus cambios
+	
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate; // Este bean es propio de Spring y lo usamos para crear los índices de las colecciones,entre ellos el índice TTL que purga los productos eliminados
+	
+	// La anotación @Value nos permite inyectar el valor de cualquier propiedad definida en el archivo de propiedades "application.properties"
+	// Indica si al eliminar un producto se realiza un borrado lógico(se marca con la fecha de borrado) en lugar de un borrado físico
+	@Value("${config.productos.borrado-logico.habilitado:false}")
+	private boolean borradoLogico;
+	
+	// Número de días que se conservan los productos eliminados de manera lógica antes de que el índice TTL los purgue definitivamente
+	@Value("${config.productos.borrado-logico.retencion-dias:30}")
+	private long retencionDias;
+	
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		crearIndices().subscribe(null,error -> log.error("No se han podido crear los índices de productos,categorías e historial de precios",error));
+	}
+	
+	// Método que crea,si no existen,los índices de las colecciones "productos","categorias" e "historial_precios".Devuelve un flujo reactivo Mono que termina cuando se han creado todos
+	// Además de al arrancar,lo invoca la carga de datos después de eliminar las colecciones,ya que al eliminar una colección se eliminan también sus índices
+	@Override
+	public Mono<Void> crearIndices() {
+		// Los productos y las categorías se buscan por su nombre
+		// El historial de precios se consulta por producto y rango de fechas.Creamos su índice aquí porque esta versión de Spring Data MongoDB no crea automáticamente los índices de la anotación @CompoundIndex con la plantilla reactiva
+		Mono<String> indices = mongoTemplate.indexOps(Producto.class).ensureIndex(new Index().on("nombre",Sort.Direction.ASC))
+				.then(mongoTemplate.indexOps(Categoria.class).ensureIndex(new Index().on("nombre",Sort.Direction.ASC)))
+				.then(mongoTemplate.indexOps(HistorialPrecio.class).ensureIndex(new Index().named("producto_ts").on("productoId",Sort.Direction.ASC).on("ts",Sort.Direction.ASC)));
+		
+		// Si el borrado lógico está habilitado,creamos el índice TTL sobre la propiedad "deletedAt" para que MongoDB purgue los productos eliminados pasado el periodo de retención
+		// Los productos activos tienen la propiedad "deletedAt" a null y,por lo tanto,el índice TTL nunca los elimina
+		if(borradoLogico)
+			indices = indices.then(mongoTemplate.indexOps(Producto.class)
+				.ensureIndex(new Index().on("deletedAt",Sort.Direction.ASC).expire(retencionDias,TimeUnit.DAYS))
+				.doOnNext(indice -> log.info("Índice TTL de productos eliminados: " + indice)));
+		return indices.then();
+	}
+	
 	/* NOTA: Como se está usando una base de datos MongoDB, no hace falta utilizar la anotación @Transactional a nivel de método porque este tipo de bases de datos no son transaccionables.
 	 *       Si por el contrario se usase bases de datos como MySQL o PostgreSQL, entonces sí que sería necesario usar dicha anotación */
 	
 	// Método que devuelve un flujo reactivo Flux con todos los productos de la base de datos como elementos
 	@Override
 	public Flux<Producto> findAll() {
-		return productoDao.findAll(); // Accedemos a nuestra capa Dao "productoDao" para localizar todos los productos de la base de datos haciendo uso del método "findAll()"
+		return productoDao.findByDeletedAtIsNull(); // Accedemos a nuestra capa Dao "productoDao" para localizar todos los productos activos(no eliminados de manera lógica) de la base de datos haciendo uso del método "findByDeletedAtIsNull()"
 	}
 	
 	// Método que devuelve un flujo reactivo Flux con todos los productos de la base de datos como elementos y con sus nombres en mayúscula
 	@Override
 	public Flux<Producto> findAllConNombreUpperCase() {
-		return productoDao.findAll() // Accedemos a nuestra capa Dao "productoDao" para localizar todos los productos de la base de datos haciendo uso del método "findAll()"
+		return productoDao.findByDeletedAtIsNull() // Accedemos a nuestra capa Dao "productoDao" para localizar todos los productos activos de la base de datos haciendo uso del método "findByDeletedAtIsNull()"
 		// Con el método 'map' transformamos el flujo reactivo Flux anterior en otro flujo Flux con el nombre de cada producto en letras mayúsculas
 		.map(producto -> { 
 			producto.setNombre(producto.getNombre().toUpperCase());
@@ -53,7 +121,7 @@ public class ProductoServiceImpl implements ProductoService{
 	// El id tiene que ser de tipo String ya que manejamos, como base de datos, MongoDB y en este tipo de bases de datos el id es alfanumérico
 	@Override
 	public Mono<Producto> findById(String id) {
-		return productoDao.findById(id); // Accedemos a nuestra capa Dao "productoDao" para localizar el producto de la base de datos cuyo id coincide con el que le pasamos como parámetro.Para ello,hacemos uso del método "findById()"
+		return productoDao.findByIdAndDeletedAtIsNull(id); // Accedemos a nuestra capa Dao "productoDao" para localizar el producto activo de la base de datos cuyo id coincide con el que le pasamos como parámetro.Para ello,hacemos uso del método "findByIdAndDeletedAtIsNull()"
 	}
 	
 	// Método que devuelve un flujo reactivo Mono con el producto de la base de datos como elemento que coincide con el nombre pasado como parámetro
@@ -63,15 +131,74 @@ public class ProductoServiceImpl implements ProductoService{
 	}
 
 	// Método que persite un producto en la base de datos y devuelve un flujo reactivo Mono con el producto persistido como elemento
+	// Como el método "save()" sobrescribe el precio del producto,al guardarlo obtenemos su precio anterior y,si ha cambiado,registramos el nuevo precio en el historial de precios dentro del mismo flujo reactivo
+	// Tanto el producto como su historial se escriben con el write concern de los guardados interactivos
+	// Del producto anterior también obtenemos su imagen para actualizar los contadores de referencias
+	// La imagen del producto se retiene antes de guardarlo y la imagen anterior se libera después.Si algo falla entre medias,el contador se queda por encima de las referencias reales y la imagen no se elimina,pero nunca por debajo,que haría que se eliminase una imagen en uso
+	// Como antes de guardar no sabemos si la imagen ha cambiado,si es la misma,se retiene y se libera la misma imagen y su contador no cambia
 	@Override
 	public Mono<Producto> save(Producto producto) {
-		return productoDao.save(producto); // Accedemos a nuestra capa Dao "productoDao" para persistir un producto en la base de datos haciendo uso del método "save()"
+		// Si el producto es nuevo no tiene versión anterior y simplemente lo insertamos.Usamos un Optional porque un flujo reactivo Mono no puede emitir un elemento nulo
+		// Si ya tiene id,lo reemplazamos con una única operación "findOneAndReplace" que nos devuelve el documento anterior,en lugar de leerlo antes con "findById()" y después guardarlo
+		// Usamos directamente la colección porque el método "findAndReplace()" de la plantilla no aplica su write concern en esta versión de Spring Data MongoDB
+		ReactiveMongoTemplate plantilla = escrituras.plantilla(TipoEscritura.GUARDADO);
+		Mono<Optional<Producto>> productoAnterior;
+		if(producto.getId() == null) {
+			productoAnterior = plantilla.insert(producto).thenReturn(Optional.empty());
+		} else {
+			Document documento = new Document();
+			plantilla.getConverter().write(producto,documento);
+			productoAnterior = Mono.from(plantilla.getCollection(plantilla.getCollectionName(Producto.class))
+					.withWriteConcern(escrituras.writeConcern(TipoEscritura.GUARDADO))
+					.findOneAndReplace(Filters.eq("_id",documento.get("_id")),documento,new FindOneAndReplaceOptions().upsert(true)))
+					.map(anterior -> Optional.of(plantilla.getConverter().read(Producto.class,anterior)))
+					.defaultIfEmpty(Optional.empty());
+		}
+		
+		Mono<Void> retencion = producto.getFoto() == null ? Mono.<Void>empty() : fotoService.retener(producto.getFoto());
+		return retencion.then(productoAnterior).flatMap(anterior -> Mono.just(producto)
+				.flatMap(guardado -> {
+					// Si el precio no ha cambiado no hay nada que registrar en el historial
+					Double precioAnterior = anterior.map(Producto::getPrecio).orElse(null);
+					if(guardado.getPrecio() == null || Objects.equals(precioAnterior,guardado.getPrecio()))
+						return Mono.just(guardado);
+					// Insertamos el nuevo precio en el historial y,una vez insertado,devolvemos el producto guardado
+					return escrituras.plantilla(TipoEscritura.GUARDADO).insert(new HistorialPrecio(guardado.getId(),guardado.getPrecio(),new Date()))
+							.thenReturn(guardado);
+				})
+				// El producto ha dejado de usar su imagen anterior
+				.flatMap(guardado -> liberarFoto(anterior.map(Producto::getFoto).orElse(null)).thenReturn(guardado))
+				// Una vez guardado,publicamos el cambio a los clientes suscritos
+				.doOnNext(eventosProductoService::guardado));
 	}
 
 	// Método que elimina de la base de datos el producto que le pasamos como parámetro y devuelve un flujo reactivo Mono de tipo Void como elemento
 	@Override
 	public Mono<Void> delete(Producto producto) {
-		return productoDao.delete(producto); // Accedemos a nuestra capa Dao "productoDao" para eliminar un producto de la base de datos haciendo uso del método "delete()"
+		// Si el borrado lógico está habilitado,en lugar de eliminar el documento solo establecemos su fecha de borrado.Es una actualización de un único campo y los consumidores incrementales pueden saber qué productos han desaparecido
+		// En ambos casos el producto deja de usar su imagen.Con el borrado lógico no esperamos a que el índice TTL lo purgue,ya que la purga no pasa por la aplicación
+		if(borradoLogico) {
+			producto.setDeletedAt(new Date());
+			return escrituras.plantilla(TipoEscritura.BORRADO).updateFirst(Query.query(Criteria.where("id").is(producto.getId()).and("deletedAt").is(null)),Update.update("deletedAt",producto.getDeletedAt()),Producto.class)
+					// Solo liberamos la imagen si este borrado ha marcado el producto,para no liberarla dos veces si se elimina dos veces
+					.flatMap(resultado -> resultado.getModifiedCount() > 0 ? liberarFoto(producto.getFoto()).then(Mono.fromRunnable(() -> eventosProductoService.eliminado(producto))) : Mono.empty())
+					.then();
+		}
+		return escrituras.plantilla(TipoEscritura.BORRADO).remove(producto) // Eliminamos el producto de la base de datos haciendo uso del método "remove()" de la plantilla de los borrados
+				// Solo publicamos el borrado a los clientes suscritos si de verdad se ha eliminado el producto
+				.flatMap(resultado -> resultado.getDeletedCount() > 0 ? liberarFoto(producto.getFoto()).then(Mono.fromRunnable(() -> eventosProductoService.eliminado(producto))) : Mono.empty())
+				.then();
+	}
+	
+	// Libera la imagen que un producto ha dejado de usar,si tenía
+	private Mono<Void> liberarFoto(String foto) {
+		return foto == null ? Mono.<Void>empty() : fotoService.liberar(foto);
+	}
+	
+	// Método que devuelve un flujo reactivo Flux con los productos eliminados de manera lógica a partir de la fecha que se le pasa como parámetro
+	@Override
+	public Flux<Producto> findEliminadosDesde(Date desde) {
+		return productoDao.findByDeletedAtGreaterThanEqualOrderByDeletedAtAsc(desde); // Accedemos a nuestra capa Dao "productoDao" para localizar los productos eliminados a partir de la fecha indicada
 	}
 
 	// Método que devuelve un flujo reactivo Flux con todas las categorías de la base de datos como elementos
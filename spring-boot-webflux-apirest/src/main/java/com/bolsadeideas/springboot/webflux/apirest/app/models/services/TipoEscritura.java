@@ -0,0 +1,19 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+// Clases de operaciones de escritura en la base de datos.Cada clase tiene su propio nivel de confirmación(write concern) configurable en el archivo "application.properties"
+public enum TipoEscritura {
+
+	// Guardados interactivos de productos,como la creación o la edición de un producto y sus cambios de precio.Necesitan la confirmación de la mayoría del replica set
+	GUARDADO,
+
+	// Importaciones masivas de productos.Se pueden repetir si fallan y priman el rendimiento sobre la durabilidad
+	IMPORTACION,
+
+	// Borrados de productos,tanto físicos como lógicos
+	BORRADO;
+
+	// Nombre de la clase en el archivo de propiedades,por ejemplo "config.mongodb.write-concern.importacion"
+	public String propiedad() {
+		return "config.mongodb.write-concern." + name().toLowerCase();
+	}
+}
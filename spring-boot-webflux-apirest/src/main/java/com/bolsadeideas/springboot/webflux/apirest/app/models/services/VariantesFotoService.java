@@ -0,0 +1,18 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.util.List;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+
+public interface VariantesFotoService {
+
+	// Método que programa la generación de las variantes redimensionadas de la imagen del producto que se le pasa como parámetro
+	// La generación se realiza en segundo plano en un pool de hilos acotado.Si la cola del pool está llena,la tarea se descarta y el producto se queda sin variantes(las consultas devuelven la imagen original)
+	public void programar(Producto producto);
+
+	// Método que devuelve los nombres de las variantes que se generan para la imagen que se le pasa como parámetro,para poder eliminarlas junto con ella
+	public List<String> nombres(String foto);
+
+	// Método que deja de aceptar tareas y espera un tiempo razonable a que terminen las que están en curso,que registran las variantes en la base de datos
+	public void cerrar() throws InterruptedException;
+}
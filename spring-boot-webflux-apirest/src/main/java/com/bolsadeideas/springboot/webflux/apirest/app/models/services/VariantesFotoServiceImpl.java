@@ -0,0 +1,297 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.models.services;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Servicio que genera las variantes redimensionadas(por ejemplo,una miniatura para los listados) de las imágenes de los productos
+// Decodificar y redimensionar una imagen es costoso y bloqueante,por eso,nunca se hace en los hilos de Netty que atienden las peticiones,sino en un pool de hilos propio con una cola acotada
+// Si llegan más imágenes de las que el pool puede procesar y la cola se llena,las nuevas tareas se descartan(load shedding) en lugar de acumular memoria sin límite
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class VariantesFotoServiceImpl implements VariantesFotoService{
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(VariantesFotoServiceImpl.class);
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate; // Este bean es propio de Spring y lo usamos para registrar las variantes generadas en el producto
+
+	@Autowired
+	private AlmacenFotos almacenFotos; // Este bean es el almacén del que se leen las imágenes originales y en el que se guardan sus variantes
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas del pool de trabajo
+
+	// Inyectamos en el objeto String "path" el valor de la propiedad "config.uploads.path", definida en el archivo de propiedades de la aplicación "application.properties".Las variantes se escriben en su directorio temporal antes de guardarlas en el almacén
+	@Value("${config.uploads.path}")
+	private String path;
+
+	// Variantes que se generan con el formato "nombre:lado máximo en píxeles" separadas por comas
+	@Value("${config.fotos.variantes.tamanos:miniatura:64,mediano:400}")
+	private String tamanos;
+
+	// Número de hilos del pool de trabajo y número máximo de tareas en espera
+	@Value("${config.fotos.variantes.hilos:2}")
+	private int hilos;
+
+	@Value("${config.fotos.variantes.cola:100}")
+	private int capacidadCola;
+
+	// Número máximo de píxeles de una imagen para generar sus variantes.Una imagen muy comprimida(por ejemplo,un PNG de un solo color) puede ocupar pocos bytes y necesitar gigas de memoria al decodificarla
+	@Value("${config.fotos.variantes.max-pixeles:25000000}")
+	private long maxPixeles;
+
+	// Lado máximo en píxeles de cada variante,en el mismo orden en el que se han configurado
+	private final Map<String,Integer> variantes = new LinkedHashMap<String,Integer>();
+
+	private ThreadPoolExecutor pool;
+
+	private Timer procesamiento;
+
+	private Counter descartadas;
+
+	private Counter errores;
+
+	private Counter rechazadas;
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		Arrays.stream(tamanos.split(","))
+			.map(String::trim)
+			.filter(tamano -> !tamano.isEmpty())
+			.forEach(tamano -> {
+				String[] partes = tamano.split(":");
+				variantes.put(partes[0].trim(),Integer.valueOf(partes[1].trim()));
+			});
+
+		// Con la política "AbortPolicy",si la cola está llena,el método "execute()" lanza la excepción "RejectedExecutionException" y descartamos la tarea
+		AtomicInteger contador = new AtomicInteger();
+		pool = new ThreadPoolExecutor(hilos,hilos,0,TimeUnit.MILLISECONDS,new ArrayBlockingQueue<Runnable>(capacidadCola),
+				tarea -> {
+					Thread hilo = new Thread(tarea,"variantes-foto-" + contador.incrementAndGet());
+					hilo.setDaemon(true);
+					return hilo;
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+
+		// Registramos las métricas: la profundidad de la cola,el tiempo de procesamiento de cada imagen,las tareas descartadas por tener la cola llena y las que han fallado
+		Gauge.builder("productos.fotos.variantes.cola",pool,p -> p.getQueue().size())
+			.description("Imágenes pendientes de generar sus variantes")
+			.register(registry);
+		procesamiento = Timer.builder("productos.fotos.variantes")
+				.description("Tiempo de generación de todas las variantes de una imagen")
+				.publishPercentiles(0.5,0.95,0.99)
+				.register(registry);
+		descartadas = Counter.builder("productos.fotos.variantes.descartadas")
+				.description("Imágenes sin variantes porque la cola estaba llena")
+				.register(registry);
+		errores = Counter.builder("productos.fotos.variantes.errores")
+				.description("Imágenes cuyas variantes no se han podido generar")
+				.register(registry);
+		rechazadas = Counter.builder("productos.fotos.variantes.rechazadas")
+				.description("Imágenes sin variantes porque superan el número máximo de píxeles")
+				.register(registry);
+	}
+
+	// Al detener la aplicación,dejamos de aceptar tareas y esperamos un tiempo razonable a que terminen las que están en curso
+	@PreDestroy
+	@Override
+	public void cerrar() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(10,TimeUnit.SECONDS);
+	}
+
+	// Método que programa la generación de las variantes de la imagen del producto en el pool de trabajo
+	@Override
+	public void programar(Producto producto) {
+		if(variantes.isEmpty() || producto.getFoto() == null)
+			return;
+		String id = producto.getId();
+		String foto = producto.getFoto();
+		try {
+			pool.execute(() -> procesamiento.record(() -> generar(id,foto)));
+		}
+		catch(RejectedExecutionException e) {
+			descartadas.increment();
+			log.warn("Cola de variantes llena,la imagen " + foto + " se queda sin variantes");
+		}
+	}
+
+	// Genera las variantes de una imagen,las guarda en el almacén de imágenes y las registra en el producto
+	// Se ejecuta en un hilo del pool de trabajo,por lo que puede bloquear
+	private void generar(String id, String foto) {
+		try {
+			// Leemos la imagen original del almacén.Para decodificarla,ImageIO necesita la imagen entera,así que unimos todos sus bloques en un único DataBuffer
+			DataBuffer contenido = DataBufferUtils.join(almacenFotos.leer(foto)).block(Duration.ofSeconds(30));
+			BufferedImage imagen;
+			try(InputStream entrada = contenido.asInputStream(true)) {
+				imagen = decodificar(foto,entrada);
+			}
+			if(imagen == null)
+				return;
+
+			String formato = formato(foto);
+			Map<String,String> generadas = new LinkedHashMap<String,String>();
+			for(Map.Entry<String,Integer> variante: variantes.entrySet()) {
+				// Si la imagen original ya es más pequeña que la variante,usamos la propia imagen original
+				if(Math.max(imagen.getWidth(),imagen.getHeight()) <= variante.getValue()) {
+					generadas.put(variante.getKey(),foto);
+					continue;
+				}
+				String nombre = nombreVariante(foto,variante.getKey(),formato);
+				// Como las imágenes se almacenan con el hash de su contenido,si otro producto con la misma imagen ya generó esta variante,la reutilizamos
+				// Si ImageIO no sabe escribir la variante en su formato,no la registramos y las consultas de esa variante devuelven la imagen original
+				if(!almacenFotos.existe(nombre).block(Duration.ofSeconds(30)) && !guardar(nombre,redimensionar(imagen,variante.getValue(),formato),formato)) {
+					errores.increment();
+					log.warn("ImageIO no ha podido escribir la variante " + nombre + " en formato " + formato + ",no se registra");
+					continue;
+				}
+				generadas.put(variante.getKey(),nombre);
+			}
+
+			// Solo actualizamos el producto si sigue teniendo la misma imagen.Si mientras tanto se ha subido otra,estas variantes ya no le corresponden
+			mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(id).and("foto").is(foto)),Update.update("variantes",generadas),Producto.class)
+				.block(Duration.ofSeconds(30));
+		}
+		catch(IOException | RuntimeException e) {
+			errores.increment();
+			log.error("No se han podido generar las variantes de la imagen " + foto,e);
+		}
+	}
+
+	// Método que devuelve los nombres de las variantes de una imagen según las variantes configuradas
+	@Override
+	public List<String> nombres(String foto) {
+		String formato = formato(foto);
+		return variantes.keySet().stream()
+				.map(variante -> nombreVariante(foto,variante,formato))
+				.collect(Collectors.toList());
+	}
+
+	// Decodifica la imagen original.Antes,lee sus dimensiones de la cabecera con un ImageReader,sin decodificarla,y la rechaza si supera el número máximo de píxeles
+	// Devuelve null si el formato no está soportado o si la imagen es demasiado grande
+	private BufferedImage decodificar(String foto, InputStream entrada) throws IOException {
+		try(ImageInputStream imagen = ImageIO.createImageInputStream(entrada)) {
+			Iterator<ImageReader> lectores = imagen == null ? Collections.<ImageReader>emptyIterator() : ImageIO.getImageReaders(imagen);
+			if(!lectores.hasNext()) {
+				log.warn("La imagen " + foto + " no tiene un formato soportado,no se generan sus variantes");
+				return null;
+			}
+			ImageReader lector = lectores.next();
+			try {
+				lector.setInput(imagen,true,true);
+				long pixeles = (long)lector.getWidth(0) * lector.getHeight(0);
+				if(pixeles > maxPixeles) {
+					rechazadas.increment();
+					log.warn("La imagen " + foto + " tiene " + pixeles + " píxeles y supera el máximo de " + maxPixeles + ",no se generan sus variantes");
+					return null;
+				}
+				return lector.read(0);
+			}
+			finally {
+				lector.dispose();
+			}
+		}
+	}
+
+	// Escribe la variante en un archivo temporal local y la guarda en el almacén de imágenes,que se encarga de eliminar el archivo temporal
+	// Devuelve false,sin guardar nada,si ImageIO no tiene un escritor para el formato y el tipo de la imagen.En ese caso,"ImageIO.write()" no lanza ninguna excepción,solo devuelve false
+	private boolean guardar(String nombre, BufferedImage variante, String formato) throws IOException {
+		Path temporal = Files.createTempFile(Files.createDirectories(Paths.get(path).resolve(FotoServiceImpl.DIRECTORIO_TEMPORAL)),"variante-","." + formato);
+		try {
+			if(!ImageIO.write(variante,formato,temporal.toFile()))
+				return false;
+			almacenFotos.guardar(nombre,temporal).block(Duration.ofSeconds(30));
+			return true;
+		}
+		finally {
+			Files.deleteIfExists(temporal);
+		}
+	}
+
+	// Redimensiona la imagen para que su lado mayor mida el número de píxeles indicado,manteniendo la proporción
+	private BufferedImage redimensionar(BufferedImage imagen, int lado, String formato) {
+		double escala = (double)lado / Math.max(imagen.getWidth(),imagen.getHeight());
+		int ancho = Math.max(1,(int)Math.round(imagen.getWidth() * escala));
+		int alto = Math.max(1,(int)Math.round(imagen.getHeight() * escala));
+		// Los formatos JPEG y BMP no admiten transparencia.El escritor BMP de ImageIO no escribe nada si la imagen tiene canal alfa
+		BufferedImage variante = new BufferedImage(ancho,alto,"jpg".equals(formato) || "bmp".equals(formato) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = variante.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING,RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(imagen,0,0,ancho,alto,null);
+		}
+		finally {
+			g.dispose();
+		}
+		return variante;
+	}
+
+	// Formato de escritura de las variantes según la extensión de la imagen original.Si no es uno de los formatos que sabe escribir ImageIO,usamos PNG
+	private String formato(String foto) {
+		String extension = foto.substring(foto.lastIndexOf('.') + 1).toLowerCase();
+		switch(extension) {
+			case "jpg":
+			case "jpeg":
+				return "jpg";
+			case "gif":
+			case "bmp":
+				return extension;
+			default:
+				return "png";
+		}
+	}
+
+	// Nombre del archivo de una variante: el nombre de la imagen original sin extensión,seguido del nombre de la variante y la extensión de su formato.Por ejemplo,"abc-foto-miniatura.jpg"
+	private String nombreVariante(String foto, String variante, String formato) {
+		int punto = foto.lastIndexOf('.');
+		String base = punto > 0 ? foto.substring(0,punto) : foto;
+		return base + "-" + variante + "." + formato;
+	}
+
+}
@@ -0,0 +1,234 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.rsocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteConcurrencia;
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteTasaFilter;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ResultadoGuardado;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBufInputStream;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.util.DefaultPayload;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Operaciones de la capa Servicio de productos expuestas mediante el protocolo RSocket sobre TCP(véase la clase "ServidorRSocket")
+// Cada petición indica la operación con su ruta en los metadatos(véase la clase "RutasRSocket") y los productos viajan en Json,igual que en la Api http
+//  - "productos.ver"(request-response): busca un producto por su id
+//  - "productos.listar"(request-stream): devuelve todos los productos.RSocket transmite la demanda del cliente(frames REQUEST_N) hasta el cursor de MongoDB,así que un cliente lento no hace que el servidor acumule productos en memoria
+//  - "productos.guardar"(request-channel): el cliente envía un flujo de productos y recibe un resultado por cada uno.Se guardan a la vez como mucho "config.rsocket.concurrencia-guardado" productos y no se piden más al cliente hasta que terminan
+// Registra la duración de cada petición en la métrica "rsocket.peticiones" con la etiqueta "ruta" y las peticiones en curso en "rsocket.peticiones.en.curso",que el cierre ordenado espera a que lleguen a cero
+// Se aplican los mismos límites que a la Api http: el límite de tasa del cliente(cada petición "ver" o "listar" es una lectura y cada producto guardado una escritura) y el límite de concurrencia(cada petición y cada producto guardado ocupa un hueco)
+// Las peticiones rechazadas terminan con un error "REJECTED",que el cliente puede reintentar.En el guardado masivo,los productos rechazados se devuelven en su resultado y no interrumpen el resto
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class ProductoRSocket {
+
+	@Autowired
+	private ProductoService productoService; // Este bean representa la capa Servicio para la clase entidad "Producto" que realiza operaciones CRUD en la base de datos a través de la capa Dao
+
+	@Autowired
+	private ObjectMapper objectMapper; // Este bean es el ObjectMapper de Jackson que usa Spring.Lo usamos para que los productos tengan el mismo Json que en la Api http
+
+	@Autowired
+	private Validator validator; // Este bean propio de Spring nos permite validar los productos recibidos con las mismas reglas que la Api http
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las métricas de las peticiones
+
+	@Autowired
+	private LimiteTasaFilter limiteTasa; // Este bean limita la tasa de peticiones de cada cliente,tanto por http como por RSocket
+
+	@Autowired
+	private LimiteConcurrencia limiteConcurrencia; // Este bean aprende cuántas peticiones simultáneas admite la Api y lo comparten la Api http y RSocket
+
+	// Productos que se guardan a la vez en la operación de guardado masivo
+	@Value("${config.rsocket.concurrencia-guardado:16}")
+	private int concurrenciaGuardado;
+
+	private final AtomicInteger enCurso = new AtomicInteger();
+
+	private final Map<String,Timer> duraciones = new HashMap<String,Timer>();
+
+	@PostConstruct // Este método se ejecuta una vez que Spring ha inyectado todas las dependencias de este bean
+	public void init() {
+		for(String ruta: new String[] {RutasRSocket.VER,RutasRSocket.LISTAR,RutasRSocket.GUARDAR})
+			duraciones.put(ruta,Timer.builder("rsocket.peticiones")
+					.description("Duración de las peticiones RSocket,hasta que se envía el último elemento de la respuesta")
+					.tag("ruta",ruta)
+					.register(registry));
+		Gauge.builder("rsocket.peticiones.en.curso",enCurso,AtomicInteger::get)
+			.description("Peticiones RSocket en curso")
+			.register(registry);
+	}
+
+	// Devuelve el RSocket que atiende las peticiones de una conexión.El cliente es su dirección IP o null si no se conoce
+	public RSocket conexion(InetAddress cliente) {
+		return new Conexion(cliente);
+	}
+
+	private class Conexion extends AbstractRSocket {
+
+		private final InetAddress cliente;
+
+		Conexion(InetAddress cliente) {
+			this.cliente = cliente;
+		}
+
+		@Override
+		public Mono<Payload> requestResponse(Payload payload) {
+			String ruta;
+			String id;
+			try {
+				ruta = RutasRSocket.ruta(payload);
+				id = payload.getDataUtf8();
+			}
+			finally {
+				payload.release();
+			}
+			if(!RutasRSocket.VER.equals(ruta))
+				return Mono.error(rutaDesconocida(ruta));
+			long espera = limiteTasa.consumirRSocket(cliente,false);
+			if(espera > 0)
+				return Mono.error(tasaSuperada(espera));
+			return medir(ruta,limiteConcurrencia.limitar(productoService.findById(id).map(ProductoRSocket.this::codificar).flux(),Flux.error(saturado()))).next();
+		}
+
+		@Override
+		public Flux<Payload> requestStream(Payload payload) {
+			String ruta;
+			try {
+				ruta = RutasRSocket.ruta(payload);
+			}
+			finally {
+				payload.release();
+			}
+			if(!RutasRSocket.LISTAR.equals(ruta))
+				return Flux.error(rutaDesconocida(ruta));
+			long espera = limiteTasa.consumirRSocket(cliente,false);
+			if(espera > 0)
+				return Flux.error(tasaSuperada(espera));
+			return medir(ruta,limiteConcurrencia.limitar(productoService.findAll().map(ProductoRSocket.this::codificar),Flux.error(saturado())));
+		}
+
+		// La ruta viaja en los metadatos del primer payload del canal,así que se comprueba antes de procesar el resto
+		@Override
+		public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+			return Flux.from(payloads).switchOnFirst((primero,flujo) -> {
+				// Si el canal termina o falla sin enviar ningún producto,no hay nada que guardar
+				if(!primero.hasValue())
+					return flujo;
+				String ruta = RutasRSocket.ruta(primero.get());
+				if(!RutasRSocket.GUARDAR.equals(ruta)) {
+					// Como no nos suscribimos al flujo,el primer payload no llega a procesarse y hay que liberarlo aquí.El resto no se llegan a pedir al cliente
+					primero.get().release();
+					return Flux.error(rutaDesconocida(ruta));
+				}
+				return medir(ruta,flujo.index()
+						.flatMapSequential(elemento -> guardar(elemento.getT1(),elemento.getT2(),cliente),concurrenciaGuardado)
+						.map(ProductoRSocket.this::codificar));
+			});
+		}
+	}
+
+	// Valida y guarda un producto del guardado masivo.Los errores de un producto se devuelven en su resultado y no interrumpen el resto
+	private Mono<ResultadoGuardado> guardar(long indice, Payload payload, InetAddress cliente) {
+		long espera = limiteTasa.consumirRSocket(cliente,true);
+		if(espera > 0) {
+			payload.release();
+			return Mono.just(ResultadoGuardado.error(indice,tasaSuperada(espera).getMessage()));
+		}
+		Producto producto;
+		try {
+			// Leemos el Json directamente de los bytes del payload,sin copiarlo antes a un String
+			producto = objectMapper.readValue((InputStream)new ByteBufInputStream(payload.sliceData()),Producto.class);
+		}
+		catch(IOException e) {
+			return Mono.just(ResultadoGuardado.error(indice,"El producto no es un Json válido: " + e.getMessage()));
+		}
+		finally {
+			payload.release();
+		}
+		Errors errors = new BeanPropertyBindingResult(producto,Producto.class.getName());
+		validator.validate(producto,errors);
+		if(errors.hasErrors())
+			return Mono.just(ResultadoGuardado.error(indice,errors.getFieldErrors().stream()
+					.map(fieldError -> "El campo " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+					.collect(Collectors.joining(","))));
+		if(producto.getCreateAt() == null)
+			producto.setCreateAt(new Date());
+		return limiteConcurrencia.limitar(productoService.save(producto).map(pdb -> ResultadoGuardado.guardado(indice,pdb.getId())).flux(),
+					Flux.just(ResultadoGuardado.error(indice,saturado().getMessage())))
+				.next()
+				.onErrorResume(e -> Mono.just(ResultadoGuardado.error(indice,e.getMessage())));
+	}
+
+	// Cuenta la petición como en curso y registra su duración cuando termina,falla o el cliente la cancela
+	private Flux<Payload> medir(String ruta, Flux<Payload> respuesta) {
+		Timer duracion = duraciones.get(ruta);
+		return Flux.defer(() -> {
+			long inicio = System.nanoTime();
+			enCurso.incrementAndGet();
+			return respuesta.doFinally(senal -> {
+				enCurso.decrementAndGet();
+				duracion.record(System.nanoTime() - inicio,TimeUnit.NANOSECONDS);
+			});
+		});
+	}
+
+	private Payload codificar(Object valor) {
+		try {
+			return DefaultPayload.create(objectMapper.writeValueAsBytes(valor));
+		}
+		catch(JsonProcessingException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private static IllegalArgumentException rutaDesconocida(String ruta) {
+		return new IllegalArgumentException("Ruta RSocket desconocida: " + ruta);
+	}
+
+	// La espera se indica en segundos enteros,redondeando hacia arriba,igual que la cabecera "Retry-After" de la Api http
+	private static RejectedException tasaSuperada(long espera) {
+		return new RejectedException("Límite de tasa superado,reintente en " + Math.max(1,(espera + 999_999_999L) / 1_000_000_000L) + " segundos");
+	}
+
+	private static RejectedException saturado() {
+		return new RejectedException("El servidor está saturado,reintente más tarde");
+	}
+
+	// Número de peticiones RSocket en curso
+	public int getEnCurso() {
+		return enCurso.get();
+	}
+}
@@ -0,0 +1,53 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.rsocket;
+
+import java.nio.charset.StandardCharsets;
+
+import io.netty.buffer.ByteBuf;
+import io.rsocket.Payload;
+
+// Rutas de las operaciones de productos expuestas mediante RSocket(véase la clase "ProductoRSocket")
+// La ruta viaja en los metadatos de la petición con el formato de "message/x.rsocket.routing.v0": un byte con la longitud de la ruta seguido de la ruta en UTF-8
+// Es el mismo formato que usa Spring 5.2 en las anotaciones @MessageMapping.Aun así,el cliente debe usar la misma versión de rsocket-java que el servidor(0.12.2-RC4),porque el protocolo cambió entre las versiones candidatas anteriores a la 1.0
+public final class RutasRSocket {
+
+	// Tipo MIME de los metadatos y de los datos,que se indican en el "setup" de la conexión
+	public static final String TIPO_METADATOS = "message/x.rsocket.routing.v0";
+
+	public static final String TIPO_DATOS = "application/json";
+
+	// Request-response: el dato es el id del producto en UTF-8 y la respuesta es el producto en Json o vacía si no existe
+	public static final String VER = "productos.ver";
+
+	// Request-stream: devuelve todos los productos en Json,uno por payload,según la demanda del cliente
+	public static final String LISTAR = "productos.listar";
+
+	// Request-channel: el cliente envía productos en Json y recibe un resultado por cada uno(véase la clase "ResultadoGuardado")
+	public static final String GUARDAR = "productos.guardar";
+
+	private RutasRSocket() {
+	}
+
+	// Codifica una ruta como metadatos de una petición
+	public static byte[] metadatos(String ruta) {
+		byte[] bytes = ruta.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > 255)
+			throw new IllegalArgumentException("La ruta no puede superar los 255 bytes: " + ruta);
+		byte[] metadatos = new byte[bytes.length + 1];
+		metadatos[0] = (byte)bytes.length;
+		System.arraycopy(bytes,0,metadatos,1,bytes.length);
+		return metadatos;
+	}
+
+	// Devuelve la ruta de los metadatos de una petición o null si no tiene
+	public static String ruta(Payload payload) {
+		if(!payload.hasMetadata())
+			return null;
+		ByteBuf metadatos = payload.sliceMetadata();
+		if(!metadatos.isReadable())
+			return null;
+		int longitud = metadatos.readUnsignedByte();
+		if(metadatos.readableBytes() < longitud)
+			return null;
+		return metadatos.toString(metadatos.readerIndex(),longitud,StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,100 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.rsocket;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import reactor.core.publisher.Mono;
+
+// Servidor RSocket sobre TCP que atiende las operaciones de productos(véase la clase "ProductoRSocket") en el puerto "config.rsocket.puerto",además del servidor http
+// Spring Boot 2.1 no incluye soporte de RSocket,así que el servidor se arranca y se detiene como parte del ciclo de vida del contexto de Spring
+// Arranca después de crear todos los beans,cuando ya se han cargado los datos iniciales(véase la clase "CargaDatos"),y se detiene al cerrar el contexto
+// En el cierre ordenado(véase la clase "CierreOrdenado") primero se deja de aceptar conexiones nuevas y,cuando han terminado las peticiones en curso,se cierran las conexiones abiertas
+
+@Component // Con esta anotación indicamos que esta clase es un componente de Spring y,por lo tanto,Spring va a almacenar un bean de esta clase en su contenedor o memoria
+public class ServidorRSocket implements SmartLifecycle {
+
+	// Habilitamos el uso de log en esta clase
+	private static final Logger log = LoggerFactory.getLogger(ServidorRSocket.class);
+
+	@Autowired
+	private ProductoRSocket productoRSocket; // Este bean atiende las peticiones de todas las conexiones
+
+	@Autowired
+	private MeterRegistry registry; // Este bean es propio de Micrometer y nos permite registrar las conexiones abiertas
+
+	@Value("${config.rsocket.habilitado:true}")
+	private boolean habilitado;
+
+	@Value("${config.rsocket.puerto:7000}")
+	private int puerto;
+
+	// Conexiones abiertas.Guardamos el RSocket con el que el servidor envía peticiones al cliente,que al cerrarse cierra la conexión
+	private final Set<RSocket> conexiones = ConcurrentHashMap.newKeySet();
+
+	private volatile TransporteRSocket.Canal servidor;
+
+	@Override
+	public void start() {
+		if(!habilitado)
+			return;
+		Gauge.builder("rsocket.conexiones",conexiones,Set::size)
+			.description("Conexiones RSocket abiertas")
+			.register(registry);
+		servidor = RSocketFactory.receive()
+				// Cada conexión se atiende con un RSocket propio que conoce la dirección IP del cliente(véase la clase "TransporteRSocket"),para aplicarle el límite de tasa
+				.acceptor((setup,cliente) -> Mono.subscriberContext().map(contexto -> {
+					conexiones.add(cliente);
+					cliente.onClose().doFinally(senal -> conexiones.remove(cliente)).subscribe();
+					return productoRSocket.conexion(TransporteRSocket.cliente(contexto));
+				}))
+				.transport(new TransporteRSocket(puerto))
+				.start()
+				.block(Duration.ofSeconds(30));
+		log.info("Servidor RSocket escuchando en el puerto " + servidor.address().getPort());
+	}
+
+	// Cierra el puerto para que no se acepten conexiones nuevas.Las conexiones abiertas siguen atendiendo sus peticiones
+	public void dejarDeAceptar() {
+		TransporteRSocket.Canal arrancado = servidor;
+		if(arrancado != null && !arrancado.isDisposed()) {
+			arrancado.dispose();
+			arrancado.onClose().block(Duration.ofSeconds(5));
+		}
+	}
+
+	// Al detener el contexto(después del cierre ordenado,que ya ha esperado a las peticiones en curso),cerramos el puerto y las conexiones que queden
+	@Override
+	public void stop() {
+		dejarDeAceptar();
+		conexiones.forEach(RSocket::dispose);
+		servidor = null;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return servidor != null;
+	}
+
+	// Número de conexiones abiertas
+	public int getConexiones() {
+		return conexiones.size();
+	}
+
+	// Puerto en el que escucha el servidor o -1 si no está arrancado.Con el puerto 0 se escucha en un puerto libre
+	public int getPuerto() {
+		TransporteRSocket.Canal arrancado = servidor;
+		return arrancado != null && !arrancado.isDisposed() ? arrancado.address().getPort() : -1;
+	}
+}
@@ -0,0 +1,90 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.rsocket;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.rsocket.Closeable;
+import io.rsocket.DuplexConnection;
+import io.rsocket.fragmentation.FragmentationDuplexConnection;
+import io.rsocket.transport.ServerTransport;
+import io.rsocket.transport.netty.RSocketLengthCodec;
+import io.rsocket.transport.netty.TcpDuplexConnection;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+import reactor.util.context.Context;
+
+// Transporte TCP del servidor RSocket(véase la clase "ServidorRSocket").Hace lo mismo que el "TcpServerTransport" de rsocket-java,pero además guarda la dirección IP del cliente en el contexto de Reactor de la conexión
+// Así el "acceptor" del servidor,que solo recibe el "setup" de la conexión,sabe qué cliente se ha conectado y puede aplicarle el mismo límite de tasa que a sus peticiones http
+public class TransporteRSocket implements ServerTransport<TransporteRSocket.Canal> {
+
+	// Clave del contexto de Reactor con la dirección IP(InetAddress) del cliente de la conexión
+	public static final String CLIENTE = "rsocket.cliente";
+
+	private final TcpServer servidor;
+
+	public TransporteRSocket(int puerto) {
+		this.servidor = TcpServer.create().port(puerto);
+	}
+
+	@Override
+	public Mono<Canal> start(ConnectionAcceptor acceptor, int mtu) {
+		Mono<Canal> mtuErroneo = FragmentationDuplexConnection.checkMtu(mtu);
+		if(mtuErroneo != null)
+			return mtuErroneo;
+		return servidor.doOnConnection(conexion -> {
+			conexion.addHandlerLast(new RSocketLengthCodec());
+			DuplexConnection duplex = mtu > 0
+					? new FragmentationDuplexConnection(new TcpDuplexConnection(conexion,false),ByteBufAllocator.DEFAULT,mtu,true,"server")
+					: new TcpDuplexConnection(conexion);
+			acceptor.apply(duplex)
+				.subscriberContext(contexto(conexion.channel().remoteAddress()))
+				.then(Mono.<Void>never())
+				.subscribe(conexion.disposeSubscriber());
+		})
+		.bind()
+		.map(Canal::new);
+	}
+
+	private static Context contexto(SocketAddress direccion) {
+		if(direccion instanceof InetSocketAddress && ((InetSocketAddress)direccion).getAddress() != null)
+			return Context.of(CLIENTE,((InetSocketAddress)direccion).getAddress());
+		return Context.empty();
+	}
+
+	// Devuelve la dirección IP del cliente guardada en el contexto o null si no se conoce
+	public static InetAddress cliente(Context contexto) {
+		return contexto.getOrDefault(CLIENTE,null);
+	}
+
+	// Puerto abierto por el servidor
+	public static class Canal implements Closeable {
+
+		private final DisposableServer servidor;
+
+		Canal(DisposableServer servidor) {
+			this.servidor = servidor;
+		}
+
+		public InetSocketAddress address() {
+			return servidor.address();
+		}
+
+		@Override
+		public void dispose() {
+			servidor.dispose();
+		}
+
+		@Override
+		public boolean isDisposed() {
+			return servidor.isDisposed();
+		}
+
+		@Override
+		public Mono<Void> onClose() {
+			return servidor.onDispose();
+		}
+	}
+}
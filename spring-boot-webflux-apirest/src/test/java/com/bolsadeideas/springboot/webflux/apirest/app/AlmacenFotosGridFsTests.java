@@ -0,0 +1,97 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.AlmacenFotos;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.AlmacenFotosGridFs;
+
+// Pruebas del almacén de imágenes en GridFS(véase la clase "AlmacenFotosGridFs")
+// Seleccionamos el almacén GridFS solo para esta clase,por eso Spring crea para ella un contexto distinto del de las demás pruebas
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, properties = "config.fotos.almacen.tipo=gridfs")
+public class AlmacenFotosGridFsTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private AlmacenFotos almacenFotos;
+
+	@Value("${config.uploads.path}")
+	private String path;
+
+	@Value("${config.fotos.almacen.tamano-bloque}")
+	private int tamanoBloque;
+
+	// Una imagen de varios bloques se guarda en GridFS,se lee por bloques con el mismo contenido y se elimina.El archivo temporal deja de existir al guardarla
+	@Test
+	public void guardarLeerEliminarTest() throws IOException {
+		Assertions.assertThat(almacenFotos).isInstanceOf(AlmacenFotosGridFs.class);
+		byte[] contenido = new byte[tamanoBloque * 2 + 100];
+		new Random(7).nextBytes(contenido);
+		Path temporal = Files.createTempFile(Files.createDirectories(Paths.get(path)),"gridfs-",".bin");
+		Files.write(temporal,contenido);
+
+		almacenFotos.guardar("gridfs-prueba.bin",temporal).block();
+
+		Assertions.assertThat(temporal).doesNotExist();
+		Assertions.assertThat(almacenFotos.existe("gridfs-prueba.bin").block()).isTrue();
+		Assertions.assertThat(almacenFotos.tamano("gridfs-prueba.bin").block()).isEqualTo((long)contenido.length);
+		Assertions.assertThat(almacenFotos.archivoLocal("gridfs-prueba.bin").block()).isNull();
+		Assertions.assertThat(almacenFotos.leer("gridfs-prueba.bin").count().block()).isEqualTo(3L);
+		DataBuffer leido = DataBufferUtils.join(almacenFotos.leer("gridfs-prueba.bin")).block();
+		byte[] bytes = new byte[leido.readableByteCount()];
+		leido.read(bytes);
+		DataBufferUtils.release(leido);
+		Assertions.assertThat(bytes).isEqualTo(contenido);
+
+		almacenFotos.eliminar("gridfs-prueba.bin").block();
+
+		Assertions.assertThat(almacenFotos.existe("gridfs-prueba.bin").block()).isFalse();
+	}
+
+	// La imagen de un producto subida con el almacén GridFS se sirve desde GridFS,ya que no hay archivo local que enviar sin copiarlo
+	@Test
+	public void subirYServirFotoTest() {
+		byte[] contenido = FotosTests.png(Color.YELLOW);
+		MultipartBodyBuilder formulario = new MultipartBodyBuilder();
+		formulario.part("nombre","Alfombra en GridFS");
+		formulario.part("precio","30");
+		formulario.part("file",FotosTests.imagen("alfombra.png",contenido));
+
+		Producto producto = client.post().uri("/api/v2/productos/v2")
+		.contentType(MediaType.MULTIPART_FORM_DATA)
+		.syncBody(formulario.build())
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody(Producto.class)
+		.returnResult().getResponseBody();
+
+		client.get().uri("/api/v2/productos/{id}/foto",producto.getId())
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody(byte[].class).isEqualTo(contenido);
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.AlmacenFotos;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.AlmacenFotosLocal;
+
+// Pruebas del almacén de imágenes en el sistema de archivos local(véase la clase "AlmacenFotosLocal")
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class AlmacenFotosLocalTests {
+
+	@Autowired
+	private AlmacenFotos almacenFotos;
+
+	@Value("${config.uploads.path}")
+	private String path;
+
+	// Una imagen cuyo nombre empieza por un hash se guarda en el subdirectorio "ab/cd" de sus 4 primeros caracteres,no en la raíz,y se lee y elimina desde allí
+	@Test
+	public void guardarEnSubdirectorioTest() throws IOException {
+		Path temporal = temporal("contenido-subdirectorio");
+
+		almacenFotos.guardar("abcd0123-prueba.png",temporal).block();
+
+		Path ruta = Paths.get(path,"ab","cd","abcd0123-prueba.png");
+		Assertions.assertThat(temporal).doesNotExist();
+		Assertions.assertThat(ruta).hasContent("contenido-subdirectorio");
+		Assertions.assertThat(Paths.get(path,"abcd0123-prueba.png")).doesNotExist();
+		Assertions.assertThat(almacenFotos.archivoLocal("abcd0123-prueba.png").block()).isEqualTo(ruta);
+		Assertions.assertThat(leer("abcd0123-prueba.png")).isEqualTo("contenido-subdirectorio");
+
+		almacenFotos.eliminar("abcd0123-prueba.png").block();
+
+		Assertions.assertThat(ruta).doesNotExist();
+		Assertions.assertThat(almacenFotos.existe("abcd0123-prueba.png").block()).isFalse();
+	}
+
+	// Una imagen antigua,cuyo nombre no empieza por 4 caracteres hexadecimales,se reparte según el hash SHA-256 de su nombre
+	@Test
+	public void guardarNombreAntiguoTest() throws Exception {
+		almacenFotos.guardar("zapatos-antiguos.jpg",temporal("antigua")).block();
+
+		String prefijo = prefijoHash("zapatos-antiguos.jpg");
+		Assertions.assertThat(Paths.get(path,prefijo.substring(0,2),prefijo.substring(2,4),"zapatos-antiguos.jpg")).hasContent("antigua");
+
+		almacenFotos.eliminar("zapatos-antiguos.jpg").block();
+	}
+
+	// Las imágenes que siguen en la raíz se encuentran mientras no se migran y la migración las mueve a su subdirectorio sin tocar los subdirectorios existentes
+	@Test
+	public void migrarTest() throws Exception {
+		Path raiz = Files.createDirectories(Paths.get(path));
+		Files.write(raiz.resolve("ef012345-raiz.png"),"en-la-raiz".getBytes(StandardCharsets.UTF_8));
+		Files.write(raiz.resolve("mesa-antigua.png"),"antigua-en-la-raiz".getBytes(StandardCharsets.UTF_8));
+		Path subdirectorio = Files.createDirectories(raiz.resolve("no-es-una-imagen"));
+
+		// Antes de migrar,las imágenes se siguen leyendo desde la raíz
+		Assertions.assertThat(almacenFotos.existe("ef012345-raiz.png").block()).isTrue();
+		Assertions.assertThat(leer("ef012345-raiz.png")).isEqualTo("en-la-raiz");
+
+		Long movidas = ((AlmacenFotosLocal) almacenFotos).migrar().block();
+
+		String prefijo = prefijoHash("mesa-antigua.png");
+		Assertions.assertThat(movidas).isGreaterThanOrEqualTo(2L);
+		Assertions.assertThat(raiz.resolve("ef012345-raiz.png")).doesNotExist();
+		Assertions.assertThat(raiz.resolve("mesa-antigua.png")).doesNotExist();
+		Assertions.assertThat(Paths.get(path,"ef","01","ef012345-raiz.png")).hasContent("en-la-raiz");
+		Assertions.assertThat(Paths.get(path,prefijo.substring(0,2),prefijo.substring(2,4),"mesa-antigua.png")).hasContent("antigua-en-la-raiz");
+		Assertions.assertThat(subdirectorio).isDirectory();
+		Assertions.assertThat(leer("mesa-antigua.png")).isEqualTo("antigua-en-la-raiz");
+
+		// La migración se puede repetir: las imágenes ya movidas no se vuelven a procesar
+		((AlmacenFotosLocal) almacenFotos).migrar().block();
+		Assertions.assertThat(Paths.get(path,"ef","01","ef012345-raiz.png")).hasContent("en-la-raiz");
+
+		almacenFotos.eliminar("ef012345-raiz.png").block();
+		almacenFotos.eliminar("mesa-antigua.png").block();
+		Files.delete(subdirectorio);
+	}
+
+	private Path temporal(String contenido) throws IOException {
+		// El archivo temporal se crea en un subdirectorio propio para que no se confunda con una imagen de la raíz pendiente de migrar
+		Path temporal = Files.createTempFile(Files.createDirectories(Paths.get(path,"tmp-local")),"local-",".tmp");
+		return Files.write(temporal,contenido.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String leer(String nombre) {
+		DataBuffer leido = DataBufferUtils.join(almacenFotos.leer(nombre)).block();
+		byte[] bytes = new byte[leido.readableByteCount()];
+		leido.read(bytes);
+		DataBufferUtils.release(leido);
+		return new String(bytes,StandardCharsets.UTF_8);
+	}
+
+	private static String prefijoHash(String nombre) throws NoSuchAlgorithmException {
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(nombre.getBytes(StandardCharsets.UTF_8));
+		return String.format("%02x%02x",hash[0],hash[1]);
+	}
+
+}
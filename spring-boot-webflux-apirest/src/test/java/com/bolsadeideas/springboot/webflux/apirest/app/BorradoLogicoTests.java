@@ -0,0 +1,69 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.Date;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dao.ProductoDao;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+// Pruebas del borrado lógico de productos(véase el método "delete()" de la clase "ProductoServiceImpl")
+// Habilitamos el borrado lógico solo para esta clase,por eso Spring crea para ella un contexto distinto del de las demás pruebas
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, properties = "config.productos.borrado-logico.habilitado=true")
+public class BorradoLogicoTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private ProductoService productoService;
+
+	@Autowired
+	private ProductoDao productoDao;
+
+	// Un producto eliminado de manera lógica no aparece en el listado,ni al buscarlo por su id,ni al buscarlo por su nombre,pero sí en la consulta de productos eliminados
+	@Test
+	public void productoEliminadoOcultoTest() {
+		Date antes = new Date();
+		Producto producto = productoService.save(new Producto("Biombo eliminado",80.00)).block();
+
+		client.delete().uri("/api/v2/productos/{id}",producto.getId())
+		.exchange()
+		.expectStatus().isNoContent();
+
+		// El documento sigue en la base de datos con su fecha de borrado
+		Assertions.assertThat(productoDao.findById(producto.getId()).block().getDeletedAt()).isNotNull();
+
+		for(String url: new String[] {"/api/v2/productos","/api/productos"}) {
+			List<Producto> productos = client.get().uri(url)
+			.accept(MediaType.APPLICATION_JSON_UTF8)
+			.exchange()
+			.expectStatus().isOk()
+			.expectBodyList(Producto.class)
+			.returnResult().getResponseBody();
+			Assertions.assertThat(productos).extracting(Producto::getId).doesNotContain(producto.getId());
+
+			client.get().uri(url + "/{id}",producto.getId())
+			.accept(MediaType.APPLICATION_JSON_UTF8)
+			.exchange()
+			.expectStatus().isNotFound();
+		}
+
+		Assertions.assertThat(productoService.findByNombre("Biombo eliminado").block()).isNull();
+		Assertions.assertThat(productoDao.findByNombreAndDeletedAtIsNull("Biombo eliminado").block()).isNull();
+		Assertions.assertThat(productoService.findEliminadosDesde(antes).map(Producto::getId).collectList().block()).contains(producto.getId());
+	}
+
+}
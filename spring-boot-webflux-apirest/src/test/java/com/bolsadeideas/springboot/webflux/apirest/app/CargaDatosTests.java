@@ -0,0 +1,54 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.FotoAlmacenada;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.HistorialPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
+
+// Pruebas de la carga de datos de ejemplo al arrancar la aplicación(véase la clase "CargaDatos")
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class CargaDatosTests {
+
+	@Autowired
+	private CargaDatos cargaDatos;
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+
+	// Al volver a cargar los datos se eliminan el historial de precios,las claves de idempotencia y los contadores de referencias de las imágenes,que harían referencia a productos que ya no existen,y se vuelven a crear sus índices
+	@Test
+	public void recargarDatosTest() {
+		mongoTemplate.insert(new HistorialPrecio("producto-anterior",10.00,new Date())).block();
+		mongoTemplate.insert(new Idempotencia("clave-anterior","huella","propietario",new Date())).block();
+		FotoAlmacenada foto = new FotoAlmacenada();
+		foto.setId("foto-anterior");
+		foto.setReferencias(1);
+		mongoTemplate.insert(foto).block();
+
+		cargaDatos.afterSingletonsInstantiated();
+
+		// La carga de datos registra el precio inicial de los productos de ejemplo,pero no conserva el historial anterior
+		Assertions.assertThat(mongoTemplate.count(Query.query(Criteria.where("productoId").is("producto-anterior")),HistorialPrecio.class).block()).isZero();
+		Assertions.assertThat(mongoTemplate.count(new Query(),Idempotencia.class).block()).isZero();
+		Assertions.assertThat(mongoTemplate.count(new Query(),FotoAlmacenada.class).block()).isZero();
+		Assertions.assertThat(mongoTemplate.indexOps(HistorialPrecio.class).getIndexInfo().map(IndexInfo::getName).collectList().block()).contains("producto_ts");
+		Assertions.assertThat(mongoTemplate.indexOps(Idempotencia.class).getIndexInfo().filter(indice -> indice.isIndexForFields(Collections.singletonList("createAt"))).collectList().block()).hasSize(1);
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.PeticionesEnCursoFilter;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.appinfo.InstanceInfo.InstanceStatus;
+import com.netflix.discovery.EurekaClient;
+import com.netflix.discovery.EurekaClientConfig;
+
+// Pruebas del cierre ordenado de la aplicación(véase la clase "CierreOrdenado")
+// Cerrar un contexto de las pruebas anotadas con @SpringBootTest afectaría a las demás clases que lo comparten,así que arrancamos la aplicación completa,con un servidor real,solo para esta prueba
+public class CierreOrdenadoTests {
+
+	// Al cerrar la aplicación,se deja de aceptar conexiones nuevas pero se espera a que termine la petición en curso,que recibe su respuesta completa
+	@Test
+	public void drenarTest() throws Exception {
+		ConfigurableApplicationContext contexto = new SpringApplicationBuilder(SpringBootWebfluxApirestApplication.class)
+				.properties("server.port=0","config.cierre.plazo-segundos=20")
+				.run();
+		int puerto = ((ReactiveWebServerApplicationContext)contexto).getWebServer().getPort();
+		PeticionesEnCursoFilter peticiones = contexto.getBean(PeticionesEnCursoFilter.class);
+		String categoria = new ObjectMapper().writeValueAsString(contexto.getBean(ProductoService.class).findAll().blockFirst().getCategoria());
+
+		// Enviamos la petición a mano para controlar cuándo llega su cuerpo: primero las cabeceras y la mitad del cuerpo,así que la petición sigue en curso hasta que enviamos el resto
+		byte[] cuerpo = ("{\"nombre\":\"Creado durante el cierre\",\"precio\":12.5,\"categoria\":" + categoria + "}").getBytes(StandardCharsets.UTF_8);
+		try(Socket cliente = new Socket("localhost",puerto)) {
+			OutputStream salida = cliente.getOutputStream();
+			salida.write(("POST /api/v2/productos HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\nContent-Length: " + cuerpo.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			salida.write(cuerpo,0,cuerpo.length / 2);
+			salida.flush();
+			esperar(() -> peticiones.getEnCurso() == 1);
+
+			CompletableFuture<Void> cierre = CompletableFuture.runAsync(contexto::close);
+
+			// El puerto se cierra enseguida,pero el cierre sigue esperando a la petición en curso
+			esperar(() -> !aceptaConexiones(puerto));
+			Thread.sleep(200);
+			Assertions.assertThat(cierre).isNotDone();
+
+			salida.write(cuerpo,cuerpo.length / 2,cuerpo.length - cuerpo.length / 2);
+			salida.flush();
+
+			// El servidor cierra la conexión tras enviar la respuesta,así que podemos leerla hasta el final
+			String respuesta = StreamUtils.copyToString(cliente.getInputStream(),StandardCharsets.UTF_8);
+			Assertions.assertThat(respuesta).startsWith("HTTP/1.1 201").contains("Creado durante el cierre");
+			cierre.get(20,TimeUnit.SECONDS);
+		}
+		Assertions.assertThat(peticiones.getEnCurso()).isEqualTo(0);
+	}
+
+	// Al salir del registro,la instancia se marca como DOWN en Eureka.Solo se espera a que los clientes refresquen el registro si la instancia aparecía en él
+	// Las pruebas no tienen servidor Eureka,así que simulamos el cliente
+	@Test
+	@SuppressWarnings("unchecked")
+	public void salirDelRegistroTest() throws Exception {
+		for(InstanceStatus remoto: new InstanceStatus[] {InstanceStatus.UNKNOWN,InstanceStatus.UP}) {
+			EurekaClient cliente = Mockito.mock(EurekaClient.class);
+			ApplicationInfoManager instancia = Mockito.mock(ApplicationInfoManager.class);
+			EurekaClientConfig configuracion = Mockito.mock(EurekaClientConfig.class);
+			Mockito.when(cliente.getApplicationInfoManager()).thenReturn(instancia);
+			Mockito.when(cliente.getEurekaClientConfig()).thenReturn(configuracion);
+			Mockito.when(configuracion.shouldFetchRegistry()).thenReturn(true);
+			Mockito.when(cliente.getInstanceRemoteStatus()).thenReturn(remoto);
+			ObjectProvider<EurekaClient> proveedor = Mockito.mock(ObjectProvider.class);
+			Mockito.when(proveedor.getIfAvailable()).thenReturn(cliente);
+
+			CierreOrdenado cierre = new CierreOrdenado();
+			ReflectionTestUtils.setField(cierre,"eurekaClient",proveedor);
+			ReflectionTestUtils.setField(cierre,"esperaRegistroSegundos",1L);
+			long inicio = System.nanoTime();
+			ReflectionTestUtils.invokeMethod(cierre,"salirDelRegistro");
+			long espera = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+
+			Mockito.verify(instancia).setInstanceStatus(InstanceStatus.DOWN);
+			if(remoto == InstanceStatus.UNKNOWN)
+				Assertions.assertThat(espera).as("instancia no registrada").isLessThan(1000);
+			else
+				Assertions.assertThat(espera).as("instancia registrada").isGreaterThanOrEqualTo(1000);
+		}
+	}
+
+	private static boolean aceptaConexiones(int puerto) {
+		try(Socket socket = new Socket("localhost",puerto)) {
+			return true;
+		}
+		catch(ConnectException e) {
+			return false;
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void esperar(BooleanSupplier condicion) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 10000;
+		while(!condicion.getAsBoolean()) {
+			Assertions.assertThat(System.currentTimeMillis()).as("tiempo de espera agotado").isLessThan(limite);
+			Thread.sleep(20);
+		}
+	}
+
+}
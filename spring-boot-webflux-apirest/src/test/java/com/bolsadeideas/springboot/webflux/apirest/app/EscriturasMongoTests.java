@@ -0,0 +1,63 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.EscriturasMongo;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.TipoEscritura;
+import com.mongodb.WriteConcern;
+
+// Pruebas de los niveles de confirmación(write concern) de cada clase de operación de escritura(véase la clase "EscriturasMongo")
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class EscriturasMongoTests {
+
+	@Autowired
+	private EscriturasMongo escrituras;
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+
+	// Cada clase de operación usa el write concern del archivo "application.properties",tanto en su plantilla como cuando se trabaja directamente con la colección
+	@Test
+	public void writeConcernConfiguradoTest() {
+		Assertions.assertThat(escrituras.writeConcern(TipoEscritura.GUARDADO)).isEqualTo(WriteConcern.MAJORITY);
+		Assertions.assertThat(escrituras.writeConcern(TipoEscritura.IMPORTACION)).isEqualTo(WriteConcern.W1);
+		Assertions.assertThat(escrituras.writeConcern(TipoEscritura.BORRADO)).isEqualTo(WriteConcern.MAJORITY);
+		for(TipoEscritura tipo: TipoEscritura.values())
+			Assertions.assertThat(ReflectionTestUtils.getField(escrituras.plantilla(tipo),"writeConcern")).isEqualTo(escrituras.writeConcern(tipo));
+	}
+
+	// Las plantillas de cada clase de operación comparten la conexión y el conversor con la plantilla por defecto
+	@Test
+	public void plantillaCompartidaTest() {
+		Producto producto = escrituras.plantilla(TipoEscritura.IMPORTACION).insert(new Producto("Perchero importado",25.00)).block();
+
+		Producto leido = mongoTemplate.findById(producto.getId(),Producto.class).block();
+
+		Assertions.assertThat(leido.getNombre()).isEqualTo("Perchero importado");
+		Assertions.assertThat(leido.getPrecio()).isEqualTo(25.00);
+	}
+
+	// Un write concern que no existe en el driver de MongoDB impide arrancar la aplicación en lugar de usar el de la conexión sin avisar
+	@Test
+	public void writeConcernNoValidoTest() {
+		EscriturasMongo configuracion = new EscriturasMongo();
+		ReflectionTestUtils.setField(configuracion,"environment",new MockEnvironment().withProperty(TipoEscritura.GUARDADO.propiedad(),"MAYORIA"));
+
+		Assertions.assertThatThrownBy(configuracion::init)
+				.isInstanceOf(IllegalArgumentException.class)
+				.hasMessageContaining(TipoEscritura.GUARDADO.propiedad());
+	}
+
+}
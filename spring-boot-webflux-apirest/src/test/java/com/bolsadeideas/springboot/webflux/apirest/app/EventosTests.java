@@ -0,0 +1,182 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoProducto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.EventosProductoServiceImpl;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+
+// Pruebas de los cambios de productos en vivo(véanse la clase "EventosProductoServiceImpl" y el método "eventos()" de la clase "ProductoHandler")
+// Las pruebas de los suscriptores lentos crean su propio servicio,como lo haría Spring,con un buffer de 4 eventos.En las pruebas,los latidos se envían cada segundo
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class EventosTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private ProductoService productoService;
+
+	// El cliente recibe un latido en cuanto se suscribe,los productos guardados como eventos "guardado" y,mientras no hay cambios,un latido por segundo
+	// La respuesta se lee como texto porque el lector de Server-Sent Events de Spring descarta los eventos que solo tienen un comentario,como los latidos
+	@Test
+	public void latidosTest() {
+		StringBuffer recibido = new StringBuffer();
+		Disposable suscripcion = client.get().uri("/api/v2/productos/events")
+				.accept(MediaType.TEXT_EVENT_STREAM)
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+				.returnResult(byte[].class)
+				.getResponseBody()
+				.subscribe(bytes -> recibido.append(new String(bytes,StandardCharsets.UTF_8)));
+		try {
+			esperar(() -> latidos(recibido) == 1);
+
+			Producto producto = new Producto("Producto en vivo",12.5,productoService.findAll().blockFirst().getCategoria());
+			producto = productoService.save(producto).block();
+			esperar(() -> recibido.indexOf("event:" + EventoProducto.GUARDADO) >= 0);
+			// Cada evento lleva como id su secuencia,como nombre su tipo y como datos el producto en Json
+			Assertions.assertThat(recibido.toString()).containsPattern("id:[1-9][0-9]*\nevent:" + EventoProducto.GUARDADO + "\ndata:\\{[^\n]*\"id\":\"" + producto.getId() + "\"[^\n]*\"Producto en vivo\"");
+
+			esperar(() -> latidos(recibido) >= 3);
+			productoService.delete(producto).block();
+		}
+		finally {
+			suscripcion.dispose();
+		}
+	}
+
+	// Con la estrategia "descartar-antiguos",un suscriptor que no consume se queda solo con los eventos más recientes y ve el salto en la secuencia.Los demás suscriptores reciben todos los eventos
+	@Test
+	public void descartarAntiguosTest() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		EventosProductoServiceImpl eventos = eventos(registry,"descartar-antiguos");
+		List<EventoProducto> rapido = new CopyOnWriteArrayList<EventoProducto>();
+		Disposable suscripcion = eventos.suscribir().subscribe(rapido::add);
+		Bloqueado lento = new Bloqueado();
+		eventos.suscribir().subscribe(lento);
+
+		publicar(eventos,10);
+
+		Assertions.assertThat(rapido).extracting(EventoProducto::getSecuencia).containsExactly(1L,2L,3L,4L,5L,6L,7L,8L,9L,10L);
+		Assertions.assertThat(registry.get("productos.eventos.descartados").counter().count()).isEqualTo(6.0);
+		lento.request(10);
+		Assertions.assertThat(lento.recibidos).extracting(EventoProducto::getSecuencia).containsExactly(7L,8L,9L,10L);
+		Assertions.assertThat(lento.terminado).isFalse();
+
+		suscripcion.dispose();
+		lento.dispose();
+		Assertions.assertThat(registry.get("productos.eventos.suscriptores").gauge().value()).isEqualTo(0.0);
+	}
+
+	// Con la estrategia "desconectar",el flujo de un suscriptor que no consume termina al llenarse su buffer,sin error,y el resto de suscriptores sigue recibiendo los eventos
+	@Test
+	public void desconectarTest() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		EventosProductoServiceImpl eventos = eventos(registry,"desconectar");
+		List<EventoProducto> rapido = new CopyOnWriteArrayList<EventoProducto>();
+		Disposable suscripcion = eventos.suscribir().subscribe(rapido::add);
+		Bloqueado lento = new Bloqueado();
+		eventos.suscribir().subscribe(lento);
+
+		publicar(eventos,10);
+
+		Assertions.assertThat(lento.terminado).isTrue();
+		Assertions.assertThat(lento.error).isNull();
+		Assertions.assertThat(registry.get("productos.eventos.desconectados").counter().count()).isEqualTo(1.0);
+		Assertions.assertThat(registry.get("productos.eventos.suscriptores").gauge().value()).isEqualTo(1.0);
+
+		publicar(eventos,5);
+		Assertions.assertThat(rapido).hasSize(15);
+		suscripcion.dispose();
+	}
+
+	// Crea el servicio como lo haría Spring,con un buffer de 4 eventos por suscriptor
+	private static EventosProductoServiceImpl eventos(MeterRegistry registry, String desbordamiento) {
+		EventosProductoServiceImpl eventos = new EventosProductoServiceImpl();
+		ReflectionTestUtils.setField(eventos,"registry",registry);
+		ReflectionTestUtils.setField(eventos,"buffer",4);
+		ReflectionTestUtils.setField(eventos,"desbordamiento",desbordamiento);
+		eventos.init();
+		return eventos;
+	}
+
+	private static void publicar(EventosProductoServiceImpl eventos, int cuantos) {
+		Producto producto = new Producto("Producto modelo 123",199.99);
+		producto.setId("5d9f1a2b3c4d5e6f7a8b9c0d");
+		for(int i = 0; i < cuantos; i++)
+			eventos.guardado(producto);
+	}
+
+	private static int latidos(StringBuffer recibido) {
+		return recibido.toString().split(":latido\n",-1).length - 1;
+	}
+
+	private static void esperar(BooleanSupplier condicion) {
+		long limite = System.currentTimeMillis() + 10000;
+		while(!condicion.getAsBoolean()) {
+			Assertions.assertThat(System.currentTimeMillis()).as("tiempo de espera agotado").isLessThan(limite);
+			try {
+				Thread.sleep(20);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// Suscriptor que no pide eventos hasta que la prueba lo indica,como un navegador que no lee de su conexión
+	private static class Bloqueado extends BaseSubscriber<EventoProducto> {
+
+		private final List<EventoProducto> recibidos = new CopyOnWriteArrayList<EventoProducto>();
+
+		private volatile boolean terminado;
+
+		private volatile Throwable error;
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+		}
+
+		@Override
+		protected void hookOnNext(EventoProducto evento) {
+			recibidos.add(evento);
+		}
+
+		@Override
+		protected void hookOnComplete() {
+			terminado = true;
+		}
+
+		@Override
+		protected void hookOnError(Throwable throwable) {
+			error = throwable;
+			terminado = true;
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.StreamUtils;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ExportacionService;
+
+// Pruebas de la exportación del catálogo(véase la clase "ExportacionServiceImpl")
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class ExportacionTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private ExportacionService exportacionService;
+
+	// Si el cliente acepta gzip,la exportación se comprime y al descomprimirla se obtiene el CSV completo
+	@Test
+	public void exportarGzipTest() throws IOException {
+		for(String aceptadas: new String[] {"gzip","deflate, gzip;q=0.5","*"}) {
+			EntityExchangeResult<byte[]> resultado = exportar(aceptadas);
+
+			Assertions.assertThat(resultado.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).as(aceptadas).isEqualTo("gzip");
+			String csv = StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(resultado.getResponseBody())),StandardCharsets.UTF_8);
+			Assertions.assertThat(csv).startsWith("id,nombre,precio,createAt,categoria,foto\n");
+		}
+	}
+
+	// Si el cliente no acepta gzip,o lo rechaza expresamente con una calidad 0,la exportación no se comprime
+	@Test
+	public void exportarSinGzipTest() {
+		for(String aceptadas: new String[] {"identity","gzip;q=0","gzip;q=0, *","*;q=0","br"}) {
+			EntityExchangeResult<byte[]> resultado = exportar(aceptadas);
+
+			Assertions.assertThat(resultado.getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).as(aceptadas).isNull();
+			Assertions.assertThat(new String(resultado.getResponseBody(),StandardCharsets.UTF_8)).as(aceptadas).startsWith("id,nombre,precio,createAt,categoria,foto\n");
+		}
+	}
+
+	// Si el cliente cancela la descarga,se cierra el compresor sin errores y no se escribe el final de la exportación
+	@Test
+	public void cancelarExportacionTest() {
+		Long bloques = exportacionService.exportar(ExportacionService.CSV,true,new DefaultDataBufferFactory())
+				.take(1)
+				.doOnNext(DataBufferUtils::release)
+				.count()
+				.block();
+
+		Assertions.assertThat(bloques).isEqualTo(1L);
+	}
+
+	private EntityExchangeResult<byte[]> exportar(String aceptadas) {
+		return client.get().uri("/api/v2/productos/exportacion?formato=csv")
+		.header(HttpHeaders.ACCEPT_ENCODING,aceptadas)
+		.exchange()
+		.expectStatus().isOk()
+		.expectBody(byte[].class)
+		.returnResult();
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.codec.FormatosBinarios;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.IdempotenciaService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// Pruebas de los formatos binarios CBOR y Smile(véanse las clases "CodecsConfig" y "FormatosBinarios")
+// Los cuerpos se leen y escriben con un ObjectMapper propio de cada formato,como haría un cliente que no usa Spring
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class FormatosTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private ProductoService productoService;
+
+	private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+	private final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+
+	// Un producto pedido en CBOR o Smile,en los dos controladores,se lee con los mismos datos que tiene en la base de datos
+	@Test
+	public void verTest() throws IOException {
+		Producto producto = productoService.findAll().blockFirst();
+
+		Producto leido = cbor.readValue(ver("/api/v2/productos/" + producto.getId(),FormatosBinarios.APPLICATION_CBOR),Producto.class);
+		Assertions.assertThat(leido.getNombre()).isEqualTo(producto.getNombre());
+		Assertions.assertThat(leido.getPrecio()).isEqualTo(producto.getPrecio());
+		Assertions.assertThat(leido.getCategoria().getNombre()).isEqualTo(producto.getCategoria().getNombre());
+
+		leido = smile.readValue(ver("/api/productos/" + producto.getId(),FormatosBinarios.APPLICATION_SMILE),Producto.class);
+		Assertions.assertThat(leido.getNombre()).isEqualTo(producto.getNombre());
+		Assertions.assertThat(leido.getPrecio()).isEqualTo(producto.getPrecio());
+	}
+
+	// El listado en CBOR es un array con todos los productos
+	@Test
+	public void listarTest() throws IOException {
+		List<Producto> productos = cbor.readValue(ver("/api/v2/productos",FormatosBinarios.APPLICATION_CBOR),new TypeReference<List<Producto>>() {});
+
+		Assertions.assertThat(productos).extracting(Producto::getNombre).containsAll(productoService.findAll().map(Producto::getNombre).collectList().block());
+	}
+
+	// Un producto enviado en Smile se guarda y la respuesta,también en Smile,tiene sus datos y su id
+	@Test
+	public void crearSmileTest() throws IOException {
+		Producto producto = new Producto("Altavoz en Smile",49.5,productoService.findAll().blockFirst().getCategoria());
+
+		byte[] cuerpo = client.post().uri("/api/v2/productos")
+		.contentType(FormatosBinarios.APPLICATION_SMILE)
+		.accept(FormatosBinarios.APPLICATION_SMILE)
+		.syncBody(smile.writeValueAsBytes(producto))
+		.exchange()
+		.expectStatus().isCreated()
+		.expectHeader().contentType(FormatosBinarios.APPLICATION_SMILE)
+		.expectBody(byte[].class)
+		.returnResult().getResponseBody();
+
+		Producto creado = smile.readValue(cuerpo,Producto.class);
+		Assertions.assertThat(creado.getId()).isNotNull();
+		Assertions.assertThat(creado.getNombre()).isEqualTo("Altavoz en Smile");
+		Assertions.assertThat(productoService.findById(creado.getId()).block().getPrecio()).isEqualTo(49.5);
+	}
+
+	// Una creación idempotente pedida en CBOR responde en CBOR,en los dos controladores,y su repetición devuelve los mismos bytes con el mismo tipo de contenido
+	@Test
+	public void crearIdempotenteTest() throws IOException {
+		Producto producto = new Producto("Lámpara idempotente en CBOR",35.0,productoService.findAll().blockFirst().getCategoria());
+
+		byte[] cuerpo = crearIdempotente("/api/v2/productos",producto);
+		Producto creado = cbor.readValue(cuerpo,Producto.class);
+		Assertions.assertThat(creado.getId()).isNotNull();
+		Assertions.assertThat(creado.getNombre()).isEqualTo(producto.getNombre());
+
+		cuerpo = crearIdempotente("/api/productos",producto);
+		Map<String,Object> respuesta = cbor.readValue(cuerpo,new TypeReference<Map<String,Object>>() {});
+		Assertions.assertThat(respuesta).containsKeys("producto","mensaje");
+	}
+
+	// Si el cliente no prefiere un formato binario,incluso aunque lo acepte con menos calidad,se sigue respondiendo en Json
+	@Test
+	public void jsonPorDefectoTest() {
+		Producto producto = productoService.findAll().blockFirst();
+		for(String aceptados: new String[] {"*/*","application/json, application/cbor;q=0.5","application/*"})
+			client.get().uri("/api/v2/productos/{id}",producto.getId())
+			.header("Accept",aceptados)
+			.exchange()
+			.expectStatus().isOk()
+			.expectHeader().contentType(MediaType.APPLICATION_JSON_UTF8);
+	}
+
+	// Crea el producto dos veces con la misma clave de idempotencia,pidiendo la respuesta en CBOR,comprueba que la repetición es idéntica a la original y devuelve su cuerpo
+	private byte[] crearIdempotente(String ruta, Producto producto) throws IOException {
+		String clave = UUID.randomUUID().toString();
+		byte[] original = null;
+		for(String repetida: new String[] {"false","true"}) {
+			byte[] cuerpo = client.post().uri(ruta)
+			.contentType(FormatosBinarios.APPLICATION_CBOR)
+			.accept(FormatosBinarios.APPLICATION_CBOR)
+			.header(IdempotenciaService.CABECERA,clave)
+			.syncBody(cbor.writeValueAsBytes(producto))
+			.exchange()
+			.expectStatus().isCreated()
+			.expectHeader().contentType(FormatosBinarios.APPLICATION_CBOR)
+			.expectHeader().valueEquals(IdempotenciaService.CABECERA_REPETIDA,repetida)
+			.expectBody(byte[].class)
+			.returnResult().getResponseBody();
+			if(original == null)
+				original = cuerpo;
+			else
+				Assertions.assertThat(cuerpo).isEqualTo(original);
+		}
+		return original;
+	}
+
+	private byte[] ver(String ruta, MediaType formato) {
+		return client.get().uri(ruta)
+		.accept(formato)
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().contentType(formato)
+		.expectBody(byte[].class)
+		.returnResult().getResponseBody();
+	}
+
+}
@@ -0,0 +1,344 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.FotoAlmacenada;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.AlmacenFotos;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.FotoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Pruebas de la subida de imágenes de productos(véanse las clases "ProductoHandler","FotoServiceImpl" y "LimiteSubidasFilter")
+// Las imágenes se suben al directorio "target/uploads-pruebas" con un tamaño máximo de 64 KB(véase el archivo "application.properties" de las pruebas)
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class FotosTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private AlmacenFotos almacenFotos;
+
+	@Autowired
+	private ProductoService productoService;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private FotoService fotoService;
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+
+	@Value("${config.uploads.path}")
+	private String path;
+
+	@Value("${config.uploads.max-bytes}")
+	private long maxBytes;
+
+	// El formulario se procesa en una sola pasada: los campos que llegan después de la imagen también se asignan al producto,y de varias imágenes solo se usa la primera
+	@Test
+	public void crearConFotoTest() {
+		MultipartBodyBuilder formulario = new MultipartBodyBuilder();
+		formulario.part("nombre","Lámpara con foto");
+		formulario.part("file",imagen("lampara.png",png(Color.RED)));
+		formulario.part("file",imagen("otra.png",png(Color.BLUE)));
+		formulario.part("precio","45.5");
+
+		Producto producto = client.post().uri("/api/v2/productos/v2")
+		.contentType(MediaType.MULTIPART_FORM_DATA)
+		.syncBody(formulario.build())
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody(Producto.class)
+		.returnResult().getResponseBody();
+
+		Assertions.assertThat(producto.getNombre()).isEqualTo("Lámpara con foto");
+		Assertions.assertThat(producto.getPrecio()).isEqualTo(45.5);
+		// El nombre de la imagen es el hash SHA-256 de su contenido y la imagen ya está en el almacén cuando se guarda el producto
+		Assertions.assertThat(producto.getFoto()).matches("[0-9a-f]{64}\\.png");
+		Assertions.assertThat(almacenFotos.existe(producto.getFoto()).block()).isTrue();
+		Assertions.assertThat(temporales()).isZero();
+	}
+
+	// Si falla un campo del formulario,se responde con el estado 400 y se eliminan las imágenes temporales ya recibidas
+	@Test
+	public void campoNoValidoTest() {
+		MultipartBodyBuilder formulario = new MultipartBodyBuilder();
+		formulario.part("file",imagen("lampara.png",png(Color.GREEN)));
+		formulario.part("precio","caro");
+
+		client.post().uri("/api/v2/productos/v2")
+		.contentType(MediaType.MULTIPART_FORM_DATA)
+		.syncBody(formulario.build())
+		.exchange()
+		.expectStatus().isBadRequest();
+
+		Assertions.assertThat(temporales()).isZero();
+	}
+
+	// Un formulario que supera el tamaño máximo se rechaza con el estado 413,tanto si anuncia su tamaño en la cabecera "Content-Length" como si no
+	@Test
+	public void subidaDemasiadoGrandeTest() {
+		MultipartBodyBuilder formulario = new MultipartBodyBuilder();
+		formulario.part("nombre","Lámpara enorme");
+		formulario.part("file",imagen("enorme.png",new byte[(int)maxBytes * 3]));
+
+		client.post().uri("/api/v2/productos/v2")
+		.contentType(MediaType.MULTIPART_FORM_DATA)
+		.syncBody(formulario.build())
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+
+		MultipartBodyBuilder pequeno = new MultipartBodyBuilder();
+		pequeno.part("nombre","Lámpara anunciada");
+		client.post().uri("/api/v2/productos/v2")
+		.contentType(MediaType.MULTIPART_FORM_DATA)
+		.header(HttpHeaders.CONTENT_LENGTH,String.valueOf(maxBytes * 3))
+		.syncBody(pequeno.build())
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+
+		Assertions.assertThat(temporales()).isZero();
+	}
+
+	// Las variantes de la imagen se generan en segundo plano,se guardan en el almacén y se registran en el producto.Las variantes BMP se escriben sin canal alfa,que el escritor BMP de ImageIO no admite
+	@Test
+	public void variantesTest() throws InterruptedException {
+		for(String formato: new String[] {"png","bmp"}) {
+			Producto producto = crearConFoto("Cuadro " + formato,imagen("cuadro." + formato,imagen(100,100,Color.ORANGE,formato)));
+
+			Map<String,String> variantes = esperarVariantes(producto.getId());
+
+			Assertions.assertThat(variantes).as(formato).containsOnlyKeys("miniatura","mediano");
+			// La imagen original es más pequeña que la variante "mediano",así que se usa la propia imagen original
+			Assertions.assertThat(variantes.get("mediano")).isEqualTo(producto.getFoto());
+			Assertions.assertThat(variantes.get("miniatura")).endsWith("-miniatura." + formato);
+			Assertions.assertThat(almacenFotos.existe(variantes.get("miniatura")).block()).as(formato).isTrue();
+		}
+	}
+
+	// Una imagen que supera el número máximo de píxeles se rechaza sin decodificarla y el producto se queda sin variantes,aunque el archivo ocupe muy poco
+	@Test
+	public void variantesDemasiadosPixelesTest() throws InterruptedException {
+		Counter rechazadas = registry.get("productos.fotos.variantes.rechazadas").counter();
+		double antes = rechazadas.count();
+
+		Producto producto = crearConFoto("Mural",imagen("mural.png",imagen(1200,1000,Color.WHITE,"png")));
+
+		long limite = System.currentTimeMillis() + 10000;
+		while(rechazadas.count() == antes && System.currentTimeMillis() < limite)
+			Thread.sleep(50);
+		Assertions.assertThat(rechazadas.count()).isEqualTo(antes + 1);
+		Assertions.assertThat(productoService.findById(producto.getId()).block().getVariantes()).isNull();
+	}
+
+	// Los productos con la misma imagen comparten un único archivo.El archivo solo se elimina en la recolección,cuando ya no lo usa ningún producto
+	@Test
+	public void imagenCompartidaTest() {
+		byte[] contenido = png(Color.MAGENTA);
+		Producto primero = crearConFoto("Jarrón",imagen("jarron.png",contenido));
+		Producto segundo = crearConFoto("Otro jarrón",imagen("otro.png",contenido));
+
+		Assertions.assertThat(segundo.getFoto()).isEqualTo(primero.getFoto());
+		Assertions.assertThat(referencias(primero.getFoto())).isEqualTo(2L);
+
+		// Editar un producto sin cambiar su imagen no cambia el contador
+		productoService.save(productoService.findById(primero.getId()).block()).block();
+		Assertions.assertThat(referencias(primero.getFoto())).isEqualTo(2L);
+
+		productoService.delete(primero).block();
+		fotoService.recolectar().block();
+		Assertions.assertThat(almacenFotos.existe(primero.getFoto()).block()).isTrue();
+
+		productoService.delete(segundo).block();
+		Assertions.assertThat(referencias(primero.getFoto())).isEqualTo(0L);
+		fotoService.recolectar().block();
+		Assertions.assertThat(almacenFotos.existe(primero.getFoto()).block()).isFalse();
+		Assertions.assertThat(mongoTemplate.findById(primero.getFoto(),FotoAlmacenada.class).block()).isNull();
+	}
+
+	// Una subida no reutiliza un archivo que la recolección está eliminando: espera a que termine la eliminación y vuelve a escribir el archivo
+	@Test
+	public void subidaDuranteRecoleccionTest() throws Exception {
+		byte[] contenido = png(Color.CYAN);
+		Producto anterior = crearConFoto("Espejo",imagen("espejo.png",contenido));
+		String foto = anterior.getFoto();
+		productoService.delete(anterior).block();
+		// Simulamos que la recolección ha marcado la imagen y está eliminando su archivo
+		mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(foto)),Update.update("eliminando",true),FotoAlmacenada.class).block();
+
+		CompletableFuture<Producto> subida = CompletableFuture.supplyAsync(() -> crearConFoto("Espejo nuevo",imagen("espejo.png",contenido)));
+		Thread.sleep(500);
+		Assertions.assertThat(subida).isNotDone();
+
+		// La recolección termina de eliminar el archivo y el documento
+		almacenFotos.eliminar(foto).block();
+		mongoTemplate.remove(Query.query(Criteria.where("id").is(foto)),FotoAlmacenada.class).block();
+
+		Producto nuevo = subida.get(10,TimeUnit.SECONDS);
+		Assertions.assertThat(nuevo.getFoto()).isEqualTo(foto);
+		Assertions.assertThat(almacenFotos.existe(foto).block()).isTrue();
+		Assertions.assertThat(referencias(foto)).isEqualTo(1L);
+	}
+
+	// La cabecera "If-None-Match" es una lista de ETags: se responde con el estado 304 solo si alguno coincide exactamente(o de manera débil) con el de la imagen
+	@Test
+	public void ifNoneMatchTest() {
+		Producto producto = crearConFoto("Cuadro",imagen("cuadro.png",png(Color.ORANGE)));
+		String etag = "\"" + producto.getFoto() + "\"";
+
+		for(String valor: new String[] {etag,"\"otro\", " + etag,"W/" + etag,"*"})
+			client.get().uri("/api/v2/productos/fotos/{nombre}",producto.getFoto())
+			.header(HttpHeaders.IF_NONE_MATCH,valor)
+			.exchange()
+			.expectStatus().isNotModified();
+
+		for(String valor: new String[] {"\"otro\"","\"" + producto.getFoto() + "x\"","\"a, " + producto.getFoto() + "\""})
+			client.get().uri("/api/v2/productos/fotos/{nombre}",producto.getFoto())
+			.header(HttpHeaders.IF_NONE_MATCH,valor)
+			.exchange()
+			.expectStatus().isOk();
+	}
+
+	// Con la cabecera "If-Range",el rango solo se aplica si el ETag coincide con el de la imagen actual.Si no coincide,o es una fecha,se devuelve la imagen completa
+	@Test
+	public void ifRangeTest() {
+		byte[] contenido = png(Color.PINK);
+		Producto producto = crearConFoto("Lámpara",imagen("lampara.png",contenido));
+		String etag = "\"" + producto.getFoto() + "\"";
+		byte[] primeros = new byte[10];
+		System.arraycopy(contenido,0,primeros,0,10);
+
+		client.get().uri("/api/v2/productos/{id}/foto",producto.getId())
+		.header(HttpHeaders.RANGE,"bytes=0-9")
+		.header(HttpHeaders.IF_RANGE,etag)
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+		.expectBody(byte[].class).isEqualTo(primeros);
+
+		for(String valor: new String[] {"\"otra-imagen.png\"","W/" + etag,"Wed, 21 Oct 2015 07:28:00 GMT"})
+			client.get().uri("/api/v2/productos/{id}/foto",producto.getId())
+			.header(HttpHeaders.RANGE,"bytes=0-9")
+			.header(HttpHeaders.IF_RANGE,valor)
+			.exchange()
+			.expectStatus().isOk()
+			.expectHeader().doesNotExist(HttpHeaders.CONTENT_RANGE)
+			.expectBody(byte[].class).isEqualTo(contenido);
+	}
+
+	private long referencias(String foto) {
+		return mongoTemplate.findById(foto,FotoAlmacenada.class).block().getReferencias();
+	}
+
+	private Producto crearConFoto(String nombre, ByteArrayResource foto) {
+		MultipartBodyBuilder formulario = new MultipartBodyBuilder();
+		formulario.part("nombre",nombre);
+		formulario.part("precio","10");
+		formulario.part("file",foto);
+
+		return client.post().uri("/api/v2/productos/v2")
+		.contentType(MediaType.MULTIPART_FORM_DATA)
+		.syncBody(formulario.build())
+		.exchange()
+		.expectStatus().isCreated()
+		.expectBody(Producto.class)
+		.returnResult().getResponseBody();
+	}
+
+	// Espera a que el pool de trabajo registre las variantes de la imagen del producto
+	private Map<String,String> esperarVariantes(String id) throws InterruptedException {
+		long limite = System.currentTimeMillis() + 10000;
+		Map<String,String> variantes = productoService.findById(id).block().getVariantes();
+		while(variantes == null && System.currentTimeMillis() < limite) {
+			Thread.sleep(50);
+			variantes = productoService.findById(id).block().getVariantes();
+		}
+		Assertions.assertThat(variantes).as("variantes del producto " + id).isNotNull();
+		return variantes;
+	}
+
+	// Número de archivos en el directorio temporal de subidas
+	private long temporales() {
+		Path directorio = Paths.get(path).resolve(".tmp");
+		if(!Files.isDirectory(directorio))
+			return 0;
+		try(Stream<Path> archivos = Files.list(directorio)) {
+			return archivos.count();
+		}
+		catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// Parte de un formulario con el contenido de una imagen y el nombre del archivo original
+	static ByteArrayResource imagen(String nombre, byte[] contenido) {
+		return new ByteArrayResource(contenido) {
+			@Override
+			public String getFilename() {
+				return nombre;
+			}
+		};
+	}
+
+	// Imagen PNG de 32x32 píxeles de un color
+	static byte[] png(Color color) {
+		return imagen(32,32,color,"png");
+	}
+
+	// Imagen de un color con las dimensiones y el formato indicados
+	static byte[] imagen(int ancho, int alto, Color color, String formato) {
+		BufferedImage imagen = new BufferedImage(ancho,alto,BufferedImage.TYPE_INT_RGB);
+		Graphics2D grafico = imagen.createGraphics();
+		grafico.setColor(color);
+		grafico.fillRect(0,0,ancho,alto);
+		grafico.dispose();
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		try {
+			ImageIO.write(imagen,formato,salida);
+		}
+		catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return salida.toByteArray();
+	}
+
+}
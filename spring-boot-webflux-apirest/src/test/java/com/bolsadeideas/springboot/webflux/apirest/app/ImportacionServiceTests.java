@@ -0,0 +1,122 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoImportacion;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ImportacionService;
+
+import reactor.core.publisher.Flux;
+
+// Pruebas de la importación de productos desde archivos CSV(véase la clase "ImportacionServiceImpl")
+// El archivo se envía al servicio en varios DataBuffer,igual que llega el cuerpo de una petición http
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class ImportacionServiceTests {
+
+	private final DefaultDataBufferFactory buffers = new DefaultDataBufferFactory();
+
+	@Autowired
+	private ImportacionService importacionService;
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+
+	@Value("${config.importacion.max-longitud-fila}")
+	private int maxLongitudFila;
+
+	// Una fila sin saltos de línea que supera la longitud máxima se notifica como error sin guardarla entera en memoria y la importación continúa con la siguiente fila
+	@Test
+	public void filaDemasiadoLargaTest() {
+		StringBuilder larga = new StringBuilder();
+		while(larga.length() <= 4 * maxLongitudFila)
+			larga.append("Mesa demasiado larga ");
+
+		List<EventoImportacion> eventos = importar("nombre,precio,categoria\n",larga.substring(0,larga.length() / 2),larga.substring(larga.length() / 2),",10,Muebles\nMesa corta,10,Muebles\n");
+
+		Assertions.assertThat(errores(eventos)).hasSize(1);
+		Assertions.assertThat(errores(eventos).get(0).getFila()).isEqualTo(2L);
+		Assertions.assertThat(errores(eventos).get(0).getMensaje()).contains("longitud máxima");
+		assertTotales(eventos,2,1,1);
+	}
+
+	// Un archivo sin ningún salto de línea se descarta al superar la longitud máxima de una fila
+	@Test
+	public void archivoSinSaltosDeLineaTest() {
+		char[] contenido = new char[4 * maxLongitudFila + 1];
+		Arrays.fill(contenido,'a');
+
+		List<EventoImportacion> eventos = importar(new String(contenido));
+
+		Assertions.assertThat(errores(eventos)).hasSize(1);
+		Assertions.assertThat(errores(eventos).get(0).getFila()).isEqualTo(1L);
+	}
+
+	// Las líneas pueden terminar en "\r" o en "\r\n",aunque el "\r" y el "\n" lleguen en DataBuffer distintos,y la última línea puede no terminar en un salto de línea
+	@Test
+	public void finesDeLineaTest() {
+		List<EventoImportacion> eventos = importar("nombre,precio,categoria\r","\nMesa CRLF,10,Muebles\r","Silla CR,20,Muebles\r","\"Sofá\rde dos plazas\",30,Muebles");
+
+		Assertions.assertThat(errores(eventos)).isEmpty();
+		assertTotales(eventos,3,3,0);
+		Assertions.assertThat(mongoTemplate.findOne(Query.query(Criteria.where("nombre").is("Sofá\nde dos plazas")),Producto.class).block()).isNotNull();
+	}
+
+	// Si falla la inserción de un producto,el error se notifica en su fila y el resto de productos del lote se insertan
+	@Test
+	public void errorInsercionFilaTest() {
+		// Un índice único sobre el nombre y la fecha de creación nos permite provocar un error al insertar uno de los productos,ya que en esta prueba todos tienen la misma fecha
+		Index unico = new Index().named("importacion_unica_prueba").on("nombre",Sort.Direction.ASC).on("createAt",Sort.Direction.ASC).unique();
+		mongoTemplate.indexOps(Producto.class).ensureIndex(unico).block();
+		try {
+			List<EventoImportacion> eventos = importar("nombre,precio,categoria,createAt\nLámpara única,10,Muebles,2001-01-01\nLámpara única,10,Muebles,2001-01-01\nLámpara distinta,10,Muebles,2001-01-01\n");
+
+			Assertions.assertThat(errores(eventos)).hasSize(1);
+			Assertions.assertThat(errores(eventos).get(0).getFila()).isEqualTo(3L);
+			assertTotales(eventos,3,2,1);
+		}
+		finally {
+			mongoTemplate.remove(Query.query(Criteria.where("nombre").in("Lámpara única","Lámpara distinta")),Producto.class).block();
+			mongoTemplate.indexOps(Producto.class).dropIndex("importacion_unica_prueba").block();
+		}
+	}
+
+	// Envía al servicio cada trozo del archivo en un DataBuffer distinto
+	private List<EventoImportacion> importar(String... trozos) {
+		Flux<DataBuffer> csv = Flux.fromArray(trozos).map(trozo -> buffers.wrap(trozo.getBytes(StandardCharsets.UTF_8)));
+		return importacionService.importar(csv).collectList().block();
+	}
+
+	private List<EventoImportacion> errores(List<EventoImportacion> eventos) {
+		return eventos.stream().filter(evento -> EventoImportacion.ERROR.equals(evento.getTipo())).collect(Collectors.toList());
+	}
+
+	private void assertTotales(List<EventoImportacion> eventos, long leidas, long insertadas, long errores) {
+		EventoImportacion fin = eventos.get(eventos.size() - 1);
+		Assertions.assertThat(fin.getTipo()).isEqualTo(EventoImportacion.FIN);
+		Assertions.assertThat(fin.getLeidas()).isEqualTo(leidas);
+		Assertions.assertThat(fin.getInsertadas()).isEqualTo(insertadas);
+		Assertions.assertThat(fin.getErrores()).isEqualTo(errores);
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.WebFilterChain;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteConcurrencia;
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteConcurrenciaFilter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+// Pruebas del límite de concurrencia adaptativo(véase la clase "LimiteConcurrencia")
+// El límite se crea como lo haría Spring.Para que las pruebas no dependan del tiempo,las ventanas se cierran en cuanto tienen 10 muestras y las latencias se registran directamente con el método "actualizar()"
+public class LimiteConcurrenciaTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	// Con el límite alcanzado,las peticiones nuevas se rechazan al instante con el estado 503 y la cabecera "Retry-After".Al cancelarse las peticiones en curso,se liberan sus huecos
+	@Test
+	public void saturadoTest() {
+		LimiteConcurrencia limite = limite(2);
+		LimiteConcurrenciaFilter filtro = new LimiteConcurrenciaFilter();
+		ReflectionTestUtils.setField(filtro,"limite",limite);
+		// Las consultas a la base de datos que nunca terminan mantienen ocupados los huecos
+		WebFilterChain lenta = exchange -> Mono.never();
+
+		Disposable primera = filtro.filter(peticion(),lenta).subscribe();
+		Disposable segunda = filtro.filter(peticion(),lenta).subscribe();
+		MockServerWebExchange rechazada = peticion();
+		filtro.filter(rechazada,lenta).block();
+
+		Assertions.assertThat(limite.getEnVuelo()).isEqualTo(2);
+		Assertions.assertThat(rechazada.getResponse().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		Assertions.assertThat(rechazada.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+		Assertions.assertThat(registry.get("concurrencia.rechazadas").counter().count()).isEqualTo(1.0);
+
+		primera.dispose();
+		segunda.dispose();
+
+		Assertions.assertThat(limite.getEnVuelo()).isEqualTo(0);
+		MockServerWebExchange atendida = peticion();
+		filtro.filter(atendida,exchange -> exchange.getResponse().setComplete()).block();
+		Assertions.assertThat(atendida.getResponse().getStatusCode()).isNotEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	// Con una mezcla estable de respuestas baratas(304,429 o de caché) y consultas a la base de datos,no hay cola y el límite no baja,aunque la latencia media sea muy superior a la mínima
+	@Test
+	public void latenciasMezcladasTest() {
+		LimiteConcurrencia limite = limite(20);
+
+		for(int ventana = 0; ventana < 200; ventana++)
+			for(int i = 0; i < 10; i++)
+				muestra(limite,i % 2 == 0 ? 200 : 20_000);
+
+		Assertions.assertThat(limite.getLimite()).isGreaterThanOrEqualTo(20.0);
+	}
+
+	// Si la latencia de la misma mezcla de rutas se multiplica de golpe,las peticiones se están encolando y el límite baja.Cuando la latencia se recupera,el límite vuelve a subir
+	@Test
+	public void latenciaCreceTest() {
+		LimiteConcurrencia limite = limite(100);
+		for(int ventana = 0; ventana < 50; ventana++)
+			for(int i = 0; i < 10; i++)
+				muestra(limite,i % 2 == 0 ? 200 : 10_000);
+		double estable = limite.getLimite();
+
+		for(int ventana = 0; ventana < 10; ventana++)
+			for(int i = 0; i < 10; i++)
+				muestra(limite,i % 2 == 0 ? 800 : 40_000);
+		double saturado = limite.getLimite();
+		Assertions.assertThat(saturado).isLessThan(estable * 0.6);
+
+		for(int ventana = 0; ventana < 50; ventana++)
+			for(int i = 0; i < 10; i++)
+				muestra(limite,i % 2 == 0 ? 200 : 10_000);
+		Assertions.assertThat(limite.getLimite()).isGreaterThan(saturado);
+	}
+
+	// Crea el límite como lo haría Spring,con los valores por defecto salvo el límite inicial y la duración de las ventanas
+	private LimiteConcurrencia limite(int inicial) {
+		LimiteConcurrencia limite = new LimiteConcurrencia();
+		ReflectionTestUtils.setField(limite,"registry",registry);
+		ReflectionTestUtils.setField(limite,"habilitado",true);
+		ReflectionTestUtils.setField(limite,"inicial",inicial);
+		ReflectionTestUtils.setField(limite,"minimo",1);
+		ReflectionTestUtils.setField(limite,"maximo",500);
+		ReflectionTestUtils.setField(limite,"tolerancia",1.5);
+		ReflectionTestUtils.setField(limite,"suavizado",0.2);
+		ReflectionTestUtils.setField(limite,"ventanaMs",0L);
+		ReflectionTestUtils.setField(limite,"muestrasVentana",10);
+		ReflectionTestUtils.setField(limite,"ventanasLargoPlazo",50);
+		limite.init();
+		return limite;
+	}
+
+	// Registra la latencia,en microsegundos,de una petición que se ha atendido con el límite lleno
+	private void muestra(LimiteConcurrencia limite, long microsegundos) {
+		ReflectionTestUtils.invokeMethod(limite,"actualizar",TimeUnit.MICROSECONDS.toNanos(microsegundos),(int)limite.getLimite());
+	}
+
+	private MockServerWebExchange peticion() {
+		return MockServerWebExchange.from(MockServerHttpRequest.get("/api/productos"));
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.WebFilterChain;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteTasaFilter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+// Pruebas del límite de tasa por cliente(véase la clase "LimiteTasaFilter")
+// El filtro se crea como lo haría Spring,pero con una ráfaga de 3 peticiones y una tasa tan baja que el cubo no se rellena durante la prueba
+public class LimiteTasaTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final LimiteTasaFilter filtro = new LimiteTasaFilter();
+
+	// Peticiones que han pasado el filtro
+	private final AtomicInteger aceptadas = new AtomicInteger();
+
+	private final WebFilterChain cadena = exchange -> Mono.fromRunnable(aceptadas::incrementAndGet);
+
+	public LimiteTasaTests() {
+		ReflectionTestUtils.setField(filtro,"registry",registry);
+		ReflectionTestUtils.setField(filtro,"habilitado",true);
+		for(String grupo: new String[] {"lecturas","escrituras","subidas"}) {
+			ReflectionTestUtils.setField(filtro,grupo + "PorSegundo",0.001);
+			ReflectionTestUtils.setField(filtro,grupo + "Rafaga",3);
+		}
+		ReflectionTestUtils.setField(filtro,"maxClientes",5);
+		ReflectionTestUtils.setField(filtro,"limpiezaSegundos",60L);
+		ReflectionTestUtils.setField(filtro,"clavesApi",new String[] {"clave-buena"," otra-clave "});
+		filtro.init();
+	}
+
+	@After
+	public void cerrar() {
+		filtro.cerrar();
+	}
+
+	// Tras la ráfaga,el cliente recibe el estado 429 con la cabecera "Retry-After",mientras que otro cliente sigue teniendo su propia ráfaga
+	@Test
+	public void rafagaTest() {
+		for(int i = 0; i < 3; i++)
+			Assertions.assertThat(peticion("10.0.0.1",null).getResponse().getStatusCode()).isNull();
+
+		MockServerWebExchange rechazada = peticion("10.0.0.1",null);
+		Assertions.assertThat(rechazada.getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		Assertions.assertThat(Long.parseLong(rechazada.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER))).isGreaterThanOrEqualTo(1L);
+		Assertions.assertThat(registry.get("limite.tasa.rechazadas").tag("grupo","lecturas").counter().count()).isEqualTo(1.0);
+
+		Assertions.assertThat(peticion("10.0.0.2",null).getResponse().getStatusCode()).isNull();
+		Assertions.assertThat(aceptadas.get()).isEqualTo(4);
+	}
+
+	// Una clave de Api que no está configurada no identifica al cliente: enviar una clave distinta en cada petición no evita el límite de la dirección IP ni crea cubos nuevos
+	@Test
+	public void clavesNoConfiguradasTest() {
+		for(int i = 0; i < 3; i++)
+			Assertions.assertThat(peticion("10.0.0.3",UUID.randomUUID().toString()).getResponse().getStatusCode()).isNull();
+
+		Assertions.assertThat(peticion("10.0.0.3",UUID.randomUUID().toString()).getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+		Assertions.assertThat(clientes()).isEqualTo(1.0);
+
+		// Las claves configuradas sí tienen su propio cubo,aunque la dirección IP haya agotado el suyo
+		Assertions.assertThat(peticion("10.0.0.3","clave-buena").getResponse().getStatusCode()).isNull();
+		Assertions.assertThat(peticion("10.0.0.3","otra-clave").getResponse().getStatusCode()).isNull();
+		Assertions.assertThat(clientes()).isEqualTo(3.0);
+	}
+
+	// Al alcanzar el máximo de clientes,los nuevos comparten un cubo común en lugar de crear más cubos
+	@Test
+	public void memoriaAcotadaTest() {
+		for(int i = 0; i < 10; i++)
+			peticion("10.0.1." + i,null);
+
+		Assertions.assertThat(clientes()).isEqualTo(5.0);
+		// El cubo común tiene una ráfaga de 3 peticiones para todos los clientes nuevos
+		Assertions.assertThat(aceptadas.get()).isEqualTo(8);
+	}
+
+	private MockServerWebExchange peticion(String ip, String clave) {
+		MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/api/v2/productos")
+				.remoteAddress(new InetSocketAddress(ip,40000));
+		if(clave != null)
+			request.header(LimiteTasaFilter.CABECERA_CLAVE,clave);
+		MockServerWebExchange exchange = MockServerWebExchange.from(request);
+		filtro.filter(exchange,cadena).block();
+		return exchange;
+	}
+
+	private double clientes() {
+		return registry.get("limite.tasa.clientes").tag("grupo","lecturas").gauge().value();
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.function.BooleanSupplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+// Pruebas de las métricas por ruta(véanse las clases "MetricasRutas" y "MetricasRutasFilter")
+// Las demás clases de pruebas comparten el contexto de Spring y también registran peticiones,así que se comprueba cuánto cambia cada métrica y no su valor total
+// Cada petición se registra al terminar de escribir su respuesta,que puede ser justo después de que la reciba el cliente,por eso se espera a que cambie cada métrica
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class MetricasRutasTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private ProductoService productoService;
+
+	@Value("${config.uploads.max-bytes}")
+	private long maxBytes;
+
+	// Las peticiones de los Functional Endpoints se etiquetan con la plantilla de la ruta,no con la ruta real,y con el estado que se envía.Se cuentan también los bytes de la respuesta
+	@Test
+	public void functionalEndpointsTest() {
+		String ruta = "/api/v2/productos/{id}";
+		Producto producto = productoService.findAll().blockFirst();
+		long ok = peticiones("GET",ruta,"200");
+		long noEncontrado = peticiones("GET",ruta,"404");
+		double bytes = bytesRespuesta("GET",ruta);
+
+		byte[] cuerpo = client.get().uri("/api/v2/productos/{id}",producto.getId())
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody().returnResult().getResponseBody();
+		client.get().uri("/api/v2/productos/{id}","id-que-no-existe")
+				.exchange()
+				.expectStatus().isNotFound();
+
+		esperar(() -> peticiones("GET",ruta,"200") == ok + 1 && peticiones("GET",ruta,"404") == noEncontrado + 1);
+		Assertions.assertThat(bytesRespuesta("GET",ruta) - bytes).isEqualTo(cuerpo.length);
+		Assertions.assertThat(registry.find("api.peticiones").tag("ruta","/api/v2/productos/" + producto.getId()).timers()).isEmpty();
+		Assertions.assertThat(enCurso("GET",ruta)).isEqualTo(0.0);
+	}
+
+	// Las peticiones del controlador anotado se etiquetan igual,con la plantilla del método del controlador que las atiende
+	@Test
+	public void controladorAnotadoTest() {
+		String ruta = "/api/productos/{id}";
+		Producto producto = productoService.findAll().blockFirst();
+		long ok = peticiones("GET",ruta,"200");
+		long noEncontrado = peticiones("GET",ruta,"404");
+
+		client.get().uri("/api/productos/{id}",producto.getId())
+		.exchange()
+		.expectStatus().isOk();
+		client.get().uri("/api/productos/{id}","id-que-no-existe")
+		.exchange()
+		.expectStatus().isNotFound();
+
+		esperar(() -> peticiones("GET",ruta,"200") == ok + 1 && peticiones("GET",ruta,"404") == noEncontrado + 1);
+		Assertions.assertThat(enCurso("GET",ruta)).isEqualTo(0.0);
+	}
+
+	// Si la petición falla y otro componente convierte el error en respuesta,se registra el estado de esa respuesta y no un 500
+	// En los Functional Endpoints,el 413 de la clase "LimiteSubidasFilter" al cortar una subida "chunked" demasiado grande.En el controlador anotado,el estado con el que responda el manejador de errores de Spring
+	@Test
+	public void estadoDelErrorTest() {
+		Assertions.assertThat(subidaDemasiadoGrande("/api/v2/productos/v2")).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE);
+		Assertions.assertThat(subidaDemasiadoGrande("/api/productos/v2").is4xxClientError()).isTrue();
+	}
+
+	// Sube una imagen demasiado grande a la ruta,comprueba que se registra con el estado de la respuesta y devuelve ese estado
+	private HttpStatus subidaDemasiadoGrande(String ruta) {
+		long total = peticiones("POST",ruta);
+		long fallidas = peticiones("POST",ruta,"500");
+
+		MultipartBodyBuilder formulario = new MultipartBodyBuilder();
+		formulario.part("nombre","Lámpara enorme");
+		formulario.part("file",FotosTests.imagen("enorme.png",new byte[(int)maxBytes * 3]));
+		HttpStatus estado = client.post().uri(ruta)
+				.contentType(MediaType.MULTIPART_FORM_DATA)
+				.syncBody(formulario.build())
+				.exchange()
+				.expectBody().returnResult().getStatus();
+
+		esperar(() -> peticiones("POST",ruta) == total + 1);
+		Assertions.assertThat(peticiones("POST",ruta,String.valueOf(estado.value()))).as(ruta).isPositive();
+		Assertions.assertThat(peticiones("POST",ruta,"500")).as(ruta).isEqualTo(fallidas);
+		Assertions.assertThat(enCurso("POST",ruta)).as(ruta).isEqualTo(0.0);
+		return estado;
+	}
+
+	private long peticiones(String metodo, String ruta, String estado) {
+		Timer timer = registry.find("api.peticiones").tags("metodo",metodo,"ruta",ruta,"estado",estado).timer();
+		return timer != null ? timer.count() : 0;
+	}
+
+	// Peticiones de la ruta con cualquier estado
+	private long peticiones(String metodo, String ruta) {
+		return registry.find("api.peticiones").tags("metodo",metodo,"ruta",ruta).timers().stream().mapToLong(Timer::count).sum();
+	}
+
+	private double bytesRespuesta(String metodo, String ruta) {
+		DistributionSummary bytes = registry.find("api.respuestas.bytes").tags("metodo",metodo,"ruta",ruta).summary();
+		return bytes != null ? bytes.totalAmount() : 0;
+	}
+
+	private double enCurso(String metodo, String ruta) {
+		Gauge gauge = registry.find("api.peticiones.en.curso").tags("metodo",metodo,"ruta",ruta).gauge();
+		return gauge != null ? gauge.value() : 0;
+	}
+
+	private static void esperar(BooleanSupplier condicion) {
+		long limite = System.currentTimeMillis() + 10000;
+		while(!condicion.getAsBoolean()) {
+			Assertions.assertThat(System.currentTimeMillis()).as("tiempo de espera agotado").isLessThan(limite);
+			try {
+				Thread.sleep(20);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
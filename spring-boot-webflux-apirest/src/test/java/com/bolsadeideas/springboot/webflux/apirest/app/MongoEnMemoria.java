@@ -0,0 +1,34 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+
+// Inicializador que arranca un servidor MongoDB en memoria(véase la dependencia "mongo-java-server" del pom.xml) y apunta a él la conexión de la aplicación en todas las pruebas,de manera que no hace falta tener MongoDB instalado para ejecutarlas
+// Spring Boot lo aplica a todos los contextos de las pruebas porque está registrado en el archivo "META-INF/spring.factories" de los recursos de pruebas
+// Se arranca un único servidor para todas las pruebas.No se detiene explícitamente para que siga disponible durante el cierre ordenado de los contextos,que todavía escribe en la base de datos;se detiene con la JVM
+public class MongoEnMemoria implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+	private static MongoServer servidor;
+
+	@Override
+	public void initialize(ConfigurableApplicationContext context) {
+		Map<String,Object> propiedades = new HashMap<String,Object>();
+		propiedades.put("spring.data.mongodb.uri","mongodb://localhost:" + puerto() + "/spring_boot");
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("mongoEnMemoria",propiedades));
+	}
+
+	private static synchronized int puerto() {
+		if(servidor == null) {
+			servidor = new MongoServer(new MemoryBackend());
+			servidor.bind("localhost",0);
+		}
+		return servidor.getLocalAddress().getPort();
+	}
+}
@@ -0,0 +1,179 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.assertj.core.api.Assertions;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.HistorialPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ActualizacionPrecio;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.PrecioService;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+import reactor.core.publisher.Flux;
+
+// Pruebas del buffer de escritura diferida de los precios(véase la clase "PrecioServiceImpl")
+// Durante las pruebas el buffer no se vuelca periódicamente(véase el archivo "config/application.properties" de las pruebas),por eso cada prueba lo vuelca explícitamente con el método "volcar()"
+@RunWith(SpringRunner.class)
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+public class PrecioServiceTests {
+
+	@Autowired
+	private WebTestClient client;
+
+	@Autowired
+	private PrecioService precioService;
+
+	@Autowired
+	private ProductoService productoService;
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+
+	// Varias actualizaciones del mismo producto se agrupan en una sola escritura con el último precio
+	@Test
+	public void agruparActualizacionesTest() {
+		Producto producto = productoService.save(new Producto("Lámpara de precios",10.00)).block();
+
+		Long aceptadas = precioService.actualizar(Flux.just(
+				new ActualizacionPrecio(producto.getId(),11.00),
+				new ActualizacionPrecio(producto.getId(),12.00),
+				new ActualizacionPrecio(producto.getId(),13.00))).block();
+		Integer escritos = precioService.volcar().block();
+
+		Assertions.assertThat(aceptadas).isEqualTo(3L);
+		Assertions.assertThat(escritos).isEqualTo(1);
+		Assertions.assertThat(productoService.findById(producto.getId()).block().getPrecio()).isEqualTo(13.00);
+		// Una vez volcado,el buffer queda vacío y el siguiente volcado no escribe nada
+		Assertions.assertThat(precioService.volcar().block()).isEqualTo(0);
+	}
+
+	// Las actualizaciones de productos que no existen o están eliminados no se acumulan en el buffer
+	@Test
+	public void descartarProductoDesconocidoTest() {
+		Producto eliminado = new Producto("Lámpara eliminada",10.00);
+		eliminado.setDeletedAt(new Date());
+		eliminado = productoService.save(eliminado).block();
+
+		Long aceptadas = precioService.actualizar(Flux.just(
+				new ActualizacionPrecio(new ObjectId().toHexString(),11.00),
+				new ActualizacionPrecio(eliminado.getId(),12.00))).block();
+
+		Assertions.assertThat(aceptadas).isEqualTo(0L);
+		Assertions.assertThat(precioService.volcar().block()).isEqualTo(0);
+	}
+
+	// Un producto ya comprobado no se vuelve a consultar en cada actualización.Si desaparece entre medias,el volcado descarta su actualización y lo olvida,así que la siguiente se rechaza
+	@Test
+	public void productoConocidoTest() {
+		Producto producto = productoService.save(new Producto("Lámpara conocida",10.00)).block();
+		Assertions.assertThat(precioService.actualizar(new ActualizacionPrecio(producto.getId(),11.00)).block()).isTrue();
+
+		// Eliminamos el producto directamente de la base de datos,sin pasar por el servicio de productos
+		mongoTemplate.remove(Query.query(Criteria.where("id").is(producto.getId())),Producto.class).block();
+
+		Assertions.assertThat(precioService.actualizar(new ActualizacionPrecio(producto.getId(),12.00)).block()).isTrue();
+		Assertions.assertThat(precioService.volcar().block()).isEqualTo(0);
+		Assertions.assertThat(precioService.actualizar(new ActualizacionPrecio(producto.getId(),13.00)).block()).isFalse();
+	}
+
+	// La actualización del precio de un producto que no existe responde con el estado NOT_FOUND(404)
+	@Test
+	public void actualizarPrecioProductoDesconocidoTest() {
+		client.put().uri("/api/v2/productos/{id}/precio",new ObjectId().toHexString())
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.syncBody(Collections.singletonMap("precio",11.00))
+		.exchange()
+		.expectStatus().isNotFound();
+	}
+
+	// El lote de actualizaciones informa de cuántas se han aceptado,cuántas no son válidas y cuántas son de productos desconocidos
+	@Test
+	public void actualizarPreciosLoteTest() {
+		Producto producto = productoService.save(new Producto("Lámpara de lote",10.00)).block();
+
+		Map<String,Object> respuesta = client.post().uri("/api/v2/productos/precios")
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.syncBody(new ActualizacionPrecio[] {
+				new ActualizacionPrecio(producto.getId(),20.00),
+				new ActualizacionPrecio(new ObjectId().toHexString(),21.00),
+				new ActualizacionPrecio(producto.getId(),-1.00)})
+		.exchange()
+		.expectStatus().isAccepted()
+		.expectBody(new ParameterizedTypeReference<Map<String,Object>>() {})
+		.returnResult().getResponseBody();
+
+		Assertions.assertThat(respuesta).containsEntry("aceptadas",1).containsEntry("rechazadas",1).containsEntry("desconocidas",1);
+		precioService.volcar().block();
+		Assertions.assertThat(productoService.findById(producto.getId()).block().getPrecio()).isEqualTo(20.00);
+	}
+
+	// Solo se registran en el historial los precios que de verdad cambian.El alta del producto ya registra su primer precio
+	@Test
+	public void historialSoloCambiosTest() {
+		Producto cambia = productoService.save(new Producto("Lámpara que cambia",10.00)).block();
+		Producto igual = productoService.save(new Producto("Lámpara que no cambia",10.00)).block();
+
+		precioService.actualizar(Flux.just(
+				new ActualizacionPrecio(cambia.getId(),15.00),
+				new ActualizacionPrecio(igual.getId(),10.00))).block();
+
+		Assertions.assertThat(precioService.volcar().block()).isEqualTo(1);
+		Assertions.assertThat(historial(cambia.getId())).containsExactly(10.00,15.00);
+		Assertions.assertThat(historial(igual.getId())).containsExactly(10.00);
+		Assertions.assertThat(precioService.volcar().block()).isEqualTo(0);
+	}
+
+	// Si el producto se elimina después de aceptar la actualización,el volcado la descarta sin escribir el precio ni registrarlo en el historial
+	@Test
+	public void historialProductoEliminadoTest() {
+		Producto producto = productoService.save(new Producto("Lámpara que se elimina",10.00)).block();
+
+		precioService.actualizar(new ActualizacionPrecio(producto.getId(),15.00)).block();
+		productoService.delete(producto).block();
+
+		Assertions.assertThat(precioService.volcar().block()).isEqualTo(0);
+		Assertions.assertThat(historial(producto.getId())).containsExactly(10.00);
+	}
+
+	// Guardar un producto existente solo registra su precio en el historial si ha cambiado
+	@Test
+	public void guardarRegistraHistorialTest() {
+		Producto producto = productoService.save(new Producto("Lámpara guardada",10.00)).block();
+
+		producto.setNombre("Lámpara guardada de nuevo");
+		productoService.save(producto).block();
+		producto.setPrecio(12.00);
+		productoService.save(producto).block();
+
+		Assertions.assertThat(historial(producto.getId())).containsExactly(10.00,12.00);
+		Assertions.assertThat(productoService.findById(producto.getId()).block().getNombre()).isEqualTo("Lámpara guardada de nuevo");
+	}
+
+	// Precios registrados en el historial de un producto,ordenados por fecha
+	private List<Double> historial(String productoId) {
+		return mongoTemplate.find(Query.query(Criteria.where("productoId").is(productoId)).with(Sort.by("ts")),HistorialPrecio.class)
+				.map(HistorialPrecio::getPrecio)
+				.collectList()
+				.block();
+	}
+
+}
@@ -0,0 +1,296 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteConcurrencia;
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteTasaFilter;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ResultadoGuardado;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.ProductoRSocket;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.RutasRSocket;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.ServidorRSocket;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBufInputStream;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.RejectedException;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Pruebas de las operaciones de productos por RSocket(véanse las clases "ProductoRSocket" y "ServidorRSocket")
+// El servidor RSocket escucha en un puerto libre y se crea como lo haría Spring,pero con la capa Servicio simulada y con límites bajos: una ráfaga de 5 peticiones por cliente y 2 peticiones simultáneas
+// El cliente se conecta como el cliente web(véase la clase "ProductoRSocketServiceImpl" del cliente): la ruta viaja en los metadatos y los productos en Json
+public class RSocketTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final ProductoService productoService = mock(ProductoService.class);
+
+	// Productos que la capa Servicio simulada ha generado en el flujo "listar"
+	private final AtomicLong generados = new AtomicLong();
+
+	private LimiteTasaFilter limiteTasa;
+
+	private LimiteConcurrencia limiteConcurrencia;
+
+	private ProductoRSocket productoRSocket;
+
+	private ServidorRSocket servidor;
+
+	private RSocket rsocket;
+
+	@Before
+	public void arrancar() {
+		Producto producto = new Producto("Producto modelo 123",199.99,categoria());
+		producto.setId("5d9f1a2b3c4d5e6f7a8b9c0d");
+		producto.setCreateAt(new Date());
+		when(productoService.findById(anyString())).thenAnswer(invocacion -> Mono.just(producto));
+		// Una consulta que no termina nunca,para mantener ocupados los huecos del límite de concurrencia
+		when(productoService.findById(eq("lento"))).thenAnswer(invocacion -> Mono.never());
+		when(productoService.findAll()).thenAnswer(invocacion -> Flux.range(0,100000).map(i -> producto).doOnNext(p -> generados.incrementAndGet()));
+		when(productoService.save(any(Producto.class))).thenAnswer(invocacion -> {
+			Producto guardado = invocacion.getArgument(0);
+			guardado.setId("5d9f1a2b3c4d5e6f7a8b9c0d");
+			return Mono.just(guardado);
+		});
+
+		limiteTasa = new LimiteTasaFilter();
+		ReflectionTestUtils.setField(limiteTasa,"registry",registry);
+		ReflectionTestUtils.setField(limiteTasa,"habilitado",true);
+		for(String grupo: new String[] {"lecturas","escrituras","subidas"}) {
+			ReflectionTestUtils.setField(limiteTasa,grupo + "PorSegundo",0.001);
+			ReflectionTestUtils.setField(limiteTasa,grupo + "Rafaga",5);
+		}
+		ReflectionTestUtils.setField(limiteTasa,"maxClientes",100);
+		ReflectionTestUtils.setField(limiteTasa,"limpiezaSegundos",60L);
+		ReflectionTestUtils.setField(limiteTasa,"clavesApi",new String[0]);
+		limiteTasa.init();
+
+		limiteConcurrencia = new LimiteConcurrencia();
+		ReflectionTestUtils.setField(limiteConcurrencia,"registry",registry);
+		ReflectionTestUtils.setField(limiteConcurrencia,"habilitado",true);
+		ReflectionTestUtils.setField(limiteConcurrencia,"inicial",2);
+		ReflectionTestUtils.setField(limiteConcurrencia,"minimo",2);
+		ReflectionTestUtils.setField(limiteConcurrencia,"maximo",2);
+		ReflectionTestUtils.setField(limiteConcurrencia,"tolerancia",1.5);
+		ReflectionTestUtils.setField(limiteConcurrencia,"suavizado",0.2);
+		ReflectionTestUtils.setField(limiteConcurrencia,"ventanaMs",100L);
+		ReflectionTestUtils.setField(limiteConcurrencia,"muestrasVentana",10);
+		ReflectionTestUtils.setField(limiteConcurrencia,"ventanasLargoPlazo",50);
+		limiteConcurrencia.init();
+
+		LocalValidatorFactoryBean validator = new LocalValidatorFactoryBean();
+		validator.afterPropertiesSet();
+		productoRSocket = new ProductoRSocket();
+		ReflectionTestUtils.setField(productoRSocket,"productoService",productoService);
+		ReflectionTestUtils.setField(productoRSocket,"objectMapper",objectMapper);
+		ReflectionTestUtils.setField(productoRSocket,"validator",validator);
+		ReflectionTestUtils.setField(productoRSocket,"registry",registry);
+		ReflectionTestUtils.setField(productoRSocket,"limiteTasa",limiteTasa);
+		ReflectionTestUtils.setField(productoRSocket,"limiteConcurrencia",limiteConcurrencia);
+		ReflectionTestUtils.setField(productoRSocket,"concurrenciaGuardado",16);
+		productoRSocket.init();
+
+		servidor = new ServidorRSocket();
+		ReflectionTestUtils.setField(servidor,"productoRSocket",productoRSocket);
+		ReflectionTestUtils.setField(servidor,"registry",registry);
+		ReflectionTestUtils.setField(servidor,"habilitado",true);
+		ReflectionTestUtils.setField(servidor,"puerto",0);
+		servidor.start();
+
+		rsocket = RSocketFactory.connect()
+				.metadataMimeType(RutasRSocket.TIPO_METADATOS)
+				.dataMimeType(RutasRSocket.TIPO_DATOS)
+				.transport(TcpClientTransport.create("127.0.0.1",servidor.getPuerto()))
+				.start()
+				.block();
+	}
+
+	@After
+	public void detener() {
+		rsocket.dispose();
+		servidor.stop();
+		limiteTasa.cerrar();
+	}
+
+	// Las tres operaciones responden con los productos en Json.En el guardado masivo,un producto no válido se devuelve con su error y no interrumpe el resto
+	@Test
+	public void operacionesTest() {
+		Assertions.assertThat(ver("5d9f1a2b3c4d5e6f7a8b9c0d").block().getNombre()).isEqualTo("Producto modelo 123");
+
+		Assertions.assertThat(listar().limitRate(3).take(3).collectList().block()).extracting(Producto::getNombre).containsOnly("Producto modelo 123");
+
+		List<ResultadoGuardado> resultados = guardar(new Producto("Nuevo",10.0,categoria()),new Producto("",10.0,categoria())).collectList().block();
+		Assertions.assertThat(resultados).hasSize(2);
+		Assertions.assertThat(resultados.get(0).getId()).isEqualTo("5d9f1a2b3c4d5e6f7a8b9c0d");
+		Assertions.assertThat(resultados.get(1).getId()).isNull();
+		Assertions.assertThat(resultados.get(1).getError()).contains("nombre");
+	}
+
+	// Un canal con una ruta desconocida termina con un error y el servidor libera el primer payload,que es el único que llega a leer
+	@Test
+	public void rutaDesconocidaTest() {
+		Flux<Payload> canal = rsocket.requestChannel(Flux.just(DefaultPayload.create(escribir(new Producto("Nuevo",10.0,null)),RutasRSocket.metadatos("productos.borrar"))));
+		Assertions.assertThatThrownBy(() -> canal.blockLast(Duration.ofSeconds(5))).hasMessageContaining("Ruta RSocket desconocida: productos.borrar");
+
+		Payload primero = ByteBufPayload.create(escribir(new Producto("Nuevo",10.0,null)),RutasRSocket.metadatos("productos.borrar"));
+		Payload segundo = ByteBufPayload.create(escribir(new Producto("Otro",10.0,null)));
+		Flux<Payload> local = productoRSocket.conexion(null).requestChannel(Flux.just(primero,segundo));
+		Assertions.assertThatThrownBy(() -> local.blockLast(Duration.ofSeconds(5))).hasMessageContaining("Ruta RSocket desconocida");
+		Assertions.assertThat(primero.refCnt()).isEqualTo(0);
+	}
+
+	// Tras la ráfaga de lecturas,las peticiones del cliente se rechazan con un error que se puede reintentar.En el guardado masivo,los productos que superan la ráfaga de escrituras se devuelven con su error
+	// Las peticiones RSocket consumen los mismos cubos que las peticiones http de la misma dirección IP
+	@Test
+	public void limiteTasaTest() throws Exception {
+		for(int i = 0; i < 4; i++)
+			ver("5d9f1a2b3c4d5e6f7a8b9c0d").block();
+		listar().limitRate(1).take(1).blockLast();
+
+		Assertions.assertThatThrownBy(() -> ver("5d9f1a2b3c4d5e6f7a8b9c0d").block()).isInstanceOf(RejectedException.class).hasMessageContaining("Límite de tasa superado");
+		Assertions.assertThatThrownBy(() -> listar().blockLast()).isInstanceOf(RejectedException.class);
+		Assertions.assertThat(registry.get("limite.tasa.rechazadas").tag("grupo","lecturas").counter().count()).isEqualTo(2.0);
+		Assertions.assertThat(limiteTasa.consumirRSocket(InetAddress.getByName("127.0.0.1"),false)).isGreaterThan(0L);
+
+		Producto[] productos = new Producto[7];
+		for(int i = 0; i < productos.length; i++)
+			productos[i] = new Producto("Producto " + i,10.0,categoria());
+		List<ResultadoGuardado> resultados = guardar(productos).collectList().block();
+		Assertions.assertThat(resultados).filteredOn(resultado -> resultado.getId() != null).hasSize(5);
+		Assertions.assertThat(resultados).filteredOn(resultado -> resultado.getError() != null).hasSize(2)
+			.allMatch(resultado -> resultado.getError().startsWith("Límite de tasa superado"));
+	}
+
+	// Con el límite de concurrencia alcanzado,las peticiones nuevas se rechazan al instante.Al cancelarse las peticiones en curso,se liberan sus huecos
+	@Test
+	public void limiteConcurrenciaTest() {
+		Disposable primera = ver("lento").subscribe();
+		Disposable segunda = ver("lento").subscribe();
+		esperar(() -> limiteConcurrencia.getEnVuelo() == 2);
+
+		Assertions.assertThatThrownBy(() -> ver("5d9f1a2b3c4d5e6f7a8b9c0d").block()).isInstanceOf(RejectedException.class).hasMessageContaining("saturado");
+		Assertions.assertThat(productoRSocket.getEnCurso()).isEqualTo(2);
+
+		primera.dispose();
+		segunda.dispose();
+		esperar(() -> limiteConcurrencia.getEnVuelo() == 0 && productoRSocket.getEnCurso() == 0);
+		Assertions.assertThat(ver("5d9f1a2b3c4d5e6f7a8b9c0d").block()).isNotNull();
+	}
+
+	// Un consumidor lento que pide los productos de 32 en 32 recibe sus productos sin que el servidor vaya muy por delante: la demanda del cliente llega hasta la capa Servicio en lugar de acumular productos en memoria
+	@Test
+	public void contrapresionTest() {
+		AtomicLong consumidos = new AtomicLong();
+		AtomicLong adelanto = new AtomicLong();
+		listar()
+			.limitRate(32)
+			.take(500)
+			.doOnNext(producto -> {
+				adelanto.accumulateAndGet(generados.get() - consumidos.incrementAndGet(),Math::max);
+				try {
+					Thread.sleep(1);
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			})
+			.blockLast(Duration.ofSeconds(30));
+
+		Assertions.assertThat(consumidos.get()).isEqualTo(500);
+		Assertions.assertThat(adelanto.get()).isLessThan(512);
+		Assertions.assertThat(generados.get()).isLessThan(1500);
+	}
+
+	private static Categoria categoria() {
+		Categoria categoria = new Categoria("Electrónico");
+		categoria.setId("5d9f1a2b3c4d5e6f7a8b9c0e");
+		return categoria;
+	}
+
+	private Mono<Producto> ver(String id) {
+		return rsocket.requestResponse(DefaultPayload.create(id.getBytes(StandardCharsets.UTF_8),RutasRSocket.metadatos(RutasRSocket.VER)))
+				.map(payload -> leer(payload,Producto.class));
+	}
+
+	private Flux<Producto> listar() {
+		return rsocket.requestStream(DefaultPayload.create(new byte[0],RutasRSocket.metadatos(RutasRSocket.LISTAR)))
+				.map(payload -> leer(payload,Producto.class));
+	}
+
+	// La ruta solo se envía en los metadatos del primer producto,como hace el cliente web
+	private Flux<ResultadoGuardado> guardar(Producto... productos) {
+		return rsocket.requestChannel(Flux.just(productos).index()
+						.map(producto -> producto.getT1() == 0 ? DefaultPayload.create(escribir(producto.getT2()),RutasRSocket.metadatos(RutasRSocket.GUARDAR)) : DefaultPayload.create(escribir(producto.getT2()))))
+				.map(payload -> leer(payload,ResultadoGuardado.class));
+	}
+
+	private byte[] escribir(Object valor) {
+		try {
+			return objectMapper.writeValueAsBytes(valor);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private <T> T leer(Payload payload, Class<T> clase) {
+		try {
+			return objectMapper.readValue((InputStream)new ByteBufInputStream(payload.sliceData()),clase);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	private static void esperar(BooleanSupplier condicion) {
+		long limite = System.currentTimeMillis() + 10000;
+		while(!condicion.getAsBoolean()) {
+			Assertions.assertThat(System.currentTimeMillis()).as("tiempo de espera agotado").isLessThan(limite);
+			try {
+				Thread.sleep(20);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
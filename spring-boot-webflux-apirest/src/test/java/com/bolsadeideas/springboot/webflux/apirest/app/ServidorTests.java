@@ -0,0 +1,126 @@
+package com.bolsadeideas.springboot.webflux.apirest.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Pruebas del servidor Reactor Netty real,para lo que no se puede probar con el servidor simulado
+// Usamos el cliente http de Java porque,a diferencia del WebClient,no descomprime las respuestas ni negocia el protocolo por su cuenta
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ServidorTests {
+
+	@LocalServerPort
+	private int puerto;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private ProductoService productoService;
+
+	// El servidor arranca con el ajuste de la clase "ServidorNettyConfig": atiende las peticiones con sus propios hilos y cuenta las conexiones abiertas
+	@Test
+	public void nettyTest() throws Exception {
+		HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+		HttpResponse<byte[]> respuesta = get(cliente,"/api/v2/productos");
+
+		Assertions.assertThat(respuesta.statusCode()).isEqualTo(200);
+		// El cliente mantiene abierta la conexión para reutilizarla
+		Assertions.assertThat(registry.get("servidor.netty.conexiones").gauge().value()).isGreaterThanOrEqualTo(1.0);
+		Assertions.assertThat(registry.get("servidor.netty.conexiones.aceptadas").counter().count()).isGreaterThanOrEqualTo(1.0);
+		Assertions.assertThat(registry.find("servidor.netty.tareas.pendientes").gauges()).isNotEmpty();
+		Assertions.assertThat(Thread.getAllStackTraces().keySet()).anyMatch(hilo -> hilo.getName().startsWith("servidor-http"));
+	}
+
+	// Solo se comprimen las respuestas de más de 2 KB(según su cabecera "Content-Length") y las respuestas en streaming,que no la tienen
+	@Test
+	public void compresionTest() throws Exception {
+		HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		Producto pequeno = productoService.findAll().blockFirst();
+		Producto grande = new Producto(String.join("",Collections.nCopies(300,"Televisor ")),100.0,pequeno.getCategoria());
+		grande = productoService.save(grande).block();
+
+		HttpResponse<byte[]> respuesta = get(cliente,"/api/v2/productos/" + pequeno.getId(),"gzip");
+		Assertions.assertThat(respuesta.headers().firstValue("Content-Encoding")).isEmpty();
+		Assertions.assertThat(new String(respuesta.body(),StandardCharsets.UTF_8)).contains(pequeno.getNombre());
+
+		respuesta = get(cliente,"/api/v2/productos/" + grande.getId(),"gzip");
+		Assertions.assertThat(respuesta.headers().firstValue("Content-Encoding")).hasValue("gzip");
+		Assertions.assertThat(gunzip(respuesta.body())).contains(grande.getNombre());
+
+		// El listado se escribe en streaming,sin cabecera "Content-Length"
+		respuesta = get(cliente,"/api/v2/productos","gzip");
+		Assertions.assertThat(respuesta.headers().firstValue("Content-Encoding")).hasValue("gzip");
+		Assertions.assertThat(gunzip(respuesta.body())).startsWith("[").contains(pequeno.getNombre());
+
+		// Sin la cabecera "Accept-Encoding",no se comprime nada
+		respuesta = get(cliente,"/api/v2/productos/" + grande.getId());
+		Assertions.assertThat(respuesta.headers().firstValue("Content-Encoding")).isEmpty();
+
+		productoService.delete(grande).block();
+	}
+
+	// Un cliente que soporta HTTP/2 cambia de protocolo(h2c con la cabecera "Upgrade") y multiplexa las peticiones en la conexión.Un cliente HTTP/1.1 sigue siendo atendido en HTTP/1.1
+	@Test
+	public void http2Test() throws Exception {
+		HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+		Producto producto = productoService.findAll().blockFirst();
+
+		// La primera petición negocia el cambio a HTTP/2 y el resto,lanzadas a la vez,se envían ya por HTTP/2
+		Assertions.assertThat(get(cliente,"/api/v2/productos").version()).isEqualTo(HttpClient.Version.HTTP_2);
+		List<CompletableFuture<HttpResponse<String>>> respuestas = new ArrayList<CompletableFuture<HttpResponse<String>>>();
+		for(int i = 0; i < 10; i++)
+			respuestas.add(cliente.sendAsync(HttpRequest.newBuilder(URI.create("http://localhost:" + puerto + "/api/v2/productos/" + producto.getId())).build(),HttpResponse.BodyHandlers.ofString()));
+		for(CompletableFuture<HttpResponse<String>> respuesta: respuestas) {
+			Assertions.assertThat(respuesta.get().version()).isEqualTo(HttpClient.Version.HTTP_2);
+			Assertions.assertThat(respuesta.get().statusCode()).isEqualTo(200);
+			Assertions.assertThat(respuesta.get().body()).contains(producto.getNombre());
+		}
+
+		HttpClient cliente11 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		Assertions.assertThat(get(cliente11,"/api/v2/productos").version()).isEqualTo(HttpClient.Version.HTTP_1_1);
+	}
+
+	private HttpResponse<byte[]> get(HttpClient cliente, String ruta) throws Exception {
+		return get(cliente,ruta,null);
+	}
+
+	private HttpResponse<byte[]> get(HttpClient cliente, String ruta, String aceptadas) throws Exception {
+		HttpRequest.Builder peticion = HttpRequest.newBuilder(URI.create("http://localhost:" + puerto + ruta));
+		if(aceptadas != null)
+			peticion.header("Accept-Encoding",aceptadas);
+		HttpResponse<byte[]> respuesta = cliente.send(peticion.build(),HttpResponse.BodyHandlers.ofByteArray());
+		Assertions.assertThat(respuesta.statusCode()).isEqualTo(200);
+		return respuesta;
+	}
+
+	private static String gunzip(byte[] comprimido) throws IOException {
+		return StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(comprimido)),StandardCharsets.UTF_8);
+	}
+
+}
@@ -1,8 +1,10 @@
 package com.bolsadeideas.springboot.webflux.apirest.app;
 
 import java.util.Collections;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.UUID;
 
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
@@ -12,14 +14,21 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.reactive.server.WebTestClient.BodyContentSpec;
 import org.springframework.test.web.reactive.server.WebTestClient.ResponseSpec;
 
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dao.IdempotenciaDao;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Idempotencia;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.EventoImportacion;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.IdempotenciaService;
 import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -41,6 +50,12 @@ public class SpringBootWebfluxApirestApplicationTests {
 	// Recuperamos de la memoria o contendor de Spring el bean que implementa la interfaz "ProductoService".Esta interfaz es implementada por la clase "ProductoServiceImpl"
 	@Autowired
 	private ProductoService productoService; // Este bean representa la capa Servicio para la clase entidad "Producto" que realiza operaciones CRUD en la base de datos a través de la capa Dao
+
+	@Autowired
+	private IdempotenciaService idempotenciaService; // Este bean calcula la huella de las peticiones con la cabecera "Idempotency-Key"
+
+	@Autowired
+	private IdempotenciaDao idempotenciaDao; // Este bean nos permite guardar directamente una reserva de una clave de idempotencia
 	
 	// La anotación @Value nos permite inyectar el valor de cualquier propiedad definida en el archivo de propiedades "application.properties"
 	// Inyectamos el valor de la propiedad "config.base.endpoint" definida en el archivo de propiedades de la aplicación "application.properties"
@@ -143,10 +158,10 @@ public class SpringBootWebfluxApirestApplicationTests {
 	// Primera manera tratando el cuerpo de la respuesta como un objeto Json
 	@Test
 	public void crearTest() {
-		// Recuperamos de la base de datos la categoría a partir del nombre "muebles".Esto lo hacemos mediante el bean 'productoService'
+		// Recuperamos de la base de datos la categoría a partir del nombre "Muebles".Esto lo hacemos mediante el bean 'productoService'
 		// En una prueba unitaria no es conveniente trabajar suscribiéndonos(mediante el método "subscribe()") a un flujo reactivo u Observable para obtener o manipular sus elementos ya que se tiene que trabajar de manera síncrona dentro del contexto o hilo de este método,y no dentro del contexto o hilo de la suscripción al Observable,que sería asíncrono.
 		// Por esta razón,usamos el método "block()" que bloquea la ejecución del hilo de este flujo reactivo Mono para obtener su elemento de tipo Categoria
-		Categoria categoria = productoService.findCategoriaByNombre("muebles").block();
+		Categoria categoria = productoService.findCategoriaByNombre("Muebles").block();
 		
 		// Creamos un nuevo producto a partir de la categoría anterior para enviarlo en el cuerpo de la petición http a nuestra Api Rest
 		Producto producto = new Producto("Mesa comedor",100.00,categoria);
@@ -174,8 +189,8 @@ public class SpringBootWebfluxApirestApplicationTests {
 			bodySpec.jsonPath("$.id").isNotEmpty()
 			// Esperamos,mediante una expresión Json,que el nombre del producto del cuerpo de la respuesta sea identico a "Mesa comedor",que es el nombre del producto que hemos enviado a nuestra Api Rest
 			.jsonPath("$.nombre").isEqualTo("Mesa comedor")
-			// Esperamos,mediante una expresión Json,que el nombre de la categoría del producto del cuerpo de la respuesta sea identico a "muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
-			.jsonPath("$.categoria.nombre").isEqualTo("muebles");
+			// Esperamos,mediante una expresión Json,que el nombre de la categoría del producto del cuerpo de la respuesta sea identico a "Muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
+			.jsonPath("$.categoria.nombre").isEqualTo("Muebles");
 		}
 		// Cuando usamos nuestro controlador implementado con la anotación @RestController.En este caso,las propiedades de los productos(id,nombre,categoría) están encapsuladas en otra propiedad llamada "producto"
 		else if(url.equals("/api/productos")){
@@ -183,8 +198,8 @@ public class SpringBootWebfluxApirestApplicationTests {
 			bodySpec.jsonPath("$.producto.id").isNotEmpty()
 			// Esperamos,mediante una expresión Json,que el nombre del producto del cuerpo de la respuesta sea identico a "Mesa comedor",que es el nombre del producto que hemos enviado a nuestra Api Rest
 			.jsonPath("$.producto.nombre").isEqualTo("Mesa comedor")
-			// Esperamos,mediante una expresión Json,que el nombre de la categoría del producto del cuerpo de la respuesta sea identico a "muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
-			.jsonPath("$.producto.categoria.nombre").isEqualTo("muebles");
+			// Esperamos,mediante una expresión Json,que el nombre de la categoría del producto del cuerpo de la respuesta sea identico a "Muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
+			.jsonPath("$.producto.categoria.nombre").isEqualTo("Muebles");
 		}
 	}
 	
@@ -193,10 +208,10 @@ public class SpringBootWebfluxApirestApplicationTests {
 	// Segunda manera tratando el cuerpo de la respuesta como un objeto de tipo Producto
 	@Test
 	public void crear2Test() {
-		// Recuperamos de la base de datos la categoría a partir del nombre "muebles".Esto lo hacemos mediante el bean 'productoService'
+		// Recuperamos de la base de datos la categoría a partir del nombre "Muebles".Esto lo hacemos mediante el bean 'productoService'
 		// En una prueba unitaria no es conveniente trabajar suscribiéndonos(mediante el método "subscribe()") a un flujo reactivo u Observable para obtener o manipular sus elementos ya que se tiene que trabajar de manera síncrona dentro del contexto o hilo de este método,y no dentro del contexto o hilo de la suscripción al Observable,que sería asíncrono.
 		// Por esta razón,usamos el método "block()" que bloquea la ejecución del hilo de este flujo reactivo Mono para obtener su elemento de tipo Categoria
-		Categoria categoria = productoService.findCategoriaByNombre("muebles").block();
+		Categoria categoria = productoService.findCategoriaByNombre("Muebles").block();
 		
 		// Creamos un nuevo producto a partir de la categoría anterior para enviarlo en el cuerpo de la petición http a nuestra Api Rest
 		Producto producto = new Producto("Mesa comedor",100.00,categoria);
@@ -228,8 +243,8 @@ public class SpringBootWebfluxApirestApplicationTests {
 				Assertions.assertThat(p.getId()).isNotEmpty();
 				// Verificamos que el nombre del producto obtenido de la respuesta es igual a "Mesa comedor",que es el nombre del producto que hemos enviado a nuestra Api Rest
 				Assertions.assertThat(p.getNombre()).isEqualTo("Mesa comedor");
-				// Verificamos que el nombre de la categoría del producto obtenido de la respuesta es igual a "muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
-				Assertions.assertThat(p.getCategoria().getNombre()).isEqualTo("muebles");
+				// Verificamos que el nombre de la categoría del producto obtenido de la respuesta es igual a "Muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
+				Assertions.assertThat(p.getCategoria().getNombre()).isEqualTo("Muebles");
 			});
 		}
 		// Cuando usamos nuestro controlador implementado con la anotación @RestController
@@ -246,13 +261,144 @@ public class SpringBootWebfluxApirestApplicationTests {
 				Assertions.assertThat(p.getId()).isNotEmpty();
 				// Verificamos que el nombre del producto obtenido de la respuesta es igual a "Mesa comedor",que es el nombre del producto que hemos enviado a nuestra Api Rest
 				Assertions.assertThat(p.getNombre()).isEqualTo("Mesa comedor");
-				// Verificamos que el nombre de la categoría del producto obtenido de la respuesta es igual a "muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
-				Assertions.assertThat(p.getCategoria().getNombre()).isEqualTo("muebles");
+				// Verificamos que el nombre de la categoría del producto obtenido de la respuesta es igual a "Muebles",que es el nombre de la categoría del producto que hemos enviado a nuestra Api Rest
+				Assertions.assertThat(p.getCategoria().getNombre()).isEqualTo("Muebles");
 			});
 		}
 
 	}
 	
+	// Prueba unitaria para probar que la creación de un producto con la cabecera "Idempotency-Key" no crea duplicados cuando el cliente repite la petición
+	// La segunda petición con la misma clave tiene que devolver la respuesta original marcada como repetida,con el mismo tipo de contenido y el mismo cuerpo byte a byte
+	@Test
+	public void crearIdempotenteTest() {
+		// Recuperamos de la base de datos la categoría a partir del nombre "Muebles".Esto lo hacemos mediante el bean 'productoService'
+		Categoria categoria = productoService.findCategoriaByNombre("Muebles").block();
+		
+		// Creamos un nuevo producto a partir de la categoría anterior para enviarlo en el cuerpo de la petición http a nuestra Api Rest
+		Producto producto = new Producto("Silla idempotente",45.00,categoria);
+		// Generamos una clave de idempotencia única para esta prueba
+		String clave = UUID.randomUUID().toString();
+		
+		// Realizamos la primera petición http de tipo Post y obtenemos su respuesta completa(cabeceras y cuerpo) para compararla con la repetida
+		EntityExchangeResult<byte[]> original = client.post().uri(url)
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.accept(MediaType.APPLICATION_JSON_UTF8)
+		.header(IdempotenciaService.CABECERA,clave)
+		.body(Mono.just(producto),Producto.class)
+		.exchange()
+		.expectStatus().isCreated()
+		.expectHeader().valueEquals(IdempotenciaService.CABECERA_REPETIDA,"false")
+		.expectBody()
+		.returnResult();
+		String location = original.getResponseHeaders().getLocation().toString();
+		
+		// La respuesta se guarda en la base de datos ya serializada y con su tipo de contenido
+		Idempotencia guardada = idempotenciaDao.findById(clave).block();
+		Assertions.assertThat(guardada.getTipo()).isEqualTo(original.getResponseHeaders().getContentType().toString());
+		Assertions.assertThat(guardada.getCuerpo()).isEqualTo(original.getResponseBody());
+		
+		// Repetimos la misma petición con la misma clave.Esperamos recibir la respuesta original marcada como repetida y con la misma localización,es decir,sin que se haya creado otro producto
+		client.post().uri(url)
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.accept(MediaType.APPLICATION_JSON_UTF8)
+		.header(IdempotenciaService.CABECERA,clave)
+		.body(Mono.just(producto),Producto.class)
+		.exchange()
+		.expectStatus().isCreated()
+		.expectHeader().valueEquals(IdempotenciaService.CABECERA_REPETIDA,"true")
+		.expectHeader().valueEquals("Location",location)
+		.expectHeader().contentType(original.getResponseHeaders().getContentType())
+		.expectBody(byte[].class).isEqualTo(original.getResponseBody());
+	}
+	
+	// Prueba unitaria para probar que una clave de idempotencia reutilizada con otra petición distinta no repite la respuesta original
+	// La segunda petición envía otro producto con la misma clave,así que esperamos el estado UNPROCESSABLE_ENTITY(422) en lugar de la respuesta de la primera petición
+	@Test
+	public void crearIdempotenteOtraPeticionTest() {
+		Categoria categoria = productoService.findCategoriaByNombre("Muebles").block();
+		String clave = UUID.randomUUID().toString();
+		
+		client.post().uri(url)
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.accept(MediaType.APPLICATION_JSON_UTF8)
+		.header(IdempotenciaService.CABECERA,clave)
+		.body(Mono.just(new Producto("Mesa idempotente",80.00,categoria)),Producto.class)
+		.exchange()
+		.expectStatus().isCreated();
+		
+		client.post().uri(url)
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.accept(MediaType.APPLICATION_JSON_UTF8)
+		.header(IdempotenciaService.CABECERA,clave)
+		.body(Mono.just(new Producto("Otra mesa idempotente",95.00,categoria)),Producto.class)
+		.exchange()
+		.expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+	}
+	
+	// Prueba unitaria para probar que una reserva de una clave de idempotencia que no ha terminado(por ejemplo,porque la instancia se cayó a mitad de la petición) no bloquea la clave para siempre
+	// Guardamos directamente una reserva "en curso" ya caducada y esperamos que la petición repetida se quede con ella y cree el producto en lugar de esperar y recibir el estado CONFLICT(409)
+	@Test
+	public void crearIdempotenteReservaCaducadaTest() {
+		Categoria categoria = productoService.findCategoriaByNombre("Muebles").block();
+		Producto producto = new Producto("Silla de reserva caducada",50.00,categoria);
+		String clave = UUID.randomUUID().toString();
+		String huella = idempotenciaService.huella(HttpMethod.POST,url,producto);
+		idempotenciaDao.insert(new Idempotencia(clave,huella,UUID.randomUUID().toString(),new Date(System.currentTimeMillis() - 1000))).block();
+		
+		client.post().uri(url)
+		.contentType(MediaType.APPLICATION_JSON_UTF8)
+		.accept(MediaType.APPLICATION_JSON_UTF8)
+		.header(IdempotenciaService.CABECERA,clave)
+		.body(Mono.just(producto),Producto.class)
+		.exchange()
+		.expectStatus().isCreated()
+		.expectHeader().valueEquals(IdempotenciaService.CABECERA_REPETIDA,"false");
+		
+		Assertions.assertThat(idempotenciaDao.findById(clave).block().isCompletada()).isTrue();
+	}
+	
+	// Prueba unitaria para probar la exportación del catálogo en formato CSV
+	// Esperamos que la primera línea sea la cabecera con los nombres de las columnas y que se exporten los productos de la base de datos
+	@Test
+	public void exportarTest() {
+		String csv = client.get().uri(url + "/exportacion?formato=csv")
+		.exchange()
+		.expectStatus().isOk()
+		.expectHeader().contentTypeCompatibleWith(MediaType.valueOf("text/csv"))
+		.expectBody(String.class)
+		.returnResult()
+		.getResponseBody();
+		
+		Assertions.assertThat(csv).startsWith("id,nombre,precio,createAt,categoria,foto\n");
+		Assertions.assertThat(csv.split("\n").length).isGreaterThan(1);
+	}
+	
+	// Prueba unitaria para probar la importación de productos desde un archivo CSV
+	// El archivo tiene una fila válida y otra con una categoría que no existe,así que esperamos un evento de error y,como último evento,los totales de la importación
+	@Test
+	public void importarTest() {
+		String csv = "nombre,precio,categoria\nMesa importada,120.50,Muebles\nSilla importada,30,Inexistente\n";
+		
+		List<EventoImportacion> eventos = client.post().uri(url + "/importacion")
+		.contentType(MediaType.valueOf("text/csv"))
+		.accept(MediaType.APPLICATION_STREAM_JSON)
+		.syncBody(csv)
+		.exchange()
+		.expectStatus().isOk()
+		.returnResult(EventoImportacion.class)
+		.getResponseBody()
+		.collectList()
+		.block();
+		
+		Assertions.assertThat(eventos).extracting(EventoImportacion::getTipo).contains(EventoImportacion.ERROR);
+		EventoImportacion fin = eventos.get(eventos.size() - 1);
+		Assertions.assertThat(fin.getTipo()).isEqualTo(EventoImportacion.FIN);
+		Assertions.assertThat(fin.getLeidas()).isEqualTo(2);
+		Assertions.assertThat(fin.getInsertadas()).isEqualTo(1);
+		Assertions.assertThat(fin.getErrores()).isEqualTo(1);
+	}
+	
 	// Prueba unitaria para probar la edición de un producto desde nuestra Api Rest
 	// La edición de un producto se realiza haciendo una petición http de tipo Put a la ruta o path base indicada en 'url' + "/{id}"
 	@Test
@@ -262,10 +408,10 @@ public class SpringBootWebfluxApirestApplicationTests {
 		// Por esta razón,usamos el método "block()" que bloquea la ejecución del hilo de este flujo reactivo Mono para obtener su elemento de tipo Producto
 		Producto producto = productoService.findByNombre("Sony Notebook").block();
 		
-		// Recuperamos de la base de datos la categoría a partir del nombre "electrónico".Esto lo hacemos mediante el bean 'productoService'
+		// Recuperamos de la base de datos la categoría a partir del nombre "Electrónico".Esto lo hacemos mediante el bean 'productoService'
 		// En una prueba unitaria no es conveniente trabajar suscribiéndonos(mediante el método "subscribe()") a un flujo reactivo u Observable para obtener o manipular sus elementos ya que se tiene que trabajar de manera síncrona dentro del contexto o hilo de este método,y no dentro del contexto o hilo de la suscripción al Observable,que sería asíncrono.
 		// Por esta razón,usamos el método "block()" que bloquea la ejecución del hilo de este flujo reactivo Mono para obtener su elemento de tipo Categoria
-		Categoria categoria = productoService.findCategoriaByNombre("electrónico").block();
+		Categoria categoria = productoService.findCategoriaByNombre("Electrónico").block();
 		
 		// Creamos un nuevo producto con los nuevos datos que van a ser editados y que van a viajar en el cuerpo de la petición http o request
 		Producto productoEditado = new Producto("Asus Notebook",700.00,categoria);
@@ -290,8 +436,8 @@ public class SpringBootWebfluxApirestApplicationTests {
 		.jsonPath("$.id").isNotEmpty()
 		// Esperamos,mediante una expresión Json,que el nombre del producto del cuerpo de la respuesta sea identico a "Asus Notebook",que es el nuevo nombre del producto que hemos enviado a nuestra Api Rest
 		.jsonPath("$.nombre").isEqualTo("Asus Notebook")
-		// Esperamos,mediante una expresión Json,que el nombre de la categoría del producto del cuerpo de la respuesta sea identico a "electrónico",que es el nombre de la nueva categoría del producto que hemos enviado a nuestra Api Rest
-		.jsonPath("$.categoria.nombre").isEqualTo("electrónico");
+		// Esperamos,mediante una expresión Json,que el nombre de la categoría del producto del cuerpo de la respuesta sea identico a "Electrónico",que es el nombre de la nueva categoría del producto que hemos enviado a nuestra Api Rest
+		.jsonPath("$.categoria.nombre").isEqualTo("Electrónico");
 	}
 	
 	// Prueba unitaria para probar la eliminación de un producto determinado a partir de su id desde nuestra Api Rest
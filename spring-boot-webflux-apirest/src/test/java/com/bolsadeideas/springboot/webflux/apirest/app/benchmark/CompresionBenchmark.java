@@ -0,0 +1,117 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Benchmark que mide el coste de CPU de comprimir las respuestas de la Api frente a los bytes que se ahorran,con catálogos de distintos tamaños(véanse las propiedades "server.compression.*")
+// Compara gzip y deflate con varios niveles de compresión(Netty usa el nivel 6 por defecto) para la respuesta Json completa de "listar" y para la misma respuesta en NDJSON con un SYNC_FLUSH por producto,como se comprimen los flujos en streaming
+// Sirve para revisar el nivel y el tamaño mínimo("server.compression.min-response-size") de la compresión cuando cambie el tamaño del catálogo o de los productos
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=CompresionBenchmark [-Dbenchmark.catalogos=100,1000,10000,50000] [-Dbenchmark.repeticiones=20]
+public class CompresionBenchmark {
+
+	private static final List<Integer> CATALOGOS = new ArrayList<Integer>();
+
+	private static final int REPETICIONES = Integer.getInteger("benchmark.repeticiones",20);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@BeforeClass
+	public static void configurar() {
+		for(String tamano: System.getProperty("benchmark.catalogos","100,1000,10000,50000").split(","))
+			CATALOGOS.add(Integer.valueOf(tamano.trim()));
+	}
+
+	@Test
+	public void compresion() throws IOException {
+		System.out.println(String.format("%-9s %-7s %-10s %6s %12s %12s %8s %10s %10s","productos","formato","algoritmo","nivel","original(B)","comprimido(B)","ratio","ms/resp","MB/s"));
+		for(int productos: CATALOGOS) {
+			List<Producto> catalogo = catalogo(productos);
+			byte[] json = MAPPER.writeValueAsBytes(catalogo);
+			List<byte[]> lineas = new ArrayList<byte[]>();
+			for(Producto producto: catalogo)
+				lineas.add((MAPPER.writeValueAsString(producto) + "\n").getBytes("UTF-8"));
+
+			for(String algoritmo: Arrays.asList("gzip","deflate")) {
+				for(int nivel: new int[] {1,6,9}) {
+					medir(productos,"json",algoritmo,nivel,json.length,() -> comprimir(algoritmo,nivel,Arrays.asList(json)));
+					long original = lineas.stream().mapToLong(linea -> linea.length).sum();
+					medir(productos,"ndjson",algoritmo,nivel,original,() -> comprimir(algoritmo,nivel,lineas));
+				}
+			}
+		}
+	}
+
+	// Repite la compresión,descartando la primera mitad de las repeticiones para que la JIT haya compilado el código,y muestra la media del resto
+	private void medir(int productos, String formato, String algoritmo, int nivel, long original, Compresion compresion) throws IOException {
+		long comprimido = 0;
+		long total = 0;
+		int medidas = 0;
+		for(int i = 0; i < REPETICIONES; i++) {
+			long inicio = System.nanoTime();
+			comprimido = compresion.ejecutar();
+			if(i >= REPETICIONES / 2) {
+				total += System.nanoTime() - inicio;
+				medidas++;
+			}
+		}
+		double ms = total / 1e6 / medidas;
+		System.out.println(String.format("%-9d %-7s %-10s %6d %12d %12d %8.2f %10.2f %10.1f",
+				productos,formato,algoritmo,nivel,original,comprimido,(double)original / comprimido,ms,original / 1e6 / (ms / 1e3)));
+	}
+
+	// Comprime los bloques uno a uno haciendo un SYNC_FLUSH después de cada bloque,igual que el compresor de Netty con cada DataBuffer de la respuesta,y devuelve el número de bytes comprimidos
+	private static long comprimir(String algoritmo, int nivel, List<byte[]> bloques) throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		try(OutputStream compresor = "gzip".equals(algoritmo) ? new GZIPOutputStream(salida,8192,true) {{ def.setLevel(nivel); }} : new DeflaterOutputStream(salida,new Deflater(nivel),8192,true)) {
+			for(byte[] bloque: bloques) {
+				compresor.write(bloque);
+				compresor.flush();
+			}
+		}
+		return salida.size();
+	}
+
+	// Catálogo sintético con nombres y categorías repetitivos,como el real
+	private static List<Producto> catalogo(int productos) {
+		Random random = new Random(42);
+		List<Categoria> categorias = new ArrayList<Categoria>();
+		for(String nombre: Arrays.asList("Electrónico","Deporte","Computación","Muebles","Decoración"))
+			categorias.add(categoria(nombre));
+		List<Producto> catalogo = new ArrayList<Producto>();
+		for(int i = 0; i < productos; i++) {
+			Producto producto = new Producto("Producto " + i + " modelo " + random.nextInt(1000),Math.round(random.nextDouble() * 100000) / 100.0,categorias.get(random.nextInt(categorias.size())));
+			producto.setId(Long.toHexString(0x5d000000000000L + i) + "000000");
+			producto.setCreateAt(new Date(1570000000000L + i * 1000L));
+			catalogo.add(producto);
+		}
+		return catalogo;
+	}
+
+	private static Categoria categoria(String nombre) {
+		Categoria categoria = new Categoria(nombre);
+		categoria.setId(Integer.toHexString(nombre.hashCode()));
+		return categoria;
+	}
+
+	@FunctionalInterface
+	private interface Compresion {
+		long ejecutar() throws IOException;
+	}
+
+}
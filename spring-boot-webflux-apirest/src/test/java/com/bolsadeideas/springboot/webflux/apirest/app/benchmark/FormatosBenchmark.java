@@ -0,0 +1,110 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+// Benchmark que compara el tamaño y el tiempo de serialización y deserialización en Json,Smile y CBOR(véase la clase "CodecsConfig") de un producto suelto,como la respuesta de "ver" o de "crear",y del listado con catálogos de distintos tamaños
+// También muestra el tamaño de cada formato comprimido con gzip(nivel 6,el de Netty),porque las respuestas Json grandes ya se comprimen(véanse las propiedades "server.compression.*")
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=FormatosBenchmark [-Dbenchmark.catalogos=100,1000,10000] [-Dbenchmark.repeticiones=50]
+public class FormatosBenchmark {
+
+	private static final List<Integer> CATALOGOS = new ArrayList<Integer>();
+
+	private static final int REPETICIONES = Integer.getInteger("benchmark.repeticiones",50);
+
+	private static final TypeReference<List<Producto>> LISTA = new TypeReference<List<Producto>>() {};
+
+	@BeforeClass
+	public static void configurar() {
+		for(String tamano: System.getProperty("benchmark.catalogos","100,1000,10000").split(","))
+			CATALOGOS.add(Integer.valueOf(tamano.trim()));
+	}
+
+	@Test
+	public void formatos() throws IOException {
+		System.out.println(String.format("%-14s %-7s %12s %12s %12s %12s","respuesta","formato","tamaño(B)","gzip(B)","escribir(ms)","leer(ms)"));
+		List<ObjectMapper> mappers = Arrays.asList(new ObjectMapper(),new ObjectMapper(new SmileFactory()),new ObjectMapper(new CBORFactory()));
+		List<String> formatos = Arrays.asList("json","smile","cbor");
+		// Un producto suelto se repite muchas más veces que un listado para que el tiempo de cada medida no quede por debajo de la resolución del reloj
+		Producto producto = catalogo(1).get(0);
+		for(int f = 0; f < mappers.size(); f++)
+			medir("producto",formatos.get(f),mappers.get(f),producto,mappers.get(f).constructType(Producto.class),REPETICIONES * 1000);
+		for(int productos: CATALOGOS) {
+			List<Producto> catalogo = catalogo(productos);
+			for(int f = 0; f < mappers.size(); f++)
+				medir("listado " + productos,formatos.get(f),mappers.get(f),catalogo,mappers.get(f).getTypeFactory().constructType(LISTA),REPETICIONES);
+		}
+	}
+
+	// Repite la serialización y la deserialización,descartando la primera mitad de las repeticiones para que la JIT haya compilado el código,y muestra la media del resto
+	private void medir(String respuesta, String formato, ObjectMapper mapper, Object valor, JavaType tipo, int repeticiones) throws IOException {
+		byte[] contenido = mapper.writeValueAsBytes(valor);
+		long escritura = 0;
+		long lectura = 0;
+		int medidas = 0;
+		for(int i = 0; i < repeticiones; i++) {
+			long inicio = System.nanoTime();
+			contenido = mapper.writeValueAsBytes(valor);
+			long escrito = System.nanoTime();
+			Object leido = mapper.readValue(contenido,tipo);
+			long fin = System.nanoTime();
+			if(valor instanceof List && ((List<?>)leido).size() != ((List<?>)valor).size())
+				throw new IllegalStateException("Se han leído " + ((List<?>)leido).size() + " productos de " + ((List<?>)valor).size());
+			if(i >= repeticiones / 2) {
+				escritura += escrito - inicio;
+				lectura += fin - escrito;
+				medidas++;
+			}
+		}
+		System.out.println(String.format("%-14s %-7s %12d %12d %12.4f %12.4f",
+				respuesta,formato,contenido.length,gzip(contenido),escritura / 1e6 / medidas,lectura / 1e6 / medidas));
+	}
+
+	private static long gzip(byte[] contenido) throws IOException {
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		try(GZIPOutputStream compresor = new GZIPOutputStream(salida)) {
+			compresor.write(contenido);
+		}
+		return salida.size();
+	}
+
+	// Catálogo sintético con nombres y categorías repetitivos,como el real
+	private static List<Producto> catalogo(int productos) {
+		Random random = new Random(42);
+		List<Categoria> categorias = new ArrayList<Categoria>();
+		for(String nombre: Arrays.asList("Electrónico","Deporte","Computación","Muebles","Decoración"))
+			categorias.add(categoria(nombre));
+		List<Producto> catalogo = new ArrayList<Producto>();
+		for(int i = 0; i < productos; i++) {
+			Producto producto = new Producto("Producto " + i + " modelo " + random.nextInt(1000),Math.round(random.nextDouble() * 100000) / 100.0,categorias.get(random.nextInt(categorias.size())));
+			producto.setId(Long.toHexString(0x5d000000000000L + i) + "000000");
+			producto.setCreateAt(new Date(1570000000000L + i * 1000L));
+			catalogo.add(producto);
+		}
+		return catalogo;
+	}
+
+	private static Categoria categoria(String nombre) {
+		Categoria categoria = new Categoria(nombre);
+		categoria.setId(Integer.toHexString(nombre.hashCode()));
+		return categoria;
+	}
+
+}
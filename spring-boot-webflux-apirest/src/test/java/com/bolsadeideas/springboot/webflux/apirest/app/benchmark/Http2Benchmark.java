@@ -0,0 +1,111 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Benchmark de carga que compara HTTP/1.1 con HTTP/2 en claro(h2c) contra el servidor Reactor Netty real de la aplicación(véase la propiedad "server.http2.enabled"),con sus filtros,sus rutas y la base de datos en memoria de las pruebas
+// Mezcla las dos rutas típicas de la Api: "listar"("/api/v2/productos"),que escribe el catálogo completo,y "ver"("/api/v2/productos/{id}"),una respuesta pequeña
+// Con HTTP/1.1 cada petición en vuelo necesita su propia conexión,así que el cliente abre tantas conexiones como peticiones concurrentes.Con HTTP/2 todas las peticiones se multiplexan en una única conexión
+// Muestra las conexiones que ha aceptado el servidor para cada cliente(véase la métrica "servidor.netty.conexiones.aceptadas" de la clase "ServidorNettyConfig"),la latencia de "ver" y de "listar" y el rendimiento total
+// Los límites de tasa y de concurrencia se deshabilitan porque responderían con 429 o 503 a la carga de un único cliente y no se compararía el protocolo
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=Http2Benchmark [-Dbenchmark.concurrencias=16,64,256] [-Dbenchmark.peticiones=5000] [-Dbenchmark.lentas=10]
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"config.limite.habilitado=false","config.concurrencia.habilitado=false"})
+public class Http2Benchmark {
+
+	private static final int PETICIONES = Integer.getInteger("benchmark.peticiones",5000);
+
+	// Una de cada "benchmark.lentas" peticiones es un "listar"
+	private static final int LENTAS = Integer.getInteger("benchmark.lentas",10);
+
+	@LocalServerPort
+	private int puerto;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private ProductoService productoService;
+
+	@Test
+	public void protocolos() throws Exception {
+		List<String> ids = productoService.findAll().map(Producto::getId).collectList().block();
+		System.out.println(String.format("%-9s %-12s %11s %10s %10s %10s %12s","protocolo","concurrencia","conexiones","ver p50","ver p99","listar p50","peticiones/s"));
+		for(String concurrencia: System.getProperty("benchmark.concurrencias","16,64,256").split(",")) {
+			medir("HTTP/1.1",HttpClient.Version.HTTP_1_1,Integer.parseInt(concurrencia.trim()),ids);
+			medir("h2c",HttpClient.Version.HTTP_2,Integer.parseInt(concurrencia.trim()),ids);
+		}
+	}
+
+	private void medir(String nombre, HttpClient.Version version, int concurrencia, List<String> ids) throws Exception {
+		// Cada medida usa un cliente nuevo,así que no reutiliza las conexiones de la anterior
+		HttpClient cliente = HttpClient.newBuilder().version(version).build();
+		String base = "http://127.0.0.1:" + puerto + "/api/v2/productos";
+		double previas = aceptadas();
+		// Con h2c,la primera petición negocia el cambio a HTTP/2 con la cabecera "Upgrade" y el resto reutilizan esa conexión
+		// La enviamos sola,porque las peticiones que se lanzan antes de que termine el cambio de protocolo abren sus propias conexiones HTTP/1.1
+		cliente.send(HttpRequest.newBuilder(URI.create(base + "/" + ids.get(0))).build(),HttpResponse.BodyHandlers.discarding());
+		// Calentamiento
+		lanzar(cliente,base,ids,Math.min(concurrencia,16),PETICIONES / 5,new ArrayList<Long>(),new ArrayList<Long>());
+
+		List<Long> ver = Collections.synchronizedList(new ArrayList<Long>());
+		List<Long> listar = Collections.synchronizedList(new ArrayList<Long>());
+		long inicio = System.nanoTime();
+		lanzar(cliente,base,ids,concurrencia,PETICIONES,ver,listar);
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		System.out.println(String.format("%-9s %-12d %11d %10.2f %10.2f %10.2f %12.0f",
+				nombre,concurrencia,(long)(aceptadas() - previas),percentil(ver,0.5),percentil(ver,0.99),percentil(listar,0.5),PETICIONES / segundos));
+	}
+
+	private double aceptadas() {
+		return registry.get("servidor.netty.conexiones.aceptadas").counter().count();
+	}
+
+	// Lanza las peticiones manteniendo como máximo "concurrencia" peticiones en vuelo y guarda la latencia de cada una en nanosegundos
+	private void lanzar(HttpClient cliente, String base, List<String> ids, int concurrencia, int peticiones, List<Long> ver, List<Long> listar) throws Exception {
+		Semaphore enVuelo = new Semaphore(concurrencia);
+		List<CompletableFuture<?>> pendientes = new ArrayList<CompletableFuture<?>>();
+		for(int i = 0; i < peticiones; i++) {
+			boolean lenta = i % LENTAS == 0;
+			HttpRequest peticion = HttpRequest.newBuilder(URI.create(lenta ? base : base + "/" + ids.get(i % ids.size()))).build();
+			enVuelo.acquire();
+			long inicio = System.nanoTime();
+			pendientes.add(cliente.sendAsync(peticion,HttpResponse.BodyHandlers.discarding())
+					.whenComplete((respuesta,error) -> {
+						enVuelo.release();
+						if(error == null && respuesta.statusCode() == 200)
+							(lenta ? listar : ver).add(System.nanoTime() - inicio);
+					}));
+		}
+		CompletableFuture.allOf(pendientes.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	// Percentil de las latencias en milisegundos
+	private static double percentil(List<Long> latencias, double percentil) {
+		if(latencias.isEmpty())
+			return 0;
+		List<Long> ordenadas = new ArrayList<Long>(latencias);
+		Collections.sort(ordenadas);
+		return ordenadas.get((int)Math.min(ordenadas.size() - 1,Math.ceil(percentil * ordenadas.size()) - 1)) / 1e6;
+	}
+
+}
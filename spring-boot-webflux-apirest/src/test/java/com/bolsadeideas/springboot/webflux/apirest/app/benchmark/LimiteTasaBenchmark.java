@@ -0,0 +1,219 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.filtros.LimiteTasaFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+// Benchmark que mide el coste del límite de tasa: el de la operación "consumir()" de la clase "CuboTokens" por sí sola y el que añade el filtro "LimiteTasaFilter" a cada petición,comparado con la misma petición sin filtro y con el filtro deshabilitado
+// Mide un único cliente,muchos clientes distintos(cada petición busca un cubo distinto en el mapa) y varios hilos compitiendo por el mismo cubo,y comprueba que la memoria queda acotada tras la limpieza de los cubos inactivos
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=LimiteTasaBenchmark [-Dbenchmark.peticiones=2000000] [-Dbenchmark.clientes=10000] [-Dbenchmark.hilos=4]
+public class LimiteTasaBenchmark {
+
+	private static final int PETICIONES = Integer.getInteger("benchmark.peticiones",2000000);
+
+	private static final int CLIENTES = Integer.getInteger("benchmark.clientes",10000);
+
+	private static final int HILOS = Integer.getInteger("benchmark.hilos",4);
+
+	// Ráfaga de un segundo a mil millones de peticiones por segundo,para medir el coste del filtro sin que rechace ninguna petición
+	private static final int SIN_LIMITE = 1_000_000_000;
+
+	// Cadena de filtros vacía,para medir solo el coste del filtro
+	private static final WebFilterChain CADENA = exchange -> Mono.empty();
+
+	// La clase "CuboTokens" y su método "consumir()" no son públicos,así que los invocamos con MethodHandles.Al ser constantes(static final),la JIT los compila como una llamada directa
+	private static final MethodHandle NUEVO_CUBO;
+
+	private static final MethodHandle CONSUMIR;
+
+	static {
+		try {
+			Class<?> clase = Class.forName("com.bolsadeideas.springboot.webflux.apirest.app.filtros.CuboTokens");
+			Constructor<?> constructor = clase.getDeclaredConstructor(double.class,int.class,long.class);
+			constructor.setAccessible(true);
+			Method consumir = clase.getDeclaredMethod("consumir",long.class);
+			consumir.setAccessible(true);
+			NUEVO_CUBO = MethodHandles.lookup().unreflectConstructor(constructor);
+			CONSUMIR = MethodHandles.lookup().unreflect(consumir);
+		}
+		catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// Coste de "consumir()" sin el filtro,con un hilo y con varios hilos compitiendo por el mismo cubo.Se muestra también el de "System.nanoTime()",que el filtro invoca antes en cada petición
+	@Test
+	public void cuboTokens() throws Throwable {
+		System.out.println(String.format("%-28s %10s","operación","ns/op"));
+		// Una primera medida que no se muestra,para que la JIT haya compilado el cubo
+		medirCubo("calentamiento",nuevoCubo(),PETICIONES * 5,false);
+		long inicio = System.nanoTime();
+		long suma = 0;
+		for(int i = 0; i < PETICIONES; i++)
+			suma += System.nanoTime();
+		System.out.println(String.format("%-28s %10.1f",suma == 0 ? "" : "System.nanoTime()",(double)(System.nanoTime() - inicio) / PETICIONES));
+		medirCubo("consumir,un hilo",nuevoCubo(),PETICIONES,true);
+
+		Object cubo = nuevoCubo();
+		ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+		List<Future<?>> tareas = new ArrayList<Future<?>>();
+		inicio = System.nanoTime();
+		for(int h = 0; h < HILOS; h++)
+			tareas.add(hilos.submit(() -> {
+				medirCubo("",cubo,PETICIONES / HILOS,false);
+				return null;
+			}));
+		for(Future<?> tarea: tareas)
+			tarea.get();
+		long nanos = System.nanoTime() - inicio;
+		hilos.shutdown();
+		System.out.println(String.format("%-28s %10.1f","consumir," + HILOS + " hilos,un cubo",(double)nanos / PETICIONES));
+	}
+
+	@Test
+	public void costePorPeticion() throws Exception {
+		System.out.println(String.format("%-28s %10s %12s","escenario","ns/petición","rechazadas"));
+		// Todos los escenarios se miden tres veces y solo se muestra la última,para que la JIT haya compilado el filtro y la cadena en todos ellos y el orden de las medidas no cambie el resultado
+		for(int ronda = 1; ronda <= 3; ronda++) {
+			boolean mostrar = ronda == 3;
+			medirSinFiltro(exchanges(1),mostrar);
+			medir("deshabilitado",filtro(false,1e9,SIN_LIMITE),exchanges(1),PETICIONES,mostrar);
+			medir("un cliente",filtro(true,1e9,SIN_LIMITE),exchanges(1),PETICIONES,mostrar);
+			medir(CLIENTES + " clientes",filtro(true,1e9,SIN_LIMITE),exchanges(CLIENTES),PETICIONES,mostrar);
+			// Una respuesta rechazada ya no se puede reutilizar,así que cada petición rechazada usa un exchange nuevo
+			medir("un cliente,límite superado",filtro(true,1,1),exchanges(1,PETICIONES / 20),PETICIONES / 20,mostrar);
+			medirHilos(filtro(true,1e9,SIN_LIMITE),mostrar);
+		}
+	}
+
+	@Test
+	public void memoriaAcotada() throws Exception {
+		// Con 10 peticiones por segundo,un cubo con una petición vuelve a estar lleno en 100 ms
+		LimiteTasaFilter filtro = filtro(true,10,1);
+		ReflectionTestUtils.setField(filtro,"maxClientes",CLIENTES / 2);
+		for(ServerWebExchange exchange: exchanges(CLIENTES,1))
+			filtro.filter(exchange,CADENA).block();
+		int antes = ReflectionTestUtils.invokeMethod(filtro,"clientes");
+		Thread.sleep(200);
+		ReflectionTestUtils.invokeMethod(filtro,"limpiar");
+		int despues = ReflectionTestUtils.invokeMethod(filtro,"clientes");
+		System.out.println(CLIENTES + " clientes con un máximo de " + (CLIENTES / 2) + ": " + antes + " cubos en memoria,tras la limpieza " + despues);
+		filtro.cerrar();
+	}
+
+	// Solo se mide la decisión del filtro: el Mono que devuelve no se subscribe,porque escribir la respuesta(la de la cadena o la del estado 429) es trabajo del servidor y en las respuestas simuladas de las pruebas cuesta varios microsegundos
+	private void medir(String escenario, LimiteTasaFilter filtro, List<ServerWebExchange> exchanges, int peticiones, boolean mostrar) {
+		long inicio = System.nanoTime();
+		for(int i = 0; i < peticiones; i++)
+			filtro.filter(exchanges.get(i % exchanges.size()),CADENA);
+		long nanos = System.nanoTime() - inicio;
+		// Las peticiones rechazadas se cuentan con la métrica del filtro
+		MeterRegistry registry = (MeterRegistry)ReflectionTestUtils.getField(filtro,"registry");
+		double rechazadas = registry.find("limite.tasa.rechazadas").counters().stream().mapToDouble(Counter::count).sum();
+		if(mostrar)
+			System.out.println(String.format("%-28s %10.1f %12.0f",escenario,(double)nanos / peticiones,rechazadas));
+		filtro.cerrar();
+	}
+
+	// Misma petición directamente a la cadena de filtros,sin pasar por el filtro
+	private void medirSinFiltro(List<ServerWebExchange> exchanges, boolean mostrar) {
+		long inicio = System.nanoTime();
+		for(int i = 0; i < PETICIONES; i++)
+			CADENA.filter(exchanges.get(i % exchanges.size()));
+		if(mostrar)
+			System.out.println(String.format("%-28s %10.1f %12.0f","sin filtro",(double)(System.nanoTime() - inicio) / PETICIONES,0.0));
+	}
+
+	// Consume tokens de un cubo con un límite que nunca se alcanza y devuelve la suma de las esperas,que siempre es 0,para que la JIT no elimine las llamadas
+	private static long medirCubo(String operacion, Object cubo, int operaciones, boolean mostrar) {
+		long suma = 0;
+		long inicio = System.nanoTime();
+		try {
+			for(int i = 0; i < operaciones; i++)
+				suma += (long)CONSUMIR.invoke(cubo,inicio + i);
+		}
+		catch(Throwable e) {
+			throw new IllegalStateException(e);
+		}
+		if(mostrar)
+			System.out.println(String.format("%-28s %10.1f",operacion,(double)(System.nanoTime() - inicio) / operaciones));
+		return suma;
+	}
+
+	private static Object nuevoCubo() throws Throwable {
+		return NUEVO_CUBO.invoke(1e9,SIN_LIMITE,System.nanoTime());
+	}
+
+	// Varios hilos usando el mismo cubo,para medir el coste de los reintentos de la operación "compareAndSet"
+	private void medirHilos(LimiteTasaFilter filtro, boolean mostrar) throws Exception {
+		ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+		List<Future<?>> tareas = new ArrayList<Future<?>>();
+		long inicio = System.nanoTime();
+		for(int h = 0; h < HILOS; h++) {
+			List<ServerWebExchange> exchanges = exchanges(1,1);
+			tareas.add(hilos.submit(() -> {
+				for(int i = 0; i < PETICIONES / HILOS; i++)
+					filtro.filter(exchanges.get(0),CADENA);
+			}));
+		}
+		for(Future<?> tarea: tareas)
+			tarea.get();
+		long nanos = System.nanoTime() - inicio;
+		hilos.shutdown();
+		if(mostrar)
+			System.out.println(String.format("%-28s %10.1f %12.0f",HILOS + " hilos,un cliente",(double)nanos / PETICIONES,0.0));
+		filtro.cerrar();
+	}
+
+	// Crea el filtro como lo haría Spring,con los mismos límites para todos los grupos de rutas
+	private LimiteTasaFilter filtro(boolean habilitado, double porSegundo, int rafaga) {
+		LimiteTasaFilter filtro = new LimiteTasaFilter();
+		ReflectionTestUtils.setField(filtro,"registry",new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(filtro,"habilitado",habilitado);
+		ReflectionTestUtils.setField(filtro,"clavesApi",new String[0]);
+		for(String grupo: new String[] {"lecturas","escrituras","subidas"}) {
+			ReflectionTestUtils.setField(filtro,grupo + "PorSegundo",porSegundo);
+			ReflectionTestUtils.setField(filtro,grupo + "Rafaga",rafaga);
+		}
+		ReflectionTestUtils.setField(filtro,"maxClientes",100000);
+		ReflectionTestUtils.setField(filtro,"limpiezaSegundos",60L);
+		filtro.init();
+		return filtro;
+	}
+
+	private List<ServerWebExchange> exchanges(int clientes) {
+		return exchanges(clientes,1);
+	}
+
+	// Peticiones "ver" de clientes distintos,identificados por su dirección IP,repetidas el número de veces indicado
+	private List<ServerWebExchange> exchanges(int clientes, int repeticiones) {
+		List<ServerWebExchange> exchanges = new ArrayList<ServerWebExchange>();
+		for(int r = 0; r < repeticiones; r++)
+			for(int i = 0; i < clientes; i++)
+				exchanges.add(MockServerWebExchange.from(MockServerHttpRequest.get("/api/v2/productos/5d9f1a2b3c4d5e6f7a8b9c0d")
+						.remoteAddress(new InetSocketAddress("10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255),40000))));
+		return exchanges;
+	}
+
+}
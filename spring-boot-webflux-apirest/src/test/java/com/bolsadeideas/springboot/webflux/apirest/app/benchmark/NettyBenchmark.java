@@ -0,0 +1,175 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.ServidorNettyConfig;
+import com.bolsadeideas.springboot.webflux.apirest.app.SpringBootWebfluxApirestApplication;
+
+import io.netty.channel.epoll.Epoll;
+import io.netty.util.internal.PlatformDependent;
+
+// Benchmark que sirve de base a los valores por defecto de las propiedades "config.servidor.netty.*"(véase la clase "ServidorNettyProperties"),contra el servidor Reactor Netty real de la aplicación
+// Cada configuración arranca la aplicación completa en un puerto libre(con la base de datos en memoria de las pruebas) y la detiene al terminar,así que se mide el servidor con sus filtros y sus hilos tal como se despliega
+// La carga son peticiones pequeñas a "/actuator/info",que pasan por todos los filtros pero no consultan la base de datos,para que el servidor de MongoDB en memoria de las pruebas no limite el resultado
+// Los límites de tasa y de concurrencia y el cierre ordenado se deshabilitan,porque responderían con 429 o 503 a la carga de un único cliente o harían esperar al detener cada configuración
+// Para que los resultados sean representativos,hay que ejecutarlo en una máquina con varios núcleos.El cliente se ejecuta en la misma JVM y también consume CPU,así que lo que importa es la comparación entre filas
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=NettyBenchmark [-Dbenchmark.hilos=1,2,4,8] [-Dbenchmark.concurrencia=64] [-Dbenchmark.peticiones=20000] [-Dbenchmark.conexiones=2000]
+public class NettyBenchmark {
+
+	private static final int PETICIONES = Integer.getInteger("benchmark.peticiones",20000);
+
+	private static final int CONCURRENCIA = Integer.getInteger("benchmark.concurrencia",64);
+
+	private static final int CONEXIONES = Integer.getInteger("benchmark.conexiones",2000);
+
+	// Hilos de trabajo y transporte("config.servidor.netty.hilos-trabajo","hilos-selector" y "nativo"): latencia y rendimiento de cada combinación bajo la misma carga
+	@Test
+	public void transportesEHilos() throws Exception {
+		System.out.println("Núcleos: " + Runtime.getRuntime().availableProcessors() + ",epoll disponible: " + Epoll.isAvailable());
+		System.out.println(String.format("%-10s %6s %9s %10s %10s %12s","transporte","hilos","selector","p50(ms)","p99(ms)","peticiones/s"));
+		List<Boolean> transportes = new ArrayList<Boolean>();
+		transportes.add(false);
+		if(Epoll.isAvailable())
+			transportes.add(true);
+		// Una primera medida que no se muestra,para que la JIT haya compilado el cliente,Netty y Spring antes de comparar las configuraciones.Sin ella,las primeras filas salen peor solo por ser las primeras
+		medir(false,1,0,false);
+		for(boolean nativo: transportes) {
+			for(String hilos: System.getProperty("benchmark.hilos","1,2,4,8").split(","))
+				medir(nativo,Integer.parseInt(hilos.trim()),0,true);
+			medir(nativo,Runtime.getRuntime().availableProcessors(),1,true);
+		}
+	}
+
+	// Máximo de conexiones("config.servidor.netty.max-conexiones"): memoria que ocupa en el servidor cada conexión keep-alive abierta después de atender una petición
+	// Se mide el heap ocupado después de forzar una recolección de basura y la memoria directa de los buffers de Netty
+	@Test
+	public void memoriaPorConexion() throws Exception {
+		try(ConfigurableApplicationContext contexto = arrancar("config.servidor.netty.max-conexiones=0")) {
+			int puerto = Integer.parseInt(contexto.getEnvironment().getProperty("local.server.port"));
+			ServidorNettyConfig servidor = contexto.getBean(ServidorNettyConfig.class);
+			// Calentamiento,para que las clases y los buffers que se reservan una sola vez no se atribuyan a las conexiones
+			List<Socket> sockets = abrir(puerto,100);
+			cerrar(sockets);
+
+			long heap = heapOcupado();
+			long directa = PlatformDependent.usedDirectMemory();
+			sockets = abrir(puerto,CONEXIONES);
+			long heapConexiones = heapOcupado() - heap;
+			long directaConexiones = PlatformDependent.usedDirectMemory() - directa;
+			System.out.println(String.format("%-11s %-11s %14s %16s","conexiones","abiertas","heap(B)/conex","directa(B)/conex"));
+			System.out.println(String.format("%-11d %-11d %14d %16d",
+					CONEXIONES,servidor.getConexiones(),heapConexiones / CONEXIONES,directaConexiones / CONEXIONES));
+			cerrar(sockets);
+		}
+	}
+
+	private void medir(boolean nativo, int hilos, int selectores, boolean mostrar) throws Exception {
+		try(ConfigurableApplicationContext contexto = arrancar("config.servidor.netty.nativo=" + nativo,"config.servidor.netty.hilos-trabajo=" + hilos,"config.servidor.netty.hilos-selector=" + selectores)) {
+			String url = "http://127.0.0.1:" + contexto.getEnvironment().getProperty("local.server.port") + "/actuator/info";
+			HttpClient cliente = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+			// Calentamiento,para que la JIT haya compilado el cliente,Netty y los filtros antes de medir
+			lanzar(cliente,url,PETICIONES / 4,new ArrayList<Long>());
+
+			List<Long> latencias = Collections.synchronizedList(new ArrayList<Long>());
+			long inicio = System.nanoTime();
+			lanzar(cliente,url,PETICIONES,latencias);
+			double segundos = (System.nanoTime() - inicio) / 1e9;
+			if(mostrar)
+				System.out.println(String.format("%-10s %6d %9d %10.2f %10.2f %12.0f",
+						nativo ? "epoll" : "nio",hilos,selectores,percentil(latencias,0.5),percentil(latencias,0.99),PETICIONES / segundos));
+		}
+	}
+
+	// Arranca la aplicación completa en un puerto libre con las propiedades indicadas
+	private static ConfigurableApplicationContext arrancar(String... propiedades) {
+		return new SpringApplicationBuilder(SpringBootWebfluxApirestApplication.class)
+				.properties("server.port=0","config.limite.habilitado=false","config.concurrencia.habilitado=false","config.cierre.habilitado=false")
+				.properties(propiedades)
+				.run();
+	}
+
+	// Lanza las peticiones manteniendo como máximo "CONCURRENCIA" peticiones en vuelo y guarda la latencia de cada una en nanosegundos
+	private void lanzar(HttpClient cliente, String url, int peticiones, List<Long> latencias) throws Exception {
+		Semaphore enVuelo = new Semaphore(CONCURRENCIA);
+		List<CompletableFuture<?>> pendientes = new ArrayList<CompletableFuture<?>>();
+		HttpRequest peticion = HttpRequest.newBuilder(URI.create(url)).build();
+		for(int i = 0; i < peticiones; i++) {
+			enVuelo.acquire();
+			long inicio = System.nanoTime();
+			pendientes.add(cliente.sendAsync(peticion,HttpResponse.BodyHandlers.discarding())
+					.whenComplete((respuesta,error) -> {
+						enVuelo.release();
+						if(error == null && respuesta.statusCode() == 200)
+							latencias.add(System.nanoTime() - inicio);
+					}));
+		}
+		CompletableFuture.allOf(pendientes.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+	// Abre las conexiones y envía por cada una una petición,leyendo la respuesta completa para que el servidor la haya atendido.Las conexiones quedan abiertas(keep-alive)
+	private static List<Socket> abrir(int puerto, int conexiones) throws IOException {
+		List<Socket> sockets = new ArrayList<Socket>();
+		byte[] peticion = "GET /actuator/info HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		for(int i = 0; i < conexiones; i++) {
+			Socket socket = new Socket("127.0.0.1",puerto);
+			socket.getOutputStream().write(peticion);
+			leerRespuesta(socket.getInputStream());
+			sockets.add(socket);
+		}
+		return sockets;
+	}
+
+	// Lee la respuesta hasta el final de su cuerpo,según su cabecera "Content-Length"
+	private static void leerRespuesta(InputStream entrada) throws IOException {
+		StringBuilder cabeceras = new StringBuilder();
+		while(!cabeceras.toString().endsWith("\r\n\r\n")) {
+			int b = entrada.read();
+			if(b < 0)
+				throw new IOException("El servidor ha cerrado la conexión");
+			cabeceras.append((char)b);
+		}
+		for(String linea: cabeceras.toString().split("\r\n"))
+			if(linea.toLowerCase().startsWith("content-length:"))
+				for(int pendientes = Integer.parseInt(linea.substring(15).trim()); pendientes > 0; pendientes--)
+					entrada.read();
+	}
+
+	private static void cerrar(List<Socket> sockets) throws IOException {
+		for(Socket socket: sockets)
+			socket.close();
+	}
+
+	private static long heapOcupado() throws InterruptedException {
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	// Percentil de las latencias en milisegundos
+	private static double percentil(List<Long> latencias, double percentil) {
+		if(latencias.isEmpty())
+			return 0;
+		List<Long> ordenadas = new ArrayList<Long>(latencias);
+		Collections.sort(ordenadas);
+		return ordenadas.get((int)Math.min(ordenadas.size() - 1,Math.ceil(percentil * ordenadas.size()) - 1)) / 1e6;
+	}
+
+}
@@ -0,0 +1,222 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Categoria;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.documents.Producto;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.dto.ResultadoGuardado;
+import com.bolsadeideas.springboot.webflux.apirest.app.models.services.ProductoService;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.RutasRSocket;
+import com.bolsadeideas.springboot.webflux.apirest.app.rsocket.ServidorRSocket;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.util.DefaultPayload;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Benchmark que compara las operaciones de productos por RSocket(véase la clase "ProductoRSocket") con las rutas "/api/v2/productos" equivalentes por http,contra los servidores reales de la aplicación,con sus filtros,su capa Servicio y la base de datos en memoria de las pruebas
+//  - ver: "productos.ver" frente a "GET /api/v2/productos/{id}",con "benchmark.concurrencia" peticiones en vuelo.Por http cada petición en vuelo ocupa una conexión HTTP/1.1,por RSocket todas se multiplexan en una única conexión
+//  - listar: el catálogo completo,con "benchmark.productos" productos más los de los datos iniciales,con "productos.listar"(un payload por producto) frente a "GET /api/v2/productos"(un array Json)
+//  - crear: "benchmark.productos" productos nuevos en un único canal "productos.guardar" frente a un "POST /api/v2/productos" por producto
+//  - actualizar: los mismos productos,ya con su id,en un único canal "productos.guardar"(que guarda el producto tal como llega) frente a un "PUT /api/v2/productos/{id}" por producto
+// Los límites de tasa y de concurrencia se deshabilitan porque responderían con 429 o 503,o con errores en los resultados del canal,a la carga de un único cliente y no se compararía el protocolo
+// El cliente se ejecuta en la misma JVM y también consume CPU,así que lo que importa es la comparación entre filas
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=RSocketBenchmark [-Dbenchmark.peticiones=20000] [-Dbenchmark.concurrencia=64] [-Dbenchmark.productos=10000]
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"config.limite.habilitado=false","config.concurrencia.habilitado=false"})
+public class RSocketBenchmark {
+
+	private static final int PETICIONES = Integer.getInteger("benchmark.peticiones",20000);
+
+	private static final int CONCURRENCIA = Integer.getInteger("benchmark.concurrencia",64);
+
+	private static final int PRODUCTOS = Integer.getInteger("benchmark.productos",10000);
+
+	@LocalServerPort
+	private int puerto;
+
+	@Autowired
+	private ServidorRSocket servidorRSocket;
+
+	@Autowired
+	private ProductoService productoService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private WebClient http;
+
+	private RSocket rsocket;
+
+	// Ids de los productos de los datos iniciales,que se consultan con "ver"
+	private List<String> ids;
+
+	private Categoria categoria;
+
+	@Before
+	public void conectar() {
+		http = WebClient.create("http://127.0.0.1:" + puerto + "/api/v2/productos");
+		rsocket = RSocketFactory.connect()
+				.metadataMimeType(RutasRSocket.TIPO_METADATOS)
+				.dataMimeType(RutasRSocket.TIPO_DATOS)
+				.transport(TcpClientTransport.create("127.0.0.1",servidorRSocket.getPuerto()))
+				.start()
+				.block();
+		ids = productoService.findAll().map(Producto::getId).collectList().block();
+		categoria = productoService.findAllCategoria().blockFirst();
+	}
+
+	@After
+	public void desconectar() {
+		rsocket.dispose();
+	}
+
+	@Test
+	public void rsocketFrenteAHttp() {
+		System.out.println(String.format("%-10s %-8s %12s %10s %10s","operación","protocolo","elementos/s","p50(ms)","p99(ms)"));
+		// Calentamiento de ambos protocolos,para que la JIT haya compilado los clientes,los servidores y la capa Servicio antes de medir
+		for(int i = 0; i < 3; i++) {
+			peticiones(PETICIONES / 4,this::verHttp,null);
+			peticiones(PETICIONES / 4,this::verRSocket,null);
+		}
+
+		List<Long> latencias = Collections.synchronizedList(new ArrayList<Long>());
+		mostrar("ver","http",PETICIONES / peticiones(PETICIONES,this::verHttp,latencias),latencias);
+		latencias.clear();
+		mostrar("ver","rsocket",PETICIONES / peticiones(PETICIONES,this::verRSocket,latencias),latencias);
+
+		// Los productos creados por RSocket son los que se actualizan después por los dos protocolos.Los creados por http forman parte del catálogo que se lista
+		List<Producto> creados = Collections.synchronizedList(new ArrayList<Producto>());
+		latencias.clear();
+		mostrar("crear","http",PRODUCTOS / peticiones(PRODUCTOS,i -> crearHttp(nuevo(i)),latencias),latencias);
+		mostrar("crear","rsocket",PRODUCTOS / tiempo(guardarRSocket(Flux.range(0,PRODUCTOS).map(this::nuevo).doOnNext(creados::add))
+				.doOnNext(resultado -> creados.get((int)resultado.getIndice()).setId(resultado.getId()))),null);
+
+		int catalogo = productoService.findAll().count().block().intValue();
+		mostrar("listar","http",catalogo / tiempo(http.get().accept(MediaType.APPLICATION_JSON).retrieve().bodyToFlux(Producto.class)),null);
+		mostrar("listar","rsocket",catalogo / tiempo(rsocket.requestStream(DefaultPayload.create(new byte[0],RutasRSocket.metadatos(RutasRSocket.LISTAR)))
+				.map(payload -> leer(payload,Producto.class))),null);
+
+		latencias.clear();
+		mostrar("actualizar","http",PRODUCTOS / peticiones(PRODUCTOS,i -> actualizarHttp(precio(creados.get(i))),latencias),latencias);
+		mostrar("actualizar","rsocket",PRODUCTOS / tiempo(guardarRSocket(Flux.fromIterable(creados).map(RSocketBenchmark::precio))),null);
+	}
+
+	private Mono<Producto> verHttp(int i) {
+		return http.get().uri("/{id}",ids.get(i % ids.size())).accept(MediaType.APPLICATION_JSON).retrieve().bodyToMono(Producto.class);
+	}
+
+	private Mono<Producto> verRSocket(int i) {
+		return rsocket.requestResponse(DefaultPayload.create(ids.get(i % ids.size()).getBytes(StandardCharsets.UTF_8),RutasRSocket.metadatos(RutasRSocket.VER)))
+				.map(payload -> leer(payload,Producto.class));
+	}
+
+	private Mono<Producto> crearHttp(Producto producto) {
+		return http.post().contentType(MediaType.APPLICATION_JSON_UTF8).accept(MediaType.APPLICATION_JSON).syncBody(producto).retrieve().bodyToMono(Producto.class);
+	}
+
+	private Mono<Producto> actualizarHttp(Producto producto) {
+		return http.put().uri("/{id}",producto.getId()).contentType(MediaType.APPLICATION_JSON_UTF8).accept(MediaType.APPLICATION_JSON).syncBody(producto).retrieve().bodyToMono(Producto.class);
+	}
+
+	// Guarda los productos en un único canal "productos.guardar".La ruta viaja en los metadatos del primer payload
+	// Si algún producto no se guarda,el benchmark falla en lugar de medir un canal que solo devuelve errores
+	private Flux<ResultadoGuardado> guardarRSocket(Flux<Producto> productos) {
+		return rsocket.requestChannel(productos.index()
+						.map(elemento -> elemento.getT1() == 0 ? DefaultPayload.create(escribir(elemento.getT2()),RutasRSocket.metadatos(RutasRSocket.GUARDAR)) : DefaultPayload.create(escribir(elemento.getT2()))))
+				.map(payload -> leer(payload,ResultadoGuardado.class))
+				.doOnNext(resultado -> {
+					if(resultado.getId() == null)
+						throw new IllegalStateException("No se ha guardado el producto " + resultado.getIndice() + ": " + resultado.getError());
+				});
+	}
+
+	// Lanza las peticiones con "benchmark.concurrencia" peticiones en vuelo y devuelve los segundos que han tardado.Si se indica una lista,añade la latencia de cada petición
+	private static double peticiones(int peticiones, Function<Integer,Mono<?>> peticion, List<Long> latencias) {
+		return tiempo(Flux.range(0,peticiones).flatMap(i -> latencias != null ? medir(peticion.apply(i),latencias) : peticion.apply(i),CONCURRENCIA));
+	}
+
+	// Segundos que tarda en completarse un flujo
+	private static double tiempo(Flux<?> flujo) {
+		long inicio = System.nanoTime();
+		flujo.blockLast(Duration.ofMinutes(5));
+		return (System.nanoTime() - inicio) / 1e9;
+	}
+
+	private static <T> Mono<T> medir(Mono<T> peticion, List<Long> latencias) {
+		return Mono.defer(() -> {
+			long inicio = System.nanoTime();
+			return peticion.doOnSuccess(valor -> latencias.add(System.nanoTime() - inicio));
+		});
+	}
+
+	private Producto nuevo(int i) {
+		return new Producto("Producto benchmark " + i,10.0 + i % 100,categoria);
+	}
+
+	// El mismo producto con otro precio
+	private static Producto precio(Producto producto) {
+		producto.setPrecio(producto.getPrecio() + 1);
+		return producto;
+	}
+
+	private byte[] escribir(Object valor) {
+		try {
+			return objectMapper.writeValueAsBytes(valor);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private <T> T leer(Payload payload, Class<T> clase) {
+		try {
+			return objectMapper.readValue((InputStream)new ByteBufInputStream(payload.sliceData()),clase);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+	private static void mostrar(String operacion, String protocolo, double porSegundo, List<Long> latencias) {
+		System.out.println(String.format("%-10s %-8s %12.0f %10s %10s",operacion,protocolo,porSegundo,
+				latencias != null ? String.format("%.2f",percentil(latencias,0.5)) : "-",latencias != null ? String.format("%.2f",percentil(latencias,0.99)) : "-"));
+	}
+
+	// Percentil de las latencias en milisegundos
+	private static double percentil(List<Long> latencias, double percentil) {
+		if(latencias.isEmpty())
+			return 0;
+		List<Long> ordenadas = new ArrayList<Long>(latencias);
+		Collections.sort(ordenadas);
+		return ordenadas.get((int)Math.min(ordenadas.size() - 1,Math.ceil(percentil * ordenadas.size()) - 1)) / 1e6;
+	}
+
+}
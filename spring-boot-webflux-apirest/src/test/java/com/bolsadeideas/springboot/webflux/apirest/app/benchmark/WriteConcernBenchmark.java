@@ -0,0 +1,124 @@
+package com.bolsadeideas.springboot.webflux.apirest.app.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import com.mongodb.WriteConcern;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Benchmark que mide el rendimiento de las escrituras en un mongod real con cada uno de los write concern que podemos asignar a las clases de operaciones de escritura(véase la clase "EscriturasMongo")
+// Para cada write concern se miden escrituras individuales concurrentes(como los guardados interactivos y los borrados),con su latencia,y escrituras en lotes de 1000 documentos(como las importaciones)
+// La base de datos en memoria de las pruebas no escribe en disco ni replica,así que no sirve para comparar write concerns.Si no hay ningún mongod en la dirección indicada,el benchmark se omite
+// Con un mongod independiente "MAJORITY" equivale a "JOURNALED".Para ver el coste real de la confirmación de la mayoría hay que indicar la dirección de un replica set
+// Para ejecutarlo: mvn test -Pbenchmark -Dtest=WriteConcernBenchmark [-Dbenchmark.mongodb.uri=mongodb://localhost:27017] [-Dbenchmark.documentos=5000] [-Dbenchmark.concurrencia=32]
+public class WriteConcernBenchmark {
+
+	private static final String URI = System.getProperty("benchmark.mongodb.uri","mongodb://localhost:27017");
+
+	private static final int DOCUMENTOS = Integer.getInteger("benchmark.documentos",5000);
+
+	// Número de escrituras individuales en vuelo a la vez,como si fueran peticiones concurrentes de distintos clientes
+	private static final int CONCURRENCIA = Integer.getInteger("benchmark.concurrencia",32);
+
+	private static MongoClient mongoClient;
+
+	private static MongoCollection<Document> coleccion;
+
+	@BeforeClass
+	public static void conectar() {
+		// Sin Spring Boot el log queda en DEBUG,y el driver escribiría varias líneas por escritura
+		((ch.qos.logback.classic.Logger)LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+		mongoClient = MongoClients.create(URI);
+		coleccion = mongoClient.getDatabase("benchmark").getCollection("write_concern");
+		try {
+			Mono.from(mongoClient.getDatabase("admin").runCommand(new Document("ping",1))).block(Duration.ofSeconds(5));
+		}
+		catch(RuntimeException e) {
+			mongoClient.close();
+			mongoClient = null;
+			Assume.assumeNoException("No hay ningún mongod en " + URI,e);
+		}
+	}
+
+	@AfterClass
+	public static void desconectar() {
+		if(mongoClient == null)
+			return;
+		Mono.from(coleccion.drop()).block();
+		mongoClient.close();
+	}
+
+	@Test
+	public void escrituras() {
+		// Calentamiento para que el JIT compile el driver y se abran las conexiones del pool antes de medir
+		medirIndividuales(coleccion.withWriteConcern(WriteConcern.ACKNOWLEDGED),DOCUMENTOS / 5);
+
+		System.out.println(String.format("%-15s %12s %12s %12s %12s","write concern","ops/s","p50(ms)","p99(ms)","lote ops/s"));
+		for(String nombre: Arrays.asList("UNACKNOWLEDGED","W1","ACKNOWLEDGED","JOURNALED","MAJORITY")) {
+			MongoCollection<Document> destino = coleccion.withWriteConcern(WriteConcern.valueOf(nombre));
+
+			List<Long> latencias = new ArrayList<Long>();
+			double opsIndividuales = medirIndividuales(destino,DOCUMENTOS,latencias);
+
+			Mono.from(coleccion.drop()).block();
+			long inicio = System.nanoTime();
+			Flux.range(0,DOCUMENTOS)
+				.map(WriteConcernBenchmark::documento)
+				.buffer(1000)
+				.concatMap(lote -> Mono.from(destino.insertMany(lote)))
+				.blockLast();
+			double opsLote = DOCUMENTOS / ((System.nanoTime() - inicio) / 1e9);
+
+			Collections.sort(latencias);
+			System.out.println(String.format("%-15s %12.0f %12.2f %12.2f %12.0f",nombre,opsIndividuales,percentil(latencias,0.5),percentil(latencias,0.99),opsLote));
+		}
+	}
+
+	private static double medirIndividuales(MongoCollection<Document> destino, int documentos) {
+		return medirIndividuales(destino,documentos,new ArrayList<Long>());
+	}
+
+	// Inserta los documentos de uno en uno,con varias escrituras en vuelo a la vez,y devuelve las operaciones por segundo.Añade a la lista la latencia de cada escritura
+	private static double medirIndividuales(MongoCollection<Document> destino, int documentos, List<Long> latencias) {
+		Mono.from(coleccion.drop()).block();
+		List<Long> medidas = Collections.synchronizedList(latencias);
+		long inicio = System.nanoTime();
+		Flux.range(0,documentos)
+			.flatMap(i -> {
+				long t = System.nanoTime();
+				return Mono.from(destino.insertOne(documento(i))).doOnSuccess(r -> medidas.add(System.nanoTime() - t));
+			},CONCURRENCIA)
+			.blockLast();
+		return documentos / ((System.nanoTime() - inicio) / 1e9);
+	}
+
+	private static Document documento(int i) {
+		return new Document("nombre","Producto " + i).append("precio",i * 1.5).append("createAt",new Date());
+	}
+
+	// Con "UNACKNOWLEDGED" no hay confirmación del servidor y la lista de latencias puede estar vacía
+	private static double percentil(List<Long> ordenadas, double p) {
+		if(ordenadas.isEmpty())
+			return 0;
+		return ordenadas.get((int)Math.min(ordenadas.size() - 1,Math.ceil(p * ordenadas.size()) - 1)) / 1e6;
+	}
+
+}
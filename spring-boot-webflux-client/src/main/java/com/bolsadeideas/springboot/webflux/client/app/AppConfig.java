@@ -4,8 +4,16 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+
 // Esta clase de configuración de Spring crea y configura nuestro cliente web para comunicarnos con nuestra Api Rest y registra este cliente como un bean en la memoria o contenedor de Spring
 
 @Configuration // Indicamos que esta clase es una clase de Configuración de Spring y,de esta manera,Spring va a almacenar un bean de esta clase en su contenedor o memoria
@@ -16,12 +24,34 @@ public class AppConfig {
 	@Value("${config.base.endpoint}")
 	private String url; // Esta propiedad contiene la ruta o path base del controlador al que queremos conectar.Tenemos dos controladores Api Rest; uno(controlador con anotación @RestController) mapeado con la ruta base "/api/productos" y el otro(controlador que usa la técnica "Functional Endpoints") mapeado con la ruta base "/api/v2/productos"
 	
+	// Inyectamos el valor de la propiedad "config.base.http2",que indica si el cliente web habla HTTP/2 con nuestra Api Rest
+	@Value("${config.base.http2:true}")
+	private boolean http2;
+	
 	// Este método crea nuestro cliente web para que se comunique con nuestra Api Rest y registra un bean de este cliente en la memoria o contenedor de Spring para poder usarlo en otra parte de este proyecto
 	// En vez de devolver una instancia de tipo WebClient,vamos a devolver una instancia de tipo WebCliente.Builder ya que soporta balanceo de carga
 	@Bean // Con esta anotación almacenamos como un bean la salida o respuesta de este método en la memoria o contenedor de Spring para que sea gestionado por Spring
 	@LoadBalanced // Con esta anotación habilitamos el balanceo de carga
 	public WebClient.Builder registrarWebClient() {
 		// Creamos y devolvemos nuestro cliente web que se va a conectar a nuestra Api Rest que se localiza en la ruta o path base indicada en "url"
-		return WebClient.builder().baseUrl(url);
+		// Además de los codecs de Json,registramos los de los formatos binarios Smile y CBOR para poder enviar y recibir los productos en estos formatos,que ocupan menos y se serializan más rápido(véase la clase "ProductoServiceImpl")
+		return WebClient.builder().baseUrl(url)
+				.clientConnector(new ReactorClientHttpConnector(httpClient()))
+				.codecs(configurer -> {
+					configurer.customCodecs().encoder(new Jackson2SmileEncoder());
+					configurer.customCodecs().decoder(new Jackson2SmileDecoder());
+					configurer.customCodecs().encoder(new Jackson2CborEncoder());
+					configurer.customCodecs().decoder(new Jackson2CborDecoder());
+				});
+	}
+	
+	// Cliente http de Reactor Netty que usa nuestro cliente web
+	// Con HTTP/2 todas las peticiones a una instancia de la Api Rest se multiplexan en una única conexión,en lugar de abrir una conexión por cada petición en vuelo,y una respuesta lenta(por ejemplo,un listado grande) no retrasa a las demás
+	// Si la url es "https",se negocia HTTP/2 sobre TLS(h2) con ALPN.Si no,se usa HTTP/2 en claro(h2c) con la cabecera "Upgrade".En ambos casos,si la Api Rest no soporta HTTP/2,se sigue usando HTTP/1.1
+	private HttpClient httpClient() {
+		HttpClient cliente = HttpClient.create();
+		if(!http2)
+			return cliente;
+		return url.startsWith("https") ? cliente.secure().protocol(HttpProtocol.H2,HttpProtocol.HTTP11) : cliente.protocol(HttpProtocol.H2C,HttpProtocol.HTTP11);
 	}
 }
@@ -23,7 +23,11 @@ public class RouterConfig {
 	public RouterFunction<ServerResponse> rutas(ProductoHandler handler){
 		// Invocamos al método "route()" de la clase "RouterFunctions" de Spring para configurar nuestros mapeos de rutas(los que hay a continuación) y devolvemos el resultado
 		// Mapeamos la ruta o path "/api/client" para peticiones http de tipo Get con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "listar()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos de todos los productos obtenidos de nuestro cliente web.Al método "listar()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
-		return RouterFunctions.route(RequestPredicates.GET("/api/client"),request -> handler.listar(request)) // Esta función lambda "request -> handler.listar(request)" se puede simplificar aún más por esta "handler::listar" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "listar() del bean "handler"
+		return RouterFunctions.route(RequestPredicates.GET("/api/client"),request -> handler.listar(request))
+				// Las mismas operaciones de consulta y un guardado masivo,pero comunicándose con nuestra Api Rest mediante RSocket en lugar de mediante peticiones http.Se mapean antes que "/api/client/{id}" para que "rsocket" no se tome como un id
+				.andRoute(RequestPredicates.GET("/api/client/rsocket"),handler::listarRSocket)
+				.andRoute(RequestPredicates.GET("/api/client/rsocket/{id}"),handler::verRSocket)
+				.andRoute(RequestPredicates.POST("/api/client/rsocket"),handler::guardarLoteRSocket) // Esta función lambda "request -> handler.listar(request)" se puede simplificar aún más por esta "handler::listar" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "listar() del bean "handler"
 				// Mapeamos la ruta o path "/api/client/{id}" para peticiones http de tipo Get con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "ver()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos del producto obtenido por nuestro cliente web a partir de su id.Al método "ver()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
 				.andRoute(RequestPredicates.GET("/api/client/{id}"), request -> handler.ver(request)) // Esta función lambda "request -> handler.ver(request)" se puede simplificar aún más por esta "handler::ver" ya que los parámetros de la función lambda solo es uno llamado "request" y coincide con el que se le pasa al método "ver() del bean "handler"
 				// Mapeamos la ruta o path "/api/client" para peticiones http de tipo Post con la ejecución de la función lambda que hay a continuación que se encarga de invocar al método "crear()" del bean "handler" para obtener un flujo reactivo Mono de tipo ServerResponse cuya respuesta contiene los datos del producto persistido a partir de nuestro cliente web.Al método "crear()" se le pasa como argumento el parámetro "request" que contiene toda la información de la petición http
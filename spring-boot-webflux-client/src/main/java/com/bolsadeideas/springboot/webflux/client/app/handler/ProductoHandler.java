@@ -15,6 +15,8 @@ import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
 import com.bolsadeideas.springboot.webflux.client.app.models.Producto;
+import com.bolsadeideas.springboot.webflux.client.app.models.ResultadoGuardado;
+import com.bolsadeideas.springboot.webflux.client.app.models.services.ProductoRSocketService;
 import com.bolsadeideas.springboot.webflux.client.app.models.services.ProductoService;
 
 import reactor.core.publisher.Mono;
@@ -28,6 +30,9 @@ public class ProductoHandler {
 	@Autowired
 	private ProductoService productoService; // Este bean representa la capa Servicio para realizar peticiones http a nuestra Api Rest sobre productos mediante nuestro cliente web
 	
+	@Autowired
+	private ProductoRSocketService productoRSocketService; // Este bean realiza las mismas operaciones sobre nuestra Api Rest mediante el protocolo RSocket sobre TCP
+	
 	// Método handler que devuelve los datos de todos los productos obtenidos desde nuestro cliente web
 	// Este método se va a mapear con una ruta en el método "rutas()" de nuestra clase de configuración de Spring "RouterConfig"
 	// A diferencia de un controlador Api Rest anotado con @RestControler, donde sus métodos handler devuelven flujos reactivos Mono de tipo "ResponseEntity",en este tipo de controlador,implementado con la técnica "Functional Endpoints",sus métodos handler van a devolver flujos reactivos Mono de tipo "ServerResponse"
@@ -170,6 +175,30 @@ public class ProductoHandler {
 						.bodyValue(p))); // Establecemos como cuerpo de la respuesta el producto que acabamos de editar con la imagen usando nuestro cliente web
 	}
 	
+	// Métodos handler equivalentes a "listar" y "ver",pero que obtienen los productos de nuestra Api Rest mediante RSocket en lugar de mediante peticiones http
+	public Mono<ServerResponse> listarRSocket(ServerRequest request){
+		return ServerResponse.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(productoRSocketService.findAll(),Producto.class);
+	}
+	
+	// Si el producto no existe,la Api Rest devuelve una respuesta vacía y respondemos con el estado NOT_FOUND(404)
+	public Mono<ServerResponse> verRSocket(ServerRequest request){
+		return productoRSocketService.findById(request.pathVariable("id"))
+				.flatMap(p -> ServerResponse.ok()
+						.contentType(MediaType.APPLICATION_JSON)
+						.bodyValue(p))
+				.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	// Método handler que guarda mediante RSocket todos los productos que llegan en el cuerpo de la petición http(un array Json o un flujo NDJSON) y responde con el resultado de cada uno
+	// Los productos se leen de la petición según la Api Rest los va pidiendo,así que no se cargan todos en memoria
+	public Mono<ServerResponse> guardarLoteRSocket(ServerRequest request){
+		return ServerResponse.ok()
+				.contentType(MediaType.APPLICATION_STREAM_JSON)
+				.body(productoRSocketService.saveAll(request.bodyToFlux(Producto.class)),ResultadoGuardado.class);
+	}
+	
 	// Método para reutilizar el código de manejo de excepciones con estado de error NOT_FOUND(404) por parte de nuestro cliente web
 	// Este método lo vamos a usar en los método handler "upload","eliminar","editar" y "ver" porque son los que hacen,a través de las peticiones http hechas por nuestro cliente web,que nuestra Api Rest de productos pueda generar la excepción con estado de error NOT_FOUND(404) en el momento de localizar un producto determinado en la base de datos
 	private Mono<ServerResponse> errorHandler(Mono<ServerResponse> response){
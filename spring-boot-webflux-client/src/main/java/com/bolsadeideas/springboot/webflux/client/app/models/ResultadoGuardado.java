@@ -0,0 +1,36 @@
+package com.bolsadeideas.springboot.webflux.client.app.models;
+
+// Esta clase se trata de un DTO(Data Transfer Object) con el resultado de guardar cada uno de los productos enviados a nuestra Api Rest en el guardado masivo por RSocket
+// Si el producto se ha guardado,lleva su id.Si no,lleva el mensaje de error.El índice es la posición del producto en el flujo enviado,empezando por 0
+
+public class ResultadoGuardado {
+
+	private long indice;
+	private String id;
+	private String error;
+
+	public long getIndice() {
+		return indice;
+	}
+
+	public void setIndice(long indice) {
+		this.indice = indice;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+}
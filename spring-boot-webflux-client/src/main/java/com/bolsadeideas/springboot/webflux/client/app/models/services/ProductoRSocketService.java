@@ -0,0 +1,23 @@
+package com.bolsadeideas.springboot.webflux.client.app.models.services;
+
+import com.bolsadeideas.springboot.webflux.client.app.models.Producto;
+import com.bolsadeideas.springboot.webflux.client.app.models.ResultadoGuardado;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Operaciones de productos de nuestra Api Rest a través del protocolo RSocket sobre TCP,en lugar de mediante peticiones http
+// Todas las peticiones comparten una única conexión TCP con la Api Rest,en la que se multiplexan
+public interface ProductoRSocketService {
+	
+	// Método que devuelve un flujo reactivo Flux con todos los productos como elementos.Los productos se piden a la Api Rest según los va consumiendo el suscriptor,así que un suscriptor lento no acumula productos en memoria
+	public Flux<Producto> findAll();
+	
+	// Método que devuelve un flujo reactivo Mono con el producto cuyo id se pasa como parámetro,o vacío si no existe
+	public Mono<Producto> findById(String id);
+	
+	// Método que guarda en nuestra Api Rest todos los productos del flujo que se pasa como parámetro y devuelve un flujo reactivo Flux con el resultado de cada uno,en el mismo orden
+	// Los productos se envían según la Api Rest los va pidiendo,así que el flujo puede ser tan largo como se quiera
+	public Flux<ResultadoGuardado> saveAll(Flux<Producto> productos);
+
+}
@@ -0,0 +1,132 @@
+package com.bolsadeideas.springboot.webflux.client.app.models.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.bolsadeideas.springboot.webflux.client.app.models.Producto;
+import com.bolsadeideas.springboot.webflux.client.app.models.ResultadoGuardado;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.util.DefaultPayload;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Cliente RSocket de nuestra Api Rest de productos(véase la clase "ProductoRSocket" de la Api Rest)
+// Cada operación indica su ruta en los metadatos con el formato de "message/x.rsocket.routing.v0"(un byte con la longitud de la ruta seguido de la ruta en UTF-8) y los productos viajan en Json
+// La conexión se abre con la primera petición y se reutiliza en todas las demás.Si se cierra(por ejemplo,porque la Api Rest se ha reiniciado),se abre otra con la siguiente petición
+// Como RSocket no pasa por el balanceador de carga de Eureka,la Api Rest se localiza con las propiedades "config.rsocket.host" y "config.rsocket.puerto"
+
+@Service // Indicamos que esta clase se trata de una clase servicio de Spring.De esta manera,Spring va a almacenar un bean de esta clase en su memmoria o contenedor para poderlo inyectar en otra parte del proyecto
+public class ProductoRSocketServiceImpl implements ProductoRSocketService {
+
+	// Rutas de las operaciones en la Api Rest
+	private static final String VER = "productos.ver";
+	private static final String LISTAR = "productos.listar";
+	private static final String GUARDAR = "productos.guardar";
+
+	@Autowired
+	private ObjectMapper objectMapper; // Este bean es el ObjectMapper de Jackson que usa Spring.Lo usamos para convertir los productos a Json y viceversa
+
+	@Value("${config.rsocket.host:localhost}")
+	private String host;
+
+	@Value("${config.rsocket.puerto:7000}")
+	private int puerto;
+
+	// Conexión actual con la Api Rest.Es nula si todavía no se ha abierto o si se ha cerrado
+	private final AtomicReference<Mono<RSocket>> conexion = new AtomicReference<Mono<RSocket>>();
+
+	@Override
+	public Flux<Producto> findAll() {
+		return conectar().flatMapMany(rsocket -> rsocket.requestStream(DefaultPayload.create(new byte[0],metadatos(LISTAR))))
+				.map(payload -> leer(payload,Producto.class));
+	}
+
+	@Override
+	public Mono<Producto> findById(String id) {
+		return conectar().flatMap(rsocket -> rsocket.requestResponse(DefaultPayload.create(id.getBytes(StandardCharsets.UTF_8),metadatos(VER))))
+				.map(payload -> leer(payload,Producto.class));
+	}
+
+	// La ruta solo se envía en los metadatos del primer producto,que es donde la busca la Api Rest
+	@Override
+	public Flux<ResultadoGuardado> saveAll(Flux<Producto> productos) {
+		byte[] metadatos = metadatos(GUARDAR);
+		return conectar().flatMapMany(rsocket -> rsocket.requestChannel(productos.index()
+						.map(producto -> producto.getT1() == 0 ? DefaultPayload.create(escribir(producto.getT2()),metadatos) : DefaultPayload.create(escribir(producto.getT2())))))
+				.map(payload -> leer(payload,ResultadoGuardado.class));
+	}
+
+	// Devuelve la conexión actual o abre una nueva.Las peticiones que llegan mientras se abre la conexión esperan a la misma conexión
+	private Mono<RSocket> conectar() {
+		Mono<RSocket> actual = conexion.get();
+		if(actual != null)
+			return actual;
+		AtomicReference<Mono<RSocket>> nueva = new AtomicReference<Mono<RSocket>>();
+		nueva.set(RSocketFactory.connect()
+				.metadataMimeType("message/x.rsocket.routing.v0")
+				.dataMimeType("application/json")
+				.transport(TcpClientTransport.create(host,puerto))
+				.start()
+				// Cuando la conexión se cierra o no se puede abrir,la olvidamos para abrir otra con la siguiente petición
+				.doOnNext(rsocket -> rsocket.onClose().doFinally(senal -> conexion.compareAndSet(nueva.get(),null)).subscribe())
+				.doOnError(error -> conexion.compareAndSet(nueva.get(),null))
+				.cache());
+		return conexion.compareAndSet(null,nueva.get()) ? nueva.get() : conectar();
+	}
+
+	// Al detener la aplicación cerramos la conexión con la Api Rest
+	@PreDestroy
+	public void cerrar() {
+		Mono<RSocket> actual = conexion.getAndSet(null);
+		if(actual != null)
+			actual.subscribe(RSocket::dispose,error -> {});
+	}
+
+	// Codifica una ruta como metadatos de una petición
+	private static byte[] metadatos(String ruta) {
+		byte[] bytes = ruta.getBytes(StandardCharsets.UTF_8);
+		byte[] metadatos = new byte[bytes.length + 1];
+		metadatos[0] = (byte)bytes.length;
+		System.arraycopy(bytes,0,metadatos,1,bytes.length);
+		return metadatos;
+	}
+
+	private byte[] escribir(Object valor) {
+		try {
+			return objectMapper.writeValueAsBytes(valor);
+		}
+		catch(JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Lee el Json directamente de los bytes del payload y lo libera
+	private <T> T leer(Payload payload, Class<T> clase) {
+		try {
+			return objectMapper.readValue((InputStream)new ByteBufInputStream(payload.sliceData()),clase);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		finally {
+			payload.release();
+		}
+	}
+
+}
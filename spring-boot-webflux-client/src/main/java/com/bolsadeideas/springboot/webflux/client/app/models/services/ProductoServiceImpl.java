@@ -25,6 +25,10 @@ public class ProductoServiceImpl implements ProductoService{
 	@Autowired 
 	private WebClient.Builder client; // Este bean se trata de nuestro cliente web que está configurado para que se comunique con nuestra Api Rest sobre productos
 
+	// Tipo de contenido del formato binario Smile de Jackson con el que preferimos intercambiar los productos con la Api Rest
+	// Elegimos Smile y no CBOR porque el decoder de CBOR de Spring no sabe leer flujos de varios productos("bodyToFlux()") y porque,con nuestros productos,Smile ocupa menos
+	private static final MediaType SMILE = MediaType.valueOf("application/x-jackson-smile");
+
 	// Método que devuelve un flujo reactivo Flux con todos los productos como elementos obtenidos desde nuestro cliente web 
 	@Override
 	public Flux<Producto> findAll() {
@@ -33,7 +37,8 @@ public class ProductoServiceImpl implements ProductoService{
 		return client.build().get()
 				// Indicamos que se consuman aquellas respuetas que contengan en la cabecera el MediaType "APPLICATION_JSON_UTF8"(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).Todos los métodos handler de nuestra Api Rest generarn respuestas con este MediaType en la cabecera
 				// NOTA: "MediaType.APPLICATION_JSON_UTF8" está actualmente "deprecated".Ahora también se usa el valor "MediaType.APPLICATION_JSON" para tratar MediaTypes de tipo JSON + UTF_8
-				.accept(MediaType.APPLICATION_JSON)
+				// Preferimos el formato binario Smile,que ocupa menos y se serializa más rápido que el Json.Si la Api Rest no lo soporta,nos responde en Json,que también aceptamos con menor preferencia
+				.accept(SMILE,MediaType.APPLICATION_JSON)
 				// El método "exchange()" envía nuestro request al endpoint anterior y consume nuestra Api Rest obteniéndose una respuesta para dicho request o petición
 				.exchange()
 				// El método anterior nos devuelve un flujo reactivo Mono de tipo "ClientResponse" con la respuesta de nuestra petición http
@@ -54,7 +59,8 @@ public class ProductoServiceImpl implements ProductoService{
 		return client.build().get().uri("/{id}",params)
 				// Indicamos que se consuman aquellas respuetas que contengan en la cabecera el MediaType "APPLICATION_JSON_UTF8"(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).Todos los métodos handler de nuestra Api Rest generarn respuestas con este MediaType en la cabecera
 				// NOTA: "MediaType.APPLICATION_JSON_UTF8" está actualmente "deprecated".Ahora también se usa el valor "MediaType.APPLICATION_JSON" para tratar MediaTypes de tipo JSON + UTF_8
-				.accept(MediaType.APPLICATION_JSON)
+				// Preferimos el formato binario Smile,que ocupa menos y se serializa más rápido que el Json.Si la Api Rest no lo soporta,nos responde en Json,que también aceptamos con menor preferencia
+				.accept(SMILE,MediaType.APPLICATION_JSON)
 				/* Primera manera usando el método "exchange()" en vez de "retrieve()" */
 				/*
 				// El método "exchange()" envía nuestro request al endpoint anterior y consume nuestra Api Rest obteniéndose una respuesta para dicho request o petición
@@ -79,10 +85,12 @@ public class ProductoServiceImpl implements ProductoService{
 		return client.build().post()
 				// Indicamos que se consuman aquellas respuetas que contengan en la cabecera el MediaType "APPLICATION_JSON_UTF8"(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).Todos los métodos handler de nuestra Api Rest generarn respuestas con este MediaType en la cabecera
 				// NOTA: "MediaType.APPLICATION_JSON_UTF8" está actualmente "deprecated".Ahora también se usa el valor "MediaType.APPLICATION_JSON" para tratar MediaTypes de tipo JSON + UTF_8
-				.accept(MediaType.APPLICATION_JSON)
+				// Preferimos el formato binario Smile,que ocupa menos y se serializa más rápido que el Json.Si la Api Rest no lo soporta,nos responde en Json,que también aceptamos con menor preferencia
+				.accept(SMILE,MediaType.APPLICATION_JSON)
 				// Indicamos que los datos que vamos a enviar en la petición http o request van con el MediaType "APPLICATION_JSON_UTF8"(El cuerpo de la petición va en formato Json y con la codificación de caracters UTF-8)
 				// NOTA: "MediaType.APPLICATION_JSON_UTF8" está actualmente "deprecated".Ahora también se usa el valor "MediaType.APPLICATION_JSON" para tratar MediaTypes de tipo JSON + UTF_8
-				.contentType(MediaType.APPLICATION_JSON)
+				// Enviamos el producto en formato Smile.La Api Rest lo entiende igual que el Json gracias a sus codecs de formatos binarios
+				.contentType(SMILE)
 				// Establecemos en el cuerpo de la petición un "BodyInserters" con el producto que se le pasa como parámetro de entrada a este método.El método "body()" puede recibir un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos
 				// Hay dos alternativas;lo podemos hacer usando el método "body()" o el método "bodyValue()"
 				//.body(BodyInserters.fromObject(producto))
@@ -104,10 +112,12 @@ public class ProductoServiceImpl implements ProductoService{
 		return client.build().put().uri("/{id}",Collections.singletonMap("id",id))
 				// Indicamos que se consuman aquellas respuetas que contengan en la cabecera el MediaType "APPLICATION_JSON_UTF8"(El cuerpo de la respuesta va en formato Json y con la codificación de caracters UTF-8).Todos los métodos handler de nuestra Api Rest generarn respuestas con este MediaType en la cabecera
 				// NOTA: "MediaType.APPLICATION_JSON_UTF8" está actualmente "deprecated".Ahora también se usa el valor "MediaType.APPLICATION_JSON" para tratar MediaTypes de tipo JSON + UTF_8
-				.accept(MediaType.APPLICATION_JSON)
+				// Preferimos el formato binario Smile,que ocupa menos y se serializa más rápido que el Json.Si la Api Rest no lo soporta,nos responde en Json,que también aceptamos con menor preferencia
+				.accept(SMILE,MediaType.APPLICATION_JSON)
 				// Indicamos que los datos que vamos a enviar en la petición http o request van con el MediaType "APPLICATION_JSON_UTF8"(El cuerpo de la petición va en formato Json y con la codificación de caracters UTF-8)
 				// NOTA: "MediaType.APPLICATION_JSON_UTF8" está actualmente "deprecated".Ahora también se usa el valor "MediaType.APPLICATION_JSON" para tratar MediaTypes de tipo JSON + UTF_8
-				.contentType(MediaType.APPLICATION_JSON)
+				// Enviamos el producto en formato Smile.La Api Rest lo entiende igual que el Json gracias a sus codecs de formatos binarios
+				.contentType(SMILE)
 				// Establecemos en el cuerpo de la petición un "BodyInserters" con el producto que se le pasa como parámetro de entrada a este método.El método "body()" puede recibir un flujo reactivo Mono o Flux,o un dato de tipo BodyInserters,este último para cuando tenemos datos que no son flujos reactivos
 				// Hay dos alternativas;lo podemos hacer usando el método "body()" o el método "bodyValue()"
 				//.body(BodyInserters.fromObject(producto))